@@ -0,0 +1,552 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.annotation;
+
+import org.tuckey.web.filters.urlrewrite.annotation.UrlRewriteAnnotationProcessor.ProcessedHttpExceptionAnnotation;
+import org.tuckey.web.filters.urlrewrite.annotation.UrlRewriteAnnotationProcessor.ProcessedHttpJsonAnnotation;
+import org.tuckey.web.filters.urlrewrite.annotation.UrlRewriteAnnotationProcessor.ProcessedHttpUrlAnnotation;
+import org.tuckey.web.filters.urlrewrite.annotation.UrlRewriteAnnotationProcessor.ProcessedUrlRewriteFilterAnnotation;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Generates the source of a RewriteRule that dispatches straight to annotated methods, used instead of a rule (with a
+ * run) per method.  Urls are matched by a RouteTable (a trie of path segments) and methods are called directly with
+ * their parameters converted in code, so there is no conf to parse and no reflection at runtime.
+ * <p/>
+ * Methods that cannot be called this way (eg, they take a FilterChain) are left as normal rules.  As ordering matters
+ * the routes are split into groups, one for each run of methods that can be dispatched, each group has its own
+ * matches method and is registered with its own class-rule.
+ *
+ * @since 4.0.4
+ */
+class DispatcherGenerator {
+
+    private static final String FILTER_CHAIN_CLASS_NAME = "javax.servlet.FilterChain";
+    private static final String REQUEST_CLASS_NAME = "javax.servlet.http.HttpServletRequest";
+    private static final String RESPONSE_CLASS_NAME = "javax.servlet.http.HttpServletResponse";
+    private static final String REWRITE_MATCH_CLASS_NAME = "org.tuckey.web.filters.urlrewrite.extend.RewriteMatch";
+
+    private final String className;
+    private final Messager messager;
+    private final Elements elementUtils;
+    private final Types typeUtils;
+    private boolean error = false;
+
+    private final List<List<ProcessedHttpUrlAnnotation>> groups = new ArrayList<List<ProcessedHttpUrlAnnotation>>();
+    private final List<ProcessedHttpExceptionAnnotation> exceptionHandlers = new ArrayList<ProcessedHttpExceptionAnnotation>();
+
+    /**
+     * Instance field name by class name, for each class we need to call methods on.
+     */
+    private final Map<String, String> instances = new LinkedHashMap<String, String>();
+    private final List<String> destroyInstances = new ArrayList<String>();
+
+    /**
+     * Type conversion helper methods by name.
+     */
+    private final Map<String, String> conversions = new TreeMap<String, String>();
+
+    DispatcherGenerator(String className, Messager messager, Elements elementUtils, Types typeUtils) {
+        this.className = className;
+        this.messager = messager;
+        this.elementUtils = elementUtils;
+        this.typeUtils = typeUtils;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    boolean isError() {
+        return error;
+    }
+
+    /**
+     * Add the route to the current group (or start a new one).
+     *
+     * @return the name of the matches method if a new group was started, otherwise null
+     */
+    String addRoute(ProcessedHttpUrlAnnotation pa, boolean newGroup) {
+        try {
+            Pattern.compile(pa.value);
+        } catch (PatternSyntaxException e) {
+            errorMsg("invalid regular expression " + pa.value + ": " + e.getDescription(), pa);
+        }
+        addInstance(pa);
+        if (newGroup || groups.isEmpty()) {
+            groups.add(new ArrayList<ProcessedHttpUrlAnnotation>());
+            groups.get(groups.size() - 1).add(pa);
+            return getMatchesMethodName(groups.size() - 1);
+        }
+        groups.get(groups.size() - 1).add(pa);
+        return null;
+    }
+
+    void addExceptionHandler(ProcessedHttpExceptionAnnotation pa) {
+        addInstance(pa);
+        exceptionHandlers.add(pa);
+    }
+
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    static String getMatchesMethodName(int group) {
+        return group == 0 ? "matches" : "matches" + (group + 1);
+    }
+
+    /**
+     * Can the method be called directly by the dispatcher.  If not the reason is output as a note.
+     */
+    boolean isDispatchable(ProcessedUrlRewriteFilterAnnotation pa) {
+        ExecutableElement method = pa.methodElement;
+        if (method == null) return false;
+        String reason = null;
+        TypeElement classElement = (TypeElement) method.getEnclosingElement();
+        if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+            reason = "method is not public";
+        } else if (!isInstantiable(classElement)) {
+            reason = "class " + classElement.getQualifiedName() + " is not public with a public no-arg constructor";
+        } else if (hasInitMethod(classElement)) {
+            reason = "class " + classElement.getQualifiedName() + " has an init method";
+        } else {
+            for (VariableElement param : method.getParameters()) {
+                if (FILTER_CHAIN_CLASS_NAME.equals(param.asType().toString())) {
+                    reason = "method takes a FilterChain";
+                }
+            }
+        }
+        if (reason != null) {
+            messager.printMessage(Diagnostic.Kind.NOTE, "not dispatched by " + className + " (" + reason +
+                    "), a normal rule will be used", method);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isInstantiable(TypeElement classElement) {
+        if (!classElement.getModifiers().contains(Modifier.PUBLIC)) return false;
+        if (classElement.getModifiers().contains(Modifier.ABSTRACT)) return false;
+        if (classElement.getNestingKind() != NestingKind.TOP_LEVEL) {
+            if (classElement.getNestingKind() != NestingKind.MEMBER) return false;
+            if (!classElement.getModifiers().contains(Modifier.STATIC)) return false;
+        }
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(classElement.getEnclosedElements());
+        for (ExecutableElement constructor : constructors) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run calls init(ServletConfig) or init(FilterConfig), we don't have those to give.
+     */
+    private boolean hasInitMethod(TypeElement classElement) {
+        for (ExecutableElement method : ElementFilter.methodsIn(elementUtils.getAllMembers(classElement))) {
+            if ("init".equals(method.getSimpleName().toString()) && method.getParameters().size() == 1) {
+                String paramType = method.getParameters().get(0).asType().toString();
+                if ("javax.servlet.ServletConfig".equals(paramType) || "javax.servlet.FilterConfig".equals(paramType)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addInstance(ProcessedUrlRewriteFilterAnnotation pa) {
+        if (pa.methodElement.getModifiers().contains(Modifier.STATIC)) return;
+        if (instances.containsKey(pa.className)) return;
+        String field = "instance" + instances.size();
+        instances.put(pa.className, field);
+        TypeElement classElement = (TypeElement) pa.methodElement.getEnclosingElement();
+        for (ExecutableElement method : ElementFilter.methodsIn(elementUtils.getAllMembers(classElement))) {
+            if ("destroy".equals(method.getSimpleName().toString()) && method.getParameters().isEmpty()
+                    && method.getModifiers().contains(Modifier.PUBLIC)) {
+                destroyInstances.add(field);
+            }
+        }
+    }
+
+    void write(Filer filer) throws IOException {
+        PrintWriter pw = new PrintWriter(filer.createSourceFile(className).openWriter());
+        int lastDot = className.lastIndexOf('.');
+        String packageName = lastDot == -1 ? null : className.substring(0, lastDot);
+        String simpleName = className.substring(lastDot + 1);
+        if (packageName != null) {
+            pw.println("package " + packageName + ";");
+            pw.println();
+        }
+        pw.println("import org.tuckey.web.filters.urlrewrite.extend.RewriteMatch;");
+        pw.println("import org.tuckey.web.filters.urlrewrite.extend.RewriteRule;");
+        pw.println("import org.tuckey.web.filters.urlrewrite.extend.RouteTable;");
+        pw.println("import org.tuckey.web.filters.urlrewrite.json.JsonRewriteMatch;");
+        pw.println("import org.tuckey.web.filters.urlrewrite.utils.Log;");
+        pw.println();
+        pw.println("import javax.servlet.ServletContext;");
+        pw.println("import javax.servlet.ServletException;");
+        pw.println("import javax.servlet.http.HttpServletRequest;");
+        pw.println("import javax.servlet.http.HttpServletResponse;");
+        pw.println("import java.io.IOException;");
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Generated by " + UrlRewriteAnnotationProcessor.class.getSimpleName() + ", do not edit.");
+        pw.println(" */");
+        pw.println("public class " + simpleName + " extends RewriteRule {");
+        pw.println();
+        pw.println("    private static Log log = Log.getLog(" + simpleName + ".class);");
+        pw.println();
+        int route = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            pw.println("    private static final RouteTable ROUTES_" + g + " = new RouteTable(new String[]{");
+            for (ProcessedHttpUrlAnnotation pa : groups.get(g)) {
+                pw.println("            " + javaString(pa.value) + ", // " + route + " " + pa.className + "." + pa.methodName);
+                route++;
+            }
+            pw.println("    });");
+        }
+        pw.println();
+        for (Map.Entry<String, String> instance : instances.entrySet()) {
+            pw.println("    private " + instance.getKey() + " " + instance.getValue() + ";");
+        }
+        pw.println();
+
+        pw.println("    public boolean initialise(ServletContext servletContext) {");
+        pw.println("        try {");
+        for (Map.Entry<String, String> instance : instances.entrySet()) {
+            pw.println("            " + instance.getValue() + " = new " + instance.getKey() + "();");
+        }
+        pw.println("        } catch (Exception e) {");
+        pw.println("            log.error(\"could not create instance\", e);");
+        pw.println("            return false;");
+        pw.println("        }");
+        pw.println("        return true;");
+        pw.println("    }");
+        pw.println();
+        pw.println("    public void destroy() {");
+        for (String field : destroyInstances) {
+            pw.println("        " + field + ".destroy();");
+        }
+        pw.println("    }");
+
+        int offset = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            pw.println();
+            pw.println("    public RewriteMatch " + getMatchesMethodName(g) +
+                    "(String url, HttpServletRequest request, HttpServletResponse response) {");
+            pw.println("        RouteTable.RouteMatch match = ROUTES_" + g + ".match(url);");
+            pw.println("        if (match == null) return null;");
+            pw.println("        return new Dispatch(" + (offset == 0 ? "" : offset + " + ") + "match.getRoute(), match.getGroups());");
+            pw.println("    }");
+            offset += groups.get(g).size();
+        }
+        pw.println();
+
+        pw.println("    private boolean invoke(int route, String[] groups, HttpServletRequest request,");
+        pw.println("                           HttpServletResponse response) throws Exception {");
+        pw.println("        switch (route) {");
+        route = 0;
+        for (List<ProcessedHttpUrlAnnotation> group : groups) {
+            for (ProcessedHttpUrlAnnotation pa : group) {
+                pw.println("            case " + route + ":");
+                writeInvoke(pw, pa);
+                route++;
+            }
+        }
+        pw.println("            default:");
+        pw.println("                return false;");
+        pw.println("        }");
+        pw.println("    }");
+        pw.println();
+
+        pw.println("    private boolean handleException(Exception e, HttpServletRequest request,");
+        pw.println("                                    HttpServletResponse response) throws ServletException, IOException {");
+        if (!exceptionHandlers.isEmpty()) {
+            pw.println("        try {");
+            for (ProcessedHttpExceptionAnnotation pa : exceptionHandlers) {
+                pw.println("            if (e instanceof " + pa.exceptionName + ") {");
+                writeExceptionHandlerInvoke(pw, pa);
+                pw.println("            }");
+            }
+            pw.println("        } catch (Exception handlerException) {");
+            pw.println("            e = handlerException;");
+            pw.println("        }");
+        }
+        pw.println("        if (e instanceof ServletException) throw (ServletException) e;");
+        pw.println("        if (e instanceof IOException) throw (IOException) e;");
+        pw.println("        if (e instanceof RuntimeException) throw (RuntimeException) e;");
+        pw.println("        throw new ServletException(e);");
+        pw.println("    }");
+        pw.println();
+
+        pw.println("    private static boolean execute(RewriteMatch match, HttpServletRequest request,");
+        pw.println("                                   HttpServletResponse response) throws ServletException, IOException {");
+        pw.println("        return match == null || match.execute(request, response);");
+        pw.println("    }");
+        pw.println();
+        pw.println("    private static String group(String[] groups, int i) {");
+        pw.println("        return i < groups.length ? groups[i] : null;");
+        pw.println("    }");
+        pw.println();
+        for (String conversion : conversions.values()) {
+            pw.println(conversion);
+            pw.println();
+        }
+
+        pw.println("    private class Dispatch extends RewriteMatch {");
+        pw.println("        private final int route;");
+        pw.println("        private final String[] groups;");
+        pw.println();
+        pw.println("        Dispatch(int route, String[] groups) {");
+        pw.println("            this.route = route;");
+        pw.println("            this.groups = groups;");
+        pw.println("        }");
+        pw.println();
+        pw.println("        public boolean execute(HttpServletRequest request, HttpServletResponse response)");
+        pw.println("                throws ServletException, IOException {");
+        pw.println("            try {");
+        pw.println("                return invoke(route, groups, request, response);");
+        pw.println("            } catch (Exception e) {");
+        pw.println("                return handleException(e, request, response);");
+        pw.println("            }");
+        pw.println("        }");
+        pw.println("    }");
+        pw.println();
+        pw.println("}");
+        pw.close();
+    }
+
+    private void writeInvoke(PrintWriter pw, ProcessedHttpUrlAnnotation pa) {
+        ExecutableElement method = pa.methodElement;
+        String call = getTarget(pa) + "." + pa.methodName + "(" + getArgs(method, null) + ")";
+        if (pa instanceof ProcessedHttpJsonAnnotation) {
+            if (method.getReturnType().getKind() == TypeKind.VOID) {
+                pw.println("                " + call + ";");
+                call = "null";
+            }
+            pw.println("                return new JsonRewriteMatch((Object) " + call + ").execute(request, response);");
+        } else if (returnsRewriteMatch(method)) {
+            pw.println("                return execute(" + call + ", request, response);");
+        } else {
+            pw.println("                " + call + ";");
+            pw.println("                return true;");
+        }
+    }
+
+    private void writeExceptionHandlerInvoke(PrintWriter pw, ProcessedHttpExceptionAnnotation pa) {
+        ExecutableElement method = pa.methodElement;
+        String call = getTarget(pa) + "." + pa.methodName + "(" + getArgs(method, pa.exceptionName) + ")";
+        if (returnsRewriteMatch(method)) {
+            pw.println("                RewriteMatch match = " + call + ";");
+            pw.println("                return match != null && match.execute(request, response);");
+        } else {
+            pw.println("                " + call + ";");
+            pw.println("                return false;");
+        }
+    }
+
+    private String getTarget(ProcessedUrlRewriteFilterAnnotation pa) {
+        if (pa.methodElement.getModifiers().contains(Modifier.STATIC)) return pa.className;
+        return instances.get(pa.className);
+    }
+
+    private boolean returnsRewriteMatch(ExecutableElement method) {
+        TypeElement rewriteMatch = elementUtils.getTypeElement(REWRITE_MATCH_CLASS_NAME);
+        if (rewriteMatch == null) return false;
+        TypeMirror returnType = method.getReturnType();
+        return returnType.getKind() == TypeKind.DECLARED && typeUtils.isAssignable(returnType, rewriteMatch.asType());
+    }
+
+    /**
+     * Work out the arguments the same way Run does.  Parameters annotated with HttpParam come from the request,
+     * servlet request/response are passed through and other parameters are taken from the url's groups in order (or
+     * for an exception handler the first of them is the exception).
+     */
+    private String getArgs(ExecutableElement method, String exceptionName) {
+        StringBuffer args = new StringBuffer();
+        int groupCounter = 0;
+        for (VariableElement param : method.getParameters()) {
+            if (args.length() > 0) args.append(", ");
+            TypeMirror type = param.asType();
+            HttpParam httpParam = param.getAnnotation(HttpParam.class);
+            if (httpParam != null) {
+                String name = "[ unassigned ]".equals(httpParam.value()) ? param.getSimpleName().toString()
+                        : httpParam.value();
+                args.append(convert(type, "request.getParameter(" + javaString(name) + ")"));
+
+            } else if (isAssignableFrom(type, REQUEST_CLASS_NAME)) {
+                args.append("request");
+
+            } else if (isAssignableFrom(type, RESPONSE_CLASS_NAME)) {
+                args.append("response");
+
+            } else if (exceptionName != null) {
+                if (groupCounter == 0 && isAssignableFrom(type, exceptionName)) {
+                    args.append("(").append(typeUtils.erasure(type)).append(") e");
+                } else {
+                    args.append(convert(type, "null"));
+                }
+                groupCounter++;
+
+            } else {
+                args.append(convert(type, "group(groups, " + groupCounter + ")"));
+                groupCounter++;
+            }
+        }
+        return args.toString();
+    }
+
+    /**
+     * Is the parameter type assignable from the named class (ie, could it be passed in).
+     */
+    private boolean isAssignableFrom(TypeMirror paramType, String className) {
+        TypeElement typeElement = elementUtils.getTypeElement(className);
+        if (typeElement == null) return className.equals(paramType.toString());
+        return typeUtils.isAssignable(typeElement.asType(), paramType);
+    }
+
+    /**
+     * Convert a string to the type as TypeUtils.getConvertedParam would.
+     */
+    private String convert(TypeMirror type, String str) {
+        String typeName = type.toString();
+        boolean nullStr = "null".equals(str);
+        if (type.getKind().isPrimitive()) {
+            String defaultValue = "boolean".equals(typeName) ? "false" : "char".equals(typeName) ? "'\\u0000'"
+                    : "int".equals(typeName) ? "0" : "(" + typeName + ") 0";
+            if (nullStr) return defaultValue;
+            String value;
+            if ("char".equals(typeName)) value = "s.charAt(0)";
+            else if ("int".equals(typeName)) value = "Integer.parseInt(s)";
+            else value = capitalise(typeName) + ".parse" + capitalise(typeName) + "(s)";
+            return conversion("to" + capitalise(typeName), typeName, str, defaultValue, value);
+        }
+        if (nullStr) return "null";
+        if ("java.lang.String".equals(typeName)) return str;
+        if ("java.lang.Character".equals(typeName)) {
+            return conversion("toCharacterObject", typeName, str, "null", "new Character(s.charAt(0))");
+        }
+        if (typeName.startsWith("java.lang.")) {
+            String simple = typeName.substring("java.lang.".length());
+            if ("Boolean".equals(simple) || "Byte".equals(simple) || "Short".equals(simple) || "Integer".equals(simple)
+                    || "Long".equals(simple) || "Float".equals(simple) || "Double".equals(simple)) {
+                return conversion("to" + simple + "Object", typeName, str, "null", typeName + ".valueOf(s)");
+            }
+        }
+        if (isAssignableFrom(type, "java.lang.String")) return str;
+        // TypeUtils would fail to cast
+        return "null";
+    }
+
+    /**
+     * Call a helper (added to the generated class) that converts the string using value (which refers to the
+     * string as "s") or returns defaultValue if the string is null.
+     */
+    private String conversion(String method, String typeName, String str, String defaultValue, String value) {
+        if (!conversions.containsKey(method)) {
+            conversions.put(method, "    private static " + typeName + " " + method + "(String s) {\n" +
+                    "        return s == null ? " + defaultValue + " : " + value + ";\n" +
+                    "    }");
+        }
+        return method + "(" + str + ")";
+    }
+
+    private static String capitalise(String primitive) {
+        return Character.toUpperCase(primitive.charAt(0)) + primitive.substring(1);
+    }
+
+    /**
+     * Quote the string as a java literal.  Control characters are written as escape sequences, not unicode escapes,
+     * as unicode escapes are translated before the source is tokenised, a unicode escaped line feed would end the
+     * line in the middle of the literal.
+     */
+    static String javaString(String s) {
+        StringBuffer sb = new StringBuffer("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c < 0x20 || c == 0x7f) {
+                String octal = Integer.toOctalString(c);
+                sb.append('\\');
+                for (int j = octal.length(); j < 3; j++) sb.append('0');
+                sb.append(octal);
+            } else if (c > 0x7e) {
+                String hex = Integer.toHexString(c);
+                sb.append("\\u");
+                for (int j = hex.length(); j < 4; j++) sb.append('0');
+                sb.append(hex);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private void errorMsg(String msg, ProcessedUrlRewriteFilterAnnotation pa) {
+        error = true;
+        messager.printMessage(Diagnostic.Kind.ERROR, msg, pa.methodElement);
+    }
+
+}
@@ -36,12 +36,14 @@ package org.tuckey.web.filters.urlrewrite.annotation;
 
 
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
 import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
 import javax.lang.model.element.*;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -70,11 +72,19 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
     private List<ProcessedHttpExceptionAnnotation> httpExceptionHandlers = new ArrayList<ProcessedHttpExceptionAnnotation>();
     private Messager messager;
     private Elements elementUtils;
+    private Types typeUtils;
+    private Filer filer;
     private boolean showPositions = false;
     private boolean debug = false;
     private boolean errorDuringProcessing = false;
     private String dest = null;
     private String rpcBase = "/rpc/";
+    private String dispatcherClassName = null;
+
+    /**
+     * Used if -AurlrewriteGenerateDispatcher=true.
+     */
+    public static final String DEFAULT_DISPATCHER_CLASS_NAME = "urlrewrite.generated.UrlRewriteDispatcher";
 
     public UrlRewriteAnnotationProcessor() {
         // needed
@@ -86,12 +96,15 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
         options.add("urlrewriteShowPositions");
         options.add("urlrewriteDebug");
         options.add("urlrewriteRpcBase");
+        options.add("urlrewriteGenerateDispatcher");
         return options;
     }
 
     public synchronized void init(ProcessingEnvironment processingEnv) {
         this.messager = processingEnv.getMessager();
         this.elementUtils = processingEnv.getElementUtils();
+        this.typeUtils = processingEnv.getTypeUtils();
+        this.filer = processingEnv.getFiler();
 
         Map<String, String> options = processingEnv.getOptions();
         Set<String> keys = options.keySet();
@@ -107,13 +120,18 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
 
             }   else if (key.equalsIgnoreCase("urlrewriteRpcBase")) {
                 rpcBase = options.get(key);
+
+            }   else if (key.equalsIgnoreCase("urlrewriteGenerateDispatcher")) {
+                dispatcherClassName = options.get(key);
+                if ("true".equalsIgnoreCase(dispatcherClassName)) dispatcherClassName = DEFAULT_DISPATCHER_CLASS_NAME;
+                if ("false".equalsIgnoreCase(dispatcherClassName)) dispatcherClassName = null;
             }
         }
         debugMsg("init");
     }
 
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-        if (isBlank(dest)) {
+        if (isBlank(dest) && isBlank(dispatcherClassName)) {
             if (roundEnv.processingOver())
                 infoMsg(getClass().getSimpleName() + ": -AurlrewriteDest not specified, annotations ignored");
             return true;
@@ -149,6 +167,17 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
                 infoMsg("Got " + httpExceptionHandlers.size() + " @HttpExceptionHandler annotations");
                 Collections.sort(httpExceptionHandlers);
             }
+            List<Object> rules = new ArrayList<Object>(processedAnnotations);
+            if (!isBlank(dispatcherClassName)) {
+                rules = generateDispatcher();
+            }
+            if (isBlank(dest)) {
+                if (rules.size() > 1 || (rules.size() == 1 && !(rules.get(0) instanceof String))) {
+                    errorMsg("-AurlrewriteDest must be specified as some methods could not be dispatched by " +
+                            dispatcherClassName);
+                }
+                return true;
+            }
             try {
                 File destFile = new File(dest);
                 if (!destFile.exists()){
@@ -173,7 +202,7 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
                 } else {
                     PrintWriter pw = new PrintWriter(destFile);
                     infoMsg("Writing to " + destFile);
-                    outputRules(pw);
+                    outputRules(pw, rules);
                     outputExceptionHandlers(pw);
                     pw.close();
 
@@ -190,8 +219,50 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
         return true;
     }
 
-    private void outputRules(PrintWriter pw) {
+    /**
+     * Work out which methods can be called by the generated dispatcher and write it.
+     *
+     * @return the rules to output in order, either a ProcessedHttpUrlAnnotation for a normal rule or the name of the
+     *         dispatcher method to call using a class-rule
+     */
+    private List<Object> generateDispatcher() {
+        DispatcherGenerator generator = new DispatcherGenerator(dispatcherClassName, messager, elementUtils, typeUtils);
+        List<Object> rules = new ArrayList<Object>();
+        boolean inGroup = false;
         for (ProcessedHttpUrlAnnotation pa : processedAnnotations) {
+            if (generator.isDispatchable(pa)) {
+                String matchesMethod = generator.addRoute(pa, !inGroup);
+                if (matchesMethod != null) rules.add(matchesMethod);
+                inGroup = true;
+            } else {
+                rules.add(pa);
+                inGroup = false;
+            }
+        }
+        for (ProcessedHttpExceptionAnnotation pa : httpExceptionHandlers) {
+            if (generator.isDispatchable(pa)) generator.addExceptionHandler(pa);
+        }
+        if (generator.isError()) {
+            errorDuringProcessing = true;
+            return rules;
+        }
+        try {
+            generator.write(filer);
+            infoMsg("Generated " + dispatcherClassName + " with " + generator.getGroupCount() + " route group(s)");
+        } catch (IOException e) {
+            errorMsg(e);
+        }
+        return rules;
+    }
+
+    private void outputRules(PrintWriter pw, List<Object> rules) {
+        for (Object rule : rules) {
+            if (rule instanceof String) {
+                pw.println("<class-rule class=\"" + dispatcherClassName + "\" method=\"" + rule + "\"/>");
+                pw.flush();
+                continue;
+            }
+            ProcessedHttpUrlAnnotation pa = (ProcessedHttpUrlAnnotation) rule;
             boolean jsonHandler = pa instanceof ProcessedHttpJsonAnnotation;
             pw.println("<rule>");
             pw.println("    <name>" + pa.className + "." + pa.methodName + "</name>");
@@ -231,6 +302,7 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
         public String className;
         public String docComment;
         public String paramsFormatted;
+        public ExecutableElement methodElement;
 
         public ExecutableElement init(Element declaration) {
             if (!ElementKind.METHOD.equals(declaration.getKind())) {
@@ -238,6 +310,7 @@ public class UrlRewriteAnnotationProcessor extends AbstractProcessor {
                 return null;
             }
             ExecutableElement methodDeclaration = (ExecutableElement) declaration;
+            methodElement = methodDeclaration;
             TypeElement classDeclaration = (TypeElement) methodDeclaration.getEnclosingElement();
             className = classDeclaration.getQualifiedName().toString();
             methodName = declaration.getSimpleName().toString();
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.annotation;
+
+import junit.framework.TestCase;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the processor over a small class, compiles the dispatcher it generates and sends requests through it.
+ */
+public class DispatcherGeneratorTest extends TestCase {
+
+    private static final String SOURCE = "package dispatchtest;\n" +
+            "import org.tuckey.web.filters.urlrewrite.annotation.HttpParam;\n" +
+            "import org.tuckey.web.filters.urlrewrite.annotation.HttpUrl;\n" +
+            "public class Routes {\n" +
+            "    public static String called;\n" +
+            "    @HttpUrl(\"^/items/([0-9]+)$\")\n" +
+            "    public void item(int id, @HttpParam(\"sort\\torder\") String sort) {\n" +
+            "        called = \"item \" + id + \" \" + sort;\n" +
+            "    }\n" +
+            "    @HttpUrl(\"^/line\\nbreak\\r\\u0001\\\"$\")\n" +
+            "    public static void lineBreak() {\n" +
+            "        called = \"line break\";\n" +
+            "    }\n" +
+            "}\n";
+
+    private File dir;
+
+    public void setUp() throws IOException {
+        dir = File.createTempFile("dispatcher", "");
+        dir.delete();
+        assertTrue(new File(dir, "src/dispatchtest").mkdirs());
+        assertTrue(new File(dir, "generated").mkdirs());
+        assertTrue(new File(dir, "classes").mkdirs());
+    }
+
+    public void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    public void testJavaString() {
+        assertEquals("\"a\\nb\\rc\\td\\001\\177\\\"\\\\\"", DispatcherGenerator.javaString("a\nb\rc\td\u0001\u007f\"\\"));
+        assertEquals("\"caf\\u00e9\"", DispatcherGenerator.javaString("caf\u00e9"));
+    }
+
+    public void testDispatch() throws Exception {
+        File source = new File(dir, "src/dispatchtest/Routes.java");
+        FileWriter writer = new FileWriter(source);
+        writer.write(SOURCE);
+        writer.close();
+        File conf = new File(dir, "urlrewrite-annotations.xml");
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                "-d", new File(dir, "classes").getPath(), "-s", new File(dir, "generated").getPath(),
+                "-AurlrewriteGenerateDispatcher=dispatchtest.Dispatcher", "-AurlrewriteDest=" + conf.getPath());
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                fileManager.getJavaFileObjects(source));
+        task.setProcessors(Collections.singletonList(new UrlRewriteAnnotationProcessor()));
+        assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+        fileManager.close();
+        assertTrue(new File(dir, "generated/dispatchtest/Dispatcher.java").exists());
+
+        ClassLoader loader = new URLClassLoader(new URL[]{new File(dir, "classes").toURI().toURL()},
+                getClass().getClassLoader());
+        Class<?> dispatcherClass = loader.loadClass("dispatchtest.Dispatcher");
+        Object dispatcher = dispatcherClass.newInstance();
+        Method initialise = dispatcherClass.getMethod("initialise", javax.servlet.ServletContext.class);
+        assertEquals(Boolean.TRUE, initialise.invoke(dispatcher, new Object[]{null}));
+        Method matches = dispatcherClass.getMethod("matches", String.class,
+                HttpServletRequest.class, HttpServletResponse.class);
+        Class<?> routesClass = loader.loadClass("dispatchtest.Routes");
+
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("sort\torder", "name");
+        HttpServletRequest request = newRequest(parameters);
+        HttpServletResponse response = (HttpServletResponse) newProxy(HttpServletResponse.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+
+        assertNull(matches.invoke(dispatcher, "/items/abc", request, response));
+
+        execute(matches.invoke(dispatcher, "/items/12", request, response), request, response);
+        assertEquals("item 12 name", routesClass.getField("called").get(null));
+
+        execute(matches.invoke(dispatcher, "/line\nbreak\r\u0001\"", request, response), request, response);
+        assertEquals("line break", routesClass.getField("called").get(null));
+    }
+
+    private static void execute(Object match, HttpServletRequest request, HttpServletResponse response)
+            throws Exception {
+        assertNotNull(match);
+        Method execute = match.getClass().getMethod("execute", HttpServletRequest.class, HttpServletResponse.class);
+        execute.setAccessible(true);
+        assertEquals(Boolean.TRUE, execute.invoke(match, request, response));
+    }
+
+    private static HttpServletRequest newRequest(final Map<String, String> parameters) {
+        return (HttpServletRequest) newProxy(HttpServletRequest.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getParameter".equals(method.getName())) return parameters.get(args[0]);
+                return null;
+            }
+        });
+    }
+
+    private static Object newProxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(DispatcherGeneratorTest.class.getClassLoader(), new Class[]{type}, handler);
+    }
+
+}
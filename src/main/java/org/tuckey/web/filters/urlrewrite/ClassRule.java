@@ -53,7 +53,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 
-public class ClassRule implements Rule {
+public class ClassRule implements Rule, Cloneable {
 
     private static Log log = Log.getLog(ClassRule.class);
 
@@ -80,6 +80,17 @@ public class ClassRule implements Rule {
         methodParameterTypesHttp[1] = HttpServletResponse.class;
     }
 
+    /**
+     * Tried first, for rules that want the url as the other rules see it.
+     */
+    private static Class[] methodParameterTypesUrl = new Class[3];
+
+    static {
+        methodParameterTypesUrl[0] = String.class;
+        methodParameterTypesUrl[1] = HttpServletRequest.class;
+        methodParameterTypesUrl[2] = HttpServletResponse.class;
+    }
+
     /**
      * For second try.
      */
@@ -93,6 +104,7 @@ public class ClassRule implements Rule {
     private Method destroyMethod;
     private Method initMethod;
     private Method matchesMethod;
+    private boolean matchesMethodTakesUrl = false;
 
 
     public RewrittenUrl matches(final String url, final HttpServletRequest hsRequest,
@@ -104,15 +116,24 @@ public class ClassRule implements Rule {
     public RewrittenUrl matches(final String url, final HttpServletRequest hsRequest,
                                 final HttpServletResponse hsResponse)
             throws ServletException, IOException {
-        if (! initialised) return null;
-
-        Object[] args = new Object[2];
-        args[0] = hsRequest;
-        args[1] = hsResponse;
+        if (! initialised || ! enabled) return null;
+
+        Object[] args;
+        if (matchesMethodTakesUrl) {
+            args = new Object[3];
+            args[0] = url;
+            args[1] = hsRequest;
+            args[2] = hsResponse;
+        } else {
+            args = new Object[2];
+            args[0] = hsRequest;
+            args[1] = hsResponse;
+        }
 
         Object returnedObj;
         if (log.isDebugEnabled()) {
-            log.debug("running " + classStr + "." + methodStr + "(HttpServletRequest, HttpServletResponse)");
+            log.debug("running " + classStr + "." + methodStr + (matchesMethodTakesUrl ? "(String, " : "(") +
+                    "HttpServletRequest, HttpServletResponse)");
         }
         if (matchesMethod == null) return null;
         try {
@@ -176,13 +197,18 @@ public class ClassRule implements Rule {
             log.debug("looking for " + methodStr + " will try with several arguments");
         }
         try {
-            matchesMethod = ruleClass.getMethod(methodStr, methodParameterTypes);
-        } catch (NoSuchMethodException e) {
+            matchesMethod = ruleClass.getMethod(methodStr, methodParameterTypesUrl);
+            matchesMethodTakesUrl = true;
+        } catch (NoSuchMethodException e0) {
             try {
-                matchesMethod = ruleClass.getMethod(methodStr, methodParameterTypesHttp);
-            } catch (NoSuchMethodException e2) {
-                addError("could not find " + methodStr + "(ServletRequest, ServletResponse) on " + classStr, e);
-                addError("also tried " + methodStr + "(HttpServletRequest, HttpServletResponse)", e2);
+                matchesMethod = ruleClass.getMethod(methodStr, methodParameterTypes);
+            } catch (NoSuchMethodException e) {
+                try {
+                    matchesMethod = ruleClass.getMethod(methodStr, methodParameterTypesHttp);
+                } catch (NoSuchMethodException e2) {
+                    addError("could not find " + methodStr + "(ServletRequest, ServletResponse) on " + classStr, e);
+                    addError("also tried " + methodStr + "(HttpServletRequest, HttpServletResponse)", e2);
+                }
             }
         }
 
@@ -231,6 +257,10 @@ public class ClassRule implements Rule {
         }
 
         localRule = (RewriteRule) instance;
+        if (!localRule.initialise(context)) {
+            log.info(getDisplayName() + " initialise returned false, disabling");
+            enabled = false;
+        }
 
         valid = true;
         return true;
@@ -252,6 +282,17 @@ public class ClassRule implements Rule {
         localRule.destroy();
     }
 
+    /**
+     * A copy of this (initialised) rule for a reload of the conf to use, the instance of the class is shared.
+     */
+    ClassRule copy() {
+        try {
+            return (ClassRule) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public String getName() {
         return classStr;
     }
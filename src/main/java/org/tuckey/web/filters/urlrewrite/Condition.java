@@ -558,19 +558,21 @@ public class Condition extends TypeConverter {
             }
 
         } else {
+            boolean lazy = rule != null && rule.isLazyPatterns();
             try {
                 if (rule != null && rule.isMatchTypeWildcard()) {
                     log.debug("rule match type is wildcard");
-                    pattern = new WildcardPattern(strValue);
+                    pattern = new WildcardPattern(strValue, lazy);
 
                 } else {
                 	if(strValue.startsWith("!")) {
                 		// if it starts with !, then treat it as a negation, as that is how Apache treats it.
-                		pattern = new NegatedRegexPattern(strValue.substring(1), caseSensitive); // remove the negation, and create a negated regex.
+                		pattern = new NegatedRegexPattern(strValue.substring(1), caseSensitive, lazy); // remove the negation, and create a negated regex.
                 	} else {
                 		// default is regex
-                		pattern = new RegexPattern(strValue, caseSensitive);
+                		pattern = new RegexPattern(strValue, caseSensitive, lazy);
                 	}
+                    if (rule != null) ((RegexPattern) pattern).setStepBudget(rule.getRegexStepBudget());
                 }
 
             } catch (StringMatchingPatternSyntaxException e) {
@@ -765,4 +767,109 @@ public class Condition extends TypeConverter {
     public void setRule(RuleBase rule) {
         this.rule = rule;
     }
+
+    StringMatchingPattern getPattern() {
+        return pattern;
+    }
+
+    static final int OUTCOME_FALSE = 0;
+    static final int OUTCOME_TRUE = 1;
+    static final int OUTCOME_UNKNOWN = 2;
+
+    /**
+     * File checks depend on the file system not only on the value.
+     */
+    private boolean isFileOperator() {
+        return operator == OPERATOR_IS_DIR || operator == OPERATOR_IS_FILE || operator == OPERATOR_IS_FILE_WITH_SIZE
+                || operator == OPERATOR_NOT_DIR || operator == OPERATOR_NOT_FILE
+                || operator == OPERATOR_NOT_FILE_WITH_SIZE;
+    }
+
+    /**
+     * @return true if the condition is on the method, scheme or port of the request
+     */
+    boolean isRequestKeyCondition() {
+        return type == TYPE_METHOD || type == TYPE_SCHEME || type == TYPE_SERVER_PORT;
+    }
+
+    /**
+     * @return the port if this is a port condition otherwise 0
+     */
+    long getPortValue() {
+        return type == TYPE_SERVER_PORT ? numericValue : 0;
+    }
+
+    /**
+     * Work out, without a request, what the condition would return for a request with the method, scheme and port.
+     *
+     * @param method null if not known
+     * @param scheme null if not known
+     * @param port   -1 if not known
+     * @return OUTCOME_TRUE, OUTCOME_FALSE or OUTCOME_UNKNOWN if it depends on anything else
+     */
+    int getOutcome(String method, String scheme, int port) {
+        if (!initialised || !valid) return OUTCOME_FALSE;
+        String value;
+        switch (type) {
+            case TYPE_METHOD:
+                value = method;
+                break;
+            case TYPE_SCHEME:
+                value = scheme;
+                break;
+            case TYPE_SERVER_PORT:
+                if (port == -1) return OUTCOME_UNKNOWN;
+                return evaluateNumericCondition(port) != null ? OUTCOME_TRUE : OUTCOME_FALSE;
+            default:
+                return OUTCOME_UNKNOWN;
+        }
+        if (value == null || isFileOperator()) return OUTCOME_UNKNOWN;
+        return evaluateStringCondition(value) != null ? OUTCOME_TRUE : OUTCOME_FALSE;
+    }
+
+    private boolean isTimeCondition() {
+        return type >= TYPE_TIME && type <= TYPE_TIME_MILLISECOND;
+    }
+
+    boolean isEqualityOperator() {
+        return operator == OPERATOR_EQUAL || operator == OPERATOR_NOT_EQUAL;
+    }
+
+    boolean isNotEqualOperator() {
+        return operator == OPERATOR_NOT_EQUAL;
+    }
+
+    /**
+     * @return the value if this is a method or scheme condition matching only that value (e.g. <code>^POST$</code>)
+     *         otherwise null
+     */
+    String getExactValue() {
+        if ((type != TYPE_METHOD && type != TYPE_SCHEME) || !isEqualityOperator()) return null;
+        if (!(pattern instanceof RegexPattern) || pattern instanceof NegatedRegexPattern) return null;
+        if (strValue.length() < 3 || !strValue.startsWith("^") || !strValue.endsWith("$")) return null;
+        String value = strValue.substring(1, strValue.length() - 1);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') return null;
+        }
+        return value;
+    }
+
+    /**
+     * @return the same string for conditions that test the same value the same way (ignoring the operator), or null
+     *         if the outcome could change between two evaluations on the same request, e.g. time and file checks
+     */
+    String getValueKey() {
+        if (isTimeCondition() || isFileOperator() || type == TYPE_REQUEST_FILENAME) return null;
+        return type + "," + name + "," + caseSensitive + "," + numericValue + "," + strValue;
+    }
+
+    /**
+     * @return the same string for conditions that always have the same outcome on a request, or null if the outcome
+     *         could change between two evaluations on the same request
+     */
+    String getMatchKey() {
+        String valueKey = getValueKey();
+        return valueKey == null ? null : operator + "," + processNextOr + "," + valueKey;
+    }
 }
@@ -35,8 +35,12 @@
 package org.tuckey.web.filters.urlrewrite;
 
 import org.tuckey.web.filters.urlrewrite.gzip.GzipFilter;
+import org.tuckey.web.filters.urlrewrite.maps.RewriteMap;
 import org.tuckey.web.filters.urlrewrite.utils.Log;
 import org.tuckey.web.filters.urlrewrite.utils.ModRewriteConfLoader;
+import org.tuckey.web.filters.urlrewrite.utils.NumberUtils;
+import org.tuckey.web.filters.urlrewrite.utils.RegexAnalyser;
+import org.tuckey.web.filters.urlrewrite.utils.RegexPattern;
 import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -47,17 +51,32 @@ import org.w3c.dom.Text;
 import org.xml.sax.SAXParseException;
 
 import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Configuration object for urlrewrite filter.
@@ -72,6 +91,8 @@ public class Conf {
     private final List errors = new ArrayList();
     private final List rules = new ArrayList(50);
     private final List catchElems = new ArrayList(10);
+    private final Map rewriteMaps = new LinkedHashMap();
+    private final Map upstreams = new LinkedHashMap();
     private List outboundRules = new ArrayList(50);
     private boolean ok = false;
     private Date loadedDate = null;
@@ -96,6 +117,91 @@ public class Conf {
     private boolean docProcessed = false;
     private boolean engineEnabled = true;
 
+    private boolean prefilterEnabled = false;
+    private double prefilterFalsePositiveRate = RulePrefilter.DEFAULT_FALSE_POSITIVE_RATE;
+    private RulePrefilter prefilter;
+
+    private long responseCacheSize = ResponseCache.DEFAULT_MAX_BYTES;
+    private ResponseCache responseCache;
+    private ProxyCoalescer proxyCoalescer;
+    private long proxyCacheSize = MemoryProxyCacheStore.DEFAULT_MAX_BYTES;
+    private String proxyCacheDir;
+    private long proxyCacheDiskSize = FileProxyCacheStore.DEFAULT_MAX_BYTES;
+    private String proxyCacheStoreClass;
+    private ProxyCache proxyCache;
+    // the files of the proxy cache if it overflows to disk, removed when the conf is destroyed or retired
+    private FileProxyCacheStore proxyCacheFiles;
+
+    private boolean flattenRulesEnabled = false;
+    private Rule[] runtimeRules;
+    private int literalRulesCount = 0;
+
+    private boolean collapseRedirectsEnabled = false;
+    private RedirectChainCollapser redirectChainCollapser;
+    private boolean reorderRulesEnabled = false;
+    private List hotRuleBlocks = new ArrayList();
+    private boolean removeDeadRulesEnabled = false;
+    private List deadRules = new ArrayList();
+
+    /**
+     * What each rule and run was loaded from (see {@link #getFingerprint}), identity keyed, so that the next load of
+     * the conf can reuse the ones that haven't changed.
+     */
+    private final Map ruleFingerprints = new IdentityHashMap();
+    private final Map runFingerprints = new IdentityHashMap();
+    /**
+     * Rules reused from the previous load, already initialised.
+     */
+    private final Map reusedRules = new IdentityHashMap();
+    private int reusedRunCount = 0;
+    // only set while loading
+    private Conf previousConf;
+    private Map reusableRulesByElement;
+    private Map reusableRuns;
+    private Map elementFingerprints;
+    private Map includesByElement;
+
+    /**
+     * The file attribute of each include element and the files it was resolved to (lists of {@link ConfInclude}), in
+     * conf order.
+     */
+    private final List includeFileStrs = new ArrayList();
+    private final List includeGroups = new ArrayList();
+    private boolean includesOk = true;
+
+    private final List virtualHosts = new ArrayList();
+    private VirtualHostRouter virtualHostRouter;
+
+    /**
+     * Rule arrays that are split by method, scheme and port to the partitions, identity keyed.  Not changed once
+     * initialised.
+     */
+    private Map rulePartitions;
+
+    /**
+     * Below this many rules per thread initialising in parallel isn't worth starting the threads for.
+     */
+    static final int MIN_RULES_PER_INIT_BATCH = 64;
+    private static final String AUTO_INIT_THREADS = "auto";
+
+    public static final String PATTERN_COMPILE_EAGER = "eager";
+    public static final String PATTERN_COMPILE_LAZY = "lazy";
+    public static final String PATTERN_COMPILE_BACKGROUND = "background";
+
+    private String patternCompile = PATTERN_COMPILE_EAGER;
+    private PatternPrecompiler patternPrecompiler;
+
+    public static final String REGEX_BUDGET_ACTION_NO_MATCH = "no-match";
+    public static final String REGEX_BUDGET_ACTION_CATCH = "catch";
+
+    private long regexStepBudget = 0;
+    private String regexBudgetAction = REGEX_BUDGET_ACTION_NO_MATCH;
+    private List regexWarnings = new ArrayList();
+
+    private int initThreads = 1;
+    private int initThreadsUsed = 1;
+    private final Map initTimings = new LinkedHashMap();
+
     /**
      * Empty const for testing etc.
      */
@@ -120,15 +226,39 @@ public class Conf {
      */
     public Conf(ServletContext context, final InputStream inputStream, String fileName, String systemId,
                 boolean modRewriteStyleConf) {
+        this(context, inputStream, fileName, systemId, modRewriteStyleConf, null);
+    }
+
+    /**
+     * Constructor for reloading, rules and runs that are unchanged since the previous load are reused as they are
+     * rather than loaded and initialised again.
+     *
+     * @param previousConf the conf loaded before this one, may be null
+     */
+    public Conf(ServletContext context, final InputStream inputStream, String fileName, String systemId,
+                boolean modRewriteStyleConf, Conf previousConf) {
         // make sure context is setup before calling initialise()
         this.context = context;
         this.fileName = fileName;
         this.confSystemId = systemId;
-        if (modRewriteStyleConf) {
-            loadModRewriteStyle(inputStream);
-        } else {
-            loadDom(inputStream);
+        // rules hold on to the context they were initialised with
+        if (previousConf != null && previousConf.context == context) this.previousConf = previousConf;
+        long start = System.nanoTime();
+        try {
+            if (modRewriteStyleConf) {
+                loadModRewriteStyle(inputStream);
+            } else {
+                loadDom(inputStream);
+            }
+        } finally {
+            // don't keep the previous conf (and so every conf before it) from being garbage collected
+            this.previousConf = null;
+            reusableRulesByElement = null;
+            reusableRuns = null;
+            elementFingerprints = null;
+            includesByElement = null;
         }
+        addInitTiming("parse", start);
         if (docProcessed) initialise();
         loadedDate = new Date();
     }
@@ -151,11 +281,13 @@ public class Conf {
         this.context = null;
         this.fileName = confUrl.getFile();
         this.confSystemId = confUrl.toString();
+        long start = System.nanoTime();
         try {
             loadDom(confUrl.openStream());
         } catch (IOException e) {
             addError("Exception loading conf " + " " + e.getMessage(), e);
         }
+        addInitTiming("parse", start);
         if (docProcessed) initialise();
         loadedDate = new Date();
     }
@@ -180,28 +312,12 @@ public class Conf {
             return;
         }
         DocumentBuilder parser;
-
-        /**
-         * the thing that resolves dtd's and other xml entities.
-         */
-        ConfHandler handler = new ConfHandler(confSystemId);
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        log.debug("XML builder factory is: " + factory.getClass().getName());
-        factory.setValidating(true);
-        factory.setNamespaceAware(true);
-        factory.setIgnoringComments(true);
-        factory.setIgnoringElementContentWhitespace(true);
         try {
-            parser = factory.newDocumentBuilder();
+            parser = newConfParser(confSystemId);
         } catch (ParserConfigurationException e) {
             log.error("Unable to setup XML parser for reading conf", e);
             return;
         }
-        log.debug("XML Parser: " + parser.getClass().getName());
-
-        parser.setErrorHandler(handler);
-        parser.setEntityResolver(handler);
 
         try {
             log.debug("about to parse conf");
@@ -216,6 +332,40 @@ public class Conf {
         }
     }
 
+    /**
+     * A parser for conf files, not thread safe so each thread parsing needs its own.
+     */
+    private static DocumentBuilder newConfParser(String systemId) throws ParserConfigurationException {
+        /**
+         * the thing that resolves dtd's and other xml entities.
+         */
+        ConfHandler handler = new ConfHandler(systemId);
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        log.debug("XML builder factory is: " + factory.getClass().getName());
+        factory.setValidating(true);
+        factory.setNamespaceAware(true);
+        factory.setIgnoringComments(true);
+        factory.setIgnoringElementContentWhitespace(true);
+        DocumentBuilder parser = factory.newDocumentBuilder();
+        log.debug("XML Parser: " + parser.getClass().getName());
+
+        parser.setErrorHandler(handler);
+        parser.setEntityResolver(handler);
+        return parser;
+    }
+
+    private long getBytesAttrValue(Element element, String attrName, long defaultValue) {
+        String value = getAttrValue(element, attrName);
+        if (StringUtils.isBlank(value)) return defaultValue;
+        long size = NumberUtils.stringToLong(StringUtils.trim(value), -1);
+        if (size < 1) {
+            addError(attrName + " (" + value + ") must be a number of bytes greater than 0");
+            return defaultValue;
+        }
+        return size;
+    }
+
     /**
      * Process dom document and populate Conf object.
      * <p/>
@@ -231,66 +381,113 @@ public class Conf {
         }
         setDecodeUsing(getAttrValue(rootElement, "decode-using"));
         setDefaultMatchType(getAttrValue(rootElement, "default-match-type"));
+        if ("true".equalsIgnoreCase(getAttrValue(rootElement, "flatten-rules"))) setFlattenRulesEnabled(true);
+        if ("true".equalsIgnoreCase(getAttrValue(rootElement, "collapse-redirects"))) setCollapseRedirectsEnabled(true);
+        if ("true".equalsIgnoreCase(getAttrValue(rootElement, "reorder-rules"))) setReorderRulesEnabled(true);
+        if ("true".equalsIgnoreCase(getAttrValue(rootElement, "remove-dead-rules"))) setRemoveDeadRulesEnabled(true);
+        if ("true".equalsIgnoreCase(getAttrValue(rootElement, "prefilter"))) setPrefilterEnabled(true);
+        String prefilterFpp = getAttrValue(rootElement, "prefilter-fpp");
+        if (!StringUtils.isBlank(prefilterFpp)) {
+            try {
+                setPrefilterFalsePositiveRate(Double.parseDouble(prefilterFpp));
+            } catch (NumberFormatException e) {
+                addError("prefilter-fpp (" + prefilterFpp + ") is not a valid number");
+            }
+        }
+        setResponseCacheSize(getBytesAttrValue(rootElement, "response-cache-size", responseCacheSize));
+        setProxyCacheSize(getBytesAttrValue(rootElement, "proxy-cache-size", proxyCacheSize));
+        setProxyCacheDiskSize(getBytesAttrValue(rootElement, "proxy-cache-disk-size", proxyCacheDiskSize));
+        setProxyCacheDir(StringUtils.trimToNull(getAttrValue(rootElement, "proxy-cache-dir")));
+        setProxyCacheStoreClass(StringUtils.trimToNull(getAttrValue(rootElement, "proxy-cache-store")));
+        String patternCompileStr = getAttrValue(rootElement, "pattern-compile");
+        if (!StringUtils.isBlank(patternCompileStr)) setPatternCompile(patternCompileStr);
+        String regexStepBudgetStr = getAttrValue(rootElement, "regex-step-budget");
+        if (!StringUtils.isBlank(regexStepBudgetStr)) {
+            long budget = NumberUtils.stringToLong(StringUtils.trim(regexStepBudgetStr));
+            if (budget < 1) {
+                addError("regex-step-budget (" + regexStepBudgetStr + ") must be a number greater than 0");
+            } else {
+                setRegexStepBudget(budget);
+            }
+        }
+        String regexBudgetActionStr = getAttrValue(rootElement, "regex-budget-action");
+        if (!StringUtils.isBlank(regexBudgetActionStr)) setRegexBudgetAction(regexBudgetActionStr);
+        String initThreadsStr = getAttrValue(rootElement, "init-threads");
+        if (AUTO_INIT_THREADS.equalsIgnoreCase(initThreadsStr)) {
+            setInitThreads(Runtime.getRuntime().availableProcessors());
+        } else if (!StringUtils.isBlank(initThreadsStr)) {
+            int threads = NumberUtils.stringToInt(initThreadsStr, 0);
+            if (threads < 1) {
+                addError("init-threads (" + initThreadsStr + ") must be a number greater than 0 or auto");
+            } else {
+                setInitThreads(threads);
+            }
+        }
+
+        elementFingerprints = new IdentityHashMap();
+        long includeStart = System.nanoTime();
+        loadIncludes(rootElement);
+        if (!includeGroups.isEmpty()) addInitTiming("parse includes", includeStart);
+        if (previousConf != null) findReusableRules(rootElement);
 
         NodeList rootElementList = rootElement.getChildNodes();
         for (int i = 0; i < rootElementList.getLength(); i++) {
             Node node = rootElementList.item(i);
 
             if (node.getNodeType() == Node.ELEMENT_NODE &&
-                    ((Element) node).getTagName().equals("rule")) {
-                Element ruleElement = (Element) node;
-                // we have a rule node
-                NormalRule rule = new NormalRule();
-
-                processRuleBasics(ruleElement, rule);
-                procesConditions(ruleElement, rule);
-                processRuns(ruleElement, rule);
-
-                Node toNode = ruleElement.getElementsByTagName("to").item(0);
-                rule.setTo(getNodeValue(toNode));
-                rule.setToType(getAttrValue(toNode, "type"));
-                rule.setToContextStr(getAttrValue(toNode, "context"));
-                rule.setToLast(getAttrValue(toNode, "last"));
-                rule.setQueryStringAppend(getAttrValue(toNode, "qsappend"));
-                if ("true".equalsIgnoreCase(getAttrValue(toNode, "encode"))) rule.setEncodeToUrl(true);
-
-                processSetAttributes(ruleElement, rule);
-
-                addRule(rule);
+                    ((Element) node).getTagName().equals("map")) {
+                Element mapElement = (Element) node;
+                RewriteMap rewriteMap = new RewriteMap();
+                rewriteMap.setName(getAttrValue(mapElement, "name"));
+                rewriteMap.setType(getAttrValue(mapElement, "type"));
+                rewriteMap.setFileStr(getAttrValue(mapElement, "file"));
+                rewriteMap.setReloadCheckInterval(NumberUtils.stringToInt(
+                        getAttrValue(mapElement, "reload-check-interval"), RewriteMap.DEFAULT_RELOAD_CHECK_INTERVAL));
+                addRewriteMap(rewriteMap);
 
             } else if (node.getNodeType() == Node.ELEMENT_NODE &&
-                    ((Element) node).getTagName().equals("class-rule")) {
-                Element ruleElement = (Element) node;
-
-                ClassRule classRule = new ClassRule();
-                if ("false".equalsIgnoreCase(getAttrValue(ruleElement, "enabled"))) classRule.setEnabled(false);
-                if ("false".equalsIgnoreCase(getAttrValue(ruleElement, "last"))) classRule.setLast(false);
-                classRule.setClassStr(getAttrValue(ruleElement, "class"));
-                classRule.setMethodStr(getAttrValue(ruleElement, "method"));
+                    ((Element) node).getTagName().equals("upstream")) {
+                Element upstreamElement = (Element) node;
+                Upstream upstream = new Upstream();
+                upstream.setName(getAttrValue(upstreamElement, "name"));
+                upstream.setBalance(getAttrValue(upstreamElement, "balance"));
+                upstream.setHashOn(getAttrValue(upstreamElement, "hash-on"));
+                upstream.setMaxFails(getAttrValue(upstreamElement, "max-fails"));
+                upstream.setFailTimeout(getAttrValue(upstreamElement, "fail-timeout"));
+                upstream.setHealthCheck(getAttrValue(upstreamElement, "health-check"));
+                upstream.setHealthCheckInterval(getAttrValue(upstreamElement, "health-check-interval"));
+                upstream.setMaxConnections(getAttrValue(upstreamElement, "max-connections"));
+                NodeList serverNodes = upstreamElement.getElementsByTagName("server");
+                for (int j = 0; j < serverNodes.getLength(); j++) {
+                    upstream.addServer(getAttrValue((Element) serverNodes.item(j), "url"));
+                }
+                addUpstream(upstream);
+
+            } else if (node.getNodeType() == Node.ELEMENT_NODE && isInboundRuleElement((Element) node)) {
+                addRule((Rule) loadRule((Element) node));
 
-                addRule(classRule);
+            } else if (node.getNodeType() == Node.ELEMENT_NODE &&
+                    ((Element) node).getTagName().equals("virtual-host")) {
+                Element hostElement = (Element) node;
+                VirtualHost virtualHost = new VirtualHost(getAttrValue(hostElement, "names"));
+                NodeList hostChildNodes = hostElement.getChildNodes();
+                for (int j = 0; j < hostChildNodes.getLength(); j++) {
+                    Node hostChildNode = hostChildNodes.item(j);
+                    if (hostChildNode.getNodeType() != Node.ELEMENT_NODE) continue;
+                    if (!isInboundRuleElement((Element) hostChildNode)) continue;
+                    Rule rule = (Rule) loadRule((Element) hostChildNode);
+                    addRule(rule);
+                    virtualHost.addRule(rule);
+                }
+                addVirtualHost(virtualHost);
 
             } else if (node.getNodeType() == Node.ELEMENT_NODE &&
                     ((Element) node).getTagName().equals("outbound-rule")) {
+                addOutboundRule((OutboundRule) loadRule((Element) node));
 
-                Element ruleElement = (Element) node;
-                // we have a rule node
-                OutboundRule rule = new OutboundRule();
-
-                processRuleBasics(ruleElement, rule);
-                if ("true".equalsIgnoreCase(getAttrValue(ruleElement, "encodefirst"))) rule.setEncodeFirst(true);
-
-                procesConditions(ruleElement, rule);
-                processRuns(ruleElement, rule);
-
-                Node toNode = ruleElement.getElementsByTagName("to").item(0);
-                rule.setTo(getNodeValue(toNode));
-                rule.setToLast(getAttrValue(toNode, "last"));
-                if ("false".equalsIgnoreCase(getAttrValue(toNode, "encode"))) rule.setEncodeToUrl(false);
-
-                processSetAttributes(ruleElement, rule);
-
-                addOutboundRule(rule);
+            } else if (node.getNodeType() == Node.ELEMENT_NODE &&
+                    ((Element) node).getTagName().equals("include")) {
+                processIncludes((List) includesByElement.get(node));
 
             } else if (node.getNodeType() == Node.ELEMENT_NODE &&
                     ((Element) node).getTagName().equals("catch")) {
@@ -310,6 +507,444 @@ public class Conf {
         docProcessed = true;
     }
 
+    /**
+     * Work out which rules from the previous load can be reused, i.e. those loaded from an element identical to one
+     * in this conf.  Runs of the previous rules that can't be reused are kept for changed rules with identical runs.
+     */
+    private void findReusableRules(Element rootElement) {
+        // rules of unchanged included files are already being reused
+        Map reusedIncludeRules = new IdentityHashMap();
+        List includes = getIncludes();
+        for (int i = 0; i < includes.size(); i++) {
+            ConfInclude include = (ConfInclude) includes.get(i);
+            if (!include.isReused()) continue;
+            for (int j = 0; j < include.getRules().size(); j++) reusedIncludeRules.put(include.getRules().get(j), include);
+            for (int j = 0; j < include.getOutboundRules().size(); j++) {
+                reusedIncludeRules.put(include.getOutboundRules().get(j), include);
+            }
+        }
+        Map previousRules = new HashMap();
+        List previousRuleList = new ArrayList(previousConf.rules);
+        previousRuleList.addAll(previousConf.outboundRules);
+        for (int i = 0; i < previousRuleList.size(); i++) {
+            Object rule = previousRuleList.get(i);
+            if (reusedIncludeRules.containsKey(rule)) continue;
+            String fingerprint = (String) previousConf.ruleFingerprints.get(rule);
+            boolean valid = rule instanceof Rule ? ((Rule) rule).isValid() : ((RuleBase) rule).isValid();
+            if (fingerprint == null || !valid) continue;
+            List sameRules = (List) previousRules.get(fingerprint);
+            if (sameRules == null) {
+                sameRules = new ArrayList(1);
+                previousRules.put(fingerprint, sameRules);
+            }
+            sameRules.add(rule);
+        }
+
+        reusableRulesByElement = new IdentityHashMap();
+        List ruleElements = new ArrayList();
+        NodeList rootElementList = rootElement.getChildNodes();
+        for (int i = 0; i < rootElementList.getLength(); i++) {
+            Node node = rootElementList.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE) continue;
+            Element element = (Element) node;
+            if (isInboundRuleElement(element) || "outbound-rule".equals(element.getTagName())) {
+                ruleElements.add(element);
+            } else if ("include".equals(element.getTagName())) {
+                List group = (List) includesByElement.get(element);
+                for (int j = 0; j < group.size(); j++) {
+                    ConfInclude include = (ConfInclude) group.get(j);
+                    if (include.rootElement == null) continue;
+                    NodeList includeChildNodes = include.rootElement.getChildNodes();
+                    for (int k = 0; k < includeChildNodes.getLength(); k++) {
+                        Node includeChildNode = includeChildNodes.item(k);
+                        if (includeChildNode.getNodeType() != Node.ELEMENT_NODE) continue;
+                        Element includeChild = (Element) includeChildNode;
+                        if (isInboundRuleElement(includeChild) || "outbound-rule".equals(includeChild.getTagName())) {
+                            ruleElements.add(includeChild);
+                        }
+                    }
+                }
+            } else if ("virtual-host".equals(element.getTagName())) {
+                NodeList hostChildNodes = element.getChildNodes();
+                for (int j = 0; j < hostChildNodes.getLength(); j++) {
+                    Node hostChildNode = hostChildNodes.item(j);
+                    if (hostChildNode.getNodeType() == Node.ELEMENT_NODE
+                            && isInboundRuleElement((Element) hostChildNode)) {
+                        ruleElements.add(hostChildNode);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < ruleElements.size(); i++) {
+            Element element = (Element) ruleElements.get(i);
+            List sameRules = (List) previousRules.get(getFingerprint(element));
+            if (sameRules != null && !sameRules.isEmpty()) reusableRulesByElement.put(element, sameRules.remove(0));
+        }
+
+        reusableRuns = new HashMap();
+        for (Iterator iterator = previousRules.values().iterator(); iterator.hasNext();) {
+            List notReused = (List) iterator.next();
+            for (int i = 0; i < notReused.size(); i++) {
+                if (!(notReused.get(i) instanceof RuleBase)) continue;
+                List runs = ((RuleBase) notReused.get(i)).getRuns();
+                for (int j = 0; j < runs.size(); j++) {
+                    Run run = (Run) runs.get(j);
+                    String fingerprint = (String) previousConf.runFingerprints.get(run);
+                    if (fingerprint == null || !run.isValid()) continue;
+                    List sameRuns = (List) reusableRuns.get(fingerprint);
+                    if (sameRuns == null) {
+                        sameRuns = new ArrayList(1);
+                        reusableRuns.put(fingerprint, sameRuns);
+                    }
+                    sameRuns.add(run);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the rule for a rule, class-rule, redirect-table or outbound-rule element, reused from the previous load if
+     * it is unchanged.
+     */
+    private Object loadRule(Element ruleElement) {
+        Object rule = reusableRulesByElement == null ? null : reusableRulesByElement.get(ruleElement);
+        if (rule != null) {
+            rule = reuseRule(rule);
+        } else if ("outbound-rule".equals(ruleElement.getTagName())) {
+            rule = processOutboundRule(ruleElement);
+        } else {
+            rule = processInboundRule(ruleElement);
+        }
+        // redirect tables are loaded from their own file which may have changed
+        if (!(rule instanceof RedirectTableRule)) ruleFingerprints.put(rule, getFingerprint(ruleElement));
+        return rule;
+    }
+
+    /**
+     * Use a rule from the previous load without initialising it again.  The previous conf may still be handling
+     * requests so a copy is used, leaving the id, upstream etc of the previous rule as they were.
+     *
+     * @return the copy of the rule for this conf
+     */
+    private Object reuseRule(Object previousRule) {
+        Object rule;
+        if (previousRule instanceof RuleBase) {
+            rule = ((RuleBase) previousRule).copy();
+        } else if (previousRule instanceof ClassRule) {
+            rule = ((ClassRule) previousRule).copy();
+        } else {
+            throw new IllegalArgumentException("can't reuse " + previousRule);
+        }
+        reusedRules.put(rule, Boolean.TRUE);
+        // redirect chains are worked out again
+        if (rule instanceof NormalRule) ((NormalRule) rule).setCollapsedTo(null, false);
+        // so that the next load can reuse them too
+        String fingerprint = (String) previousConf.ruleFingerprints.get(previousRule);
+        if (fingerprint != null) ruleFingerprints.put(rule, fingerprint);
+        if (rule instanceof RuleBase) {
+            List runs = ((RuleBase) rule).getRuns();
+            for (int i = 0; i < runs.size(); i++) {
+                String runFingerprint = (String) previousConf.runFingerprints.get(runs.get(i));
+                if (runFingerprint != null) runFingerprints.put(runs.get(i), runFingerprint);
+            }
+        }
+        return rule;
+    }
+
+    /**
+     * Work out the files each include element refers to and parse the ones that can't be reused from the previous
+     * load, in parallel if init-threads is set.
+     */
+    private void loadIncludes(Element rootElement) {
+        includesByElement = new IdentityHashMap();
+        Map previousIncludes = new HashMap();
+        if (previousConf != null) {
+            List previous = previousConf.getIncludes();
+            for (int i = 0; i < previous.size(); i++) {
+                ConfInclude include = (ConfInclude) previous.get(i);
+                List sameFile = (List) previousIncludes.get(include.getFile());
+                if (sameFile == null) {
+                    sameFile = new ArrayList(1);
+                    previousIncludes.put(include.getFile(), sameFile);
+                }
+                sameFile.add(include);
+            }
+        }
+        String settings = getSettingsFingerprint();
+        List toParse = new ArrayList();
+        NodeList rootElementList = rootElement.getChildNodes();
+        for (int i = 0; i < rootElementList.getLength(); i++) {
+            Node node = rootElementList.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE || !"include".equals(((Element) node).getTagName())) continue;
+            String fileStr = getAttrValue((Element) node, "file");
+            List group = new ArrayList();
+            includesByElement.put(node, group);
+            if (StringUtils.isBlank(fileStr)) {
+                addError("include must have a file");
+                includesOk = false;
+                continue;
+            }
+            includeFileStrs.add(fileStr);
+            includeGroups.add(group);
+            List files;
+            try {
+                files = ConfInclude.resolve(context, fileName, fileStr);
+            } catch (FileNotFoundException e) {
+                addError("unable to include " + fileStr + ": " + e.getMessage());
+                includesOk = false;
+                continue;
+            }
+            if (files.isEmpty()) log.info("include " + fileStr + " matched no files");
+            for (int j = 0; j < files.size(); j++) {
+                File file = (File) files.get(j);
+                List sameFile = (List) previousIncludes.get(file);
+                if (sameFile != null && !sameFile.isEmpty()
+                        && ((ConfInclude) sameFile.get(0)).isReusableFor(file, settings)) {
+                    group.add(new ConfInclude((ConfInclude) sameFile.remove(0)));
+                } else {
+                    ConfInclude include = new ConfInclude(file, settings);
+                    group.add(include);
+                    toParse.add(include);
+                }
+            }
+        }
+        parseIncludes(toParse);
+    }
+
+    private void parseIncludes(final List toParse) {
+        int threads = Math.min(initThreads, toParse.size());
+        if (threads <= 1) {
+            for (int i = 0; i < toParse.size(); i++) parseInclude((ConfInclude) toParse.get(i));
+        } else {
+            if (log.isDebugEnabled()) log.debug("parsing " + toParse.size() + " included files on " + threads + " threads");
+            List tasks = new ArrayList();
+            for (int i = 0; i < toParse.size(); i++) {
+                final ConfInclude include = (ConfInclude) toParse.get(i);
+                tasks.add(new Callable() {
+                    public Object call() {
+                        parseInclude(include);
+                        return null;
+                    }
+                });
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new InitThreadFactory());
+            try {
+                executor.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                addError("interrupted while parsing included files", e);
+                includesOk = false;
+            } finally {
+                executor.shutdown();
+            }
+        }
+        for (int i = 0; i < toParse.size(); i++) {
+            ConfInclude include = (ConfInclude) toParse.get(i);
+            if (include.getError() != null) {
+                addError(include.getError());
+                includesOk = false;
+            }
+        }
+    }
+
+    /**
+     * Parse an included file, errors are kept on the include as this may be run on an init thread.
+     */
+    private static void parseInclude(ConfInclude include) {
+        File file = include.getFile();
+        if (!file.isFile()) {
+            include.setError("included file " + file + " not found");
+            return;
+        }
+        try {
+            DocumentBuilder parser = newConfParser(file.toURI().toString());
+            include.rootElement = parser.parse(file).getDocumentElement();
+        } catch (SAXParseException e) {
+            include.setError("Parse error in " + file + " on line " + e.getLineNumber() + " " + e.getMessage());
+        } catch (Exception e) {
+            include.setError("Exception loading " + file + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add the rules from the files of an include element, only rules can be in included files.
+     */
+    private void processIncludes(List includes) {
+        for (int i = 0; i < includes.size(); i++) {
+            ConfInclude include = (ConfInclude) includes.get(i);
+            if (include.isReused()) {
+                List previousRules = new ArrayList(include.getRules());
+                List previousOutboundRules = new ArrayList(include.getOutboundRules());
+                include.clearRules();
+                for (int j = 0; j < previousRules.size(); j++) {
+                    Rule rule = (Rule) reuseRule(previousRules.get(j));
+                    include.addRule(rule);
+                    addRule(rule);
+                }
+                for (int j = 0; j < previousOutboundRules.size(); j++) {
+                    OutboundRule outboundRule = (OutboundRule) reuseRule(previousOutboundRules.get(j));
+                    include.addOutboundRule(outboundRule);
+                    addOutboundRule(outboundRule);
+                }
+                continue;
+            }
+            // not parsed, the error has been added already
+            if (include.rootElement == null) continue;
+            NodeList includeChildNodes = include.rootElement.getChildNodes();
+            for (int j = 0; j < includeChildNodes.getLength(); j++) {
+                Node node = includeChildNodes.item(j);
+                if (node.getNodeType() != Node.ELEMENT_NODE) continue;
+                Element element = (Element) node;
+                if (isInboundRuleElement(element)) {
+                    Rule rule = (Rule) loadRule(element);
+                    include.addRule(rule);
+                    addRule(rule);
+                } else if ("outbound-rule".equals(element.getTagName())) {
+                    OutboundRule outboundRule = (OutboundRule) loadRule(element);
+                    include.addOutboundRule(outboundRule);
+                    addOutboundRule(outboundRule);
+                } else {
+                    String error = element.getTagName() + " cannot be used in included file " + include.getFile() +
+                            ", only rule, class-rule, redirect-table and outbound-rule can";
+                    include.setError(error);
+                    addError(error);
+                    includesOk = false;
+                }
+            }
+            include.rootElement = null;
+        }
+    }
+
+    /**
+     * The settings that affect how rules are initialised, rules loaded with different settings can't be reused.
+     */
+    private String getSettingsFingerprint() {
+        return defaultMatchType + "," + flattenRulesEnabled + "," + patternCompile + "," + regexStepBudget + "," +
+                regexBudgetAction;
+    }
+
+    /**
+     * A string that is the same for rule elements that would load into identical rules, made up of the settings that
+     * affect how rules are initialised and the element with its attributes and children in a standard form.
+     */
+    private String getFingerprint(Element element) {
+        String fingerprint = elementFingerprints == null ? null : (String) elementFingerprints.get(element);
+        if (fingerprint != null) return fingerprint;
+        StringBuffer buf = new StringBuffer(256);
+        if (!"run".equals(element.getTagName()) && !"gzip".equals(element.getTagName())) {
+            buf.append(getSettingsFingerprint()).append('\n');
+        }
+        appendCanonical(element, buf);
+        fingerprint = buf.toString();
+        if (elementFingerprints != null) elementFingerprints.put(element, fingerprint);
+        return fingerprint;
+    }
+
+    private static void appendCanonical(Node node, StringBuffer buf) {
+        if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+            appendEscaped(node.getNodeValue().trim(), buf);
+            return;
+        }
+        if (node.getNodeType() != Node.ELEMENT_NODE) return;
+        Element element = (Element) node;
+        buf.append('<').append(element.getTagName());
+        NamedNodeMap attrs = element.getAttributes();
+        List names = new ArrayList(attrs.getLength());
+        for (int i = 0; i < attrs.getLength(); i++) {
+            names.add(attrs.item(i).getNodeName());
+        }
+        Collections.sort(names);
+        for (int i = 0; i < names.size(); i++) {
+            String name = (String) names.get(i);
+            buf.append(' ').append(name).append("=\"");
+            appendEscaped(element.getAttribute(name), buf);
+            buf.append('"');
+        }
+        buf.append('>');
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            appendCanonical(children.item(i), buf);
+        }
+        buf.append("</").append(element.getTagName()).append('>');
+    }
+
+    private static void appendEscaped(String s, StringBuffer buf) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '<') buf.append("&lt;");
+            else if (c == '&') buf.append("&amp;");
+            else if (c == '"') buf.append("&quot;");
+            else buf.append(c);
+        }
+    }
+
+    private static boolean isInboundRuleElement(Element element) {
+        String tagName = element.getTagName();
+        return "rule".equals(tagName) || "class-rule".equals(tagName) || "redirect-table".equals(tagName);
+    }
+
+    /**
+     * Create a rule from a rule, class-rule or redirect-table element.
+     */
+    private Rule processInboundRule(Element ruleElement) {
+        String tagName = ruleElement.getTagName();
+        if ("class-rule".equals(tagName)) {
+            ClassRule classRule = new ClassRule();
+            if ("false".equalsIgnoreCase(getAttrValue(ruleElement, "enabled"))) classRule.setEnabled(false);
+            if ("false".equalsIgnoreCase(getAttrValue(ruleElement, "last"))) classRule.setLast(false);
+            classRule.setClassStr(getAttrValue(ruleElement, "class"));
+            classRule.setMethodStr(getAttrValue(ruleElement, "method"));
+            return classRule;
+
+        } else if ("redirect-table".equals(tagName)) {
+            RedirectTableRule redirectTableRule = new RedirectTableRule();
+            if ("false".equalsIgnoreCase(getAttrValue(ruleElement, "enabled"))) redirectTableRule.setEnabled(false);
+            redirectTableRule.setFileStr(getAttrValue(ruleElement, "file"));
+            redirectTableRule.setStatusStr(getAttrValue(ruleElement, "status"));
+            redirectTableRule.setReloadCheckInterval(NumberUtils.stringToInt(
+                    getAttrValue(ruleElement, "reload-check-interval"), RewriteMap.DEFAULT_RELOAD_CHECK_INTERVAL));
+            return redirectTableRule;
+        }
+
+        // we have a rule node
+        NormalRule rule = new NormalRule();
+
+        processRuleBasics(ruleElement, rule);
+        procesConditions(ruleElement, rule);
+        processRuns(ruleElement, rule);
+
+        Node toNode = ruleElement.getElementsByTagName("to").item(0);
+        rule.setTo(getNodeValue(toNode));
+        rule.setToType(getAttrValue(toNode, "type"));
+        rule.setToContextStr(getAttrValue(toNode, "context"));
+        rule.setToLast(getAttrValue(toNode, "last"));
+        rule.setQueryStringAppend(getAttrValue(toNode, "qsappend"));
+        if ("true".equalsIgnoreCase(getAttrValue(toNode, "encode"))) rule.setEncodeToUrl(true);
+        rule.setToCache(getAttrValue(toNode, "cache"));
+        rule.setToCoalesce(getAttrValue(toNode, "coalesce"));
+
+        processSetAttributes(ruleElement, rule);
+        return rule;
+    }
+
+    private OutboundRule processOutboundRule(Element ruleElement) {
+        OutboundRule rule = new OutboundRule();
+
+        processRuleBasics(ruleElement, rule);
+        if ("true".equalsIgnoreCase(getAttrValue(ruleElement, "encodefirst"))) rule.setEncodeFirst(true);
+
+        procesConditions(ruleElement, rule);
+        processRuns(ruleElement, rule);
+
+        Node toNode = ruleElement.getElementsByTagName("to").item(0);
+        rule.setTo(getNodeValue(toNode));
+        rule.setToLast(getAttrValue(toNode, "last"));
+        if ("false".equalsIgnoreCase(getAttrValue(toNode, "encode"))) rule.setEncodeToUrl(false);
+
+        processSetAttributes(ruleElement, rule);
+        return rule;
+    }
+
     private void processRuleBasics(Element ruleElement, RuleBase rule) {
       if ("false".equalsIgnoreCase(getAttrValue(ruleElement, "enabled"))) rule.setEnabled(false);
 
@@ -341,18 +976,21 @@ public class Conf {
         }
     }
 
-    private static void processRuns(Element ruleElement, Runnable runnable) {
+    private void processRuns(Element ruleElement, Runnable runnable) {
         NodeList runNodes = ruleElement.getElementsByTagName("run");
         for (int j = 0; j < runNodes.getLength(); j++) {
             Node runNode = runNodes.item(j);
             if (runNode == null) continue;
-            Run run = new Run();
-            processInitParams(runNode, run);
-            run.setClassStr(getAttrValue(runNode, "class"));
-            run.setMethodStr(getAttrValue(runNode, "method"));
-            run.setJsonHandler("true".equalsIgnoreCase(getAttrValue(runNode, "jsonhandler")));
-            run.setNewEachTime("true".equalsIgnoreCase(getAttrValue(runNode, "neweachtime")));
-            runnable.addRun(run);
+            Run run = getReusableRun(runNode, runnable);
+            if (run == null) {
+                run = new Run();
+                processInitParams(runNode, run);
+                run.setClassStr(getAttrValue(runNode, "class"));
+                run.setMethodStr(getAttrValue(runNode, "method"));
+                run.setJsonHandler("true".equalsIgnoreCase(getAttrValue(runNode, "jsonhandler")));
+                run.setNewEachTime("true".equalsIgnoreCase(getAttrValue(runNode, "neweachtime")));
+            }
+            addRuleRun(runNode, runnable, run);
         }
 
         // gzip element is just a shortcut to run: org.tuckey.web.filters.urlrewrite.gzip.GzipFilter
@@ -360,12 +998,41 @@ public class Conf {
         for (int j = 0; j < gzipNodes.getLength(); j++) {
             Node runNode = gzipNodes.item(j);
             if (runNode == null) continue;
-            Run run = new Run();
-            run.setClassStr(GzipFilter.class.getName());
-            run.setMethodStr("doFilter(ServletRequest, ServletResponse, FilterChain)");
-            processInitParams(runNode, run);
-            runnable.addRun(run);
+            Run run = getReusableRun(runNode, runnable);
+            if (run == null) {
+                run = new Run();
+                run.setClassStr(GzipFilter.class.getName());
+                run.setMethodStr("doFilter(ServletRequest, ServletResponse, FilterChain)");
+                processInitParams(runNode, run);
+            }
+            addRuleRun(runNode, runnable, run);
+        }
+    }
+
+    /**
+     * Get an initialised run from a rule in the previous load that isn't being reused, if one was loaded from an
+     * identical element.
+     *
+     * @return null if there is no run to reuse
+     */
+    private Run getReusableRun(Node runNode, Runnable runnable) {
+        // catch runs are initialised with the exception class
+        if (!(runnable instanceof RuleBase) || runNode.getNodeType() != Node.ELEMENT_NODE) return null;
+        if (reusableRuns == null) return null;
+        List sameRuns = (List) reusableRuns.get(getFingerprint((Element) runNode));
+        if (sameRuns == null || sameRuns.isEmpty()) return null;
+        reusedRunCount++;
+        return (Run) sameRuns.remove(0);
+    }
+
+    /**
+     * Note what a rule's run was loaded from so that the next load can reuse it.
+     */
+    private void addRuleRun(Node runNode, Runnable runnable, Run run) {
+        if (runnable instanceof RuleBase && runNode.getNodeType() == Node.ELEMENT_NODE) {
+            runFingerprints.put(run, getFingerprint((Element) runNode));
         }
+        runnable.addRun(run);
     }
 
     private static void processInitParams(Node runNode, Run run) {
@@ -430,25 +1097,41 @@ public class Conf {
     public void initialise() {
         if (log.isDebugEnabled()) {
             log.debug("now initialising conf");
+            if (!reusedRules.isEmpty()) {
+                log.debug("reusing " + reusedRules.size() + " rules and " + reusedRunCount + " runs from the last load");
+            }
         }
 
         initDecodeUsing(decodeUsing);
-
-        boolean rulesOk = true;
-        for (int i = 0; i < rules.size(); i++) {
-            final Rule rule = (Rule) rules.get(i);
-            if (!rule.initialise(context)) {
-                // if we failed to initialise anything set the status to bad
-                rulesOk = false;
-            }
+        if (!PATTERN_COMPILE_EAGER.equals(patternCompile) && !PATTERN_COMPILE_LAZY.equals(patternCompile)
+                && !PATTERN_COMPILE_BACKGROUND.equals(patternCompile)) {
+            addError("pattern-compile (" + patternCompile + ") must be eager, lazy or background");
+            patternCompile = PATTERN_COMPILE_EAGER;
         }
-        for (int i = 0; i < outboundRules.size(); i++) {
-            final OutboundRule outboundRule = (OutboundRule) outboundRules.get(i);
-            if (!outboundRule.initialise(context)) {
+        if (!REGEX_BUDGET_ACTION_NO_MATCH.equals(regexBudgetAction) && !REGEX_BUDGET_ACTION_CATCH.equals(regexBudgetAction)) {
+            addError("regex-budget-action (" + regexBudgetAction + ") must be no-match or catch");
+            regexBudgetAction = REGEX_BUDGET_ACTION_NO_MATCH;
+        }
+
+        // like a parse error, running with only some of the rules could do more harm than running with none
+        boolean rulesOk = includesOk;
+        long start = System.nanoTime();
+        for (Iterator iterator = rewriteMaps.values().iterator(); iterator.hasNext();) {
+            final RewriteMap rewriteMap = (RewriteMap) iterator.next();
+            if (!rewriteMap.initialise(context)) {
                 // if we failed to initialise anything set the status to bad
                 rulesOk = false;
             }
         }
+        addInitTiming("maps", start);
+        start = System.nanoTime();
+        initThreadsUsed = 1;
+        if (!initialiseRules(rules)) rulesOk = false;
+        addInitTiming("rules", start);
+        start = System.nanoTime();
+        if (!initialiseRules(outboundRules)) rulesOk = false;
+        addInitTiming("outbound rules", start);
+        start = System.nanoTime();
         for (int i = 0; i < catchElems.size(); i++) {
             final CatchElem catchElem = (CatchElem) catchElems.get(i);
             if (!catchElem.initialise(context)) {
@@ -456,46 +1139,515 @@ public class Conf {
                 rulesOk = false;
             }
         }
+        addInitTiming("catches", start);
+        start = System.nanoTime();
+        initRegexWarnings();
+        addInitTiming("regex analysis", start);
         if (rulesOk) {
             ok = true;
         }
+        if (ok) {
+            start = System.nanoTime();
+            initRuntimeRules();
+            addInitTiming("runtime rules", start);
+            start = System.nanoTime();
+            initDeadRules();
+            addInitTiming("dead rule analysis", start);
+        }
+        if (ok && !virtualHosts.isEmpty()) {
+            initVirtualHostRouter();
+        }
+        if (ok && !PATTERN_COMPILE_EAGER.equals(patternCompile)) {
+            initPatternPrecompiler();
+        }
+        if (ok && collapseRedirectsEnabled) {
+            start = System.nanoTime();
+            initRedirectChainCollapser();
+            addInitTiming("collapse redirects", start);
+        }
+        if (ok && reorderRulesEnabled) {
+            // after collapsing as that changes where rules rewrite to
+            start = System.nanoTime();
+            initHotRuleBlocks();
+            addInitTiming("reorderable blocks", start);
+        }
+        if (ok) {
+            start = System.nanoTime();
+            initRulePartitions();
+            addInitTiming("partitions", start);
+        }
+        if (ok && prefilterEnabled) {
+            start = System.nanoTime();
+            initPrefilter();
+            addInitTiming("prefilter", start);
+        }
+        if (ok) initResponseCache();
+        if (ok) initProxyCoalescer();
+        if (ok) initProxyCache();
+        if (ok) initUpstreams();
         if (log.isDebugEnabled()) {
             log.debug("conf status " + ok);
         }
     }
 
-    private void initDecodeUsing(String decodeUsingSetting) {
-        decodeUsingSetting = StringUtils.trimToNull(decodeUsingSetting);
-        if (decodeUsingSetting == null) decodeUsingSetting = DEFAULT_DECODE_USING;
-
-        if ( decodeUsingSetting.equalsIgnoreCase(HEADER_DECODE_USING)) { // is 'header'
-            decodeUsingEncodingHeader = true;
-            decodeUsingSetting = null;
-
-        }   else if ( decodeUsingSetting.startsWith(HEADER_DECODE_USING + ",")) { // is 'header,xxx'
-            decodeUsingEncodingHeader = true;
-            decodeUsingSetting = decodeUsingSetting.substring((HEADER_DECODE_USING + ",").length());
-
+    /**
+     * Initialise a list of rules or outbound rules.  When init-threads is set and there are enough rules the list is
+     * split into contiguous batches that are initialised on a pool of threads.  Each rule only touches its own
+     * state while initialising (errors are held on the rule) so ids, error order and the result are the same as
+     * initialising in sequence.
+     *
+     * @return false if any rule failed to initialise
+     */
+    private boolean initialiseRules(final List ruleList) {
+        int size = ruleList.size();
+        int threads = Math.min(initThreads, size / MIN_RULES_PER_INIT_BATCH);
+        if (threads <= 1) return initialiseRules(ruleList, 0, size);
+
+        // a few batches per thread so that one slow batch (eg, run elements loading classes) doesn't hold up the rest
+        int batchSize = Math.max(MIN_RULES_PER_INIT_BATCH, size / (threads * 4));
+        List tasks = new ArrayList();
+        for (int from = 0; from < size; from += batchSize) {
+            final int batchFrom = from;
+            final int batchTo = Math.min(size, from + batchSize);
+            tasks.add(new Callable() {
+                public Object call() {
+                    return Boolean.valueOf(initialiseRules(ruleList, batchFrom, batchTo));
+                }
+            });
         }
-        if (NONE_DECODE_USING.equalsIgnoreCase(decodeUsingSetting)) {
-            decodeUsingSetting = null;
+        initThreadsUsed = Math.max(initThreadsUsed, threads);
+        if (log.isDebugEnabled()) {
+            log.debug("initialising " + size + " rules in " + tasks.size() + " batches on " + threads + " threads");
         }
-        if ( decodeUsingSetting != null ) {
-            try {
-                URLDecoder.decode("testUrl", decodeUsingSetting);
-                this.decodeUsing = decodeUsingSetting;
-            } catch (UnsupportedEncodingException e) {
-                addError("unsupported 'decodeusing' " + decodeUsingSetting + " see Java SDK docs for supported encodings");
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new InitThreadFactory());
+        boolean allOk = true;
+        try {
+            List futures = executor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                Future future = (Future) futures.get(i);
+                if (!((Boolean) future.get()).booleanValue()) allOk = false;
             }
-        }   else {
-            this.decodeUsing = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            addError("interrupted while initialising rules", e);
+            allOk = false;
+        } catch (ExecutionException e) {
+            // rules don't throw when initialising, if one has it would have done so in sequence too
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            addError("exception initialising rules " + cause);
+            allOk = false;
+        } finally {
+            executor.shutdown();
+        }
+        return allOk;
+    }
+
+    private boolean initialiseRules(List ruleList, int from, int to) {
+        boolean allOk = true;
+        boolean lazyPatterns = !PATTERN_COMPILE_EAGER.equals(patternCompile);
+        for (int i = from; i < to; i++) {
+            final Object ruleObj = ruleList.get(i);
+            if (ruleObj instanceof RuleBase) {
+                RuleBase ruleBase = (RuleBase) ruleObj;
+                ruleBase.setLazyPatterns(lazyPatterns);
+                ruleBase.setRegexStepBudget(regexStepBudget);
+                ruleBase.setRegexBudgetExceededThrows(REGEX_BUDGET_ACTION_CATCH.equals(regexBudgetAction));
+            }
+            boolean ruleOk;
+            if (ruleObj instanceof OutboundRule) {
+                OutboundRule outboundRule = (OutboundRule) ruleObj;
+                outboundRule.setRewriteMaps(rewriteMaps);
+                // rules reused from the previous load are already initialised
+                ruleOk = reusedRules.containsKey(ruleObj) || outboundRule.initialise(context);
+            } else {
+                Rule rule = (Rule) ruleObj;
+                if (rule instanceof RuleBase) ((RuleBase) rule).setRewriteMaps(rewriteMaps);
+                ruleOk = reusedRules.containsKey(ruleObj) || rule.initialise(context);
+            }
+            // if we failed to initialise anything set the status to bad
+            if (!ruleOk) allOk = false;
         }
+        return allOk;
     }
 
     /**
-     * Destory the conf gracefully.
+     * Look for from and condition expressions prone to catastrophic backtracking.  They are only warned about as
+     * they may well be fine for the urls actually seen.
+     */
+    private void initRegexWarnings() {
+        List warnings = new ArrayList();
+        List allRules = new ArrayList(rules);
+        allRules.addAll(outboundRules);
+        for (int i = 0; i < allRules.size(); i++) {
+            if (!(allRules.get(i) instanceof RuleBase)) continue;
+            RuleBase rule = (RuleBase) allRules.get(i);
+            if (!rule.isMatchTypeWildcard()) {
+                addRegexWarning(warnings, rule, "from", rule.getFrom());
+            }
+            List conditions = rule.getConditions();
+            for (int j = 0; j < conditions.size(); j++) {
+                Condition condition = (Condition) conditions.get(j);
+                if (condition.getPattern() instanceof RegexPattern) {
+                    addRegexWarning(warnings, rule, "condition " + condition.getDisplayName(),
+                            ((RegexPattern) condition.getPattern()).getPatternStr());
+                }
+            }
+        }
+        regexWarnings = warnings;
+    }
+
+    private void addRegexWarning(List warnings, RuleBase rule, String where, String regex) {
+        String risk = RegexAnalyser.getBacktrackingRisk(regex);
+        if (risk == null) return;
+        String warning = rule.getDisplayName() + " " + where + " (" + regex + ") may backtrack badly: " + risk;
+        log.warn(warning);
+        warnings.add(warning);
+    }
+
+    /**
+     * Daemon threads so that a stuck run init can't stop the container shutting down, with the context class loader
+     * of the thread loading the conf so that run and class-rule classes load from the webapp.
+     */
+    private static class InitThreadFactory implements ThreadFactory {
+        private final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        private int threadCount = 0;
+
+        public synchronized Thread newThread(java.lang.Runnable runnable) {
+            Thread thread = new Thread(runnable, "urlrewrite-init-" + (++threadCount));
+            thread.setDaemon(true);
+            thread.setContextClassLoader(contextClassLoader);
+            return thread;
+        }
+    }
+
+    private void addInitTiming(String phase, long startNanos) {
+        initTimings.put(phase, new Long(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Build the array of rules that will actually be run.  When flattening disabled rules are left out and rules
+     * with a literal from are matched without the regex engine.
+     */
+    private void initRuntimeRules() {
+        List runtimeRulesList = new ArrayList(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            final Rule rule = (Rule) rules.get(i);
+            if (flattenRulesEnabled && rule instanceof RuleBase) {
+                RuleBase ruleBase = (RuleBase) rule;
+                // note, filter rules stop rule processing even when they don't match so must be kept
+                if (!ruleBase.isEnabled() && !rule.isFilter()) continue;
+                // rules reused from the previous load were flattened then (flatten-rules is part of the reuse settings)
+                if (!reusedRules.containsKey(rule)) ruleBase.useLiteralFrom();
+            }
+            runtimeRulesList.add(rule);
+        }
+        runtimeRules = (Rule[]) runtimeRulesList.toArray(new Rule[runtimeRulesList.size()]);
+        literalRulesCount = 0;
+        for (int i = 0; i < runtimeRules.length; i++) {
+            if (runtimeRules[i] instanceof RuleBase && ((RuleBase) runtimeRules[i]).isFromLiteral()) {
+                literalRulesCount++;
+            }
+        }
+        if (flattenRulesEnabled && log.isDebugEnabled()) {
+            log.debug("flattened to " + runtimeRules.length + " of " + rules.size() + " rules, " +
+                    literalRulesCount + " with literal from");
+        }
+    }
+
+    /**
+     * Find rules that can never do anything, they are always listed but only left out of the runtime rules if
+     * remove-dead-rules is set.
+     */
+    private void initDeadRules() {
+        DeadRuleAnalyser analyser = new DeadRuleAnalyser((Rule[]) rules.toArray(new Rule[rules.size()]),
+                virtualHosts.isEmpty());
+        analyser.analyse();
+        deadRules = analyser.getDeadRules();
+        if (deadRules.isEmpty()) return;
+        log.info(deadRules.size() + " rules can never do anything" + (removeDeadRulesEnabled ? ", removed" : ""));
+        if (!removeDeadRulesEnabled) return;
+        Map dead = new IdentityHashMap();
+        for (int i = 0; i < deadRules.size(); i++) {
+            dead.put(((DeadRuleAnalyser.DeadRule) deadRules.get(i)).getRule(), Boolean.TRUE);
+        }
+        List live = new ArrayList(runtimeRules.length);
+        for (int i = 0; i < runtimeRules.length; i++) {
+            if (!dead.containsKey(runtimeRules[i])) live.add(runtimeRules[i]);
+        }
+        runtimeRules = (Rule[]) live.toArray(new Rule[live.size()]);
+    }
+
+    /**
+     * Collect the patterns that will be compiled on first use, in the order they will be run, and optionally start
+     * compiling them in the background.
+     */
+    private void initPatternPrecompiler() {
+        List patterns = new ArrayList();
+        for (int i = 0; i < runtimeRules.length; i++) {
+            if (runtimeRules[i] instanceof RuleBase) ((RuleBase) runtimeRules[i]).addCompilablePatterns(patterns);
+        }
+        for (int i = 0; i < outboundRules.size(); i++) {
+            ((OutboundRule) outboundRules.get(i)).addCompilablePatterns(patterns);
+        }
+        patternPrecompiler = new PatternPrecompiler(patterns);
+        if (PATTERN_COMPILE_BACKGROUND.equals(patternCompile)) patternPrecompiler.start();
+    }
+
+    private void initVirtualHostRouter() {
+        virtualHostRouter = new VirtualHostRouter(getRuntimeRules(), virtualHosts);
+        List routerErrors = virtualHostRouter.getErrors();
+        for (int i = 0; i < routerErrors.size(); i++) {
+            addError((String) routerErrors.get(i));
+            ok = false;
+        }
+    }
+
+    /**
+     * Split the rules (for each virtual host if any) by the method, scheme and port conditions on them.
+     */
+    private void initRulePartitions() {
+        List ruleArrays = new ArrayList();
+        if (virtualHostRouter == null) {
+            ruleArrays.add(getRuntimeRules());
+        } else {
+            ruleArrays.add(virtualHostRouter.getDefaultRules());
+            for (int i = 0; i < virtualHosts.size(); i++) {
+                ruleArrays.add(virtualHostRouter.getRules(i));
+            }
+        }
+        Map partitionsMap = new IdentityHashMap();
+        for (int i = 0; i < ruleArrays.size(); i++) {
+            Rule[] ruleArray = (Rule[]) ruleArrays.get(i);
+            RulePartitions partitions = RulePartitions.build(ruleArray);
+            if (partitions != null) partitionsMap.put(ruleArray, partitions);
+        }
+        rulePartitions = partitionsMap.isEmpty() ? null : partitionsMap;
+    }
+
+    private void initRedirectChainCollapser() {
+        if (useContext) {
+            log.info("collapse-redirects cannot be used with use-context, redirects not collapsed");
+            return;
+        }
+        if (!virtualHosts.isEmpty()) {
+            // a chain could otherwise be collapsed through a rule for a different host
+            log.info("collapse-redirects cannot be used with virtual-host, redirects not collapsed");
+            return;
+        }
+        redirectChainCollapser = new RedirectChainCollapser(getRuntimeRules());
+        redirectChainCollapser.collapse(true);
+        List loops = redirectChainCollapser.getLoops();
+        for (int i = 0; i < loops.size(); i++) {
+            log.error("redirect loop " + loops.get(i));
+        }
+    }
+
+    /**
+     * Replace runs of rules that can be run in any order with blocks that keep the most matched rules first.
+     */
+    private void initHotRuleBlocks() {
+        if (!virtualHosts.isEmpty()) {
+            log.info("reorder-rules cannot be used with virtual-host, rules not reordered");
+            return;
+        }
+        List blocks = new ArrayList();
+        runtimeRules = HotRuleBlock.build(getRuntimeRules(), blocks);
+        hotRuleBlocks = blocks;
+        if (log.isDebugEnabled()) log.debug(blocks.size() + " reorderable rule blocks");
+    }
+
+    private void initPrefilter() {
+        if (prefilterFalsePositiveRate <= 0 || prefilterFalsePositiveRate >= 1) {
+            addError("prefilter-fpp (" + prefilterFalsePositiveRate + ") must be between 0 and 1");
+            return;
+        }
+        prefilter = RulePrefilter.build(rules, prefilterFalsePositiveRate);
+        if (prefilter == null) {
+            log.info("prefilter enabled but not all rules have a literal prefix, prefilter not used");
+        } else {
+            log.debug("prefilter built with " + prefilter.getKeyCount() + " keys");
+        }
+    }
+
+    /**
+     * One cache for all the rules with a cache attribute, rules reused from the last load are given the new cache
+     * so nothing cached before the reload is served after it.
+     */
+    private void initResponseCache() {
+        List cachedRules = new ArrayList();
+        for (int i = 0; i < rules.size(); i++) {
+            Object rule = rules.get(i);
+            if (rule instanceof NormalRule && ((NormalRule) rule).getToCacheMillis() > 0) cachedRules.add(rule);
+        }
+        if (cachedRules.isEmpty()) return;
+        responseCache = new ResponseCache(responseCacheSize);
+        for (int i = 0; i < cachedRules.size(); i++) {
+            ((NormalRule) cachedRules.get(i)).setResponseCache(responseCache);
+        }
+        log.debug("response cache of " + responseCacheSize + " bytes used by " + cachedRules.size() + " rules");
+    }
+
+    /**
+     * One coalescer for all the proxy rules with a coalesce attribute.
+     */
+    private void initProxyCoalescer() {
+        List coalescedRules = new ArrayList();
+        for (int i = 0; i < rules.size(); i++) {
+            Object rule = rules.get(i);
+            if (rule instanceof NormalRule && ((NormalRule) rule).getToCoalesceWaitMillis() > 0) {
+                coalescedRules.add(rule);
+            }
+        }
+        if (coalescedRules.isEmpty()) return;
+        proxyCoalescer = new ProxyCoalescer(ProxyCoalescer.DEFAULT_MAX_BODY_BYTES);
+        for (int i = 0; i < coalescedRules.size(); i++) {
+            ((NormalRule) coalescedRules.get(i)).setProxyCoalescer(proxyCoalescer);
+        }
+        log.debug("proxy requests coalesced for " + coalescedRules.size() + " rules");
+    }
+
+    /**
+     * One cache for all the proxy rules with cache="true", in memory, overflowing to files in proxy-cache-dir if
+     * set, or in the store named by proxy-cache-store.
+     */
+    private void initProxyCache() {
+        List cachedRules = new ArrayList();
+        for (int i = 0; i < rules.size(); i++) {
+            Object rule = rules.get(i);
+            if (rule instanceof NormalRule && ((NormalRule) rule).isToProxyCache()) cachedRules.add(rule);
+        }
+        if (cachedRules.isEmpty()) return;
+        ProxyCacheStore store;
+        if (proxyCacheStoreClass != null) {
+            try {
+                store = (ProxyCacheStore) Class.forName(proxyCacheStoreClass).newInstance();
+            } catch (Exception e) {
+                addError("could not create proxy-cache-store " + proxyCacheStoreClass + " " + e, e);
+                ok = false;
+                return;
+            }
+        } else {
+            ProxyCacheStore overflow = null;
+            if (proxyCacheDir != null) {
+                File dir = new File(proxyCacheDir);
+                if (!dir.isAbsolute() && context != null
+                        && context.getAttribute("javax.servlet.context.tempdir") instanceof File) {
+                    dir = new File((File) context.getAttribute("javax.servlet.context.tempdir"), proxyCacheDir);
+                }
+                try {
+                    proxyCacheFiles = new FileProxyCacheStore(dir, proxyCacheDiskSize);
+                    overflow = proxyCacheFiles;
+                } catch (IOException e) {
+                    addError("could not use proxy-cache-dir " + dir + " " + e, e);
+                    ok = false;
+                    return;
+                }
+            }
+            store = new MemoryProxyCacheStore(proxyCacheSize, overflow);
+        }
+        proxyCache = new ProxyCache(store, ProxyCache.DEFAULT_MAX_ENTRY_BYTES);
+        for (int i = 0; i < cachedRules.size(); i++) {
+            ((NormalRule) cachedRules.get(i)).setProxyCache(proxyCache);
+        }
+        log.debug("proxy cache used by " + cachedRules.size() + " rules");
+    }
+
+    /**
+     * Give proxy rules to upstream:name/path their upstream and start health checks.  The previous conf's upstreams
+     * are stopped when it is retired, see {@link #retire()}.
+     */
+    private void initUpstreams() {
+        for (Iterator iterator = upstreams.values().iterator(); iterator.hasNext();) {
+            Upstream upstream = (Upstream) iterator.next();
+            if (!upstream.initialise()) {
+                for (int i = 0; i < upstream.getErrors().size(); i++) addError((String) upstream.getErrors().get(i));
+                ok = false;
+            }
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            Object rule = rules.get(i);
+            if (!(rule instanceof NormalRule)) continue;
+            NormalRule normalRule = (NormalRule) rule;
+            String name = normalRule.getToUpstreamName();
+            Upstream upstream = name == null ? null : (Upstream) upstreams.get(name);
+            if (name != null && upstream == null) {
+                addError("rule " + normalRule.getDisplayName() + " proxies to upstream " + name + " which isn't defined");
+                ok = false;
+            } else if (upstream != null && (normalRule.isToProxyCache() || normalRule.getToCoalesceWaitMillis() > 0)) {
+                addError("rule " + normalRule.getDisplayName() + " proxies to an upstream, cache and coalesce can't be used");
+                ok = false;
+                upstream = null;
+            }
+            normalRule.setUpstream(upstream);
+        }
+        if (!ok) {
+            stopUpstreams();
+            return;
+        }
+        for (Iterator iterator = upstreams.values().iterator(); iterator.hasNext();) {
+            ((Upstream) iterator.next()).startHealthChecks();
+        }
+    }
+
+    private void stopUpstreams() {
+        for (Iterator iterator = upstreams.values().iterator(); iterator.hasNext();) {
+            ((Upstream) iterator.next()).stop();
+        }
+    }
+
+    private void initDecodeUsing(String decodeUsingSetting) {
+        decodeUsingSetting = StringUtils.trimToNull(decodeUsingSetting);
+        if (decodeUsingSetting == null) decodeUsingSetting = DEFAULT_DECODE_USING;
+
+        if ( decodeUsingSetting.equalsIgnoreCase(HEADER_DECODE_USING)) { // is 'header'
+            decodeUsingEncodingHeader = true;
+            decodeUsingSetting = null;
+
+        }   else if ( decodeUsingSetting.startsWith(HEADER_DECODE_USING + ",")) { // is 'header,xxx'
+            decodeUsingEncodingHeader = true;
+            decodeUsingSetting = decodeUsingSetting.substring((HEADER_DECODE_USING + ",").length());
+
+        }
+        if (NONE_DECODE_USING.equalsIgnoreCase(decodeUsingSetting)) {
+            decodeUsingSetting = null;
+        }
+        if ( decodeUsingSetting != null ) {
+            try {
+                URLDecoder.decode("testUrl", decodeUsingSetting);
+                this.decodeUsing = decodeUsingSetting;
+            } catch (UnsupportedEncodingException e) {
+                addError("unsupported 'decodeusing' " + decodeUsingSetting + " see Java SDK docs for supported encodings");
+            }
+        }   else {
+            this.decodeUsing = null;
+        }
+    }
+
+    /**
+     * Called once a reload has replaced this conf, stops the work it does in the background.  Unlike
+     * {@link #destroy()} the rules are left alone as the new conf may be reusing them, requests still being handled
+     * with this conf are left to finish.
+     */
+    public void retire() {
+        if (patternPrecompiler != null) patternPrecompiler.stop();
+        for (Iterator iterator = upstreams.values().iterator(); iterator.hasNext();) {
+            ((Upstream) iterator.next()).retire();
+        }
+        // the new conf has a cache of its own
+        if (proxyCache != null) proxyCache.shutdown();
+        if (proxyCacheFiles != null) proxyCacheFiles.destroy();
+    }
+
+    /**
+     * Destory the conf gracefully.
      */
     public void destroy() {
+        if (patternPrecompiler != null) patternPrecompiler.stop();
+        if (proxyCache != null) proxyCache.shutdown();
+        if (proxyCacheFiles != null) proxyCacheFiles.destroy();
+        stopUpstreams();
         for (int i = 0; i < rules.size(); i++) {
             final Rule rule = (Rule) rules.get(i);
             rule.destroy();
@@ -510,6 +1662,27 @@ public class Conf {
     public void addRule(final Rule rule) {
         rule.setId(ruleIdCounter++);
         rules.add(rule);
+        runtimeRules = null;
+        virtualHostRouter = null;
+    }
+
+    /**
+     * Add a virtual host, note its rules must also be added with addRule.
+     */
+    public void addVirtualHost(final VirtualHost virtualHost) {
+        virtualHosts.add(virtualHost);
+        virtualHostRouter = null;
+    }
+
+    public List getVirtualHosts() {
+        return virtualHosts;
+    }
+
+    /**
+     * @return the router picking rules by server name or null if there are no virtual hosts
+     */
+    public VirtualHostRouter getVirtualHostRouter() {
+        return virtualHostRouter;
     }
 
     /**
@@ -522,6 +1695,48 @@ public class Conf {
         outboundRules.add(outboundRule);
     }
 
+    /**
+     * Will add a group of servers that proxy rules can send requests to with upstream:name/path.
+     *
+     * @param upstream The upstream to add
+     */
+    public void addUpstream(final Upstream upstream) {
+        if (upstreams.containsKey(upstream.getName())) {
+            addError("upstream " + upstream.getName() + " is defined more than once");
+            return;
+        }
+        upstreams.put(upstream.getName(), upstream);
+    }
+
+    /**
+     * @return the upstreams by name
+     */
+    public Map getUpstreams() {
+        return Collections.unmodifiableMap(upstreams);
+    }
+
+    /**
+     * Will add a map that can be used in rules with ${map:name:key|default}.
+     *
+     * @param rewriteMap The map to add
+     */
+    public void addRewriteMap(final RewriteMap rewriteMap) {
+        if (rewriteMaps.containsKey(rewriteMap.getName())) {
+            addError("map " + rewriteMap.getName() + " is defined more than once");
+            return;
+        }
+        rewriteMaps.put(rewriteMap.getName(), rewriteMap);
+    }
+
+    /**
+     * Will get the maps keyed by name.
+     *
+     * @return the Map of maps
+     */
+    public Map getRewriteMaps() {
+        return rewriteMaps;
+    }
+
     /**
      * Will get the List of errors.
      *
@@ -540,6 +1755,62 @@ public class Conf {
         return rules;
     }
 
+    /**
+     * Will get the rules that will be run against each request, this may be fewer than the rules returned by
+     * {@link #getRules()} when flattening.
+     *
+     * @return array of rules
+     */
+    public Rule[] getRuntimeRules() {
+        Rule[] currentRuntimeRules = runtimeRules;
+        if (currentRuntimeRules == null) {
+            // rules added after initialise
+            currentRuntimeRules = (Rule[]) rules.toArray(new Rule[rules.size()]);
+        }
+        return currentRuntimeRules;
+    }
+
+    /**
+     * Will get the rules that will be run against a request to the server name, fewer than
+     * {@link #getRuntimeRules()} when there are virtual hosts.
+     *
+     * @return array of rules
+     */
+    public Rule[] getRuntimeRules(String serverName) {
+        if (virtualHosts.isEmpty()) return getRuntimeRules();
+        VirtualHostRouter router = virtualHostRouter;
+        if (router == null) {
+            // rules or virtual hosts added after initialise
+            router = new VirtualHostRouter(getRuntimeRules(), virtualHosts);
+            virtualHostRouter = router;
+        }
+        return router.getRules(serverName);
+    }
+
+    /**
+     * Will get the rules that will be run against the request, leaving out rules with method, scheme or port
+     * conditions that can't match it.
+     *
+     * @return array of rules
+     */
+    public Rule[] getRuntimeRules(HttpServletRequest hsRequest) {
+        Rule[] currentRules = getRuntimeRules(hsRequest.getServerName());
+        // rules added after initialise won't be partitioned as they will be in a new array
+        Map partitionsMap = rulePartitions;
+        if (partitionsMap == null) return currentRules;
+        RulePartitions partitions = (RulePartitions) partitionsMap.get(currentRules);
+        if (partitions == null) return currentRules;
+        return partitions.getRules(hsRequest.getMethod(), hsRequest.getScheme(), hsRequest.getServerPort());
+    }
+
+    /**
+     * @return the partitions of rules by method, scheme and port for each array of rules, null if no rules have
+     *         those conditions
+     */
+    public Map getRulePartitions() {
+        return rulePartitions;
+    }
+
     /**
      * Will get the List of outbound rules.
      *
@@ -635,4 +1906,295 @@ public class Conf {
     public boolean isDecodeUsingEncodingHeader() {
         return decodeUsingEncodingHeader;
     }
+
+    public boolean isFlattenRulesEnabled() {
+        return flattenRulesEnabled;
+    }
+
+    /**
+     * If enabled the rules are flattened into an array when initialised, disabled rules are removed and
+     * rules with a literal from are matched without using the regex engine.
+     */
+    public void setFlattenRulesEnabled(boolean flattenRulesEnabled) {
+        this.flattenRulesEnabled = flattenRulesEnabled;
+    }
+
+    public boolean isCollapseRedirectsEnabled() {
+        return collapseRedirectsEnabled;
+    }
+
+    /**
+     * If enabled redirects to urls that are themselves redirected will be changed to go straight to the final url
+     * when initialised.
+     */
+    public void setCollapseRedirectsEnabled(boolean collapseRedirectsEnabled) {
+        this.collapseRedirectsEnabled = collapseRedirectsEnabled;
+    }
+
+    /**
+     * @return the result of collapsing redirect chains or null if not enabled
+     */
+    public RedirectChainCollapser getRedirectChainCollapser() {
+        return redirectChainCollapser;
+    }
+
+    public boolean isReorderRulesEnabled() {
+        return reorderRulesEnabled;
+    }
+
+    /**
+     * If enabled runs of rules that can be run in any order (see {@link HotRuleBlock}) are kept in order of how often
+     * each rule matches.
+     */
+    public void setReorderRulesEnabled(boolean reorderRulesEnabled) {
+        this.reorderRulesEnabled = reorderRulesEnabled;
+    }
+
+    /**
+     * @return the files included with include elements, in conf order
+     */
+    public List getIncludes() {
+        List includes = new ArrayList();
+        for (int i = 0; i < includeGroups.size(); i++) includes.addAll((List) includeGroups.get(i));
+        return includes;
+    }
+
+    /**
+     * Have any included files been modified, added or removed since this conf was loaded.
+     */
+    public boolean isIncludeModified() {
+        for (int i = 0; i < includeFileStrs.size(); i++) {
+            String fileStr = (String) includeFileStrs.get(i);
+            if (ConfInclude.isModified(context, fileName, fileStr, (List) includeGroups.get(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return how many rules (including outbound rules) were reused from the previous load of the conf
+     */
+    public int getReusedRuleCount() {
+        return reusedRules.size();
+    }
+
+    /**
+     * @return how many runs of changed rules were reused from the previous load of the conf
+     */
+    public int getReusedRunCount() {
+        return reusedRunCount;
+    }
+
+    public boolean isRemoveDeadRulesEnabled() {
+        return removeDeadRulesEnabled;
+    }
+
+    /**
+     * If enabled rules that can never do anything (see {@link DeadRuleAnalyser}) are not run.
+     */
+    public void setRemoveDeadRulesEnabled(boolean removeDeadRulesEnabled) {
+        this.removeDeadRulesEnabled = removeDeadRulesEnabled;
+    }
+
+    /**
+     * @return the rules that can never do anything as {@link DeadRuleAnalyser.DeadRule}'s, empty if none
+     */
+    public List getDeadRules() {
+        return deadRules;
+    }
+
+    /**
+     * @return the blocks of rules that are reordered, empty if none
+     */
+    public List getHotRuleBlocks() {
+        return hotRuleBlocks;
+    }
+
+    /**
+     * Stop (or allow) the order of rules in reorderable blocks changing.
+     */
+    public void setRuleOrderPinned(boolean pinned) {
+        for (int i = 0; i < hotRuleBlocks.size(); i++) {
+            ((HotRuleBlock) hotRuleBlocks.get(i)).setPinned(pinned);
+        }
+    }
+
+    public int getLiteralRulesCount() {
+        return literalRulesCount;
+    }
+
+    public boolean isPrefilterEnabled() {
+        return prefilterEnabled;
+    }
+
+    /**
+     * If enabled a prefilter will be built from the literal prefixes of rules so that requests that can't possibly
+     * match any rule skip the rules entirely.
+     *
+     * @see RulePrefilter
+     */
+    public void setPrefilterEnabled(boolean prefilterEnabled) {
+        this.prefilterEnabled = prefilterEnabled;
+    }
+
+    public double getPrefilterFalsePositiveRate() {
+        return prefilterFalsePositiveRate;
+    }
+
+    public void setPrefilterFalsePositiveRate(double prefilterFalsePositiveRate) {
+        this.prefilterFalsePositiveRate = prefilterFalsePositiveRate;
+    }
+
+    /**
+     * @return the prefilter or null if the prefilter is disabled or could not be built for the rules
+     */
+    public RulePrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    public long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public void setResponseCacheSize(long responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+    }
+
+    /**
+     * @return the cache for rules with a cache attribute or null if no rules have one
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public long getProxyCacheSize() {
+        return proxyCacheSize;
+    }
+
+    public void setProxyCacheSize(long proxyCacheSize) {
+        this.proxyCacheSize = proxyCacheSize;
+    }
+
+    public String getProxyCacheDir() {
+        return proxyCacheDir;
+    }
+
+    /**
+     * @param proxyCacheDir directory for proxy cache entries that don't fit in memory, relative to the web app's
+     *                      temp dir unless absolute, null for memory only
+     */
+    public void setProxyCacheDir(String proxyCacheDir) {
+        this.proxyCacheDir = proxyCacheDir;
+    }
+
+    public long getProxyCacheDiskSize() {
+        return proxyCacheDiskSize;
+    }
+
+    public void setProxyCacheDiskSize(long proxyCacheDiskSize) {
+        this.proxyCacheDiskSize = proxyCacheDiskSize;
+    }
+
+    public String getProxyCacheStoreClass() {
+        return proxyCacheStoreClass;
+    }
+
+    /**
+     * @param proxyCacheStoreClass a {@link ProxyCacheStore} to use instead of the built in stores
+     */
+    public void setProxyCacheStoreClass(String proxyCacheStoreClass) {
+        this.proxyCacheStoreClass = proxyCacheStoreClass;
+    }
+
+    /**
+     * @return the cache for proxy rules with cache="true" or null if no rules have it
+     */
+    public ProxyCache getProxyCache() {
+        return proxyCache;
+    }
+
+    /**
+     * @return the coalescer for proxy rules with a coalesce attribute or null if no rules have one
+     */
+    public ProxyCoalescer getProxyCoalescer() {
+        return proxyCoalescer;
+    }
+
+    public String getPatternCompile() {
+        return patternCompile;
+    }
+
+    /**
+     * When rule and condition expressions are compiled.  <code>eager</code> (the default) compiles them all when
+     * initialised, <code>lazy</code> compiles each the first time it is used and <code>background</code> compiles
+     * each the first time it is used or on a background thread after initialising, whichever comes first.
+     */
+    public void setPatternCompile(String patternCompile) {
+        this.patternCompile = patternCompile == null ? PATTERN_COMPILE_EAGER : patternCompile.toLowerCase();
+    }
+
+    public long getRegexStepBudget() {
+        return regexStepBudget;
+    }
+
+    /**
+     * The most characters each regular expression match in a rule can read (see
+     * {@link org.tuckey.web.filters.urlrewrite.utils.BoundedCharSequence}), 0 (the default) for no limit.
+     */
+    public void setRegexStepBudget(long regexStepBudget) {
+        this.regexStepBudget = regexStepBudget;
+    }
+
+    public String getRegexBudgetAction() {
+        return regexBudgetAction;
+    }
+
+    /**
+     * What happens when the regex step budget is used up, <code>no-match</code> (the default) the rule doesn't match
+     * or <code>catch</code> a {@link org.tuckey.web.filters.urlrewrite.utils.RegexBudgetExceededException} is thrown
+     * for catch elements to handle.
+     */
+    public void setRegexBudgetAction(String regexBudgetAction) {
+        this.regexBudgetAction = regexBudgetAction == null ? REGEX_BUDGET_ACTION_NO_MATCH
+                : regexBudgetAction.toLowerCase();
+    }
+
+    /**
+     * @return warnings about expressions prone to catastrophic backtracking found when initialised
+     */
+    public List getRegexWarnings() {
+        return regexWarnings;
+    }
+
+    /**
+     * @return the patterns that are compiled on first use or null if compiled eagerly
+     */
+    public PatternPrecompiler getPatternPrecompiler() {
+        return patternPrecompiler;
+    }
+
+    public int getInitThreads() {
+        return initThreads;
+    }
+
+    /**
+     * The number of threads to initialise rules with, 1 (the default) initialises rules in sequence on the calling
+     * thread.  Only worth setting for confs with thousands of rules.
+     */
+    public void setInitThreads(int initThreads) {
+        this.initThreads = initThreads < 1 ? 1 : initThreads;
+    }
+
+    /**
+     * @return the most threads actually used to initialise rules, 1 if initialised in sequence
+     */
+    public int getInitThreadsUsed() {
+        return initThreadsUsed;
+    }
+
+    /**
+     * @return how long each phase of loading the conf took in nanoseconds, by phase name in the order run
+     */
+    public Map getInitTimings() {
+        return Collections.unmodifiableMap(initTimings);
+    }
 }
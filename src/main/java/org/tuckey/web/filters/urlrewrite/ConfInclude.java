@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.w3c.dom.Element;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A file of rules included in the conf with an include element.  Each included file is parsed on its own and, when
+ * the conf is reloaded, files that haven't changed are not parsed again, their rules are reused as they are.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class ConfInclude {
+
+    private final File file;
+    private final long lastModified;
+    private final String settings;
+    private final List rules = new ArrayList();
+    private final List outboundRules = new ArrayList();
+    private boolean reused = false;
+    private String error;
+    // only set while loading
+    Element rootElement;
+
+    ConfInclude(File file, String settings) {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.settings = settings;
+    }
+
+    /**
+     * Create an include with the rules of an include from the previous load of the conf, they are replaced by copies
+     * when the rules are added to the conf.
+     */
+    ConfInclude(ConfInclude previous) {
+        this.file = previous.file;
+        this.lastModified = previous.lastModified;
+        this.settings = previous.settings;
+        this.rules.addAll(previous.rules);
+        this.outboundRules.addAll(previous.outboundRules);
+        this.reused = true;
+    }
+
+    /**
+     * Can this include's rules be used in place of loading the file again.  Only if the file and the settings that
+     * affect how rules are initialised are unchanged and everything loaded ok last time.  Redirect tables are loaded
+     * from their own file so files with them in are always loaded again.
+     */
+    boolean isReusableFor(File otherFile, String otherSettings) {
+        if (error != null || !file.equals(otherFile) || lastModified != otherFile.lastModified()
+                || !settings.equals(otherSettings)) {
+            return false;
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = (Rule) rules.get(i);
+            if (!rule.isValid() || rule instanceof RedirectTableRule) return false;
+        }
+        for (int i = 0; i < outboundRules.size(); i++) {
+            if (!((OutboundRule) outboundRules.get(i)).isValid()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Work out the files an include element refers to.  The file is relative to the directory the conf file is in
+     * unless it starts with /, and is looked for in the web app first and then on the file system.  The file name
+     * (but not the directories) can have * and ? wildcards, matching files are in name order so that rule order
+     * doesn't depend on the file system.
+     *
+     * @param confFileName the path of the conf file the include element is in, eg, /WEB-INF/urlrewrite.xml
+     * @param fileStr      the file attribute of the include element
+     * @throws FileNotFoundException if the directory doesn't exist
+     */
+    static List resolve(ServletContext context, String confFileName, String fileStr) throws FileNotFoundException {
+        String path = fileStr.trim();
+        if (!path.startsWith("/")) {
+            String confDir = "/";
+            if (confFileName != null && confFileName.lastIndexOf('/') >= 0) {
+                confDir = confFileName.substring(0, confFileName.lastIndexOf('/') + 1);
+            }
+            path = confDir + path;
+        }
+        int slash = path.lastIndexOf('/');
+        String dirPath = slash == 0 ? "/" : path.substring(0, slash);
+        String name = path.substring(slash + 1);
+        if (hasWildcard(dirPath)) {
+            throw new FileNotFoundException("wildcards can only be used in the file name of " + fileStr);
+        }
+        File dir = getDir(context, dirPath);
+        if (!hasWildcard(name)) {
+            return Collections.singletonList(new File(dir, name));
+        }
+        File[] files = dir.listFiles();
+        if (files == null) throw new FileNotFoundException("directory " + dir + " for " + fileStr + " not found");
+        List matched = new ArrayList();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isFile() && matchesGlob(files[i].getName(), name)) matched.add(files[i]);
+        }
+        Collections.sort(matched, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return ((File) o1).getName().compareTo(((File) o2).getName());
+            }
+        });
+        return matched;
+    }
+
+    /**
+     * Directories are first looked for in the web app, then on the file system.
+     */
+    private static File getDir(ServletContext context, String dirPath) {
+        if (context != null) {
+            String realPath = context.getRealPath(dirPath);
+            if (realPath != null) {
+                File realDir = new File(realPath);
+                if (realDir.isDirectory()) return realDir;
+            }
+        }
+        return new File(dirPath);
+    }
+
+    private static boolean hasWildcard(String s) {
+        return s.indexOf('*') != -1 || s.indexOf('?') != -1;
+    }
+
+    /**
+     * Match a file name against a pattern where * is any number of characters and ? is any one character.
+     */
+    static boolean matchesGlob(String name, String glob) {
+        int n = 0;
+        int g = 0;
+        int starG = -1;
+        int starN = 0;
+        while (n < name.length()) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == name.charAt(n))) {
+                n++;
+                g++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                starG = g++;
+                starN = n;
+            } else if (starG != -1) {
+                // let the last * take one more character
+                g = starG + 1;
+                n = ++starN;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') g++;
+        return g == glob.length();
+    }
+
+    /**
+     * Have the files for the include element changed since these includes were loaded, files added, removed or
+     * modified.
+     */
+    static boolean isModified(ServletContext context, String confFileName, String fileStr, List includes) {
+        List files;
+        try {
+            files = resolve(context, confFileName, fileStr);
+        } catch (FileNotFoundException e) {
+            return !includes.isEmpty();
+        }
+        if (files.size() != includes.size()) return true;
+        for (int i = 0; i < files.size(); i++) {
+            File current = (File) files.get(i);
+            ConfInclude include = (ConfInclude) includes.get(i);
+            if (!current.equals(include.file) || current.lastModified() != include.lastModified) return true;
+        }
+        return false;
+    }
+
+    void addRule(Rule rule) {
+        rules.add(rule);
+    }
+
+    void clearRules() {
+        rules.clear();
+        outboundRules.clear();
+    }
+
+    void addOutboundRule(OutboundRule outboundRule) {
+        outboundRules.add(outboundRule);
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return true if the rules were reused from the previous load rather than loaded from the file again
+     */
+    public boolean isReused() {
+        return reused;
+    }
+
+    public List getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    public List getOutboundRules() {
+        return Collections.unmodifiableList(outboundRules);
+    }
+
+    public String toString() {
+        return file.getPath() + " (" + rules.size() + " rules, " + outboundRules.size() + " outbound rules)";
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds rules that can never do anything so that they can be left out of the rules that are run.  A rule is dead
+ * when it is:
+ * <ul>
+ * <li>disabled (and isn't a filtering rule, which stops rule processing even when not enabled)</li>
+ * <li>after a rule that matches every url, has no conditions or runs and is last, e.g.
+ * <code>&lt;from&gt;^(.*)&lt;/from&gt;</code> (but not <code>^(.*)$</code> as <code>.</code> doesn't match line
+ * terminators)</li>
+ * <li>a duplicate of an earlier last rule, i.e. the same from and conditions, with only last rules without runs in
+ * between, so it can only be reached when the earlier rule didn't match</li>
+ * <li>a rule whose conditions can never all be true, e.g. <code>^GET$</code> and <code>^POST$</code> method conditions,
+ * or the same condition with both the equal and notequal operator</li>
+ * </ul>
+ * This is deliberately conservative, anything that can't be worked out when the conf is loaded (time conditions,
+ * class rules, runs that can carry on the rule chain etc) keeps the rule.  Rules in virtual hosts aren't all run
+ * for every request so are only checked for the first and last of these.
+ */
+public class DeadRuleAnalyser {
+
+    private static Log log = Log.getLog(DeadRuleAnalyser.class);
+
+    /**
+     * The most combinations of values tried when checking if the conditions of a rule can match.
+     */
+    private static final int MAX_COMBINATIONS = 4096;
+
+    private final Rule[] rules;
+    private final boolean inOrder;
+    private final List deadRules = new ArrayList();
+    private Rule[] liveRules;
+
+    /**
+     * @param rules   the rules that will be run
+     * @param inOrder true if all the rules are run, in order, for every request (i.e. there are no virtual hosts)
+     */
+    public DeadRuleAnalyser(Rule[] rules, boolean inOrder) {
+        this.rules = rules;
+        this.inOrder = inOrder;
+    }
+
+    public void analyse() {
+        List live = new ArrayList(rules.length);
+        // match key to the earliest rule with it that stops rule processing when it matches
+        Map stoppingRules = new HashMap();
+        Rule everyUrlRule = null;
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            String reason = null;
+            RuleBase ruleBase = rule instanceof RuleBase ? (RuleBase) rule : null;
+            String matchKey = ruleBase == null ? null : ruleBase.getMatchKey();
+            if (inOrder && everyUrlRule != null) {
+                reason = "never reached as " + everyUrlRule.getDisplayName() + " matches every url and is last";
+            } else if (ruleBase != null && !rule.isFilter()) {
+                if (!ruleBase.isEnabled()) {
+                    reason = "not enabled";
+                } else if (!conditionsCanMatch(ruleBase)) {
+                    reason = "conditions can never all be true";
+                } else if (inOrder && matchKey != null && stoppingRules.containsKey(matchKey)) {
+                    reason = "same from and conditions as " + ((Rule) stoppingRules.get(matchKey)).getDisplayName() +
+                            " which is last";
+                }
+            }
+            if (reason != null) {
+                // dead rules don't change anything so don't affect what comes after
+                deadRules.add(new DeadRule(rule, reason));
+                if (log.isDebugEnabled()) log.debug(rule.getDisplayName() + " is dead, " + reason);
+                continue;
+            }
+            live.add(rule);
+            if (!inOrder) continue;
+            if (ruleBase != null && ruleBase.matchesEveryUrl()) everyUrlRule = rule;
+            if (ruleBase == null || !ruleBase.isStopping()) {
+                // if this matches the url seen by the rules after it can change
+                stoppingRules.clear();
+            } else if (matchKey != null && !stoppingRules.containsKey(matchKey)) {
+                stoppingRules.put(matchKey, rule);
+            }
+        }
+        liveRules = (Rule[]) live.toArray(new Rule[live.size()]);
+    }
+
+    /**
+     * Try the conditions with every combination of the values that make a difference to them.  Method and scheme
+     * conditions that match exactly one value are tried with each value and one matching none, port conditions with
+     * each port and the ports either side.  Other conditions that are only equal or notequal are tried as true and
+     * false, one of each pair of equal and notequal conditions testing the same thing being true means the other is
+     * false.  Anything else is unknown.
+     *
+     * @return false only if no request can match the conditions
+     */
+    static boolean conditionsCanMatch(RuleBase rule) {
+        List conditions = rule.getConditions();
+        if (conditions.isEmpty() || !rule.isValid()) return true;
+
+        List methods = new ArrayList();
+        List schemes = new ArrayList();
+        List ports = new ArrayList();
+        boolean methodsExact = true;
+        boolean schemesExact = true;
+        Boolean methodCaseSensitive = null;
+        Boolean schemeCaseSensitive = null;
+        List valueKeys = new ArrayList();
+        int[] valueKeyIdx = new int[conditions.size()];
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition condition = (Condition) conditions.get(i);
+            valueKeyIdx[i] = -1;
+            if (condition.isRequestKeyCondition()) {
+                if (condition.type == Condition.TYPE_SERVER_PORT) {
+                    int port = (int) condition.getPortValue();
+                    // -1 is unknown
+                    if (port > 0) addIfMissing(ports, new Integer(port - 1));
+                    addIfMissing(ports, new Integer(port));
+                    addIfMissing(ports, new Integer(port + 1));
+                    continue;
+                }
+                boolean method = condition.type == Condition.TYPE_METHOD;
+                String exactValue = condition.getExactValue();
+                Boolean caseSensitive = Boolean.valueOf(condition.isCaseSensitive());
+                if (exactValue == null) {
+                    if (method) methodsExact = false;
+                    else schemesExact = false;
+                } else if (method) {
+                    // values differing only in case can't be told apart if some conditions ignore case and some don't
+                    if (methodCaseSensitive != null && !methodCaseSensitive.equals(caseSensitive)) methodsExact = false;
+                    methodCaseSensitive = caseSensitive;
+                    addIfMissing(methods, exactValue);
+                } else {
+                    if (schemeCaseSensitive != null && !schemeCaseSensitive.equals(caseSensitive)) schemesExact = false;
+                    schemeCaseSensitive = caseSensitive;
+                    addIfMissing(schemes, exactValue);
+                }
+            } else if (condition.isEqualityOperator() && condition.getValueKey() != null) {
+                String valueKey = condition.getValueKey();
+                if (!valueKeys.contains(valueKey)) valueKeys.add(valueKey);
+                valueKeyIdx[i] = valueKeys.indexOf(valueKey);
+            }
+        }
+        addOtherValue(methods, methodsExact);
+        addOtherValue(schemes, schemesExact);
+        if (ports.isEmpty()) ports.add(new Integer(-1));
+        if (valueKeys.size() > 12) return true;
+        long combinations = (long) methods.size() * schemes.size() * ports.size() * (1L << valueKeys.size());
+        if (combinations > MAX_COMBINATIONS) return true;
+
+        int[] outcomes = new int[conditions.size()];
+        for (int m = 0; m < methods.size(); m++) {
+            for (int s = 0; s < schemes.size(); s++) {
+                for (int p = 0; p < ports.size(); p++) {
+                    for (int bits = 0; bits < (1 << valueKeys.size()); bits++) {
+                        for (int i = 0; i < outcomes.length; i++) {
+                            Condition condition = (Condition) conditions.get(i);
+                            if (valueKeyIdx[i] != -1) {
+                                boolean valueMatches = (bits & (1 << valueKeyIdx[i])) != 0;
+                                outcomes[i] = valueMatches != condition.isNotEqualOperator()
+                                        ? Condition.OUTCOME_TRUE : Condition.OUTCOME_FALSE;
+                            } else {
+                                outcomes[i] = condition.getOutcome((String) methods.get(m), (String) schemes.get(s),
+                                        ((Integer) ports.get(p)).intValue());
+                            }
+                        }
+                        if (rule.getConditionsOutcome(outcomes) != Condition.OUTCOME_FALSE) return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a value not matching any exact condition, or if the values aren't all exact replace them with null which is
+     * treated as unknown.
+     */
+    private static void addOtherValue(List values, boolean exact) {
+        if (exact && !values.isEmpty()) {
+            values.add("-");
+        } else {
+            values.clear();
+            values.add(null);
+        }
+    }
+
+    private static void addIfMissing(List list, Object o) {
+        if (!list.contains(o)) list.add(o);
+    }
+
+    /**
+     * @return the rules that aren't dead, in order
+     */
+    public Rule[] getLiveRules() {
+        return liveRules;
+    }
+
+    /**
+     * @return the dead rules as DeadRule's, in order
+     */
+    public List getDeadRules() {
+        return deadRules;
+    }
+
+    /**
+     * A rule that can never do anything and why.
+     */
+    public static class DeadRule {
+        private final Rule rule;
+        private final String reason;
+
+        public DeadRule(Rule rule, String reason) {
+            this.rule = rule;
+            this.reason = reason;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public String toString() {
+            return rule.getDisplayName() + ": " + reason;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: DeadRuleAnalyser <urlrewrite.xml>");
+            System.exit(1);
+        }
+        Conf conf = new Conf(new File(args[0]).toURI().toURL());
+        if (!conf.isOk()) {
+            System.err.println("conf not ok: " + conf.getErrors());
+            System.exit(1);
+        }
+        List deadRules = conf.getDeadRules();
+        System.out.println(deadRules.size() + " of " + conf.getRules().size() + " rules can never do anything");
+        for (int i = 0; i < deadRules.size(); i++) {
+            System.out.println("  " + deadRules.get(i));
+        }
+    }
+}
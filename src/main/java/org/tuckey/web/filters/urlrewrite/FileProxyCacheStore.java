@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Proxy cache entries in files in a directory, one file per entry, entries read often are served from the operating
+ * system's page cache.  The body is read straight into the entry's array.  Bounded by the total size of the files,
+ * least recently used are deleted first.
+ * <p/>
+ * Each store keeps its files in a directory of its own inside the directory it is given, so a store made when the
+ * conf is reloaded doesn't disturb the files of the store it replaces, which may still be in use.  The directory is
+ * removed by {@link #destroy()}.  While a store is open it holds a lock on a file in its directory, directories left
+ * by stores that weren't destroyed (eg, the server was killed) are not locked and are removed when the next store is
+ * created.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class FileProxyCacheStore implements ProxyCacheStore {
+
+    private static Log log = Log.getLog(FileProxyCacheStore.class);
+
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+    private static final String SUFFIX = ".proxycache";
+    private static final int READ_BUFFER_BYTES = 2048;
+    private static final String DIR_PREFIX = "store";
+    private static final String LOCK_FILE_NAME = "lock";
+    // dirs of the stores open in this jvm, their lock files must not be opened as closing them could release the lock
+    private static final Set openDirs = new HashSet();
+
+    private final File dir;
+    private final long maxBytes;
+    private final RandomAccessFile lockFile;
+    private boolean destroyed = false;
+    private long bytes = 0;
+    // key to file length, access ordered, eldest is least recently used
+    private final LinkedHashMap files = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * @param parentDir the store's own directory is made in this, it is created if it doesn't exist
+     */
+    public FileProxyCacheStore(File parentDir, long maxBytes) throws IOException {
+        this.maxBytes = maxBytes;
+        if (!parentDir.isDirectory() && !parentDir.mkdirs()) throw new IOException("could not create " + parentDir);
+        removeAbandoned(parentDir);
+        synchronized (openDirs) {
+            removeAbandoned(parentDir);
+            dir = File.createTempFile(DIR_PREFIX, "", parentDir);
+            if (!dir.delete() || !dir.mkdir()) throw new IOException("could not create " + dir);
+            lockFile = new RandomAccessFile(new File(dir, LOCK_FILE_NAME), "rw");
+            lockFile.getChannel().lock();
+            openDirs.add(dir.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Remove the directories of stores that are no longer open, ie, not open in this jvm and their lock file isn't
+     * locked by another.
+     */
+    private static void removeAbandoned(File parentDir) {
+        File[] dirs = parentDir.listFiles();
+        for (int i = 0; dirs != null && i < dirs.length; i++) {
+            if (!dirs[i].isDirectory() || !dirs[i].getName().startsWith(DIR_PREFIX)) continue;
+            if (openDirs.contains(dirs[i].getAbsoluteFile())) continue;
+            File lock = new File(dirs[i], LOCK_FILE_NAME);
+            if (!lock.isFile()) continue;
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(lock, "rw");
+                if (file.getChannel().tryLock() == null) continue;
+                log.info("removing abandoned proxy cache dir " + dirs[i]);
+                deleteFiles(dirs[i]);
+            } catch (IOException e) {
+                log.debug("could not check proxy cache dir " + dirs[i] + ": " + e);
+                continue;
+            } finally {
+                close(file);
+            }
+            lock.delete();
+            dirs[i].delete();
+        }
+    }
+
+    private static void deleteFiles(File dir) {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (!LOCK_FILE_NAME.equals(files[i].getName())) files[i].delete();
+        }
+    }
+
+    private static void close(RandomAccessFile file) {
+        if (file == null) return;
+        try {
+            file.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Delete the files and the directory of this store, nothing is stored after this.
+     */
+    public synchronized void destroy() {
+        if (destroyed) return;
+        destroyed = true;
+        files.clear();
+        bytes = 0;
+        deleteFiles(dir);
+        // closing releases the lock
+        close(lockFile);
+        new File(dir, LOCK_FILE_NAME).delete();
+        dir.delete();
+        synchronized (openDirs) {
+            openDirs.remove(dir.getAbsoluteFile());
+        }
+    }
+
+    public ProxyCacheEntry get(String key) {
+        synchronized (this) {
+            if (!files.containsKey(key)) return null;
+        }
+        File file = getFile(key);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            // a body bigger than the buffer is mostly read straight into its array, not through the buffer
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in, READ_BUFFER_BYTES));
+            // the file name is a hash of the key, make sure it's the right key
+            if (!key.equals(data.readUTF())) return null;
+            return ProxyCacheEntry.readFrom(data);
+        } catch (IOException e) {
+            log.warn("could not read proxy cache file " + file + ": " + e);
+            remove(key);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    public void put(String key, ProxyCacheEntry entry) {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        byte[] content;
+        try {
+            DataOutputStream out = new DataOutputStream(bytesOut);
+            out.writeUTF(key);
+            entry.writeTo(out);
+            out.flush();
+            content = bytesOut.toByteArray();
+        } catch (IOException e) {
+            // can't happen writing to memory
+            return;
+        }
+        if (content.length > maxBytes / 4) return;
+        File file = getFile(key);
+        synchronized (this) {
+            if (destroyed) return;
+            // one writer at a time, readers of this key may see the old file until the rename
+            File temp = new File(dir, file.getName() + ".tmp");
+            FileOutputStream fileOut = null;
+            try {
+                fileOut = new FileOutputStream(temp);
+                fileOut.write(content);
+                fileOut.close();
+                fileOut = null;
+                if (!temp.renameTo(file)) {
+                    file.delete();
+                    if (!temp.renameTo(file)) throw new IOException("could not rename " + temp + " to " + file);
+                }
+            } catch (IOException e) {
+                log.warn("could not write proxy cache file " + file + ": " + e);
+                temp.delete();
+                return;
+            } finally {
+                if (fileOut != null) {
+                    try {
+                        fileOut.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+            Long previous = (Long) files.remove(key);
+            if (previous != null) bytes -= previous.longValue();
+            files.put(key, new Long(content.length));
+            bytes += content.length;
+            Iterator iterator = files.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Map.Entry eldest = (Map.Entry) iterator.next();
+                iterator.remove();
+                bytes -= ((Long) eldest.getValue()).longValue();
+                getFile((String) eldest.getKey()).delete();
+            }
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Long previous = (Long) files.remove(key);
+        if (previous == null) return;
+        bytes -= previous.longValue();
+        getFile(key).delete();
+    }
+
+    public synchronized int getSize() {
+        return files.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the store's own directory
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    private File getFile(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuffer name = new StringBuffer();
+            for (int i = 0; i < digest.length; i++) {
+                name.append(Integer.toHexString((digest[i] & 0xff) | 0x100).substring(1));
+            }
+            return new File(dir, name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available");
+        } catch (IOException e) {
+            throw new IllegalStateException("UTF-8 not available");
+        }
+    }
+
+}
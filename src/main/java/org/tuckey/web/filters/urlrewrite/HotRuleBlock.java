@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.LiteralPattern;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A run of rules that can be tried in any order, kept in order of how often each rule matches so that the most
+ * used rules are tried first.
+ * <p/>
+ * Rules can be in a block when they are next to each other in the conf and each:
+ * <ul>
+ * <li>has a <code>from</code> that only matches one url, e.g. <code>^/old/page\.html$</code>, different (ignoring
+ * case) to the others in the block</li>
+ * <li>has no <code>set</code> or <code>run</code> elements</li>
+ * <li>has the same <code>last</code> as the others in the block</li>
+ * <li>if not last, rewrites to a plain url that no other rule in the block matches</li>
+ * </ul>
+ * so at most one rule in a block can match a request.  Every {@link #REORDER_INTERVAL} matches the rules are sorted by
+ * how many times each has matched and the new order is published as a new array, the counts are then halved so that
+ * the order follows changes in traffic.  The order can be pinned, in which case counting carries on but the order
+ * stays as it is.
+ *
+ * @see Conf#setReorderRulesEnabled(boolean)
+ */
+public class HotRuleBlock implements Rule {
+
+    private static Log log = Log.getLog(HotRuleBlock.class);
+
+    public static final int REORDER_INTERVAL = 1000;
+
+    private static final int MIN_BLOCK_SIZE = 2;
+
+    private final NormalRule[] rules;
+    private final boolean last;
+    private final AtomicLongArray hits;
+    private final AtomicLong matchCount = new AtomicLong();
+    private final AtomicBoolean reordering = new AtomicBoolean();
+    private volatile Order order;
+    private volatile boolean pinned = false;
+    private volatile int reorderCount = 0;
+
+    /**
+     * The rules in the order they are tried, with the index of each in conf order.
+     */
+    private static class Order {
+        final NormalRule[] rules;
+        final int[] confIdx;
+
+        Order(NormalRule[] rules, int[] confIdx) {
+            this.rules = rules;
+            this.confIdx = confIdx;
+        }
+    }
+
+    HotRuleBlock(NormalRule[] rules) {
+        this.rules = rules;
+        this.last = rules[0].isLast();
+        hits = new AtomicLongArray(rules.length);
+        int[] confIdx = new int[rules.length];
+        for (int i = 0; i < confIdx.length; i++) confIdx[i] = i;
+        order = new Order((NormalRule[]) rules.clone(), confIdx);
+    }
+
+    /**
+     * Replace runs of rules that can be tried in any order with blocks.
+     *
+     * @param rules  the rules that will be run, in order
+     * @param blocks the blocks made are added to this
+     * @return the rules with blocks in place of the rules in them, the same array if there were no blocks
+     */
+    public static Rule[] build(Rule[] rules, List blocks) {
+        List result = new ArrayList(rules.length);
+        List run = new ArrayList();
+        Set runKeys = new HashSet();
+        int blocksBefore = blocks.size();
+        for (int i = 0; i < rules.length; i++) {
+            String key = getKey(rules[i]);
+            if (key != null && !run.isEmpty() && (runKeys.contains(key) ||
+                    ((Rule) run.get(0)).isLast() != rules[i].isLast())) {
+                endRun(run, result, blocks);
+                runKeys.clear();
+            }
+            if (key == null) {
+                endRun(run, result, blocks);
+                runKeys.clear();
+                result.add(rules[i]);
+            } else {
+                run.add(rules[i]);
+                runKeys.add(key);
+            }
+        }
+        endRun(run, result, blocks);
+        if (blocks.size() == blocksBefore) return rules;
+        return (Rule[]) result.toArray(new Rule[result.size()]);
+    }
+
+    private static void endRun(List run, List result, List blocks) {
+        if (run.isEmpty()) return;
+        boolean runLast = ((Rule) run.get(0)).isLast();
+        Set keys = new HashSet();
+        for (int i = 0; i < run.size(); i++) keys.add(getKey((Rule) run.get(i)));
+        List blockRules = new ArrayList();
+        for (int i = 0; i < run.size(); i++) {
+            NormalRule rule = (NormalRule) run.get(i);
+            if (!runLast && targetMightMatch(rule, keys)) {
+                // another rule in the run could match what this one rewrites to so it has to stay where it is
+                addBlock(blockRules, result, blocks);
+                blockRules = new ArrayList();
+                result.add(rule);
+            } else {
+                blockRules.add(rule);
+            }
+        }
+        addBlock(blockRules, result, blocks);
+        run.clear();
+    }
+
+    private static void addBlock(List blockRules, List result, List blocks) {
+        if (blockRules.size() < MIN_BLOCK_SIZE) {
+            result.addAll(blockRules);
+            return;
+        }
+        HotRuleBlock block = new HotRuleBlock((NormalRule[]) blockRules.toArray(new NormalRule[blockRules.size()]));
+        if (log.isDebugEnabled()) log.debug("made " + block.getDisplayName());
+        result.add(block);
+        blocks.add(block);
+    }
+
+    /**
+     * @return the lower case url the rule's from matches or null if the rule can't be in a block
+     */
+    static String getKey(Rule rule) {
+        if (!(rule instanceof NormalRule)) return null;
+        NormalRule normalRule = (NormalRule) rule;
+        if (!normalRule.isValid() || !normalRule.isEnabled() || normalRule.isFilter()) return null;
+        if (normalRule.isMatchTypeWildcard()) return null;
+        if (!normalRule.getRuns().isEmpty() || !normalRule.getSetAttributes().isEmpty()) return null;
+        String literal = LiteralPattern.getLiteral(normalRule.getFrom());
+        return literal == null ? null : literal.toLowerCase();
+    }
+
+    /**
+     * Could the url the rule rewrites to be matched by a rule with one of the keys.  Conservative, anything other
+     * than a plain target might.  A key ending with the target counts as a match as the context path may be added to
+     * the target.
+     */
+    private static boolean targetMightMatch(NormalRule rule, Set keys) {
+        String to = rule.getTo();
+        if (to == null || "-".equals(to)) return false;
+        if (rule.isToContainsBackReference() || rule.isToContainsVariable() || rule.isToContainsFunction() ||
+                rule.getCollapsedTo() != null || rule.getQueryStringAppend() || rule.getToContextStr() != null) {
+            return true;
+        }
+        String target = to.toLowerCase();
+        for (Iterator iterator = keys.iterator(); iterator.hasNext();) {
+            if (((String) iterator.next()).endsWith(target)) return true;
+        }
+        return false;
+    }
+
+    public RewrittenUrl matches(final String url, final HttpServletRequest hsRequest,
+                                final HttpServletResponse hsResponse, final RuleChain chain)
+            throws IOException, ServletException, InvocationTargetException {
+        Order current = order;
+        NormalRule[] currentRules = current.rules;
+        for (int i = 0; i < currentRules.length; i++) {
+            RewrittenUrl rewrittenUrl = currentRules[i].matches(url, hsRequest, hsResponse, chain);
+            if (rewrittenUrl != null) {
+                hits.incrementAndGet(current.confIdx[i]);
+                if (matchCount.incrementAndGet() % REORDER_INTERVAL == 0) reorder();
+                return rewrittenUrl;
+            }
+        }
+        return null;
+    }
+
+    public RewrittenUrl matches(final String url, final HttpServletRequest hsRequest,
+                                final HttpServletResponse hsResponse)
+            throws IOException, ServletException, InvocationTargetException {
+        return matches(url, hsRequest, hsResponse, null);
+    }
+
+    /**
+     * Sort the rules by matches, most first, keeping conf order for rules with the same count.  Does nothing if
+     * pinned or another thread is already reordering.
+     */
+    public void reorder() {
+        if (pinned || !reordering.compareAndSet(false, true)) return;
+        try {
+            int size = rules.length;
+            long[] counts = new long[size];
+            List idxList = new ArrayList(size);
+            for (int i = 0; i < size; i++) {
+                long count = hits.get(i);
+                counts[i] = count;
+                // halve so that old traffic counts for less each time
+                hits.addAndGet(i, -(count / 2));
+                idxList.add(new Integer(i));
+            }
+            final long[] sortCounts = counts;
+            Collections.sort(idxList, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    long count1 = sortCounts[((Integer) o1).intValue()];
+                    long count2 = sortCounts[((Integer) o2).intValue()];
+                    if (count1 != count2) return count1 > count2 ? -1 : 1;
+                    return ((Integer) o1).compareTo((Integer) o2);
+                }
+            });
+            NormalRule[] newRules = new NormalRule[size];
+            int[] newConfIdx = new int[size];
+            for (int i = 0; i < size; i++) {
+                newConfIdx[i] = ((Integer) idxList.get(i)).intValue();
+                newRules[i] = rules[newConfIdx[i]];
+            }
+            order = new Order(newRules, newConfIdx);
+            reorderCount++;
+        } finally {
+            reordering.set(false);
+        }
+    }
+
+    /**
+     * @return the rules in the order they are currently tried
+     */
+    public NormalRule[] getOrderedRules() {
+        return (NormalRule[]) order.rules.clone();
+    }
+
+    /**
+     * @return the (decaying) match count for the rules in the order they are currently tried
+     */
+    public long[] getOrderedHits() {
+        int[] confIdx = order.confIdx;
+        long[] orderedHits = new long[confIdx.length];
+        for (int i = 0; i < confIdx.length; i++) orderedHits[i] = hits.get(confIdx[i]);
+        return orderedHits;
+    }
+
+    /**
+     * @return the rules in conf order
+     */
+    public NormalRule[] getRules() {
+        return (NormalRule[]) rules.clone();
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * Stop (or allow) the order changing.
+     */
+    public void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+
+    public int getReorderCount() {
+        return reorderCount;
+    }
+
+    public boolean initialise(ServletContext context) {
+        // the rules are initialised by the conf before being put in a block
+        return true;
+    }
+
+    public void destroy() {
+        // the rules are destroyed by the conf
+    }
+
+    public String getName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Rule block of " + rules.length + " rules (" + rules[0].getDisplayName() + " to " +
+                rules[rules.length - 1].getDisplayName() + ")";
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public void setId(int i) {
+        // the rules keep their own ids
+    }
+
+    public int getId() {
+        return rules[0].getId();
+    }
+
+    public boolean isValid() {
+        return true;
+    }
+
+    public boolean isFilter() {
+        return false;
+    }
+
+    public List getErrors() {
+        return Collections.EMPTY_LIST;
+    }
+
+}
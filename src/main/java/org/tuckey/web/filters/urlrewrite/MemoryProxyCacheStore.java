@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Proxy cache entries in memory, bounded by their total size, least recently used are removed first.  When there is
+ * an overflow store (eg, a {@link FileProxyCacheStore}) entries removed to make room are moved to it and
+ * entries not in memory are looked for in it, and moved back into memory when found.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class MemoryProxyCacheStore implements ProxyCacheStore {
+
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final long maxBytes;
+    private final ProxyCacheStore overflow;
+    private long bytes = 0;
+    // access ordered, eldest is least recently used
+    private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    public MemoryProxyCacheStore() {
+        this(DEFAULT_MAX_BYTES, null);
+    }
+
+    /**
+     * @param overflow null for memory only
+     */
+    public MemoryProxyCacheStore(long maxBytes, ProxyCacheStore overflow) {
+        this.maxBytes = maxBytes;
+        this.overflow = overflow;
+    }
+
+    public ProxyCacheEntry get(String key) {
+        synchronized (this) {
+            ProxyCacheEntry entry = (ProxyCacheEntry) entries.get(key);
+            if (entry != null || overflow == null) return entry;
+        }
+        ProxyCacheEntry entry = overflow.get(key);
+        if (entry != null) {
+            overflow.remove(key);
+            put(key, entry);
+        }
+        return entry;
+    }
+
+    public void put(String key, ProxyCacheEntry entry) {
+        List evicted = new ArrayList();
+        synchronized (this) {
+            ProxyCacheEntry previous = (ProxyCacheEntry) entries.remove(key);
+            if (previous != null) bytes -= previous.getSizeInBytes();
+            if (entry.getSizeInBytes() > maxBytes / 4) {
+                // never worth pushing everything else out for one response
+                evicted.add(new Object[]{key, entry});
+            } else {
+                entries.put(key, entry);
+                bytes += entry.getSizeInBytes();
+                Iterator iterator = entries.entrySet().iterator();
+                while (bytes > maxBytes && iterator.hasNext()) {
+                    Map.Entry eldest = (Map.Entry) iterator.next();
+                    iterator.remove();
+                    bytes -= ((ProxyCacheEntry) eldest.getValue()).getSizeInBytes();
+                    evicted.add(new Object[]{eldest.getKey(), eldest.getValue()});
+                }
+            }
+        }
+        if (overflow == null) return;
+        // written outside the lock, the overflow store may be slow
+        for (int i = 0; i < evicted.size(); i++) {
+            Object[] keyAndEntry = (Object[]) evicted.get(i);
+            overflow.put((String) keyAndEntry[0], (ProxyCacheEntry) keyAndEntry[1]);
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            ProxyCacheEntry previous = (ProxyCacheEntry) entries.remove(key);
+            if (previous != null) bytes -= previous.getSizeInBytes();
+        }
+        if (overflow != null) overflow.remove(key);
+    }
+
+    /**
+     * @return the number of entries in memory
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return the size of the entries in memory
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the store entries overflow to or null
+     */
+    public ProxyCacheStore getOverflow() {
+        return overflow;
+    }
+
+}
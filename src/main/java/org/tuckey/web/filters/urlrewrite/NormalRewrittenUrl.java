@@ -69,6 +69,12 @@ public class NormalRewrittenUrl implements RewrittenUrl {
     private boolean noSubstitution = false;
     private RewriteMatch rewriteMatch;
     private ServletContext targetContext = null;
+    private ResponseCache responseCache = null;
+    private long cacheMillis = 0;
+    private ProxyCoalescer proxyCoalescer = null;
+    private long coalesceWaitMillis = 0;
+    private ProxyCache proxyCache = null;
+    private Upstream upstream = null;
 
     /**
      * Holds information about the rewirtten url.
@@ -210,14 +216,19 @@ public class NormalRewrittenUrl implements RewrittenUrl {
                         " (check you haven't done anything to the response (ie, written to it) before here)");
             } else {
           		final RequestDispatcher rq = getRequestDispatcher(hsRequest, target, targetContext);
-                rq.forward(hsRequest, hsResponse);
+                if (responseCache != null) {
+                    responseCache.dispatch(true, ResponseCache.getKey(true, target, targetContext, hsRequest),
+                            cacheMillis, rq, hsRequest, hsResponse);
+                } else {
+                    rq.forward(hsRequest, hsResponse);
+                }
                 if (log.isTraceEnabled()) log.trace("forwarded to " + target);
             }
             requestRewritten = true;
 
         } else if (isPreInclude()) {
       		final RequestDispatcher rq = getRequestDispatcher(hsRequest, target, targetContext);
-            rq.include(hsRequest, hsResponse);
+            include(rq, target, hsRequest, hsResponse);
             chain.doFilter(hsRequest, hsResponse);
             requestRewritten = true;
             if (log.isTraceEnabled()) log.trace("preinclded " + target);
@@ -225,7 +236,7 @@ public class NormalRewrittenUrl implements RewrittenUrl {
         } else if (isPostInclude()) {
       		final RequestDispatcher rq = getRequestDispatcher(hsRequest, target, targetContext);
             chain.doFilter(hsRequest, hsResponse);
-            rq.include(hsRequest, hsResponse);
+            include(rq, target, hsRequest, hsResponse);
             requestRewritten = true;
             if (log.isTraceEnabled()) log.trace("postinclded " + target);
 
@@ -274,7 +285,13 @@ public class NormalRewrittenUrl implements RewrittenUrl {
             if (hsResponse.isCommitted()) {
                 log.error("response is committed. cannot proxy " + target + ". Check that you havn't written to the response before.");
             } else {
-                RequestProxy.execute(target, hsRequest, hsResponse);
+                if (upstream != null) {
+                    RequestProxy.execute(target, hsRequest, hsResponse, upstream);
+                } else if (proxyCache != null) {
+                    RequestProxy.execute(target, hsRequest, hsResponse, proxyCache);
+                } else {
+                    RequestProxy.execute(target, hsRequest, hsResponse, proxyCoalescer, coalesceWaitMillis);
+                }
                 if (log.isTraceEnabled()) {
                     log.trace("Proxied request to " + target);
                 }
@@ -284,6 +301,16 @@ public class NormalRewrittenUrl implements RewrittenUrl {
         return requestRewritten;
     }
 
+    private void include(RequestDispatcher rq, String target, HttpServletRequest hsRequest,
+                         HttpServletResponse hsResponse) throws IOException, ServletException {
+        if (responseCache != null) {
+            responseCache.dispatch(false, ResponseCache.getKey(false, target, targetContext, hsRequest),
+                    cacheMillis, rq, hsRequest, hsResponse);
+        } else {
+            rq.include(hsRequest, hsResponse);
+        }
+    }
+
     private RequestDispatcher getRequestDispatcher(final HttpServletRequest hsRequest, String toUrl,
                                                    ServletContext targetContext) throws ServletException {
         final RequestDispatcher rq = (targetContext != null) ? targetContext.getRequestDispatcher(target) : hsRequest.getRequestDispatcher(toUrl);
@@ -308,6 +335,56 @@ public class NormalRewrittenUrl implements RewrittenUrl {
         this.targetContext = targetContext;
     }
 
+    /**
+     * Serve forwards and includes from the cache.
+     *
+     * @param cacheMillis how long the target's output can be served from the cache for
+     */
+    public void setResponseCache(ResponseCache responseCache, long cacheMillis) {
+        this.responseCache = responseCache;
+        this.cacheMillis = cacheMillis;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Share proxy requests between identical GETs at the same time.
+     *
+     * @param waitMillis how long to wait for a shared request before sending our own
+     */
+    public void setProxyCoalescer(ProxyCoalescer proxyCoalescer, long waitMillis) {
+        this.proxyCoalescer = proxyCoalescer;
+        this.coalesceWaitMillis = waitMillis;
+    }
+
+    public ProxyCoalescer getProxyCoalescer() {
+        return proxyCoalescer;
+    }
+
+    /**
+     * Answer proxied GETs from the cache when the target's response allows it.
+     */
+    public void setProxyCache(ProxyCache proxyCache) {
+        this.proxyCache = proxyCache;
+    }
+
+    public ProxyCache getProxyCache() {
+        return proxyCache;
+    }
+
+    /**
+     * Send the request to a server of this upstream, for targets of the form upstream:name/path.
+     */
+    public void setUpstream(Upstream upstream) {
+        this.upstream = upstream;
+    }
+
+    public Upstream getUpstream() {
+        return upstream;
+    }
+
     public boolean isNoSubstitution() {
         return noSubstitution;
     }
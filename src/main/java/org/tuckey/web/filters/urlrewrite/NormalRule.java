@@ -35,6 +35,7 @@
 package org.tuckey.web.filters.urlrewrite;
 
 import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.NumberUtils;
 import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
 
 import javax.servlet.ServletContext;
@@ -70,6 +71,17 @@ public class NormalRule extends RuleBase implements Rule {
     private boolean queryStringAppend = false;
     private String toContextStr = null;
     private ServletContext toServletContext = null;
+    private String collapsedTo = null;
+    private boolean collapsedToContextRelative = false;
+    private String toCacheStr = null;
+    private long toCacheMillis = 0;
+    private boolean toProxyCache = false;
+    private ProxyCache proxyCache = null;
+    private Upstream upstream = null;
+    private ResponseCache responseCache = null;
+    private String toCoalesceStr = null;
+    private long toCoalesceWaitMillis = 0;
+    private ProxyCoalescer proxyCoalescer = null;
 
     /**
      * Constructor.
@@ -94,6 +106,10 @@ public class NormalRule extends RuleBase implements Rule {
             // no match, or run/set only match
             return null;
         }
+        if (collapsedTo != null) {
+            ruleExecutionOutput.setReplacedUrl(collapsedToContextRelative
+                    ? StringUtils.notNull(hsRequest.getContextPath()) + collapsedTo : collapsedTo);
+        }
         if ( queryStringAppend && hsRequest.getQueryString() != null && hsRequest.getQueryString().length() > 0) {
             String target = ruleExecutionOutput.getReplacedUrl();
             if (target.contains("?")) {
@@ -104,7 +120,20 @@ public class NormalRule extends RuleBase implements Rule {
         }
        
         if ( toServletContext != null ) ruleExecutionOutput.setReplacedUrlContext(toServletContext);
-        return RuleExecutionOutput.getRewritenUrl(toType, encodeToUrl, ruleExecutionOutput);
+        RewrittenUrl rewrittenUrl = RuleExecutionOutput.getRewritenUrl(toType, encodeToUrl, ruleExecutionOutput);
+        if (responseCache != null && toCacheMillis > 0 && rewrittenUrl instanceof NormalRewrittenUrl) {
+            ((NormalRewrittenUrl) rewrittenUrl).setResponseCache(responseCache, toCacheMillis);
+        }
+        if (proxyCoalescer != null && rewrittenUrl instanceof NormalRewrittenUrl) {
+            ((NormalRewrittenUrl) rewrittenUrl).setProxyCoalescer(proxyCoalescer, toCoalesceWaitMillis);
+        }
+        if (proxyCache != null && rewrittenUrl instanceof NormalRewrittenUrl) {
+            ((NormalRewrittenUrl) rewrittenUrl).setProxyCache(proxyCache);
+        }
+        if (upstream != null && rewrittenUrl instanceof NormalRewrittenUrl) {
+            ((NormalRewrittenUrl) rewrittenUrl).setUpstream(upstream);
+        }
+        return rewrittenUrl;
     }
 
     public RewrittenUrl matches(final String url, final HttpServletRequest hsRequest,
@@ -143,6 +172,33 @@ public class NormalRule extends RuleBase implements Rule {
             }
         }
 
+        if (toType == TO_TYPE_PROXY && !StringUtils.isBlank(toCacheStr)) {
+            // how long is up to the target's headers
+            toProxyCache = "true".equalsIgnoreCase(toCacheStr.trim());
+            if (!toProxyCache && !"false".equalsIgnoreCase(toCacheStr.trim())) {
+                addError("cache (" + toCacheStr + ") must be true or false for proxy, the target's headers say how long");
+            }
+        } else if (!StringUtils.isBlank(toCacheStr)) {
+            toCacheMillis = parseDuration(toCacheStr);
+            if (toCacheMillis <= 0) {
+                addError("cache (" + toCacheStr + ") must be a time greater than 0, eg, 30s, 5m or 1h");
+            } else if (toType != TO_TYPE_FORWARD && toType != TO_TYPE_PRE_INCLUDE && toType != TO_TYPE_POST_INCLUDE) {
+                addError("cache can only be used with forward, pre-include, post-include and proxy");
+            }
+        }
+
+        if (!StringUtils.isBlank(toCoalesceStr) && !"false".equalsIgnoreCase(toCoalesceStr.trim())) {
+            toCoalesceWaitMillis = "true".equalsIgnoreCase(toCoalesceStr.trim())
+                    ? ProxyCoalescer.DEFAULT_WAIT_MILLIS : parseDuration(toCoalesceStr);
+            if (toCoalesceWaitMillis <= 0) {
+                addError("coalesce (" + toCoalesceStr + ") must be true, false or the time to wait, eg, 5s");
+            } else if (toType != TO_TYPE_PROXY) {
+                addError("coalesce can only be used with proxy");
+            } else if (toProxyCache) {
+                addError("coalesce and cache cannot both be used on a proxy rule");
+            }
+        }
+
         if (errors.size() > 0) {
             ok = false;
         }
@@ -232,6 +288,101 @@ public class NormalRule extends RuleBase implements Rule {
         return toServletContext;
     }
 
+    /**
+     * How long the output of the target can be served from the {@link ResponseCache} for, eg, 30s, 500ms, 5m or 1h,
+     * seconds if there are no units.  For proxy rules true or false, the {@link ProxyCache} follows the target's
+     * headers.
+     */
+    public void setToCache(String toCacheStr) {
+        this.toCacheStr = toCacheStr;
+    }
+
+    public String getToCache() {
+        return toCacheStr;
+    }
+
+    /**
+     * @return the time from the cache attribute in milliseconds, 0 if not cached
+     */
+    public long getToCacheMillis() {
+        return toCacheMillis;
+    }
+
+    /**
+     * @return true if this is a proxy rule with cache="true", see {@link ProxyCache}
+     */
+    public boolean isToProxyCache() {
+        return toProxyCache;
+    }
+
+    public void setProxyCache(ProxyCache proxyCache) {
+        this.proxyCache = proxyCache;
+    }
+
+    /**
+     * @return the upstream name if this is a proxy rule to upstream:name/path, null otherwise
+     */
+    public String getToUpstreamName() {
+        return toType == TO_TYPE_PROXY ? Upstream.getName(getTo()) : null;
+    }
+
+    public void setUpstream(Upstream upstream) {
+        this.upstream = upstream;
+    }
+
+    public Upstream getUpstream() {
+        return upstream;
+    }
+
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Share requests to the proxy target between identical GETs at the same time, true or false, or the time to
+     * wait for the shared request, eg, 5s, see {@link ProxyCoalescer}.
+     */
+    public void setToCoalesce(String toCoalesceStr) {
+        this.toCoalesceStr = toCoalesceStr;
+    }
+
+    public String getToCoalesce() {
+        return toCoalesceStr;
+    }
+
+    /**
+     * @return how long requests wait for a shared proxy request in milliseconds, 0 if proxy requests aren't shared
+     */
+    public long getToCoalesceWaitMillis() {
+        return toCoalesceWaitMillis;
+    }
+
+    public void setProxyCoalescer(ProxyCoalescer proxyCoalescer) {
+        this.proxyCoalescer = proxyCoalescer;
+    }
+
+    /**
+     * @return the time in milliseconds or -1 if it isn't valid
+     */
+    static long parseDuration(String durationStr) {
+        String s = StringUtils.trim(durationStr).toLowerCase();
+        long multiplier = 1000;
+        if (s.endsWith("ms")) {
+            multiplier = 1;
+            s = s.substring(0, s.length() - 2);
+        } else if (s.endsWith("s")) {
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("m")) {
+            multiplier = 60 * 1000;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("h")) {
+            multiplier = 60 * 60 * 1000;
+            s = s.substring(0, s.length() - 1);
+        }
+        long value = NumberUtils.stringToLong(s.trim(), -1);
+        return value < 0 ? -1 : value * multiplier;
+    }
+
     public void setQueryStringAppend(String value) {
         queryStringAppend = "true".equalsIgnoreCase(value);
     }
@@ -239,4 +390,23 @@ public class NormalRule extends RuleBase implements Rule {
     public boolean getQueryStringAppend() {
     	return queryStringAppend;
     }
+
+    /**
+     * Redirect to the end of a redirect chain instead of "to", see {@link RedirectChainCollapser}.
+     *
+     * @param collapsedTo the final target
+     * @param contextRelative true if the context path should be added to the target
+     */
+    public void setCollapsedTo(String collapsedTo, boolean contextRelative) {
+        this.collapsedTo = collapsedTo;
+        this.collapsedToContextRelative = contextRelative;
+    }
+
+    /**
+     * @return the target this rule will redirect to if it is the start of a collapsed redirect chain, otherwise null
+     */
+    public String getCollapsedTo() {
+        if (collapsedTo == null) return null;
+        return collapsedToContextRelative ? "%{context-path}" + collapsedTo : collapsedTo;
+    }
 }
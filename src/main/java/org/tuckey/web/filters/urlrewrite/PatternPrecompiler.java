@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.CompilablePattern;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import java.util.List;
+
+/**
+ * Keeps track of the patterns of a conf that are compiled on first use and, when started, compiles them on a low
+ * priority background thread in the order the rules run so that the first requests don't have to.  Patterns that
+ * have already been compiled by a request are skipped.
+ */
+public class PatternPrecompiler implements java.lang.Runnable {
+
+    private static Log log = Log.getLog(PatternPrecompiler.class);
+
+    private final CompilablePattern[] patterns;
+    private volatile boolean stopped = false;
+    private volatile boolean finished = false;
+    private volatile int precompiledCount = 0;
+    private volatile Thread thread;
+
+    /**
+     * @param patterns the patterns in the order they should be compiled
+     */
+    public PatternPrecompiler(List patterns) {
+        this.patterns = (CompilablePattern[]) patterns.toArray(new CompilablePattern[patterns.size()]);
+    }
+
+    /**
+     * Start compiling on a background thread.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this, "urlrewrite-precompile");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop compiling, patterns not yet compiled will be compiled when first used.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public void run() {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < patterns.length && !stopped; i++) {
+            CompilablePattern pattern = patterns[i];
+            if (pattern.isCompiled()) continue;
+            pattern.compile();
+            precompiledCount++;
+        }
+        finished = !stopped;
+        if (log.isDebugEnabled()) {
+            log.debug("precompiled " + precompiledCount + " of " + patterns.length + " patterns in " +
+                    (System.currentTimeMillis() - start) + "ms" + (stopped ? " (stopped)" : ""));
+        }
+    }
+
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * @return the number of patterns that have not been compiled, either by a request or in the background
+     */
+    public int getUncompiledCount() {
+        int count = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            if (!patterns[i].isCompiled()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of patterns compiled in the background
+     */
+    public int getPrecompiledCount() {
+        return precompiledCount;
+    }
+
+    public boolean isStarted() {
+        return thread != null;
+    }
+
+    /**
+     * @return true if every pattern has been compiled in the background (or was already)
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+}
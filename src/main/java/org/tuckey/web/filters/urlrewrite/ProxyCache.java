@@ -0,0 +1,423 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches responses from proxy targets for proxy rules with cache="true" on "to", following the caching headers
+ * the target sends as a shared cache would (RFC 2616 section 13):
+ * <ul>
+ * <li>responses are only stored if they are 200, without Cache-Control no-store or private, and are either fresh
+ * for some time (s-maxage, max-age, Expires or a heuristic from Last-Modified) or have an ETag or Last-Modified;</li>
+ * <li>fresh responses are served without contacting the target;</li>
+ * <li>stale responses are revalidated with If-None-Match/If-Modified-Since, a 304 means the stored body is sent;</li>
+ * <li>with stale-while-revalidate a stale response is sent straight away and revalidated on a background thread,
+ * there are a few of these per cache and if they have too much queued the revalidation is left for a later
+ * request.</li>
+ * </ul>
+ * Only GETs without an Authorization header use the cache, and a request with Cache-Control or Pragma no-cache
+ * always goes to the target (revalidating if possible).
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class ProxyCache {
+
+    private static Log log = Log.getLog(ProxyCache.class);
+
+    public static final int DEFAULT_MAX_ENTRY_BYTES = 2 * 1024 * 1024;
+    static final int REVALIDATE_THREADS = 2;
+    static final int MAX_QUEUED_REVALIDATIONS = 64;
+
+    private final ProxyCacheStore store;
+    private final int maxEntryBytes;
+    // keys being revalidated in the background
+    private final Set revalidating = new HashSet();
+    private long hitCount = 0;
+    private long staleHitCount = 0;
+    private long missCount = 0;
+    private long revalidationCount = 0;
+    private long notModifiedCount = 0;
+    private long backgroundRevalidationCount = 0;
+    private long storedCount = 0;
+    private long notStoredCount = 0;
+    private long revalidationsSkippedCount = 0;
+    private final ThreadPoolExecutor revalidator = new ThreadPoolExecutor(REVALIDATE_THREADS, REVALIDATE_THREADS,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue(MAX_QUEUED_REVALIDATIONS), new RevalidateThreadFactory());
+
+    public ProxyCache(ProxyCacheStore store, int maxEntryBytes) {
+        this.store = store;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Stop the background revalidation threads, revalidations not yet started are dropped.  Called by the conf when
+     * it is retired or destroyed.
+     */
+    public void shutdown() {
+        revalidator.shutdownNow();
+    }
+
+    public boolean canCache(HttpServletRequest hsRequest) {
+        return "GET".equalsIgnoreCase(hsRequest.getMethod()) && hsRequest.getHeader("Authorization") == null;
+    }
+
+    public void execute(URL url, HttpServletRequest hsRequest, HttpServletResponse hsResponse) throws IOException {
+        String key = url.toExternalForm();
+        long now = System.currentTimeMillis();
+        List requestHeaders = getRequestHeaders(hsRequest);
+        ProxyCacheEntry entry = store.get(key);
+        if (entry != null && !entry.matches(requestHeaders)) entry = null;
+        if (entry != null && !isNoCache(hsRequest)) {
+            if (entry.isFresh(now)) {
+                synchronized (this) {
+                    hitCount++;
+                }
+                if (log.isDebugEnabled()) log.debug("serving fresh " + key + " from cache");
+                serve(entry, hsRequest, hsResponse, now);
+                return;
+            }
+            if (entry.isStaleUsable(now)) {
+                synchronized (this) {
+                    staleHitCount++;
+                }
+                if (log.isDebugEnabled()) log.debug("serving stale " + key + " from cache, revalidating");
+                serve(entry, hsRequest, hsResponse, now);
+                revalidateInBackground(key, url, (String) hsRequest.getAttribute("use-proxy"), requestHeaders, entry);
+                return;
+            }
+        }
+
+        List sentHeaders = new ArrayList(requestHeaders);
+        if (entry != null && entry.hasValidator()) {
+            synchronized (this) {
+                revalidationCount++;
+            }
+            addConditionalHeaders(sentHeaders, entry);
+        } else {
+            synchronized (this) {
+                missCount++;
+            }
+            entry = null;
+        }
+        HttpMethod targetRequest = RequestProxy.fetchGet(url, (String) hsRequest.getAttribute("use-proxy"),
+                sentHeaders);
+        try {
+            now = System.currentTimeMillis();
+            List headers = RequestProxy.getResponseHeaders(targetRequest);
+            int statusCode = targetRequest.getStatusCode();
+            if (statusCode == HttpServletResponse.SC_NOT_MODIFIED && entry != null) {
+                synchronized (this) {
+                    notModifiedCount++;
+                }
+                entry = entry.revalidated(headers, now);
+                store.put(key, entry);
+                serve(entry, hsRequest, hsResponse, now);
+                return;
+            }
+            InputStream in = targetRequest.getResponseBodyAsStream();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            boolean fits = in == null || readUpTo(in, buffer, maxEntryBytes);
+            ProxyCacheEntry fresh = fits
+                    ? ProxyCacheEntry.create(statusCode, headers, buffer.toByteArray(), now, requestHeaders) : null;
+            store(key, fresh);
+            RequestProxy.setupResponseHeaders(headers, statusCode, hsResponse);
+            if (in != null) {
+                OutputStream out = hsResponse.getOutputStream();
+                buffer.writeTo(out);
+                if (!fits) RequestProxy.copyStream(in, out);
+            }
+        } finally {
+            targetRequest.releaseConnection();
+        }
+    }
+
+    private void store(String key, ProxyCacheEntry entry) {
+        if (entry == null) {
+            synchronized (this) {
+                notStoredCount++;
+            }
+            store.remove(key);
+            return;
+        }
+        synchronized (this) {
+            storedCount++;
+        }
+        store.put(key, entry);
+    }
+
+    /**
+     * Revalidate on another thread, the request may have finished by the time it runs so everything needed from it
+     * is copied first.  Only one revalidation per key at a time, if the revalidation threads are behind it is
+     * skipped and the next request for the stale entry tries again.
+     */
+    private void revalidateInBackground(final String key, final URL url, final String useProxy,
+                                        final List requestHeaders, final ProxyCacheEntry entry) {
+        synchronized (revalidating) {
+            if (!revalidating.add(key)) return;
+        }
+        java.lang.Runnable revalidation = new java.lang.Runnable() {
+            public void run() {
+                try {
+                    revalidate(key, url, useProxy, requestHeaders, entry);
+                } catch (IOException e) {
+                    log.warn("could not revalidate " + key + ": " + e);
+                } finally {
+                    synchronized (revalidating) {
+                        revalidating.remove(key);
+                    }
+                }
+            }
+        };
+        try {
+            revalidator.execute(revalidation);
+        } catch (RejectedExecutionException e) {
+            synchronized (revalidating) {
+                revalidating.remove(key);
+            }
+            synchronized (this) {
+                revalidationsSkippedCount++;
+            }
+            if (log.isDebugEnabled()) log.debug("not revalidating " + key + ", revalidation threads busy or stopped");
+            return;
+        }
+        synchronized (this) {
+            backgroundRevalidationCount++;
+        }
+    }
+
+    private static class RevalidateThreadFactory implements ThreadFactory {
+        private int threadCount = 0;
+
+        public synchronized Thread newThread(java.lang.Runnable runnable) {
+            Thread thread = new Thread(runnable, "urlrewrite-proxy-cache-revalidate-" + (++threadCount));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private void revalidate(String key, URL url, String useProxy, List requestHeaders, ProxyCacheEntry entry)
+            throws IOException {
+        List sentHeaders = new ArrayList(requestHeaders);
+        if (entry.hasValidator()) {
+            synchronized (this) {
+                revalidationCount++;
+            }
+            addConditionalHeaders(sentHeaders, entry);
+        }
+        HttpMethod targetRequest = RequestProxy.fetchGet(url, useProxy, sentHeaders);
+        try {
+            long now = System.currentTimeMillis();
+            List headers = RequestProxy.getResponseHeaders(targetRequest);
+            int statusCode = targetRequest.getStatusCode();
+            if (statusCode == HttpServletResponse.SC_NOT_MODIFIED && entry.hasValidator()) {
+                synchronized (this) {
+                    notModifiedCount++;
+                }
+                store.put(key, entry.revalidated(headers, now));
+                return;
+            }
+            InputStream in = targetRequest.getResponseBodyAsStream();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            boolean fits = in == null || readUpTo(in, buffer, maxEntryBytes);
+            store(key, fits ? ProxyCacheEntry.create(statusCode, headers, buffer.toByteArray(), now, requestHeaders) : null);
+        } finally {
+            targetRequest.releaseConnection();
+        }
+    }
+
+    /**
+     * Send an entry, or a 304 if the request's own If-None-Match or If-Modified-Since match it.
+     */
+    private static void serve(ProxyCacheEntry entry, HttpServletRequest hsRequest, HttpServletResponse hsResponse,
+                              long now) throws IOException {
+        if (isNotModified(entry, hsRequest)) {
+            hsResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            if (entry.getEtag() != null) hsResponse.setHeader("ETag", entry.getEtag());
+            return;
+        }
+        RequestProxy.setupResponseHeaders(entry.getHeaders(), entry.getStatusCode(), hsResponse);
+        hsResponse.setHeader("Age", String.valueOf(entry.getAge(now)));
+        hsResponse.setContentLength(entry.getBody().length);
+        hsResponse.getOutputStream().write(entry.getBody());
+    }
+
+    private static boolean isNotModified(ProxyCacheEntry entry, HttpServletRequest hsRequest) {
+        String ifNoneMatch = hsRequest.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (entry.getEtag() == null) return false;
+            String[] tags = ifNoneMatch.split(",");
+            for (int i = 0; i < tags.length; i++) {
+                String tag = tags[i].trim();
+                if ("*".equals(tag) || tag.equals(entry.getEtag())) return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = hsRequest.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null && entry.getLastModified() != null) {
+            try {
+                return !DateUtil.parseDate(entry.getLastModified()).after(DateUtil.parseDate(ifModifiedSince));
+            } catch (DateParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNoCache(HttpServletRequest hsRequest) {
+        String cacheControl = hsRequest.getHeader("Cache-Control");
+        String pragma = hsRequest.getHeader("Pragma");
+        return (cacheControl != null && cacheControl.toLowerCase().indexOf("no-cache") != -1)
+                || (pragma != null && pragma.toLowerCase().indexOf("no-cache") != -1);
+    }
+
+    /**
+     * The request's headers without its own conditional headers, they are for the client's copy not ours.
+     */
+    private static List getRequestHeaders(HttpServletRequest hsRequest) {
+        List headers = RequestProxy.getRequestHeaders(hsRequest);
+        List withoutConditional = new ArrayList();
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = (Header) headers.get(i);
+            if (!header.getName().toLowerCase().startsWith("if-")) withoutConditional.add(header);
+        }
+        return withoutConditional;
+    }
+
+    private static void addConditionalHeaders(List requestHeaders, ProxyCacheEntry entry) {
+        if (entry.getEtag() != null) requestHeaders.add(new Header("If-None-Match", entry.getEtag()));
+        if (entry.getLastModified() != null) {
+            requestHeaders.add(new Header("If-Modified-Since", entry.getLastModified()));
+        }
+    }
+
+    /**
+     * @return true if the whole stream was read, false if it had more than max bytes
+     */
+    private static boolean readUpTo(InputStream in, ByteArrayOutputStream buffer, int max) throws IOException {
+        byte[] buf = new byte[8192];
+        int count;
+        while ((count = in.read(buf)) != -1) {
+            buffer.write(buf, 0, count);
+            if (buffer.size() > max) return false;
+        }
+        return true;
+    }
+
+    public ProxyCacheStore getStore() {
+        return store;
+    }
+
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @return the number of fresh responses served without contacting the target
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of stale responses served while being revalidated in the background
+     */
+    public synchronized long getStaleHitCount() {
+        return staleHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of conditional requests sent to targets
+     */
+    public synchronized long getRevalidationCount() {
+        return revalidationCount;
+    }
+
+    /**
+     * @return the number of conditional requests the target answered with 304 not modified
+     */
+    public synchronized long getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    public synchronized long getBackgroundRevalidationCount() {
+        return backgroundRevalidationCount;
+    }
+
+    public synchronized long getStoredCount() {
+        return storedCount;
+    }
+
+    /**
+     * @return the number of responses that couldn't be stored (status, headers or size)
+     */
+    public synchronized long getNotStoredCount() {
+        return notStoredCount;
+    }
+
+    /**
+     * @return the number of background revalidations not done because too many were queued already
+     */
+    public synchronized long getRevalidationsSkippedCount() {
+        return revalidationsSkippedCount;
+    }
+
+}
@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.tuckey.web.filters.urlrewrite.utils.NumberUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response from a proxy target held by a {@link ProxyCache}, with how long it is fresh for worked out from the
+ * target's Cache-Control, Expires, Date and Last-Modified headers as RFC 2616 section 13 does for a shared cache.
+ * Entries are not changed once created, revalidating creates a new entry.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class ProxyCacheEntry {
+
+    // freshness when there are no explicit expiry headers is 10% of the time since last modified, up to a day
+    private static final long MAX_HEURISTIC_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final int statusCode;
+    // Header objects, without Age which is worked out when the entry is served
+    private final List headers;
+    private final byte[] body;
+    private final long responseTime;
+    private final long freshUntil;
+    private final long staleUntil;
+    private final String etag;
+    private final String lastModified;
+    // request header name to the value the request had for it, for headers in the response's Vary
+    private final Map varyValues;
+
+    ProxyCacheEntry(int statusCode, List headers, byte[] body, long responseTime, long freshUntil, long staleUntil,
+                    Map varyValues) {
+        this.statusCode = statusCode;
+        this.headers = Collections.unmodifiableList(new ArrayList(headers));
+        this.body = body;
+        this.responseTime = responseTime;
+        this.freshUntil = freshUntil;
+        this.staleUntil = staleUntil;
+        this.varyValues = Collections.unmodifiableMap(new HashMap(varyValues));
+        this.etag = getHeader(headers, "ETag");
+        this.lastModified = getHeader(headers, "Last-Modified");
+    }
+
+    /**
+     * Create an entry for a response if it can be stored by a shared cache.
+     *
+     * @param headers        the response's headers (see {@link RequestProxy#getResponseHeaders})
+     * @param now            when the response was received
+     * @param requestHeaders the headers sent to the target, for the values of the headers in Vary
+     * @return the entry or null if the response can't be stored
+     */
+    static ProxyCacheEntry create(int statusCode, List headers, byte[] body, long now, List requestHeaders) {
+        if (statusCode != 200) return null;
+        Map cacheControl = getCacheControl(headers);
+        if (cacheControl.containsKey("no-store") || cacheControl.containsKey("private")) return null;
+        Map varyValues = new HashMap();
+        List varyHeaders = getHeaders(headers, "Vary");
+        for (int i = 0; i < varyHeaders.size(); i++) {
+            String[] names = ((String) varyHeaders.get(i)).split(",");
+            for (int j = 0; j < names.length; j++) {
+                String name = names[j].trim();
+                if ("*".equals(name)) return null;
+                if (name.length() > 0) varyValues.put(name.toLowerCase(), getHeader(requestHeaders, name));
+            }
+        }
+        long lifetime = Math.max(getFreshnessLifetime(headers, cacheControl, now), 0);
+        long staleWhileRevalidate = getStaleWhileRevalidate(cacheControl);
+        boolean hasValidator = getHeader(headers, "ETag") != null || getHeader(headers, "Last-Modified") != null;
+        // never usable without going to the target and can't be revalidated, not worth keeping
+        if (lifetime == 0 && staleWhileRevalidate == 0 && !hasValidator) return null;
+        return new ProxyCacheEntry(statusCode, withoutAge(headers), body, now, now + lifetime,
+                now + lifetime + staleWhileRevalidate, varyValues);
+    }
+
+    /**
+     * Create an entry from this one after the target said it is unchanged (a 304), headers in the 304 replace ones
+     * with the same name.  Content-Length is kept, it is the length of the stored body not of the 304.
+     */
+    ProxyCacheEntry revalidated(List notModifiedHeaders, long now) {
+        List updates = new ArrayList();
+        List notModified = withoutAge(notModifiedHeaders);
+        for (int i = 0; i < notModified.size(); i++) {
+            Header header = (Header) notModified.get(i);
+            if (!"Content-Length".equalsIgnoreCase(header.getName())) updates.add(header);
+        }
+        List merged = new ArrayList();
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = (Header) headers.get(i);
+            if (getHeader(updates, header.getName()) == null) merged.add(header);
+        }
+        merged.addAll(updates);
+        Map cacheControl = getCacheControl(merged);
+        long lifetime = Math.max(getFreshnessLifetime(merged, cacheControl, now), 0);
+        return new ProxyCacheEntry(statusCode, merged, body, now, now + lifetime,
+                now + lifetime + getStaleWhileRevalidate(cacheControl), varyValues);
+    }
+
+    /**
+     * s-maxage, then max-age, then Expires less Date, then a heuristic based on Last-Modified, less any Age the
+     * response already had.  no-cache and must-revalidate on a response with no expiry mean always revalidate.
+     *
+     * @return milliseconds, 0 or less if the response is stale straight away
+     */
+    static long getFreshnessLifetime(List headers, Map cacheControl, long now) {
+        long lifetime;
+        if (cacheControl.containsKey("no-cache")) {
+            return 0;
+        } else if (cacheControl.containsKey("s-maxage")) {
+            lifetime = getSeconds(cacheControl, "s-maxage") * 1000;
+        } else if (cacheControl.containsKey("max-age")) {
+            lifetime = getSeconds(cacheControl, "max-age") * 1000;
+        } else {
+            long date = getDateHeader(headers, "Date", now);
+            String expires = getHeader(headers, "Expires");
+            String lastModified = getHeader(headers, "Last-Modified");
+            if (expires != null) {
+                // an invalid date (eg, 0) means already expired
+                lifetime = getDateHeader(headers, "Expires", date) - date;
+            } else if (lastModified != null && !cacheControl.containsKey("must-revalidate")) {
+                long modified = getDateHeader(headers, "Last-Modified", date);
+                lifetime = Math.min((date - modified) / 10, MAX_HEURISTIC_MILLIS);
+            } else {
+                return 0;
+            }
+        }
+        String age = getHeader(headers, "Age");
+        if (age != null) lifetime -= Math.max(NumberUtils.stringToLong(age.trim(), 0), 0) * 1000;
+        return lifetime;
+    }
+
+    private static long getStaleWhileRevalidate(Map cacheControl) {
+        if (cacheControl.containsKey("must-revalidate") || cacheControl.containsKey("proxy-revalidate")) return 0;
+        return getSeconds(cacheControl, "stale-while-revalidate") * 1000;
+    }
+
+    /**
+     * @return directive name (lower case) to value, "" for directives without a value
+     */
+    static Map getCacheControl(List headers) {
+        Map directives = new HashMap();
+        List values = getHeaders(headers, "Cache-Control");
+        for (int i = 0; i < values.size(); i++) {
+            String[] parts = ((String) values.get(i)).split(",");
+            for (int j = 0; j < parts.length; j++) {
+                String part = parts[j].trim();
+                if (part.length() == 0) continue;
+                int equals = part.indexOf('=');
+                if (equals == -1) {
+                    directives.put(part.toLowerCase(), "");
+                } else {
+                    String value = part.substring(equals + 1).trim();
+                    if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    directives.put(part.substring(0, equals).trim().toLowerCase(), value);
+                }
+            }
+        }
+        return directives;
+    }
+
+    private static long getSeconds(Map cacheControl, String directive) {
+        String value = (String) cacheControl.get(directive);
+        if (value == null) return 0;
+        return Math.max(NumberUtils.stringToLong(value, 0), 0);
+    }
+
+    private static long getDateHeader(List headers, String name, long defaultValue) {
+        String value = getHeader(headers, name);
+        if (value == null) return defaultValue;
+        try {
+            return DateUtil.parseDate(value).getTime();
+        } catch (DateParseException e) {
+            return defaultValue;
+        }
+    }
+
+    static String getHeader(List headers, String name) {
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = (Header) headers.get(i);
+            if (header.getName().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    private static List getHeaders(List headers, String name) {
+        List values = new ArrayList();
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = (Header) headers.get(i);
+            if (header.getName().equalsIgnoreCase(name)) values.add(header.getValue());
+        }
+        return values;
+    }
+
+    private static List withoutAge(List headers) {
+        List without = new ArrayList();
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = (Header) headers.get(i);
+            if (!"Age".equalsIgnoreCase(header.getName())) without.add(header);
+        }
+        return without;
+    }
+
+    /**
+     * @param requestHeaders the headers that would be sent to the target
+     * @return true if the request has the same values as the request this was stored for, for the headers in Vary
+     */
+    public boolean matches(List requestHeaders) {
+        for (Iterator iterator = varyValues.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            String value = getHeader(requestHeaders, (String) entry.getKey());
+            if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) return false;
+        }
+        return true;
+    }
+
+    public boolean isFresh(long now) {
+        return now < freshUntil;
+    }
+
+    /**
+     * @return true if stale but can be served while it is revalidated (stale-while-revalidate)
+     */
+    public boolean isStaleUsable(long now) {
+        return now >= freshUntil && now < staleUntil;
+    }
+
+    /**
+     * @return seconds since the response was received from (or revalidated with) the target
+     */
+    public long getAge(long now) {
+        return Math.max(now - responseTime, 0) / 1000;
+    }
+
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * @return roughly how much memory the entry uses
+     */
+    public long getSizeInBytes() {
+        long size = body.length + 64;
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = (Header) headers.get(i);
+            size += (header.getName().length() + header.getValue().length()) * 2 + 32;
+        }
+        return size;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public List getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return the body, must not be changed
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getFreshUntil() {
+        return freshUntil;
+    }
+
+    public long getStaleUntil() {
+        return staleUntil;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(statusCode);
+        out.writeLong(responseTime);
+        out.writeLong(freshUntil);
+        out.writeLong(staleUntil);
+        out.writeInt(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = (Header) headers.get(i);
+            out.writeUTF(header.getName());
+            out.writeUTF(header.getValue());
+        }
+        out.writeInt(varyValues.size());
+        for (Iterator iterator = varyValues.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            out.writeUTF((String) entry.getKey());
+            out.writeBoolean(entry.getValue() != null);
+            if (entry.getValue() != null) out.writeUTF((String) entry.getValue());
+        }
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    public static ProxyCacheEntry readFrom(DataInputStream in) throws IOException {
+        int statusCode = in.readInt();
+        long responseTime = in.readLong();
+        long freshUntil = in.readLong();
+        long staleUntil = in.readLong();
+        int headerCount = in.readInt();
+        List headers = new ArrayList(headerCount);
+        for (int i = 0; i < headerCount; i++) headers.add(new Header(in.readUTF(), in.readUTF()));
+        int varyCount = in.readInt();
+        Map varyValues = new HashMap();
+        for (int i = 0; i < varyCount; i++) {
+            String name = in.readUTF();
+            varyValues.put(name, in.readBoolean() ? in.readUTF() : null);
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new ProxyCacheEntry(statusCode, headers, body, responseTime, freshUntil, staleUntil, varyValues);
+    }
+
+}
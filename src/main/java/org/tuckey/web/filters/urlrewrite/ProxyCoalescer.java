@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares one request to a proxy target between identical GETs that arrive while it is in progress, for proxy rules
+ * with a coalesce attribute on "to", eg, &lt;to type="proxy" coalesce="true"&gt;.  The first request goes to the
+ * target, requests for the same url that arrive before it completes wait for it and are sent the same status,
+ * headers and body.
+ * <p/>
+ * The response is only shared if the body fits in the buffer and, when the target's response has a Vary header,
+ * the waiting request has the same values for the headers it lists.  Otherwise, or if the wait times out, waiting
+ * requests send their own request to the target.  Requests with an Authorization header are never shared, nor are
+ * responses with Cache-Control private or no-store or that set a cookie, as a shared cache wouldn't store them.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class ProxyCoalescer {
+
+    private static Log log = Log.getLog(ProxyCoalescer.class);
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+    public static final long DEFAULT_WAIT_MILLIS = 10000;
+
+    private final int maxBodyBytes;
+    // url to the request in progress for it
+    private final Map inFlight = new HashMap();
+    private long fetchCount = 0;
+    private long sharedCount = 0;
+    private long notSharedCount = 0;
+    private long timedOutCount = 0;
+    private int waitingCount = 0;
+
+    public ProxyCoalescer(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Only GETs, and only for requests without credentials of their own.
+     */
+    public boolean canCoalesce(HttpServletRequest hsRequest) {
+        return "GET".equalsIgnoreCase(hsRequest.getMethod()) && hsRequest.getHeader("Authorization") == null;
+    }
+
+    public void execute(URL url, HttpServletRequest hsRequest, HttpServletResponse hsResponse, long waitMillis)
+            throws IOException {
+        String key = url.toExternalForm();
+        Flight flight;
+        boolean leader = false;
+        synchronized (inFlight) {
+            flight = (Flight) inFlight.get(key);
+            if (flight == null) {
+                flight = new Flight();
+                inFlight.put(key, flight);
+                leader = true;
+            }
+        }
+        if (leader) {
+            try {
+                fetch(flight, url, hsRequest, hsResponse);
+            } finally {
+                synchronized (inFlight) {
+                    inFlight.remove(key);
+                }
+                flight.done.countDown();
+            }
+            return;
+        }
+
+        boolean done;
+        synchronized (this) {
+            waitingCount++;
+        }
+        try {
+            done = flight.done.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for " + key);
+        } finally {
+            synchronized (this) {
+                waitingCount--;
+            }
+        }
+        SharedResponse shared = flight.response;
+        if (!done) {
+            synchronized (this) {
+                timedOutCount++;
+            }
+            if (log.isDebugEnabled()) log.debug("timed out waiting for " + key + ", sending own request");
+        } else if (shared != null && shared.matches(hsRequest)) {
+            synchronized (this) {
+                sharedCount++;
+            }
+            if (log.isDebugEnabled()) log.debug("sending shared response for " + key);
+            shared.writeTo(hsResponse);
+            return;
+        } else {
+            synchronized (this) {
+                notSharedCount++;
+            }
+        }
+        fetchOwn(url, hsRequest, hsResponse);
+    }
+
+    /**
+     * Fetch from the target for this request and any waiting on it.
+     */
+    private void fetch(Flight flight, URL url, HttpServletRequest hsRequest, HttpServletResponse hsResponse)
+            throws IOException {
+        synchronized (this) {
+            fetchCount++;
+        }
+        HttpMethod targetRequest = RequestProxy.fetch(url, hsRequest);
+        if (targetRequest == null) return;
+        try {
+            List headers = RequestProxy.getResponseHeaders(targetRequest);
+            int statusCode = targetRequest.getStatusCode();
+            InputStream in = targetRequest.getResponseBodyAsStream();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            boolean fits = in == null || readUpTo(in, buffer, maxBodyBytes);
+            Map varyValues = getVaryValues(targetRequest, hsRequest);
+            String notSharedReason = getNotSharedReason(headers);
+            if (fits && varyValues != null && notSharedReason == null) {
+                flight.response = new SharedResponse(statusCode, headers, buffer.toByteArray(), varyValues);
+            } else if (log.isDebugEnabled()) {
+                log.debug("response from " + url + " not shared, " +
+                        (!fits ? "body too big" : varyValues == null ? "Vary *" : notSharedReason));
+            }
+            RequestProxy.setupResponseHeaders(headers, statusCode, hsResponse);
+            if (in != null) {
+                OutputStream out = hsResponse.getOutputStream();
+                buffer.writeTo(out);
+                if (!fits) RequestProxy.copyStream(in, out);
+            }
+        } finally {
+            targetRequest.releaseConnection();
+        }
+    }
+
+    private void fetchOwn(URL url, HttpServletRequest hsRequest, HttpServletResponse hsResponse) throws IOException {
+        HttpMethod targetRequest = RequestProxy.fetch(url, hsRequest);
+        if (targetRequest == null) return;
+        try {
+            RequestProxy.setupResponseHeaders(RequestProxy.getResponseHeaders(targetRequest),
+                    targetRequest.getStatusCode(), hsResponse);
+            InputStream in = targetRequest.getResponseBodyAsStream();
+            if (in != null) RequestProxy.copyStream(in, hsResponse.getOutputStream());
+        } finally {
+            targetRequest.releaseConnection();
+        }
+    }
+
+    /**
+     * @return why a response is only for the client that asked for it, or null if it can be sent to others
+     */
+    static String getNotSharedReason(List headers) {
+        Map cacheControl = ProxyCacheEntry.getCacheControl(headers);
+        if (cacheControl.containsKey("no-store")) return "Cache-Control no-store";
+        if (cacheControl.containsKey("private")) return "Cache-Control private";
+        if (ProxyCacheEntry.getHeader(headers, "Set-Cookie") != null) return "cookies set";
+        return null;
+    }
+
+    /**
+     * @return true if the whole stream was read, false if it had more than max bytes
+     */
+    private static boolean readUpTo(InputStream in, ByteArrayOutputStream buffer, int max) throws IOException {
+        byte[] buf = new byte[8192];
+        int count;
+        while ((count = in.read(buf)) != -1) {
+            buffer.write(buf, 0, count);
+            if (buffer.size() > max) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the values the request has for the headers in the response's Vary header, or null for Vary *
+     */
+    private static Map getVaryValues(HttpMethod targetRequest, HttpServletRequest hsRequest) {
+        Map values = new HashMap();
+        Header[] varyHeaders = targetRequest.getResponseHeaders("Vary");
+        for (int i = 0; i < varyHeaders.length; i++) {
+            String[] names = varyHeaders[i].getValue().split(",");
+            for (int j = 0; j < names.length; j++) {
+                String name = names[j].trim();
+                if (name.length() == 0) continue;
+                if ("*".equals(name)) return null;
+                values.put(name, hsRequest.getHeader(name));
+            }
+        }
+        return values;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * @return the number of requests sent to targets for other requests to share
+     */
+    public synchronized long getFetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * @return the number of requests sent a shared response instead of requesting the target themselves
+     */
+    public synchronized long getSharedCount() {
+        return sharedCount;
+    }
+
+    /**
+     * @return the number of waiting requests that couldn't use the shared response (body too big, Vary etc)
+     */
+    public synchronized long getNotSharedCount() {
+        return notSharedCount;
+    }
+
+    public synchronized long getTimedOutCount() {
+        return timedOutCount;
+    }
+
+    /**
+     * @return the number of requests waiting for a shared response now
+     */
+    public synchronized int getWaitingCount() {
+        return waitingCount;
+    }
+
+    private static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        // set before done is counted down
+        private volatile SharedResponse response;
+    }
+
+    private static class SharedResponse {
+        private final int statusCode;
+        private final List headers;
+        private final byte[] body;
+        private final Map varyValues;
+
+        SharedResponse(int statusCode, List headers, byte[] body, Map varyValues) {
+            this.statusCode = statusCode;
+            this.headers = new ArrayList(headers);
+            this.body = body;
+            this.varyValues = varyValues;
+        }
+
+        boolean matches(HttpServletRequest hsRequest) {
+            for (Iterator iterator = varyValues.entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry entry = (Map.Entry) iterator.next();
+                String value = hsRequest.getHeader((String) entry.getKey());
+                if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) return false;
+            }
+            return true;
+        }
+
+        void writeTo(HttpServletResponse hsResponse) throws IOException {
+            RequestProxy.setupResponseHeaders(headers, statusCode, hsResponse);
+            hsResponse.getOutputStream().write(body);
+        }
+    }
+
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.RegexBudgetExceededException;
+import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds chains of redirects, e.g. rule 12 redirects <code>/a</code> to <code>/b</code> and rule 340 redirects
+ * <code>/b</code> to <code>/c</code>, and makes the first rule redirect straight to the final destination, saving the
+ * client a round trip per hop.
+ * <p/>
+ * This is deliberately conservative, a chain is only collapsed when the outcome of every hop can be worked out when
+ * the conf is loaded:
+ * <ul>
+ * <li>the first rule must be a redirect from an anchored regex (<code>^...$</code>) to a literal path, optionally
+ * starting with <code>%{context-path}</code></li>
+ * <li>each following request is simulated by running the rules against the redirect target, any rule that could
+ * match and has conditions, sets, runs or a "to" using anything other than backreferences stops the analysis for
+ * that chain</li>
+ * <li>a permanent redirect is only collapsed through permanent redirects</li>
+ * </ul>
+ * Targets without <code>%{context-path}</code> are assumed to be paths that the rules see, i.e. the web app is deployed
+ * as the root context.
+ */
+public class RedirectChainCollapser {
+
+    private static Log log = Log.getLog(RedirectChainCollapser.class);
+
+    private static final String CONTEXT_PATH_PREFIX = "%{context-path}";
+    private static final int MAX_HOPS = 20;
+
+    private final Rule[] rules;
+    private final List collapsed = new ArrayList();
+    private final List loops = new ArrayList();
+
+    /**
+     * Used to run simple rules when simulating requests, they only call setAttribute.
+     */
+    private static final HttpServletRequest SIMULATED_REQUEST = (HttpServletRequest) Proxy.newProxyInstance(
+            RedirectChainCollapser.class.getClassLoader(), new Class[]{HttpServletRequest.class},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    Class returnType = method.getReturnType();
+                    if (returnType == boolean.class) return Boolean.FALSE;
+                    if (returnType == int.class) return new Integer(0);
+                    if (returnType == long.class) return new Long(0);
+                    if (returnType == String.class && "getContextPath".equals(method.getName())) return "";
+                    return null;
+                }
+            });
+
+    public RedirectChainCollapser(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Analyse the rules and if apply is true point rules at the end of their chains.
+     */
+    public void collapse(boolean apply) {
+        List targets = new ArrayList();
+        List targetRules = new ArrayList();
+        for (int i = 0; i < rules.length; i++) {
+            if (!isCollapsible(rules[i])) continue;
+            NormalRule rule = (NormalRule) rules[i];
+            boolean permanent = rule.toType == NormalRule.TO_TYPE_PERMANENT_REDIRECT;
+            Hop start = new Hop(getPath(rule.getTo()), rule.getTo().startsWith(CONTEXT_PATH_PREFIX), permanent);
+
+            StringBuffer chain = new StringBuffer(start.getTarget());
+            Set seen = new HashSet();
+            seen.add(start.path);
+            Hop end = start;
+            boolean loop = false;
+            for (int hopCount = 0; hopCount < MAX_HOPS; hopCount++) {
+                if (!isSimulatable(end.path)) break;
+                Hop next = simulate(end.path, 0);
+                if (next == null || !next.redirect || (permanent && !next.permanent)) break;
+                chain.append(" -> ").append(next.getTarget());
+                if (!seen.add(next.path)) {
+                    loop = true;
+                    break;
+                }
+                end = next;
+            }
+            if (loop) {
+                loops.add(rule.getDisplayName() + ": " + rule.getFrom() + " -> " + chain);
+                continue;
+            }
+            if (end == start) continue;
+            // if other rules can run after this one they must not be affected by the change
+            if (!rule.isLast() && (hasEffect(start.path, i + 1) || hasEffect(end.path, i + 1))) continue;
+            collapsed.add(rule.getDisplayName() + ": " + rule.getFrom() + " -> " + chain);
+            targets.add(end);
+            targetRules.add(rule);
+        }
+        if (apply) {
+            // applied after the analysis so that each chain is worked out using the original rules
+            for (int i = 0; i < targetRules.size(); i++) {
+                Hop end = (Hop) targets.get(i);
+                ((NormalRule) targetRules.get(i)).setCollapsedTo(end.path, end.contextRelative);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("collapsed " + collapsed.size() + " redirect chains, found " + loops.size() + " loops");
+        }
+    }
+
+    /**
+     * The first rule in a chain must always redirect to the same literal target when it matches.
+     */
+    private static boolean isCollapsible(Rule rule) {
+        if (!(rule instanceof NormalRule)) return false;
+        NormalRule normalRule = (NormalRule) rule;
+        if (!normalRule.isEnabled() || !normalRule.isValid() || normalRule.isFilter()) return false;
+        if (!isRedirect(normalRule.toType)) return false;
+        if (normalRule.getQueryStringAppend() || normalRule.getToContextStr() != null) return false;
+        if (!normalRule.getRuns().isEmpty() || normalRule.isMatchTypeWildcard()) return false;
+        String from = normalRule.getFrom();
+        if (from == null || !from.startsWith("^") || !from.endsWith("$") || from.endsWith("\\$")) return false;
+        // a top level alternative would not be anchored
+        if (from.indexOf('|') != -1) return false;
+        String to = normalRule.getTo();
+        if (to == null) return false;
+        String path = getPath(to);
+        return path.indexOf('$') == -1 && path.indexOf('%') == -1 && path.indexOf('\\') == -1 &&
+                path.indexOf('{') == -1 && isSimulatable(path);
+    }
+
+    /**
+     * A rule that runs the same way for every request so can be run with a simulated request.
+     */
+    private static boolean isSimple(Rule rule) {
+        if (!(rule instanceof NormalRule)) return false;
+        NormalRule normalRule = (NormalRule) rule;
+        if (normalRule.isFilter() || normalRule.isNoSubstitution()) return false;
+        if (!normalRule.getConditions().isEmpty() || !normalRule.getSetAttributes().isEmpty() ||
+                !normalRule.getRuns().isEmpty()) return false;
+        if (normalRule.getQueryStringAppend() || normalRule.getToContextStr() != null) return false;
+        String to = normalRule.getTo();
+        if (StringUtils.isBlank(to) || "-".equals(to)) return false;
+        String path = getPath(to);
+        return !normalRule.isToContainsFunction() && path.indexOf("%{") == -1;
+    }
+
+    /**
+     * Run the rules from startIdx as RuleChain would for a request for url.
+     *
+     * @return the outcome, or null if it depends on the request
+     */
+    private Hop simulate(String url, int startIdx) {
+        String currentUrl = url;
+        Hop hop = new Hop(url, false, false);
+        for (int i = startIdx; i < rules.length; i++) {
+            Rule rule = rules[i];
+            if (!(rule instanceof RuleBase)) return null;
+            RuleBase ruleBase = (RuleBase) rule;
+            RewrittenUrl rewrittenUrl;
+            try {
+                if (!ruleBase.isEnabled() || !ruleBase.fromMatches(currentUrl)) {
+                    // filter rules stop processing even when they don't match
+                    if (rule.isFilter()) break;
+                    continue;
+                }
+                if (!isSimple(rule)) return null;
+                rewrittenUrl = rule.matches(currentUrl, SIMULATED_REQUEST, null, null);
+            } catch (RegexBudgetExceededException e) {
+                // what the rule would do with a real request is not known
+                log.debug("could not simulate " + rule.getDisplayName() + " for " + currentUrl + ", " + e.getMessage());
+                return null;
+            } catch (Exception e) {
+                log.debug("could not simulate " + rule.getDisplayName() + " for " + currentUrl, e);
+                return null;
+            }
+            if (rewrittenUrl == null) continue;
+            NormalRule normalRule = (NormalRule) rule;
+            currentUrl = rewrittenUrl.getTarget();
+            hop = new Hop(currentUrl, normalRule.getTo().startsWith(CONTEXT_PATH_PREFIX),
+                    normalRule.toType == NormalRule.TO_TYPE_PERMANENT_REDIRECT);
+            hop.redirect = isRedirect(normalRule.toType);
+            hop.rewritten = true;
+            if (rule.isLast()) break;
+        }
+        return hop;
+    }
+
+    /**
+     * @return true if any rule from startIdx could rewrite url
+     */
+    private boolean hasEffect(String url, int startIdx) {
+        Hop hop = simulate(url, startIdx);
+        return hop == null || hop.rewritten;
+    }
+
+    private static boolean isRedirect(short toType) {
+        return toType == NormalRule.TO_TYPE_REDIRECT || toType == NormalRule.TO_TYPE_PERMANENT_REDIRECT ||
+                toType == NormalRule.TO_TYPE_TEMPORARY_REDIRECT;
+    }
+
+    private static String getPath(String to) {
+        return to.startsWith(CONTEXT_PATH_PREFIX) ? to.substring(CONTEXT_PATH_PREFIX.length()) : to;
+    }
+
+    /**
+     * Only plain paths can be followed, the rules would see an encoded or query string target differently to the
+     * way it is written in the conf.
+     */
+    private static boolean isSimulatable(String path) {
+        if (!path.startsWith("/") || path.startsWith("//")) return false;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '?' || c == '#' || c == '%' || c == ';' || c == '+' || c <= ' ') return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return descriptions of the chains collapsed
+     */
+    public List getCollapsed() {
+        return collapsed;
+    }
+
+    /**
+     * @return descriptions of the redirect loops found
+     */
+    public List getLoops() {
+        return loops;
+    }
+
+    private static class Hop {
+        final String path;
+        final boolean contextRelative;
+        final boolean permanent;
+        boolean redirect = false;
+        boolean rewritten = false;
+
+        Hop(String path, boolean contextRelative, boolean permanent) {
+            this.path = path;
+            this.contextRelative = contextRelative;
+            this.permanent = permanent;
+        }
+
+        String getTarget() {
+            return contextRelative ? CONTEXT_PATH_PREFIX + path : path;
+        }
+    }
+
+    /**
+     * Print the redirect chains that would be collapsed for a conf file.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: RedirectChainCollapser <urlrewrite.xml>");
+            System.exit(1);
+        }
+        Conf conf = new Conf(new File(args[0]).toURI().toURL());
+        if (!conf.isOk()) {
+            System.err.println("conf not ok: " + conf.getErrors());
+            System.exit(1);
+        }
+        RedirectChainCollapser collapser = new RedirectChainCollapser(conf.getRuntimeRules());
+        collapser.collapse(false);
+        System.out.println(collapser.getCollapsed().size() + " redirect chains can be collapsed");
+        for (int i = 0; i < collapser.getCollapsed().size(); i++) {
+            System.out.println("  " + collapser.getCollapsed().get(i));
+        }
+        System.out.println(collapser.getLoops().size() + " redirect loops");
+        for (int i = 0; i < collapser.getLoops().size(); i++) {
+            System.out.println("  " + collapser.getLoops().get(i));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.maps.RewriteMap;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rule that redirects urls found in a redirect table.  The table is a memory mapped hash file built from a CSV
+ * of old url, new url pairs by {@link org.tuckey.web.filters.urlrewrite.maps.HashFileBuilder}, tens of millions of
+ * redirects can be used without using any heap.
+ * <p/>
+ * The url is looked up exactly as other rules see it (i.e. including the query string if use-query-string is set).
+ */
+public class RedirectTableRule implements Rule {
+
+    private static Log log = Log.getLog(RedirectTableRule.class);
+
+    private String fileStr;
+    private String statusStr;
+    private short toType = NormalRule.TO_TYPE_PERMANENT_REDIRECT;
+    private int reloadCheckInterval = RewriteMap.DEFAULT_RELOAD_CHECK_INTERVAL;
+    private RewriteMap table;
+    private int id;
+    private boolean enabled = true;
+    private boolean valid = false;
+    private boolean initialised = false;
+    private List errors = new ArrayList();
+
+    public RewrittenUrl matches(final String url, final HttpServletRequest hsRequest,
+                                final HttpServletResponse hsResponse, final RuleChain chain) {
+        return matches(url, hsRequest, hsResponse);
+    }
+
+    public RewrittenUrl matches(final String url, final HttpServletRequest hsRequest,
+                                final HttpServletResponse hsResponse) {
+        if (!initialised || !valid || !enabled || url == null) return null;
+        String location = table.get(url);
+        if (location == null) return null;
+        if (log.isDebugEnabled()) log.debug(getDisplayName() + " matched " + url);
+        return RuleExecutionOutput.getRewritenUrl(toType, false, new RuleExecutionOutput(location, true, null));
+    }
+
+    public boolean initialise(ServletContext context) {
+        initialised = true;
+        if (StringUtils.isBlank(fileStr)) {
+            addError("file must be specified");
+            return false;
+        }
+        if (statusStr == null || "301".equals(statusStr)) {
+            toType = NormalRule.TO_TYPE_PERMANENT_REDIRECT;
+        } else if ("302".equals(statusStr)) {
+            toType = NormalRule.TO_TYPE_TEMPORARY_REDIRECT;
+        } else {
+            addError("status " + statusStr + " is not supported, use 301 or 302");
+            return false;
+        }
+        table = new RewriteMap();
+        table.setName(fileStr);
+        table.setType(RewriteMap.TYPE_HASH);
+        table.setFileStr(fileStr);
+        table.setReloadCheckInterval(reloadCheckInterval);
+        if (!table.initialise(context)) {
+            addError(table.getError());
+            return false;
+        }
+        valid = true;
+        return true;
+    }
+
+    public void destroy() {
+        // nothing to destroy
+    }
+
+    public String getName() {
+        return fileStr;
+    }
+
+    public String getDisplayName() {
+        return "Redirect Table " + fileStr;
+    }
+
+    public boolean isLast() {
+        return true;
+    }
+
+    public void setId(int i) {
+        this.id = i;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public boolean isFilter() {
+        return false;
+    }
+
+    public List getErrors() {
+        return errors;
+    }
+
+    private void addError(String s) {
+        log.error(getDisplayName() + " had error: " + s);
+        errors.add(s);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getFileStr() {
+        return fileStr;
+    }
+
+    public void setFileStr(String fileStr) {
+        this.fileStr = fileStr;
+    }
+
+    public String getStatusStr() {
+        return statusStr;
+    }
+
+    public void setStatusStr(String statusStr) {
+        this.statusStr = StringUtils.trimToNull(statusStr);
+    }
+
+    public int getReloadCheckInterval() {
+        return reloadCheckInterval;
+    }
+
+    public void setReloadCheckInterval(int reloadCheckInterval) {
+        this.reloadCheckInterval = reloadCheckInterval;
+    }
+
+    /**
+     * @return the number of redirects in the table
+     */
+    public int getSize() {
+        return table == null ? 0 : table.getSize();
+    }
+}
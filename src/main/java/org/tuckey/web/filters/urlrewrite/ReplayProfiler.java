@@ -0,0 +1,614 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays an access log through the rules of a conf without a container and reports how often each rule is run,
+ * how often it matches and how long it takes.  Useful for checking a conf change against real traffic before
+ * deploying it, eg:
+ * <pre>
+ * java -cp urlrewritefilter.jar:servlet-api.jar org.tuckey.web.filters.urlrewrite.ReplayProfiler \
+ *     [-threads n] [-top n] urlrewrite.xml access.log
+ * </pre>
+ * The log is read as it is replayed (a <code>.gz</code> log is uncompressed on the fly) so any size of log can be
+ * used.  Lines can be in Apache/NCSA common or combined format or just a url (optionally after a method) per line,
+ * absolute urls set the scheme, server name and port.  Requests are replayed on several threads (by default one per
+ * processor), each rule's numbers are for the time spent in that rule only.  Rules are profiled in conf order, rules
+ * that reorder-rules would keep in a block are run one by one so each has its own numbers.
+ * <p/>
+ * Rules are run as for a real request but the outcome (forward, redirect etc) is not carried out.  Note, run
+ * elements are invoked so should not have side effects that matter outside a container.
+ */
+public class ReplayProfiler {
+
+    private static final int BATCH_SIZE = 256;
+    private static final long QUEUE_WAIT_MILLIS = 100;
+    private static final List END = new ArrayList();
+
+    private final Conf conf;
+    private final int threads;
+    private final Rule[] rules;
+    private final Map ruleIdx = new IdentityHashMap();
+
+    private long requestCount;
+    private long rewrittenCount;
+    private long errorCount;
+    private long skippedCount;
+    private long elapsedNanos;
+    private long[] evaluations;
+    private long[] matches;
+    private long[] nanos;
+
+    public ReplayProfiler(Conf conf, int threads) {
+        this.conf = conf;
+        this.threads = Math.max(1, threads);
+        List ruleList = new ArrayList();
+        Rule[] runtimeRules = conf.getRuntimeRules();
+        for (int i = 0; i < runtimeRules.length; i++) {
+            if (runtimeRules[i] instanceof HotRuleBlock) {
+                NormalRule[] blockRules = ((HotRuleBlock) runtimeRules[i]).getRules();
+                for (int j = 0; j < blockRules.length; j++) ruleList.add(blockRules[j]);
+            } else {
+                ruleList.add(runtimeRules[i]);
+            }
+        }
+        rules = (Rule[]) ruleList.toArray(new Rule[ruleList.size()]);
+        for (int i = 0; i < rules.length; i++) {
+            ruleIdx.put(rules[i], new Integer(i));
+        }
+    }
+
+    /**
+     * Replay every line from the reader, the reader is read to the end but not closed.
+     */
+    public void replay(final BufferedReader reader) throws IOException, InterruptedException {
+        final BlockingQueue queue = new ArrayBlockingQueue(threads * 4);
+        Worker[] workers = new Worker[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(queue);
+            workers[i].setName("urlrewrite-replay-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        try {
+            List batch = new ArrayList(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE) {
+                    put(queue, batch, workers);
+                    batch = new ArrayList(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) put(queue, batch, workers);
+        } finally {
+            for (int i = 0; i < workers.length; i++) {
+                while (!queue.offer(END, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (!isAnyAlive(workers)) break;
+                }
+            }
+        }
+        evaluations = new long[rules.length];
+        matches = new long[rules.length];
+        nanos = new long[rules.length];
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            worker.join();
+            checkFailed(worker);
+            requestCount += worker.requestCount;
+            rewrittenCount += worker.rewrittenCount;
+            errorCount += worker.errorCount;
+            skippedCount += worker.skippedCount;
+            for (int j = 0; j < rules.length; j++) {
+                evaluations[j] += worker.evaluations[j];
+                matches[j] += worker.matches[j];
+                nanos[j] += worker.nanos[j];
+            }
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Queue the batch, checking the workers while waiting as the queue would never empty if they had died.
+     */
+    private static void put(BlockingQueue queue, List batch, Worker[] workers) throws InterruptedException {
+        while (!queue.offer(batch, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < workers.length; i++) checkFailed(workers[i]);
+        }
+    }
+
+    /**
+     * Throw on what the worker died of, if it did.
+     */
+    private static void checkFailed(Worker worker) {
+        Throwable failure = worker.failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    }
+
+    private static boolean isAnyAlive(Worker[] workers) {
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i].isAlive()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * A thread replaying batches of lines with its own counts so that threads don't contend.
+     */
+    private class Worker extends Thread {
+        private final BlockingQueue queue;
+        private final long[] evaluations = new long[rules.length];
+        private final long[] matches = new long[rules.length];
+        private final long[] nanos = new long[rules.length];
+        private final Map profiledArrays = new IdentityHashMap();
+        private final UrlRewriter urlRewriter = new UrlRewriter(conf);
+        private final HttpServletResponse response = newResponse();
+        private long requestCount;
+        private long rewrittenCount;
+        private long errorCount;
+        private long skippedCount;
+        private volatile Throwable failure;
+
+        Worker(BlockingQueue queue) {
+            this.queue = queue;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    List batch = (List) queue.take();
+                    if (batch == END) return;
+                    for (int i = 0; i < batch.size(); i++) {
+                        LogEntry entry = LogEntry.parse((String) batch.get(i));
+                        if (entry == null) {
+                            skippedCount++;
+                            continue;
+                        }
+                        replay(entry);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stop
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                failure = e;
+            }
+        }
+
+        private void replay(LogEntry entry) {
+            requestCount++;
+            HttpServletRequest request = newRequest(entry);
+            // as UrlRewriter does when processing a request
+            String url = urlRewriter.getPathWithinApplication(request);
+            if (conf.isUseQueryString() && entry.queryString != null && url.indexOf('?') == -1) {
+                url = url + "?" + entry.queryString;
+            }
+            RulePrefilter prefilter = conf.getPrefilter();
+            if (prefilter != null && !prefilter.mightMatch(url)) return;
+            RuleChain chain = new RuleChain(urlRewriter, url, null, getProfiledRules(conf.getRuntimeRules(request)));
+            try {
+                chain.process(request, response);
+                if (chain.getFinalRewrittenRequest() != null) rewrittenCount++;
+            } catch (Exception e) {
+                errorCount++;
+            }
+        }
+
+        /**
+         * The rules with each wrapped to be profiled, a block is replaced by its rules in conf order.  That runs the
+         * same as the block as a rule in a block can't match what another rewrites to.
+         */
+        private Rule[] getProfiledRules(Rule[] runtimeRules) {
+            Rule[] profiled = (Rule[]) profiledArrays.get(runtimeRules);
+            if (profiled == null) {
+                List profiledList = new ArrayList(runtimeRules.length);
+                for (int i = 0; i < runtimeRules.length; i++) {
+                    if (runtimeRules[i] instanceof HotRuleBlock) {
+                        NormalRule[] blockRules = ((HotRuleBlock) runtimeRules[i]).getRules();
+                        for (int j = 0; j < blockRules.length; j++) profiledList.add(newProfiledRule(blockRules[j]));
+                    } else {
+                        profiledList.add(newProfiledRule(runtimeRules[i]));
+                    }
+                }
+                profiled = (Rule[]) profiledList.toArray(new Rule[profiledList.size()]);
+                profiledArrays.put(runtimeRules, profiled);
+            }
+            return profiled;
+        }
+
+        private Rule newProfiledRule(Rule rule) {
+            return new ProfiledRule(rule, ((Integer) ruleIdx.get(rule)).intValue(), this);
+        }
+    }
+
+    /**
+     * Times and counts a rule for a worker.
+     */
+    private static class ProfiledRule implements Rule {
+        private final Rule rule;
+        private final int idx;
+        private final Worker worker;
+
+        ProfiledRule(Rule rule, int idx, Worker worker) {
+            this.rule = rule;
+            this.idx = idx;
+            this.worker = worker;
+        }
+
+        public RewrittenUrl matches(String url, HttpServletRequest hsRequest, HttpServletResponse hsResponse,
+                                    RuleChain chain) throws IOException, ServletException, InvocationTargetException {
+            long start = System.nanoTime();
+            try {
+                RewrittenUrl rewrittenUrl = rule.matches(url, hsRequest, hsResponse, chain);
+                if (rewrittenUrl != null) worker.matches[idx]++;
+                return rewrittenUrl;
+            } finally {
+                worker.evaluations[idx]++;
+                worker.nanos[idx] += System.nanoTime() - start;
+            }
+        }
+
+        public RewrittenUrl matches(String url, HttpServletRequest hsRequest, HttpServletResponse hsResponse)
+                throws IOException, ServletException, InvocationTargetException {
+            return matches(url, hsRequest, hsResponse, null);
+        }
+
+        public boolean initialise(ServletContext context) {
+            return rule.initialise(context);
+        }
+
+        public void destroy() {
+            rule.destroy();
+        }
+
+        public String getName() {
+            return rule.getName();
+        }
+
+        public String getDisplayName() {
+            return rule.getDisplayName();
+        }
+
+        public boolean isLast() {
+            return rule.isLast();
+        }
+
+        public void setId(int i) {
+            rule.setId(i);
+        }
+
+        public int getId() {
+            return rule.getId();
+        }
+
+        public boolean isValid() {
+            return rule.isValid();
+        }
+
+        public boolean isFilter() {
+            return rule.isFilter();
+        }
+
+        public List getErrors() {
+            return rule.getErrors();
+        }
+    }
+
+    /**
+     * A request from a line of the log.
+     */
+    static class LogEntry {
+        String method = "GET";
+        String scheme = "http";
+        String serverName = "localhost";
+        int port = 80;
+        String uri;
+        String queryString;
+        String remoteAddr = "127.0.0.1";
+        String referer;
+        String userAgent;
+
+        /**
+         * @return the entry or null if the line is blank or can't be understood
+         */
+        static LogEntry parse(String line) {
+            if (line == null) return null;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) return null;
+            LogEntry entry = new LogEntry();
+            String url;
+            int quote = line.indexOf('"');
+            if (quote != -1) {
+                // common/combined: host ident user [date] "GET /url HTTP/1.1" status bytes "referer" "agent"
+                int space = line.indexOf(' ');
+                if (space > 0 && space < quote) entry.remoteAddr = line.substring(0, space);
+                int endQuote = line.indexOf('"', quote + 1);
+                if (endQuote == -1) return null;
+                String[] requestLine = line.substring(quote + 1, endQuote).split(" ");
+                if (requestLine.length < 2) return null;
+                entry.method = requestLine[0];
+                url = requestLine[1];
+                List quoted = getQuoted(line, endQuote + 1);
+                if (quoted.size() >= 1 && !"-".equals(quoted.get(0))) entry.referer = (String) quoted.get(0);
+                if (quoted.size() >= 2 && !"-".equals(quoted.get(1))) entry.userAgent = (String) quoted.get(1);
+            } else {
+                String[] parts = line.split("\\s+");
+                if (parts.length >= 2) {
+                    entry.method = parts[0];
+                    url = parts[1];
+                } else {
+                    url = parts[0];
+                }
+            }
+            if (!entry.setUrl(url)) return null;
+            return entry;
+        }
+
+        private static List getQuoted(String line, int from) {
+            List quoted = new ArrayList(2);
+            while (true) {
+                int start = line.indexOf('"', from);
+                if (start == -1) break;
+                int end = line.indexOf('"', start + 1);
+                if (end == -1) break;
+                quoted.add(line.substring(start + 1, end));
+                from = end + 1;
+            }
+            return quoted;
+        }
+
+        private boolean setUrl(String url) {
+            int schemeEnd = url.indexOf("://");
+            if (schemeEnd != -1) {
+                scheme = url.substring(0, schemeEnd).toLowerCase();
+                port = "https".equals(scheme) ? 443 : 80;
+                int hostStart = schemeEnd + 3;
+                int pathStart = url.indexOf('/', hostStart);
+                String host = pathStart == -1 ? url.substring(hostStart) : url.substring(hostStart, pathStart);
+                url = pathStart == -1 ? "/" : url.substring(pathStart);
+                int colon = host.indexOf(':');
+                if (colon != -1) {
+                    try {
+                        port = Integer.parseInt(host.substring(colon + 1));
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    host = host.substring(0, colon);
+                }
+                serverName = host;
+            }
+            if (!url.startsWith("/")) return false;
+            int question = url.indexOf('?');
+            if (question != -1) {
+                queryString = url.substring(question + 1);
+                url = url.substring(0, question);
+            }
+            uri = url;
+            return true;
+        }
+    }
+
+    private static HttpServletRequest newRequest(LogEntry entry) {
+        SimpleRewriteRequest request = new SimpleRewriteRequest(entry.method,
+                entry.queryString == null ? entry.uri : entry.uri + "?" + entry.queryString);
+        request.setScheme(entry.scheme);
+        request.setServerName(entry.serverName);
+        request.setServerPort(entry.port);
+        request.setRemoteAddr(entry.remoteAddr);
+        request.addHeader("Host", entry.serverName);
+        if (entry.referer != null) request.addHeader("Referer", entry.referer);
+        if (entry.userAgent != null) request.addHeader("User-Agent", entry.userAgent);
+        return ServletEmulatingRewriter.newServletRequest(request);
+    }
+
+    private static HttpServletResponse newResponse() {
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.startsWith("encode")) return args[0];
+                return defaultValue(method);
+            }
+        };
+        return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+                new Class[]{HttpServletResponse.class}, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class type = method.getReturnType();
+        if (type == Boolean.TYPE) return Boolean.FALSE;
+        if (type == Integer.TYPE) return new Integer(0);
+        if (type == Long.TYPE) return new Long(0);
+        return null;
+    }
+
+    /**
+     * Print the results.
+     *
+     * @param top how many of the most expensive rules to list
+     */
+    public void report(PrintStream out, int top) {
+        double seconds = elapsedNanos / 1000000000d;
+        out.println(requestCount + " requests replayed in " + round(seconds) + "s on " + threads + " threads (" +
+                Math.round(requestCount / Math.max(seconds, 0.001)) + " requests/s), " + rewrittenCount +
+                " rewritten, " + errorCount + " errors, " + skippedCount + " lines skipped");
+        out.println();
+        out.println("rule, run, matched, total ms, average ns");
+        for (int i = 0; i < rules.length; i++) {
+            out.println(getRuleLine(i));
+        }
+
+        List byTime = new ArrayList();
+        for (int i = 0; i < rules.length; i++) byTime.add(new Integer(i));
+        Collections.sort(byTime, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long nanos1 = nanos[((Integer) o1).intValue()];
+                long nanos2 = nanos[((Integer) o2).intValue()];
+                return nanos1 == nanos2 ? 0 : (nanos1 > nanos2 ? -1 : 1);
+            }
+        });
+        out.println();
+        out.println("most expensive rules");
+        for (int i = 0; i < Math.min(top, byTime.size()); i++) {
+            out.println(getRuleLine(((Integer) byTime.get(i)).intValue()));
+        }
+
+        out.println();
+        List neverMatched = getNeverMatchedRules();
+        out.println(neverMatched.size() + " rules never matched");
+        for (int i = 0; i < neverMatched.size(); i++) {
+            out.println("  " + ((Rule) neverMatched.get(i)).getDisplayName());
+        }
+    }
+
+    private String getRuleLine(int i) {
+        return "  " + rules[i].getDisplayName() + ", " + evaluations[i] + ", " + matches[i] + ", " +
+                round(nanos[i] / 1000000d) + ", " + (evaluations[i] == 0 ? 0 : nanos[i] / evaluations[i]);
+    }
+
+    private static double round(double d) {
+        return Math.round(d * 100) / 100d;
+    }
+
+    /**
+     * @return the rules that were not matched by any request
+     */
+    public List getNeverMatchedRules() {
+        List neverMatched = new ArrayList();
+        for (int i = 0; i < rules.length; i++) {
+            if (matches[i] == 0) neverMatched.add(rules[i]);
+        }
+        return neverMatched;
+    }
+
+    /**
+     * @return the rules in the order they are reported on, as from {@link Conf#getRuntimeRules()} but with the rules
+     *         of a {@link HotRuleBlock} in place of the block
+     */
+    public Rule[] getRules() {
+        return rules;
+    }
+
+    public long getEvaluations(int ruleIdx) {
+        return evaluations[ruleIdx];
+    }
+
+    public long getMatches(int ruleIdx) {
+        return matches[ruleIdx];
+    }
+
+    public long getNanos(int ruleIdx) {
+        return nanos[ruleIdx];
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getRewrittenCount() {
+        return rewrittenCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 10;
+        int i = 0;
+        for (; i < args.length - 2; i += 2) {
+            if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[i + 1]);
+            } else if ("-top".equals(args[i])) {
+                top = Integer.parseInt(args[i + 1]);
+            } else {
+                break;
+            }
+        }
+        if (args.length - i != 2) {
+            System.err.println("usage: ReplayProfiler [-threads n] [-top n] <urlrewrite.xml> <access.log>");
+            System.exit(1);
+        }
+        Conf conf = new Conf(new File(args[i]).toURI().toURL());
+        if (!conf.isOk()) {
+            System.err.println("conf not ok: " + conf.getErrors());
+            System.exit(1);
+        }
+        InputStream in = new FileInputStream(args[i + 1]);
+        if (args[i + 1].endsWith(".gz")) in = new GZIPInputStream(in);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        ReplayProfiler profiler = new ReplayProfiler(conf, threads);
+        try {
+            profiler.replay(reader);
+        } finally {
+            reader.close();
+        }
+        profiler.report(System.out, top);
+    }
+
+}
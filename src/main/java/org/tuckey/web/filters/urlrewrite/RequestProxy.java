@@ -55,7 +55,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class is responsible for a proxy http request.
@@ -80,6 +84,108 @@ public class RequestProxy {
      * @throws java.io.IOException Passed on from the connection logic.
      */
     public static void execute(final String target, final HttpServletRequest hsRequest, final HttpServletResponse hsResponse) throws IOException {
+        execute(target, hsRequest, hsResponse, null, 0);
+    }
+
+    /**
+     * As above, when a coalescer is given identical GETs to the target at the same time share one request to the
+     * target.
+     *
+     * @param coalescer    null to always send the request to the target
+     * @param waitMillis   how long requests wait for the shared request before sending their own
+     */
+    public static void execute(final String target, final HttpServletRequest hsRequest, final HttpServletResponse hsResponse,
+                               ProxyCoalescer coalescer, long waitMillis) throws IOException {
+        final URL url = getTargetUrl(target, hsResponse);
+        if (url == null) return;
+
+        if (coalescer != null && coalescer.canCoalesce(hsRequest)) {
+            coalescer.execute(url, hsRequest, hsResponse, waitMillis);
+            return;
+        }
+
+        final HttpMethod targetRequest = fetch(url, hsRequest);
+        if (targetRequest == null) return;
+
+        //copy the target response headers to our response
+        setupResponseHeaders(targetRequest, hsResponse);
+
+        InputStream originalResponseStream = targetRequest.getResponseBodyAsStream();
+        //the body might be null, i.e. for responses with cache-headers which leave out the body
+        if (originalResponseStream != null) {
+            OutputStream responseStream = hsResponse.getOutputStream();
+            copyStream(originalResponseStream, responseStream);
+        }
+
+        log.info("set up response, result code was " + targetRequest.getStatusCode());
+    }
+
+    /**
+     * As above, GETs are answered from the cache when the target's response allows it.
+     */
+    public static void execute(final String target, final HttpServletRequest hsRequest, final HttpServletResponse hsResponse,
+                               ProxyCache cache) throws IOException {
+        final URL url = getTargetUrl(target, hsResponse);
+        if (url == null) return;
+        if (cache.canCache(hsRequest)) {
+            cache.execute(url, hsRequest, hsResponse);
+        } else {
+            execute(target, hsRequest, hsResponse);
+        }
+    }
+
+    /**
+     * As above, for targets of the form upstream:name/path, the request is sent to one of the upstream's servers.
+     * GETs to a server that fails before there is a response are sent to the next server.
+     */
+    public static void execute(final String target, final HttpServletRequest hsRequest, final HttpServletResponse hsResponse,
+                               Upstream upstream) throws IOException {
+        final String path = Upstream.getPath(target);
+        final boolean retry = "GET".equalsIgnoreCase(hsRequest.getMethod());
+        final Set tried = new HashSet();
+        while (true) {
+            UpstreamServer server = upstream.choose(hsRequest, tried);
+            if (server == null) {
+                log.error("no servers in upstream " + upstream.getName() + " available for " + target);
+                hsResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            tried.add(server);
+            final URL url = getTargetUrl(server.getUrl() + path, hsResponse);
+            if (url == null) return;
+
+            server.started();
+            final HttpMethod targetRequest;
+            try {
+                targetRequest = fetch(url, hsRequest, server.getClient());
+            } catch (IOException e) {
+                server.finished(false, System.currentTimeMillis());
+                log.warn("request to upstream " + upstream.getName() + " server " + server + " failed: " + e);
+                if (retry) continue;
+                throw e;
+            }
+            if (targetRequest == null) {
+                server.finished(true, System.currentTimeMillis());
+                return;
+            }
+            int statusCode = targetRequest.getStatusCode();
+            boolean ok = statusCode != HttpServletResponse.SC_BAD_GATEWAY
+                    && statusCode != HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                    && statusCode != HttpServletResponse.SC_GATEWAY_TIMEOUT;
+            try {
+                setupResponseHeaders(targetRequest, hsResponse);
+                InputStream originalResponseStream = targetRequest.getResponseBodyAsStream();
+                if (originalResponseStream != null) copyStream(originalResponseStream, hsResponse.getOutputStream());
+            } finally {
+                // back to the server's pool
+                targetRequest.releaseConnection();
+                server.finished(ok, System.currentTimeMillis());
+            }
+            return;
+        }
+    }
+
+    private static URL getTargetUrl(final String target, final HttpServletResponse hsResponse) {
         if ( log.isInfoEnabled() ) {
             log.info("execute, target is " + target);
             log.info("response commit state: " + hsResponse.isCommitted());
@@ -87,67 +193,95 @@ public class RequestProxy {
 
         if (StringUtils.isBlank(target)) {
             log.error("The target address is not given. Please provide a target address.");
-            return;
+            return null;
         }
 
         log.info("checking url");
-        final URL url;
         try {
-            url = new URL(target);
+            return new URL(target);
         } catch (MalformedURLException e) {
             log.error("The provided target url is not valid.", e);
-            return;
+            return null;
         }
+    }
 
-        log.info("seting up the host configuration");
-
-        final HostConfiguration config = new HostConfiguration();
-
-        ProxyHost proxyHost = getUseProxyServer((String) hsRequest.getAttribute("use-proxy"));
-        if (proxyHost != null) config.setProxyHost(proxyHost);
-
-        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
-        config.setHost(url.getHost(), port, url.getProtocol());
+    /**
+     * Send the request on to the target.
+     *
+     * @return the executed request, the response is ready to be read, or null if the request method isn't supported
+     */
+    static HttpMethod fetch(final URL url, final HttpServletRequest hsRequest) throws IOException {
+        return fetch(url, hsRequest, getClient());
+    }
 
-        if ( log.isInfoEnabled() ) log.info("config is " + config.toString());
+    private static HttpMethod fetch(final URL url, final HttpServletRequest hsRequest, final HttpClient client)
+            throws IOException {
+        final HostConfiguration config = getHostConfiguration(url, (String) hsRequest.getAttribute("use-proxy"));
 
         final HttpMethod targetRequest = setupProxyRequest(hsRequest, url);
         if (targetRequest == null) {
             log.error("Unsupported request method found: " + hsRequest.getMethod());
-            return;
-        }
-
-        //perform the reqeust to the target server
-        final HttpClient client = new HttpClient(new SimpleHttpConnectionManager());
-        if (log.isInfoEnabled()) {
-            log.info("client state" + client.getState());
-            log.info("client params" + client.getParams().toString());
-            log.info("executeMethod / fetching data ...");
+            return null;
         }
 
-        final int result;
         if (targetRequest instanceof EntityEnclosingMethod) {
             final RequestProxyCustomRequestEntity requestEntity = new RequestProxyCustomRequestEntity(
                     hsRequest.getInputStream(), hsRequest.getContentLength(), hsRequest.getContentType());
             final EntityEnclosingMethod entityEnclosingMethod = (EntityEnclosingMethod) targetRequest;
             entityEnclosingMethod.setRequestEntity(requestEntity);
-            result = client.executeMethod(config, entityEnclosingMethod);
+            client.executeMethod(config, entityEnclosingMethod);
 
         } else {
-            result = client.executeMethod(config, targetRequest);
+            client.executeMethod(config, targetRequest);
         }
+        return targetRequest;
+    }
 
-        //copy the target response headers to our response
-        setupResponseHeaders(targetRequest, hsResponse);
-
-        InputStream originalResponseStream = targetRequest.getResponseBodyAsStream();
-        //the body might be null, i.e. for responses with cache-headers which leave out the body
-        if (originalResponseStream != null) {
-            OutputStream responseStream = hsResponse.getOutputStream();
-            copyStream(originalResponseStream, responseStream);
+    /**
+     * Send a GET to the target with the headers given, for requests sent after the request they are for has
+     * finished (eg, revalidating a cached response in the background).
+     *
+     * @param useProxy       the use-proxy request attribute, null if not set
+     * @param requestHeaders the headers to send, see {@link #getRequestHeaders}
+     * @return the executed request, the response is ready to be read
+     */
+    static HttpMethod fetchGet(final URL url, String useProxy, List requestHeaders) throws IOException {
+        final HostConfiguration config = getHostConfiguration(url, useProxy);
+        final HttpMethod targetRequest = new GetMethod();
+        targetRequest.setFollowRedirects(false);
+        targetRequest.setPath(url.getPath());
+        targetRequest.setQueryString(url.getQuery());
+        for (int i = 0; i < requestHeaders.size(); i++) {
+            targetRequest.addRequestHeader((Header) requestHeaders.get(i));
         }
+        getClient().executeMethod(config, targetRequest);
+        return targetRequest;
+    }
 
-        log.info("set up response, result code was " + result);
+    private static HostConfiguration getHostConfiguration(URL url, String useProxy) {
+        log.info("seting up the host configuration");
+
+        final HostConfiguration config = new HostConfiguration();
+
+        ProxyHost proxyHost = getUseProxyServer(useProxy);
+        if (proxyHost != null) config.setProxyHost(proxyHost);
+
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        config.setHost(url.getHost(), port, url.getProtocol());
+
+        if ( log.isInfoEnabled() ) log.info("config is " + config.toString());
+        return config;
+    }
+
+    private static HttpClient getClient() {
+        //perform the reqeust to the target server
+        final HttpClient client = new HttpClient(new SimpleHttpConnectionManager());
+        if (log.isInfoEnabled()) {
+            log.info("client state" + client.getState());
+            log.info("client params" + client.getParams().toString());
+            log.info("executeMethod / fetching data ...");
+        }
+        return client;
     }
 
     public static void copyStream(InputStream in, OutputStream out) throws IOException {
@@ -199,6 +333,20 @@ public class RequestProxy {
         method.setPath(targetUrl.getPath());
         method.setQueryString(targetUrl.getQuery());
 
+        List headers = getRequestHeaders(hsRequest);
+        for (int i = 0; i < headers.size(); i++) {
+            method.addRequestHeader((Header) headers.get(i));
+        }
+
+        if ( log.isInfoEnabled() ) log.info("proxy query string " + method.getQueryString());
+        return method;
+    }
+
+    /**
+     * @return the headers of the request that are sent on to the target
+     */
+    static List getRequestHeaders(final HttpServletRequest hsRequest) {
+        List headers = new ArrayList();
         Enumeration e = hsRequest.getHeaderNames();
         if (e != null) {
             while (e.hasMoreElements()) {
@@ -223,13 +371,11 @@ public class RequestProxy {
                 while (values.hasMoreElements()) {
                     String headerValue = (String) values.nextElement();
                     log.info("setting proxy request parameter:" + headerName + ", value: " + headerValue);
-                    method.addRequestHeader(headerName, headerValue);
+                    headers.add(new Header(headerName, headerValue));
                 }
             }
         }
-
-        if ( log.isInfoEnabled() ) log.info("proxy query string " + method.getQueryString());
-        return method;
+        return headers;
     }
 
     private static void setupResponseHeaders(HttpMethod httpMethod, HttpServletResponse hsResponse) {
@@ -238,7 +384,27 @@ public class RequestProxy {
             log.info("status text: " + httpMethod.getStatusText());
             log.info("status line: " + httpMethod.getStatusLine());
         }
+        setupResponseHeaders(getResponseHeaders(httpMethod), httpMethod.getStatusCode(), hsResponse);
+    }
 
+    static void setupResponseHeaders(List headers, int statusCode, HttpServletResponse hsResponse) {
+        for (int i = 0; i < headers.size(); i++) {
+            Header h = (Header) headers.get(i);
+            hsResponse.addHeader(h.getName(), h.getValue());
+            if ( log.isInfoEnabled() ) log.info("setting response parameter:" + h.getName() + ", value: " + h.getValue());
+        }
+        //fixme what about the response footers? (httpMethod.getResponseFooters())
+
+        if (statusCode != 200) {
+            hsResponse.setStatus(statusCode);
+        }
+    }
+
+    /**
+     * @return the headers of the target's response that are copied to our response
+     */
+    static List getResponseHeaders(HttpMethod httpMethod) {
+        List headers = new ArrayList();
         //filter the headers, which are copied from the proxy response. The http lib handles those itself.
         //Filtered out: the content encoding, the content length and cookies
         for (int i = 0; i < httpMethod.getResponseHeaders().length; i++) {
@@ -256,15 +422,9 @@ public class RequestProxy {
                 //retrieving a cookie which sets the session id will change the calling session: bad! So we skip this header.
                 continue;
             }
-
-            hsResponse.addHeader(h.getName(), h.getValue());
-            if ( log.isInfoEnabled() ) log.info("setting response parameter:" + h.getName() + ", value: " + h.getValue());
-        }
-        //fixme what about the response footers? (httpMethod.getResponseFooters())
-
-        if (httpMethod.getStatusCode() != 200) {
-            hsResponse.setStatus(httpMethod.getStatusCode());
+            headers.add(h);
         }
+        return headers;
     }
 }
 
@@ -0,0 +1,356 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.gzip.GenericResponseWrapper;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Output of forward and include targets kept in memory for rules with a cache attribute on "to", eg,
+ * &lt;to type="forward" cache="30s"&gt;/products.jsp?id=$1&lt;/to&gt;.  Keyed by the target and the query string
+ * of the request (the target can see the request's parameters as well as its own).  Bounded by the total size of
+ * the bodies, least recently used are removed first.
+ * <p/>
+ * Only GET requests are cached and only responses that are 200, don't set cookies and don't have a Cache-Control
+ * of no-store or private.  When an entry is missing only one request renders it, others for the same key wait
+ * for it rather than all rendering the target at once.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class ResponseCache {
+
+    private static Log log = Log.getLog(ResponseCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final long maxBytes;
+    private long bytes = 0;
+    // access ordered, eldest is least recently used
+    private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+    // key to the latch of the request rendering it
+    private final Map rendering = new HashMap();
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long coalescedCount = 0;
+    private long uncacheableCount = 0;
+    private long evictedCount = 0;
+
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the key for a request to a target.
+     */
+    public static String getKey(boolean forward, String target, Object targetContext, HttpServletRequest hsRequest) {
+        StringBuffer key = new StringBuffer(forward ? "forward:" : "include:");
+        if (targetContext != null) key.append(System.identityHashCode(targetContext)).append(':');
+        key.append(target);
+        String queryString = hsRequest.getQueryString();
+        if (queryString != null) key.append('#').append(queryString);
+        return key.toString();
+    }
+
+    /**
+     * Forward to or include the target, from the cache if it's there, rendering and caching it if not.
+     *
+     * @param forward    true for forward, false for include
+     * @param key        see {@link #getKey}
+     * @param ttlMillis  how long the output can be served for
+     */
+    public void dispatch(boolean forward, String key, long ttlMillis, RequestDispatcher rq,
+                         HttpServletRequest hsRequest, HttpServletResponse hsResponse)
+            throws IOException, ServletException {
+        if (!"GET".equals(hsRequest.getMethod())) {
+            dispatch(forward, rq, hsRequest, hsResponse);
+            return;
+        }
+        Entry entry = get(key);
+        if (entry == null) {
+            CountDownLatch latch;
+            boolean renderHere = false;
+            synchronized (rendering) {
+                latch = (CountDownLatch) rendering.get(key);
+                if (latch == null) {
+                    latch = new CountDownLatch(1);
+                    rendering.put(key, latch);
+                    renderHere = true;
+                }
+            }
+            if (renderHere) {
+                try {
+                    render(forward, key, ttlMillis, rq, hsRequest, hsResponse);
+                } finally {
+                    synchronized (rendering) {
+                        rendering.remove(key);
+                    }
+                    latch.countDown();
+                }
+                return;
+            }
+            synchronized (this) {
+                coalescedCount++;
+            }
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServletException("interrupted waiting for " + key + " to be rendered");
+            }
+            entry = get(key);
+            if (entry == null) {
+                // the output couldn't be cached, render it for this request too
+                dispatch(forward, rq, hsRequest, hsResponse);
+                return;
+            }
+        }
+        if (log.isTraceEnabled()) log.trace("serving " + key + " from cache");
+        entry.writeTo(forward, hsResponse);
+    }
+
+    private static void dispatch(boolean forward, RequestDispatcher rq, HttpServletRequest hsRequest,
+                                 HttpServletResponse hsResponse) throws IOException, ServletException {
+        if (forward) {
+            rq.forward(hsRequest, hsResponse);
+        } else {
+            rq.include(hsRequest, hsResponse);
+        }
+    }
+
+    /**
+     * Render the target into a buffer, headers and status still go straight to the response, then write the body
+     * and cache it if it can be.
+     */
+    private void render(boolean forward, String key, long ttlMillis, RequestDispatcher rq,
+                        HttpServletRequest hsRequest, HttpServletResponse hsResponse)
+            throws IOException, ServletException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        GenericResponseWrapper wrapper = new GenericResponseWrapper(hsResponse, buffer);
+        wrapper.setDisableFlushBuffer();
+        dispatch(forward, rq, hsRequest, wrapper);
+        wrapper.flush();
+        byte[] body = buffer.toByteArray();
+        if (forward && !hsResponse.isCommitted()) hsResponse.setContentLength(body.length);
+        if (body.length > 0) writeBody(hsResponse, body);
+
+        String reason = getUncacheableReason(wrapper);
+        if (reason != null) {
+            if (log.isDebugEnabled()) log.debug("not caching " + key + ", " + reason);
+            synchronized (this) {
+                uncacheableCount++;
+            }
+            return;
+        }
+        List headers = new ArrayList();
+        Map headersMap = wrapper.getHeaders();
+        for (Iterator iterator = headersMap.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry header = (Map.Entry) iterator.next();
+            // set from the cached body
+            if ("Content-Length".equalsIgnoreCase((String) header.getKey())) continue;
+            List values = (List) header.getValue();
+            for (int i = 0; i < values.size(); i++) {
+                headers.add(new Object[]{header.getKey(), values.get(i)});
+            }
+        }
+        put(key, new Entry(System.currentTimeMillis() + ttlMillis, wrapper.getStatus(), wrapper.getContentType(),
+                headers, body));
+    }
+
+    /**
+     * @return why the output can't be cached or null if it can
+     */
+    static String getUncacheableReason(GenericResponseWrapper wrapper) {
+        if (wrapper.getStatus() != HttpServletResponse.SC_OK) return "status " + wrapper.getStatus();
+        if (!wrapper.getCookies().isEmpty()) return "cookies set";
+        Map headersMap = wrapper.getHeaders();
+        if (headersMap.containsKey("Set-Cookie")) return "cookies set";
+        List cacheControl = (List) headersMap.get("Cache-Control");
+        if (cacheControl != null) {
+            for (int i = 0; i < cacheControl.size(); i++) {
+                String value = String.valueOf(cacheControl.get(i)).toLowerCase();
+                if (value.indexOf("no-store") != -1 || value.indexOf("private") != -1) {
+                    return "Cache-Control " + value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the body to the output stream or, if the writer has already been used (eg, by the chain before a post
+     * include), to the writer.
+     */
+    static void writeBody(HttpServletResponse hsResponse, byte[] body) throws IOException {
+        try {
+            hsResponse.getOutputStream().write(body);
+        } catch (IllegalStateException e) {
+            String encoding = hsResponse.getCharacterEncoding();
+            hsResponse.getWriter().write(new String(body, encoding == null ? "ISO-8859-1" : encoding));
+        }
+    }
+
+    /**
+     * @return the entry or null if it isn't cached, or has expired
+     */
+    synchronized Entry get(String key) {
+        Entry entry = (Entry) entries.get(key);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            bytes -= entry.body.length;
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry;
+    }
+
+    synchronized void put(String key, Entry entry) {
+        // never worth pushing everything else out for one response
+        if (entry.body.length > maxBytes / 4) return;
+        Entry previous = (Entry) entries.remove(key);
+        if (previous != null) bytes -= previous.body.length;
+        entries.put(key, entry);
+        bytes += entry.body.length;
+        Iterator iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = (Entry) ((Map.Entry) iterator.next()).getValue();
+            iterator.remove();
+            bytes -= eldest.body.length;
+            evictedCount++;
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of requests that waited for another request to render the same target
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of rendered responses that couldn't be cached
+     */
+    public synchronized long getUncacheableCount() {
+        return uncacheableCount;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    static class Entry {
+        private final long expires;
+        private final int status;
+        private final String contentType;
+        // name, value pairs, values are String, Long for dates or Integer
+        private final List headers;
+        private final byte[] body;
+
+        Entry(long expires, int status, String contentType, List headers, byte[] body) {
+            this.expires = expires;
+            this.status = status;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        void writeTo(boolean forward, HttpServletResponse hsResponse) throws IOException {
+            // headers set by an include are ignored, as they would be by the container
+            if (forward) {
+                hsResponse.resetBuffer();
+                hsResponse.setStatus(status);
+                if (contentType != null) hsResponse.setContentType(contentType);
+                for (int i = 0; i < headers.size(); i++) {
+                    Object[] header = (Object[]) headers.get(i);
+                    String name = (String) header[0];
+                    Serializable value = (Serializable) header[1];
+                    if (value instanceof Long) {
+                        hsResponse.addDateHeader(name, ((Long) value).longValue());
+                    } else if (value instanceof Integer) {
+                        hsResponse.addIntHeader(name, ((Integer) value).intValue());
+                    } else {
+                        hsResponse.addHeader(name, (String) value);
+                    }
+                }
+                hsResponse.setContentLength(body.length);
+            }
+            writeBody(hsResponse, body);
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+    }
+
+}
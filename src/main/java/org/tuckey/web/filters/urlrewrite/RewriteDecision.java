@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the rules decided for a request run through {@link ServletEmulatingRewriter}, it is up to the caller to carry
+ * it out, eg, to send a redirect or to serve the target instead of the request uri.  The types are named as for the type
+ * attribute of the to element.  Response headers and the status set by rules (eg, with set type="response-header")
+ * are kept whether or not a rule rewrote the request.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class RewriteDecision {
+
+    /**
+     * No rule rewrote the request, carry on with it as it is.
+     */
+    public static final String TYPE_NONE = "none";
+    public static final String TYPE_FORWARD = "forward";
+    public static final String TYPE_PRE_INCLUDE = "pre-include";
+    public static final String TYPE_POST_INCLUDE = "post-include";
+    public static final String TYPE_REDIRECT = "redirect";
+    public static final String TYPE_PERMANENT_REDIRECT = "permanent-redirect";
+    public static final String TYPE_TEMPORARY_REDIRECT = "temporary-redirect";
+    public static final String TYPE_PROXY = "proxy";
+    /**
+     * A rule with to set to null, the request should go no further, the response is as set by the rules.
+     */
+    public static final String TYPE_STOP = "stop";
+    /**
+     * A class-rule (or a run returning a RewriteMatch) matched, the target is as the rule gave it.
+     */
+    public static final String TYPE_CLASS = "class";
+
+    private String type = TYPE_NONE;
+    private String target;
+    private int status = 0;
+    private final List headers = new ArrayList();
+    private String method;
+    private Map parameters;
+
+    /**
+     * @return one of the TYPE_ constants
+     */
+    public String getType() {
+        return type;
+    }
+
+    void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return true unless the type is {@link #TYPE_NONE}
+     */
+    public boolean isRewritten() {
+        return !TYPE_NONE.equals(type);
+    }
+
+    /**
+     * @return the url to forward, include, redirect or proxy to, or null for none and stop
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    void setTarget(String target) {
+        this.target = target;
+    }
+
+    /**
+     * @return the status to send, 0 if the rules didn't set one
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    void setStatus(int status) {
+        this.status = status;
+    }
+
+    void addHeader(String name, String value) {
+        headers.add(new String[]{name, value});
+    }
+
+    void setHeader(String name, String value) {
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            if (((String[]) headers.get(i))[0].equalsIgnoreCase(name)) headers.remove(i);
+        }
+        addHeader(name, value);
+    }
+
+    /**
+     * @return the response headers to send as String[] {name, value} in the order set, cookies set by rules are
+     *         Set-Cookie headers
+     */
+    public List getHeaders() {
+        return Collections.unmodifiableList(headers);
+    }
+
+    /**
+     * @return the first value of the response header, or null if the rules didn't set it
+     */
+    public String getHeader(String name) {
+        for (int i = 0; i < headers.size(); i++) {
+            String[] header = (String[]) headers.get(i);
+            if (header[0].equalsIgnoreCase(name)) return header[1];
+        }
+        return null;
+    }
+
+    /**
+     * @return the method set with set type="method", or null if not changed
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    void setMethod(String method) {
+        this.method = method;
+    }
+
+    /**
+     * @return parameters set with set type="parameter" as name to String[], or null if none were
+     */
+    public Map getParameters() {
+        return parameters;
+    }
+
+    void setParameters(Map parameters) {
+        this.parameters = parameters;
+    }
+
+    public String toString() {
+        return type + (target == null ? "" : " " + target) + (status == 0 ? "" : " (" + status + ")");
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a request that rules look at, for running rules with {@link ServletEmulatingRewriter} outside a
+ * servlet container, eg, in a proxy built on another http server or in a batch job.  Values are as a servlet container
+ * would give them, the request uri is not decoded and includes the context path (if any).
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ * @see SimpleRewriteRequest
+ */
+public interface RewriteRequest {
+
+    public String getMethod();
+
+    public String getScheme();
+
+    public String getServerName();
+
+    public int getServerPort();
+
+    public String getRemoteAddr();
+
+    /**
+     * @return the context path, "" for the root context
+     */
+    public String getContextPath();
+
+    public String getRequestURI();
+
+    /**
+     * @return the query string without the ?, or null if there isn't one
+     */
+    public String getQueryString();
+
+    /**
+     * @return the first value of the header, names are not case sensitive
+     */
+    public String getHeader(String name);
+
+    /**
+     * @return every value of the header, an empty list if there are none
+     */
+    public List getHeaders(String name);
+
+    public List getHeaderNames();
+
+    /**
+     * @return cookie values by cookie name
+     */
+    public Map getCookies();
+
+    public String getParameter(String name);
+
+    /**
+     * @return every value of the parameter, or null if there are none
+     */
+    public String[] getParameterValues(String name);
+
+    public List getParameterNames();
+
+    public Object getAttribute(String name);
+
+    public void setAttribute(String name, Object value);
+
+    public void removeAttribute(String name);
+
+    public List getAttributeNames();
+
+}
@@ -41,7 +41,10 @@ import org.tuckey.web.filters.urlrewrite.substitution.FunctionReplacer;
 import org.tuckey.web.filters.urlrewrite.substitution.SubstitutionContext;
 import org.tuckey.web.filters.urlrewrite.substitution.SubstitutionFilterChain;
 import org.tuckey.web.filters.urlrewrite.substitution.VariableReplacer;
+import org.tuckey.web.filters.urlrewrite.utils.CompilablePattern;
+import org.tuckey.web.filters.urlrewrite.utils.LiteralPattern;
 import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.RegexBudgetExceededException;
 import org.tuckey.web.filters.urlrewrite.utils.RegexPattern;
 import org.tuckey.web.filters.urlrewrite.utils.StringMatchingMatcher;
 import org.tuckey.web.filters.urlrewrite.utils.StringMatchingPattern;
@@ -56,7 +59,12 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Defines a rule that can be run against an incoming request.
@@ -64,7 +72,7 @@ import java.util.List;
  * @author Paul Tuckey
  * @version $Revision: 36 $ $Date: 2006-09-19 18:32:39 +1200 (Tue, 19 Sep 2006) $
  */
-public class RuleBase implements Runnable {
+public class RuleBase implements Runnable, Cloneable {
 
     private static Log log = Log.getLog(RuleBase.class);
 
@@ -100,6 +108,12 @@ public class RuleBase implements Runnable {
     private boolean toContainsVariable = false;
     private boolean toContainsBackReference = false;
     private boolean toContainsFunction = false;
+    private List substitutionFilters;
+    private Map rewriteMaps;
+    private boolean lazyPatterns = false;
+    private long regexStepBudget = 0;
+    private boolean regexBudgetExceededThrows = false;
+    private AtomicLong regexBudgetExceededCount = new AtomicLong();
 
     public static final String MATCH_TYPE_WILDCARD = "wildcard";
     public static final String DEFAULT_MATCH_TYPE = "regex";
@@ -126,6 +140,21 @@ public class RuleBase implements Runnable {
     protected RuleExecutionOutput matchesBase(String url, final HttpServletRequest hsRequest,
                                               final HttpServletResponse hsResponse, RuleChain chain)
             throws IOException, ServletException, InvocationTargetException {
+        if (regexStepBudget <= 0) return matchesBaseUnbounded(url, hsRequest, hsResponse, chain);
+        try {
+            return matchesBaseUnbounded(url, hsRequest, hsResponse, chain);
+        } catch (RegexBudgetExceededException e) {
+            regexBudgetExceededCount.incrementAndGet();
+            log.warn(getDisplayName() + " stopped matching " + url + ", " + e.getMessage());
+            // thrown on so a catch element can handle it, as if from a run
+            if (regexBudgetExceededThrows) throw new InvocationTargetException(e);
+            return null;
+        }
+    }
+
+    private RuleExecutionOutput matchesBaseUnbounded(String url, final HttpServletRequest hsRequest,
+                                                     final HttpServletResponse hsResponse, RuleChain chain)
+            throws IOException, ServletException, InvocationTargetException {
         // make sure all the conditions match
         if (log.isDebugEnabled()) {
             String displayName = getDisplayName();
@@ -228,7 +257,9 @@ public class RuleBase implements Runnable {
         String replacedTo = null;
         if (performToReplacement && to != null) {
             SubstitutionContext substitutionContext = new SubstitutionContext(hsRequest, matcher, lastConditionMatch, to);
-            SubstitutionFilterChain substitutionFilter = ChainedSubstitutionFilters.getDefaultSubstitutionChain(true, toContainsFunction, toContainsVariable, toContainsBackReference, servletContext);
+            SubstitutionFilterChain substitutionFilter = substitutionFilters == null
+                    ? ChainedSubstitutionFilters.getDefaultSubstitutionChain(true, toContainsFunction, toContainsVariable, toContainsBackReference, servletContext, rewriteMaps)
+                    : new ChainedSubstitutionFilters(substitutionFilters);
             replacedTo = substitutionFilter.substitute(url, substitutionContext);
         }
 
@@ -281,7 +312,8 @@ public class RuleBase implements Runnable {
         }
         for (int i = 0; i < runs.size(); i++) {
             final Run run = (Run) runs.get(i);
-            if (!run.initialise(context)) {
+            // runs reused from the previous load of the conf are already initialised
+            if (!(run.isInitialised() && run.isValid()) && !run.initialise(context)) {
                 ok = false;
             }
             if (run.isFilter()) {
@@ -309,11 +341,13 @@ public class RuleBase implements Runnable {
         try {
             if (isMatchTypeWildcard()) {
                 log.debug("rule match type is wildcard");
-                pattern = new WildcardPattern(from);
+                pattern = new WildcardPattern(from, lazyPatterns);
 
             } else {
                 // default is regexp
-                pattern = new RegexPattern(from, fromCaseSensitive);
+                RegexPattern regexPattern = new RegexPattern(from, fromCaseSensitive, lazyPatterns);
+                regexPattern.setStepBudget(regexStepBudget);
+                pattern = regexPattern;
             }
 
         } catch (StringMatchingPatternSyntaxException e) {
@@ -342,6 +376,8 @@ public class RuleBase implements Runnable {
             if (FunctionReplacer.containsFunction(to)) {
                 toContainsFunction = true;
             }
+            substitutionFilters = ChainedSubstitutionFilters.getDefaultSubstitutionFilters(true, toContainsFunction,
+                    toContainsVariable, toContainsBackReference, context, rewriteMaps);
         }
 
         if (ok) {
@@ -356,6 +392,32 @@ public class RuleBase implements Runnable {
         return ok;
     }
 
+    /**
+     * Swap the regular expression used by <code>from</code> for a plain string comparison if the expression is
+     * entirely literal (eg, <code>^/some/page\.html$</code>).  Must be called after initialise.
+     *
+     * @return true if the from is now matched as a literal
+     */
+    public boolean useLiteralFrom() {
+        if (pattern instanceof LiteralPattern) return true;
+        if (!valid || isMatchTypeWildcard() || pattern.getClass() != RegexPattern.class) return false;
+        String literal = LiteralPattern.getLiteral(from);
+        if (literal == null) return false;
+        pattern = new LiteralPattern(literal, fromCaseSensitive);
+        return true;
+    }
+
+    public boolean isFromLiteral() {
+        return pattern instanceof LiteralPattern;
+    }
+
+    /**
+     * Does "from" match the url, ignoring conditions.  For analysing rules when the conf is loaded.
+     */
+    boolean fromMatches(String url) {
+        return valid && pattern != null && url != null && pattern.matcher(url).find();
+    }
+
     public boolean isMatchTypeWildcard() {
         return MATCH_TYPE_WILDCARD.equalsIgnoreCase(matchType);
     }
@@ -576,4 +638,177 @@ public class RuleBase implements Runnable {
     public ServletContext getServletContext() {
         return servletContext;
     }
+
+    /**
+     * @param rewriteMaps the maps available to ${map:...} functions in "to", set before initialise or, for a rule
+     *                    reused by a reload of the conf, with the new conf's maps after which "to" uses them
+     */
+    public void setRewriteMaps(Map rewriteMaps) {
+        this.rewriteMaps = rewriteMaps;
+        // the function replacer of an initialised rule has the maps it was given then
+        if (substitutionFilters != null) {
+            substitutionFilters = ChainedSubstitutionFilters.getDefaultSubstitutionFilters(true, toContainsFunction,
+                    toContainsVariable, toContainsBackReference, servletContext, rewriteMaps);
+        }
+    }
+
+    public boolean isLazyPatterns() {
+        return lazyPatterns;
+    }
+
+    /**
+     * If true the from and condition expressions will not be compiled until they are first used.  An invalid
+     * expression will then not make the rule invalid, it will be logged and never match.  Must be set before
+     * initialise.
+     */
+    public void setLazyPatterns(boolean lazyPatterns) {
+        this.lazyPatterns = lazyPatterns;
+    }
+
+    public long getRegexStepBudget() {
+        return regexStepBudget;
+    }
+
+    /**
+     * The most characters a from or condition regular expression can read for each match (see
+     * {@link org.tuckey.web.filters.urlrewrite.utils.BoundedCharSequence}), 0 (the default) for no limit.  Must be
+     * set before initialise.
+     */
+    public void setRegexStepBudget(long regexStepBudget) {
+        this.regexStepBudget = regexStepBudget;
+    }
+
+    /**
+     * If true a match that uses up the regex step budget is thrown (wrapped in an InvocationTargetException) so that
+     * it can be handled by a catch element, otherwise the rule doesn't match.
+     */
+    public void setRegexBudgetExceededThrows(boolean regexBudgetExceededThrows) {
+        this.regexBudgetExceededThrows = regexBudgetExceededThrows;
+    }
+
+    /**
+     * @return the number of times matching this rule was stopped because the regex step budget was used up
+     */
+    public long getRegexBudgetExceededCount() {
+        return regexBudgetExceededCount.get();
+    }
+
+    /**
+     * A copy of this (initialised) rule for a reload of the conf to use, the compiled from, conditions, runs and sets
+     * are shared.  Whatever the new conf sets on the copy (id, upstream etc) doesn't change this rule which may still
+     * be handling requests.
+     */
+    RuleBase copy() {
+        RuleBase rule;
+        try {
+            rule = (RuleBase) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        rule.regexBudgetExceededCount = new AtomicLong();
+        return rule;
+    }
+
+    /**
+     * @return true if any condition is on the method, scheme or port of the request
+     */
+    boolean hasRequestKeyConditions() {
+        for (int i = 0; i < conditions.size(); i++) {
+            if (((Condition) conditions.get(i)).isRequestKeyCondition()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Could the conditions match a request with the method, scheme and port, treating all other conditions as
+     * unknown.  Conditions are combined the same way as when run, using three valued logic.
+     *
+     * @param method null if not known
+     * @param scheme null if not known
+     * @param port   -1 if not known
+     * @return false only if the conditions can not match
+     */
+    boolean conditionsMightMatch(String method, String scheme, int port) {
+        int[] outcomes = new int[conditions.size()];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = ((Condition) conditions.get(i)).getOutcome(method, scheme, port);
+        }
+        return getConditionsOutcome(outcomes) != Condition.OUTCOME_FALSE;
+    }
+
+    /**
+     * Combine the outcomes of each condition (OUTCOME_TRUE, OUTCOME_FALSE or OUTCOME_UNKNOWN) the same way as when
+     * run, using three valued logic.
+     */
+    int getConditionsOutcome(int[] outcomes) {
+        int result = Condition.OUTCOME_TRUE;
+        boolean processNextOr = false;
+        for (int i = 0; i < conditions.size(); i++) {
+            final Condition condition = (Condition) conditions.get(i);
+            int outcome = outcomes[i];
+            if (processNextOr) {
+                if (result == Condition.OUTCOME_TRUE || outcome == Condition.OUTCOME_TRUE) {
+                    result = Condition.OUTCOME_TRUE;
+                } else if (result == Condition.OUTCOME_UNKNOWN || outcome == Condition.OUTCOME_UNKNOWN) {
+                    result = Condition.OUTCOME_UNKNOWN;
+                }
+            } else {
+                // must be and
+                if (result == Condition.OUTCOME_FALSE || outcome == Condition.OUTCOME_FALSE) {
+                    result = Condition.OUTCOME_FALSE;
+                } else if (result == Condition.OUTCOME_UNKNOWN || outcome == Condition.OUTCOME_UNKNOWN) {
+                    result = Condition.OUTCOME_UNKNOWN;
+                }
+            }
+            processNextOr = condition.isProcessNextOr();
+        }
+        return result;
+    }
+
+    /**
+     * @return true if rule processing always stops when the from and conditions match
+     */
+    boolean isStopping() {
+        return enabled && last && !filter && !toEmpty && runs.isEmpty();
+    }
+
+    /**
+     * @return true if the rule stops rule processing for every url, e.g. <code>&lt;from&gt;^(.*)&lt;/from&gt;</code>
+     *         with no conditions and last set
+     */
+    boolean matchesEveryUrl() {
+        // note, ^.*$ is not here as . doesn't match line terminators
+        return valid && isStopping() && conditions.isEmpty() && !isMatchTypeWildcard() && regexStepBudget <= 0
+                && from != null && UNIVERSAL_FROMS.contains(from);
+    }
+
+    private static final Set UNIVERSAL_FROMS = new HashSet(Arrays.asList(new String[]{
+            "^", ".*", "^.*", "(.*)", "^(.*)", ".*$", "(.*)$"}));
+
+    /**
+     * @return the same string for rules that always match the same urls and requests, or null if a condition could
+     *         change outcome between evaluations on the same request
+     */
+    String getMatchKey() {
+        StringBuffer key = new StringBuffer();
+        key.append(getMatchType()).append(',').append(fromCaseSensitive).append(',').append(from);
+        for (int i = 0; i < conditions.size(); i++) {
+            String conditionKey = ((Condition) conditions.get(i)).getMatchKey();
+            if (conditionKey == null) return null;
+            key.append('\n').append(conditionKey);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Add the from and condition patterns that can be compiled on first use to the list, in the order they will
+     * be run.
+     */
+    void addCompilablePatterns(List patterns) {
+        if (pattern instanceof CompilablePattern) patterns.add(pattern);
+        for (int i = 0; i < conditions.size(); i++) {
+            final Condition condition = (Condition) conditions.get(i);
+            if (condition.getPattern() instanceof CompilablePattern) patterns.add(condition.getPattern());
+        }
+    }
 }
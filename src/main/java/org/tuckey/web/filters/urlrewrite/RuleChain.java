@@ -44,7 +44,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.List;
 import java.util.HashMap;
 
 /**
@@ -61,7 +60,7 @@ public class RuleChain implements FilterChain {
     private int ruleIdxToRun = 0;
     private RewrittenUrl finalRewrittenRequest = null;
     private String finalToUrl;
-    private List rules;
+    private final Rule[] rules;
     private boolean requestRewritten;
     private boolean rewriteHandled = false;
     private boolean responseHandled;
@@ -69,9 +68,13 @@ public class RuleChain implements FilterChain {
     private UrlRewriter urlRewriter;
 
     public RuleChain(UrlRewriter urlRewriter, String originalUrl, FilterChain parentChain) {
+        this(urlRewriter, originalUrl, parentChain, urlRewriter.getConf().getRuntimeRules());
+    }
+
+    public RuleChain(UrlRewriter urlRewriter, String originalUrl, FilterChain parentChain, Rule[] rules) {
         this.finalToUrl = originalUrl;
         this.urlRewriter = urlRewriter;
-        this.rules = urlRewriter.getConf().getRules();
+        this.rules = rules;
         this.parentChain = parentChain;
     }
 
@@ -79,7 +82,7 @@ public class RuleChain implements FilterChain {
             throws IOException, ServletException, InvocationTargetException {
         // return to next level up and contniue to process rules
         int currentIdx = ruleIdxToRun++;
-        final Rule rule = (Rule) rules.get(currentIdx);
+        final Rule rule = rules[currentIdx];
         final RewrittenUrl rewrittenUrl = rule.matches(finalToUrl, hsRequest, hsResponse, this);
 
         // if this is a filter don't process any more rules, only process them via doFilter
@@ -102,7 +105,7 @@ public class RuleChain implements FilterChain {
     }
 
     private void dontProcessAnyMoreRules() {
-        ruleIdxToRun = rules.size();
+        ruleIdxToRun = rules.length;
     }
 
     public RewrittenUrl getFinalRewrittenRequest() {
@@ -133,7 +136,7 @@ public class RuleChain implements FilterChain {
 
     public void process(ServletRequest request, ServletResponse response)
             throws IOException, ServletException, InvocationTargetException {
-        while (ruleIdxToRun < rules.size()) {
+        while (ruleIdxToRun < rules.length) {
             doRuleProcessing((HttpServletRequest) request, (HttpServletResponse) response);
         }
     }
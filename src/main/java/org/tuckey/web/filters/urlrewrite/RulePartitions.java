@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Splits an array of rules by the method, scheme and port of the request so that rules with conditions that can't
+ * match a request (e.g. <code>&lt;condition type="method"&gt;POST&lt;/condition&gt;</code> for a GET) are never
+ * run for it.  Order is kept within each partition.
+ * <p/>
+ * Partitions are made the first time a method, scheme and port combination is seen.  Methods other than the
+ * standard ones, schemes other than http and https and ports (besides 80 and 443) not used in a condition share a partition where
+ * conditions on them are treated as possibly matching.
+ * <p/>
+ * A rule is only left out of a partition when its conditions can't match whatever the outcome of its other
+ * conditions.  Filtering rules (runs taking a filter chain) stop rule processing even when they don't match so are
+ * never left out.
+ */
+public class RulePartitions {
+
+    static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "TRACE", "PATCH"};
+    static final String[] SCHEMES = {"http", "https"};
+
+    private final Rule[] rules;
+    private final boolean[] keyed;
+    private final int keyedCount;
+    private final int[] ports;
+    private final AtomicReferenceArray partitions;
+
+    /**
+     * @return partitions for the rules or null if no rule has a method, scheme or port condition
+     */
+    public static RulePartitions build(Rule[] rules) {
+        RulePartitions rulePartitions = new RulePartitions(rules);
+        return rulePartitions.keyedCount == 0 ? null : rulePartitions;
+    }
+
+    private RulePartitions(Rule[] rules) {
+        this.rules = rules;
+        keyed = new boolean[rules.length];
+        int count = 0;
+        Set portSet = new TreeSet();
+        // the default ports are nearly always what's asked for so they always get their own partitions
+        portSet.add(new Integer(80));
+        portSet.add(new Integer(443));
+        for (int i = 0; i < rules.length; i++) {
+            if (!(rules[i] instanceof RuleBase) || rules[i].isFilter()) continue;
+            RuleBase ruleBase = (RuleBase) rules[i];
+            if (!ruleBase.hasRequestKeyConditions()) continue;
+            keyed[i] = true;
+            count++;
+            for (int j = 0; j < ruleBase.getConditions().size(); j++) {
+                long port = ((Condition) ruleBase.getConditions().get(j)).getPortValue();
+                if (port > 0 && port <= 65535) portSet.add(new Integer((int) port));
+            }
+        }
+        keyedCount = count;
+        ports = new int[portSet.size()];
+        int p = 0;
+        for (Iterator iterator = portSet.iterator(); iterator.hasNext(); ) {
+            ports[p++] = ((Integer) iterator.next()).intValue();
+        }
+        partitions = new AtomicReferenceArray((METHODS.length + 1) * (SCHEMES.length + 1) * (ports.length + 1));
+    }
+
+    /**
+     * @return the rules that could match a request with the method, scheme and port
+     */
+    public Rule[] getRules(String method, String scheme, int port) {
+        int methodIdx = indexOf(METHODS, method);
+        int schemeIdx = indexOf(SCHEMES, scheme);
+        int portIdx = Arrays.binarySearch(ports, port);
+        if (portIdx < 0) portIdx = -1;
+        int idx = ((methodIdx + 1) * (SCHEMES.length + 1) + (schemeIdx + 1)) * (ports.length + 1) + (portIdx + 1);
+        Rule[] partition = (Rule[]) partitions.get(idx);
+        if (partition == null) {
+            // worst case two threads make the same partition
+            partition = partition(methodIdx == -1 ? null : METHODS[methodIdx],
+                    schemeIdx == -1 ? null : SCHEMES[schemeIdx], portIdx == -1 ? -1 : ports[portIdx]);
+            partitions.set(idx, partition);
+        }
+        return partition;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        if (value == null) return -1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) return i;
+        }
+        return -1;
+    }
+
+    private Rule[] partition(String method, String scheme, int port) {
+        int size = 0;
+        boolean[] include = new boolean[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            include[i] = !keyed[i] || ((RuleBase) rules[i]).conditionsMightMatch(method, scheme, port);
+            if (include[i]) size++;
+        }
+        Rule[] partition = new Rule[size];
+        int p = 0;
+        for (int i = 0; i < rules.length; i++) {
+            if (include[i]) partition[p++] = rules[i];
+        }
+        return partition;
+    }
+
+    /**
+     * @return the number of rules with method, scheme or port conditions
+     */
+    public int getKeyedCount() {
+        return keyedCount;
+    }
+
+    /**
+     * @return the number of partitions made so far
+     */
+    public int getPartitionCount() {
+        int count = 0;
+        for (int i = 0; i < partitions.length(); i++) {
+            if (partitions.get(i) != null) count++;
+        }
+        return count;
+    }
+
+}
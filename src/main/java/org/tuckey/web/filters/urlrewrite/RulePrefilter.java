@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.BloomFilter;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A negative lookup filter that is checked before any rules are run.  When every rule has a literal prefix on
+ * its <code>from</code> (eg, <code>^/products/(.*)$</code> or wildcard <code>/products/**</code>) a request for a url
+ * that does not start with any of those prefixes cannot be matched by any rule and can skip the rule chain entirely.
+ * <p/>
+ * Each rule is keyed on at most the first two path segments of its literal prefix, the keys are stored in a
+ * {@link BloomFilter}.  If any rule does not have a literal prefix the prefilter is not used at all.
+ *
+ * @see Conf#setPrefilterEnabled(boolean)
+ */
+public class RulePrefilter {
+
+    private static Log log = Log.getLog(RulePrefilter.class);
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int KEY_SEGMENTS = 2;
+
+    private final BloomFilter bloomFilter;
+    private final int[] keyLengths;
+    private final int keyCount;
+    private final double falsePositiveRate;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private RulePrefilter(List keys, double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+        this.keyCount = keys.size();
+        bloomFilter = new BloomFilter(keys.size(), falsePositiveRate);
+        TreeSet lengths = new TreeSet();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = (String) keys.get(i);
+            bloomFilter.add(key);
+            lengths.add(new Integer(key.length()));
+        }
+        keyLengths = new int[lengths.size()];
+        int i = 0;
+        for (Iterator iterator = lengths.iterator(); iterator.hasNext();) {
+            keyLengths[i++] = ((Integer) iterator.next()).intValue();
+        }
+    }
+
+    /**
+     * Build a prefilter for the rules.
+     *
+     * @return the prefilter or null if one or more of the rules cannot be keyed (in which case every url is a
+     *         possible match)
+     */
+    public static RulePrefilter build(List rules, double falsePositiveRate) {
+        List keys = new ArrayList(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = (Rule) rules.get(i);
+            if (!(rule instanceof NormalRule)) {
+                log.debug("prefilter not used, " + rule.getDisplayName() + " is not a normal rule");
+                return null;
+            }
+            NormalRule normalRule = (NormalRule) rule;
+            if (!normalRule.isEnabled()) continue;
+            String prefix = normalRule.isMatchTypeWildcard() ? getWildcardLiteralPrefix(normalRule.getFrom())
+                    : getRegexLiteralPrefix(normalRule.getFrom());
+            if (prefix == null || prefix.length() == 0) {
+                log.debug("prefilter not used, " + rule.getDisplayName() + " has no literal prefix");
+                return null;
+            }
+            keys.add(getKey(prefix));
+        }
+        if (keys.size() == 0) return null;
+        return new RulePrefilter(keys, falsePositiveRate);
+    }
+
+    /**
+     * Will return false if the url definitely cannot be matched by any rule.
+     */
+    public boolean mightMatch(String url) {
+        checked.incrementAndGet();
+        int urlLength = url.length();
+        for (int i = 0; i < keyLengths.length; i++) {
+            int keyLength = keyLengths[i];
+            if (keyLength > urlLength) break;
+            if (bloomFilter.mightContain(url, 0, keyLength)) return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Cut the literal prefix down to at most the first couple of path segments (including the trailing /).
+     */
+    static String getKey(String prefix) {
+        int segments = 0;
+        for (int i = 1; i < prefix.length(); i++) {
+            if (prefix.charAt(i) == '/' && ++segments == KEY_SEGMENTS) {
+                return prefix.substring(0, i + 1);
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * Get the literal string that any url matched by the regular expression must start with.  This is
+     * conservative, ie, an empty string will be returned if unsure.
+     *
+     * @return the literal or null if the expression is not anchored to the start of the url
+     */
+    static String getRegexLiteralPrefix(String regex) {
+        if (regex == null || !regex.startsWith("^")) return null;
+        if (hasTopLevelAlternation(regex)) return null;
+        StringBuffer literal = new StringBuffer();
+        int i = 1;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int next;
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) break;
+                char escaped = regex.charAt(i + 1);
+                // \d \w \Q \1 etc are not literals
+                if (Character.isLetterOrDigit(escaped)) break;
+                c = escaped;
+                next = i + 2;
+            } else if (".[](){}*+?$^|".indexOf(c) != -1) {
+                break;
+            } else {
+                next = i + 1;
+            }
+            if (next < regex.length()) {
+                char quantifier = regex.charAt(next);
+                // the char is optional so the literal stops before it
+                if (quantifier == '?' || quantifier == '*' || quantifier == '{') break;
+                literal.append(c);
+                if (quantifier == '+') break;
+            } else {
+                literal.append(c);
+            }
+            i = next;
+        }
+        return literal.toString();
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                if (c == ']') inClass = false;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the literal string that any url matched by the wildcard expression must start with (wildcard expressions
+     * are always anchored).
+     */
+    static String getWildcardLiteralPrefix(String wildcard) {
+        if (wildcard == null) return null;
+        StringBuffer literal = new StringBuffer();
+        for (int i = 0; i < wildcard.length(); i++) {
+            char c = wildcard.charAt(i);
+            if (c == '*') break;
+            if (c == '\\') {
+                if (++i >= wildcard.length()) break;
+                c = wildcard.charAt(i);
+            }
+            literal.append(c);
+        }
+        return literal.toString();
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public int[] getKeyLengths() {
+        return keyLengths;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public int getNumBits() {
+        return bloomFilter.getNumBits();
+    }
+
+    /**
+     * Number of requests checked against the prefilter.
+     */
+    public long getChecked() {
+        return checked.get();
+    }
+
+    /**
+     * Number of requests that were rejected without running any rules.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+}
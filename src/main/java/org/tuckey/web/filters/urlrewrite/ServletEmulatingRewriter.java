@@ -0,0 +1,516 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.apache.commons.httpclient.util.DateUtil;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A facade that emulates just enough of a servlet container to run the rules of a conf against a
+ * {@link RewriteRequest}, returning a {@link RewriteDecision} instead of carrying the outcome out, eg:
+ * <pre>
+ * Conf conf = new Conf(new File("urlrewrite.xml").toURI().toURL());
+ * ServletEmulatingRewriter rewriter = new ServletEmulatingRewriter(conf);
+ * RewriteDecision decision = rewriter.rewrite(new SimpleRewriteRequest("GET", "/products/12"));
+ * if (RewriteDecision.TYPE_PERMANENT_REDIRECT.equals(decision.getType())) ...
+ * </pre>
+ * The rules are not servlet independent, each request is wrapped as an HttpServletRequest and response for them, so
+ * the servlet api jar is needed on the class path (but no container is) and each request costs a little more than the
+ * same rules run by {@link UrlRewriteFilter}.  There are no sessions, conditions on the session never match and
+ * set type="session" is ignored.  Run elements are invoked as normal, class-rule and run elements that need the
+ * filter chain are not supported.
+ * <p/>
+ * {@link UrlRewriteFilter} doesn't go through this class, it runs the same rules on the container's request.
+ * <p/>
+ * A rewriter is thread safe, create one per conf.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class ServletEmulatingRewriter {
+
+    private static Log log = Log.getLog(ServletEmulatingRewriter.class);
+
+    private final UrlRewriter urlRewriter;
+
+    public ServletEmulatingRewriter(Conf conf) {
+        urlRewriter = new UrlRewriter(conf);
+    }
+
+    /**
+     * Run the rules against the request.  Request attributes set by rules are set on the request.
+     *
+     * @throws IOException if a rule fails, a ServletException is the cause
+     */
+    public RewriteDecision rewrite(RewriteRequest request) throws IOException {
+        RewriteDecision decision = new RewriteDecision();
+        HttpServletRequest hsRequest = newServletRequest(request);
+        UrlRewriteWrappedResponse hsResponse = new UrlRewriteWrappedResponse(new EmulatedServletResponse(decision),
+                hsRequest, urlRewriter);
+        RewrittenUrl rewrittenUrl;
+        try {
+            try {
+                rewrittenUrl = urlRewriter.processRequest(hsRequest, hsResponse);
+            } catch (InvocationTargetException e) {
+                rewrittenUrl = urlRewriter.handleInvocationTargetException(hsRequest, hsResponse, e);
+            }
+        } catch (ServletException e) {
+            IOException ioe = new IOException("unable to rewrite " + request + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        decision.setMethod(hsResponse.getOverridenMethod());
+        decision.setParameters(hsResponse.getOverridenRequestParameters());
+        if (rewrittenUrl != null) setOutcome(decision, rewrittenUrl, hsResponse);
+        if (log.isDebugEnabled()) log.debug(request + " decided " + decision);
+        return decision;
+    }
+
+    private static void setOutcome(RewriteDecision decision, RewrittenUrl rewrittenUrl, HttpServletResponse hsResponse) {
+        if (!(rewrittenUrl instanceof NormalRewrittenUrl)) {
+            decision.setType(RewriteDecision.TYPE_CLASS);
+            decision.setTarget(rewrittenUrl.getTarget());
+            return;
+        }
+        NormalRewrittenUrl url = (NormalRewrittenUrl) rewrittenUrl;
+        String target = url.getTarget();
+        // in the same order as NormalRewrittenUrl.doRewrite
+        if (url.isStopFilterChain()) {
+            decision.setType(RewriteDecision.TYPE_STOP);
+            return;
+        } else if (url.isNoSubstitution()) {
+            return;
+        } else if (url.isForward()) {
+            decision.setType(RewriteDecision.TYPE_FORWARD);
+        } else if (url.isPreInclude()) {
+            decision.setType(RewriteDecision.TYPE_PRE_INCLUDE);
+        } else if (url.isPostInclude()) {
+            decision.setType(RewriteDecision.TYPE_POST_INCLUDE);
+        } else if (url.isRedirect()) {
+            decision.setType(RewriteDecision.TYPE_REDIRECT);
+            if (url.isEncode()) target = hsResponse.encodeRedirectURL(target);
+            decision.setStatus(HttpServletResponse.SC_MOVED_TEMPORARILY);
+            decision.setHeader("Location", target);
+        } else if (url.isTemporaryRedirect()) {
+            decision.setType(RewriteDecision.TYPE_TEMPORARY_REDIRECT);
+            if (url.isEncode()) target = hsResponse.encodeRedirectURL(target);
+            decision.setStatus(HttpServletResponse.SC_MOVED_TEMPORARILY);
+            decision.setHeader("Location", target);
+        } else if (url.isPermanentRedirect()) {
+            decision.setType(RewriteDecision.TYPE_PERMANENT_REDIRECT);
+            if (url.isEncode()) target = hsResponse.encodeRedirectURL(target);
+            decision.setStatus(HttpServletResponse.SC_MOVED_PERMANENTLY);
+            decision.setHeader("Location", target);
+        } else if (url.isProxy()) {
+            decision.setType(RewriteDecision.TYPE_PROXY);
+        } else {
+            return;
+        }
+        decision.setTarget(target);
+    }
+
+    /**
+     * Run the outbound rules against a url, as response.encodeURL would in the filter.
+     */
+    public String encodeURL(RewriteRequest request, String url) {
+        HttpServletRequest hsRequest = newServletRequest(request);
+        UrlRewriteWrappedResponse hsResponse = new UrlRewriteWrappedResponse(
+                new EmulatedServletResponse(new RewriteDecision()), hsRequest, urlRewriter);
+        return hsResponse.encodeURL(url);
+    }
+
+    public Conf getConf() {
+        return urlRewriter.getConf();
+    }
+
+    /**
+     * A view of the request as an HttpServletRequest, attributes are read from and set on the request.
+     */
+    static HttpServletRequest newServletRequest(RewriteRequest request) {
+        return new EmulatedServletRequest(request);
+    }
+
+    /**
+     * Everything rules look at is answered from the RewriteRequest with plain calls, the rest of the servlet api
+     * (sessions, the body etc) goes to a request that returns nulls, false or 0.
+     */
+    private static class EmulatedServletRequest extends HttpServletRequestWrapper {
+
+        private final RewriteRequest request;
+
+        EmulatedServletRequest(RewriteRequest request) {
+            super(EMPTY_REQUEST);
+            this.request = request;
+        }
+
+        public String getRequestURI() {
+            return request.getRequestURI();
+        }
+
+        public String getQueryString() {
+            return request.getQueryString();
+        }
+
+        public String getMethod() {
+            return request.getMethod();
+        }
+
+        public String getScheme() {
+            return request.getScheme();
+        }
+
+        public String getServerName() {
+            return request.getServerName();
+        }
+
+        public int getServerPort() {
+            return request.getServerPort();
+        }
+
+        public String getRemoteAddr() {
+            return request.getRemoteAddr();
+        }
+
+        public String getRemoteHost() {
+            return request.getRemoteAddr();
+        }
+
+        public String getContextPath() {
+            return request.getContextPath();
+        }
+
+        public String getServletPath() {
+            return "";
+        }
+
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        public boolean isSecure() {
+            return "https".equals(request.getScheme());
+        }
+
+        public StringBuffer getRequestURL() {
+            StringBuffer url = new StringBuffer();
+            String scheme = request.getScheme();
+            int port = request.getServerPort();
+            url.append(scheme).append("://").append(request.getServerName());
+            if (!(("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443))) {
+                url.append(':').append(port);
+            }
+            url.append(request.getRequestURI());
+            return url;
+        }
+
+        public String getHeader(String name) {
+            return request.getHeader(name);
+        }
+
+        public Enumeration getHeaders(String name) {
+            return Collections.enumeration(request.getHeaders(name));
+        }
+
+        public Enumeration getHeaderNames() {
+            return Collections.enumeration(request.getHeaderNames());
+        }
+
+        public long getDateHeader(String name) {
+            String value = request.getHeader(name);
+            if (value == null) return -1;
+            try {
+                return DateUtil.parseDate(value).getTime();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("header " + name + " is not a date: " + value);
+            }
+        }
+
+        public int getIntHeader(String name) {
+            String value = request.getHeader(name);
+            return value == null ? -1 : Integer.parseInt(value.trim());
+        }
+
+        public int getContentLength() {
+            return getIntHeader("Content-Length");
+        }
+
+        public String getContentType() {
+            return request.getHeader("Content-Type");
+        }
+
+        public Cookie[] getCookies() {
+            Map cookies = request.getCookies();
+            if (cookies == null || cookies.isEmpty()) return null;
+            List list = new ArrayList(cookies.size());
+            for (Iterator iterator = cookies.entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry entry = (Map.Entry) iterator.next();
+                try {
+                    list.add(new Cookie((String) entry.getKey(), (String) entry.getValue()));
+                } catch (IllegalArgumentException e) {
+                    log.debug("ignoring cookie with bad name " + entry.getKey());
+                }
+            }
+            return list.isEmpty() ? null : (Cookie[]) list.toArray(new Cookie[list.size()]);
+        }
+
+        public String getParameter(String name) {
+            return request.getParameter(name);
+        }
+
+        public String[] getParameterValues(String name) {
+            return request.getParameterValues(name);
+        }
+
+        public Enumeration getParameterNames() {
+            return Collections.enumeration(request.getParameterNames());
+        }
+
+        public Map getParameterMap() {
+            Map parameters = new HashMap();
+            List names = request.getParameterNames();
+            for (int i = 0; i < names.size(); i++) {
+                String name = (String) names.get(i);
+                parameters.put(name, request.getParameterValues(name));
+            }
+            return Collections.unmodifiableMap(parameters);
+        }
+
+        public Object getAttribute(String name) {
+            return request.getAttribute(name);
+        }
+
+        public void setAttribute(String name, Object value) {
+            request.setAttribute(name, value);
+        }
+
+        public void removeAttribute(String name) {
+            request.removeAttribute(name);
+        }
+
+        public Enumeration getAttributeNames() {
+            return Collections.enumeration(request.getAttributeNames());
+        }
+
+        public String toString() {
+            return request.toString();
+        }
+    }
+
+    /**
+     * A response that records the status and headers set by rules in the decision, anything written is discarded.
+     */
+    private static class EmulatedServletResponse extends HttpServletResponseWrapper {
+
+        private final RewriteDecision decision;
+        private PrintWriter writer;
+        private ServletOutputStream out;
+
+        EmulatedServletResponse(RewriteDecision decision) {
+            super(EMPTY_RESPONSE);
+            this.decision = decision;
+        }
+
+        public void setStatus(int status) {
+            decision.setStatus(status);
+        }
+
+        public void setStatus(int status, String message) {
+            decision.setStatus(status);
+        }
+
+        public void sendError(int status) {
+            decision.setStatus(status);
+        }
+
+        public void sendError(int status, String message) {
+            decision.setStatus(status);
+        }
+
+        public void sendRedirect(String location) {
+            decision.setStatus(HttpServletResponse.SC_MOVED_TEMPORARILY);
+            decision.setHeader("Location", location);
+        }
+
+        public void setHeader(String name, String value) {
+            decision.setHeader(name, value);
+        }
+
+        public void addHeader(String name, String value) {
+            decision.addHeader(name, value);
+        }
+
+        public void setIntHeader(String name, int value) {
+            decision.setHeader(name, String.valueOf(value));
+        }
+
+        public void addIntHeader(String name, int value) {
+            decision.addHeader(name, String.valueOf(value));
+        }
+
+        public void setDateHeader(String name, long date) {
+            decision.setHeader(name, DateUtil.formatDate(new Date(date)));
+        }
+
+        public void addDateHeader(String name, long date) {
+            decision.addHeader(name, DateUtil.formatDate(new Date(date)));
+        }
+
+        public boolean containsHeader(String name) {
+            return decision.getHeader(name) != null;
+        }
+
+        public void addCookie(Cookie cookie) {
+            decision.addHeader("Set-Cookie", formatCookie(cookie));
+        }
+
+        public void setContentType(String type) {
+            decision.setHeader("Content-Type", type);
+        }
+
+        public String getContentType() {
+            return decision.getHeader("Content-Type");
+        }
+
+        public void setCharacterEncoding(String charset) {
+            String contentType = decision.getHeader("Content-Type");
+            if (contentType != null && contentType.indexOf("charset=") == -1) {
+                decision.setHeader("Content-Type", contentType + ";charset=" + charset);
+            }
+        }
+
+        public String getCharacterEncoding() {
+            return "ISO-8859-1";
+        }
+
+        public void setLocale(Locale locale) {
+            decision.setHeader("Content-Language", locale.toString().replace('_', '-'));
+        }
+
+        public String encodeURL(String url) {
+            return url;
+        }
+
+        public String encodeRedirectURL(String url) {
+            return url;
+        }
+
+        public String encodeUrl(String url) {
+            return url;
+        }
+
+        public String encodeRedirectUrl(String url) {
+            return url;
+        }
+
+        public ServletOutputStream getOutputStream() {
+            if (out == null) {
+                out = new ServletOutputStream() {
+                    public void write(int b) {
+                        // discarded
+                    }
+                };
+            }
+            return out;
+        }
+
+        public PrintWriter getWriter() {
+            if (writer == null) writer = new PrintWriter(new OutputStreamWriter(getOutputStream()));
+            return writer;
+        }
+
+        public String toString() {
+            return "response for " + decision;
+        }
+    }
+
+    /**
+     * Returns null, false or 0 from every method, for the parts of the servlet api the rewriter has nothing for.  One
+     * instance is shared by every request so nothing is looked up reflectively for the methods rules use.
+     */
+    private static final InvocationHandler EMPTY_HANDLER = new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("equals".equals(name)) return Boolean.valueOf(proxy == args[0]);
+            if ("hashCode".equals(name)) return new Integer(System.identityHashCode(proxy));
+            if ("toString".equals(name)) return "empty " + method.getDeclaringClass().getName();
+            Class type = method.getReturnType();
+            if (type == Boolean.TYPE) return Boolean.FALSE;
+            if (type == Integer.TYPE) return new Integer(0);
+            if (type == Long.TYPE) return new Long(0);
+            return null;
+        }
+    };
+
+    private static final HttpServletRequest EMPTY_REQUEST = (HttpServletRequest) Proxy.newProxyInstance(
+            HttpServletRequest.class.getClassLoader(), new Class[]{HttpServletRequest.class}, EMPTY_HANDLER);
+
+    private static final HttpServletResponse EMPTY_RESPONSE = (HttpServletResponse) Proxy.newProxyInstance(
+            HttpServletResponse.class.getClassLoader(), new Class[]{HttpServletResponse.class}, EMPTY_HANDLER);
+
+    private static String formatCookie(Cookie cookie) {
+        StringBuffer header = new StringBuffer();
+        header.append(cookie.getName()).append('=').append(cookie.getValue() == null ? "" : cookie.getValue());
+        if (cookie.getDomain() != null) header.append("; Domain=").append(cookie.getDomain());
+        if (cookie.getPath() != null) header.append("; Path=").append(cookie.getPath());
+        if (cookie.getMaxAge() >= 0) header.append("; Max-Age=").append(cookie.getMaxAge());
+        if (cookie.getSecure()) header.append("; Secure");
+        return header.toString();
+    }
+
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A request built up with setters, for adapting a request from another http server to
+ * {@link ServletEmulatingRewriter}, eg:
+ * <pre>
+ * SimpleRewriteRequest request = new SimpleRewriteRequest("GET", "/products/12?view=full");
+ * request.setServerName("www.example.com");
+ * request.addHeader("User-Agent", userAgent);
+ * RewriteDecision decision = rewriter.rewrite(request);
+ * </pre>
+ * Parameters are taken from the query string of the uri (decoded as UTF-8), more can be added with
+ * {@link #addParameter}.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class SimpleRewriteRequest implements RewriteRequest {
+
+    private final String method;
+    private final String requestURI;
+    private final String queryString;
+    private String scheme = "http";
+    private String serverName = "localhost";
+    private int serverPort = 80;
+    private String remoteAddr = "127.0.0.1";
+    private String contextPath = "";
+    // names aren't case sensitive, compared without making a lower case copy on each lookup, the names as they were
+    // added are kept in headerNames
+    private final Map headers = new TreeMap(String.CASE_INSENSITIVE_ORDER);
+    private final List headerNames = new ArrayList();
+    private final Map cookies = new LinkedHashMap();
+    private final Map parameters = new LinkedHashMap();
+    private final Map attributes = new HashMap();
+
+    /**
+     * @param uri the request uri, not decoded, optionally with a query string
+     */
+    public SimpleRewriteRequest(String method, String uri) {
+        this.method = method;
+        int question = uri.indexOf('?');
+        if (question == -1) {
+            requestURI = uri;
+            queryString = null;
+        } else {
+            requestURI = uri.substring(0, question);
+            queryString = uri.substring(question + 1);
+            addQueryParameters(queryString);
+        }
+    }
+
+    private void addQueryParameters(String query) {
+        String[] pairs = query.split("&");
+        for (int i = 0; i < pairs.length; i++) {
+            if (pairs[i].length() == 0) continue;
+            int equals = pairs[i].indexOf('=');
+            String name = equals == -1 ? pairs[i] : pairs[i].substring(0, equals);
+            String value = equals == -1 ? "" : pairs[i].substring(equals + 1);
+            addParameter(decode(name), decode(value));
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return s;
+        } catch (IllegalArgumentException e) {
+            // bad % escape, leave as is
+            return s;
+        }
+    }
+
+    public void setScheme(String scheme) {
+        this.scheme = scheme;
+    }
+
+    public void setServerName(String serverName) {
+        this.serverName = serverName;
+    }
+
+    public void setServerPort(int serverPort) {
+        this.serverPort = serverPort;
+    }
+
+    public void setRemoteAddr(String remoteAddr) {
+        this.remoteAddr = remoteAddr;
+    }
+
+    public void setContextPath(String contextPath) {
+        this.contextPath = contextPath == null ? "" : contextPath;
+    }
+
+    public void addHeader(String name, String value) {
+        List values = (List) headers.get(name);
+        if (values == null) {
+            values = new ArrayList(1);
+            headers.put(name, values);
+            headerNames.add(name);
+        }
+        values.add(value);
+    }
+
+    public void addCookie(String name, String value) {
+        cookies.put(name, value);
+    }
+
+    public void addParameter(String name, String value) {
+        List values = (List) parameters.get(name);
+        if (values == null) {
+            values = new ArrayList(1);
+            parameters.put(name, values);
+        }
+        values.add(value);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    public String getQueryString() {
+        return queryString;
+    }
+
+    public String getHeader(String name) {
+        List values = (List) headers.get(name);
+        return values == null ? null : (String) values.get(0);
+    }
+
+    public List getHeaders(String name) {
+        List values = (List) headers.get(name);
+        return values == null ? Collections.EMPTY_LIST : Collections.unmodifiableList(values);
+    }
+
+    public List getHeaderNames() {
+        return Collections.unmodifiableList(headerNames);
+    }
+
+    public Map getCookies() {
+        return Collections.unmodifiableMap(cookies);
+    }
+
+    public String getParameter(String name) {
+        List values = (List) parameters.get(name);
+        return values == null ? null : (String) values.get(0);
+    }
+
+    public String[] getParameterValues(String name) {
+        List values = (List) parameters.get(name);
+        return values == null ? null : (String[]) values.toArray(new String[values.size()]);
+    }
+
+    public List getParameterNames() {
+        return new ArrayList(parameters.keySet());
+    }
+
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+    }
+
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    public List getAttributeNames() {
+        return new ArrayList(attributes.keySet());
+    }
+
+    public String toString() {
+        return method + " " + requestURI + (queryString == null ? "" : "?" + queryString);
+    }
+
+}
@@ -34,6 +34,9 @@
  */
 package org.tuckey.web.filters.urlrewrite;
 
+import org.tuckey.web.filters.urlrewrite.gzip.DeflaterPool;
+import org.tuckey.web.filters.urlrewrite.gzip.GzipFilter;
+import org.tuckey.web.filters.urlrewrite.maps.RewriteMap;
 import org.tuckey.web.filters.urlrewrite.utils.Log;
 import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
 
@@ -43,10 +46,13 @@ import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Outputs information about urlrewritefilter.
@@ -222,6 +228,10 @@ public class Status {
                 (conditionsCount == 1 ? conditionsCount + " condition" : "") +
                 (conditionsCount > 1 ? conditionsCount + " conditions" : "") +
                 " in the configuration file.</p>");
+        if (conf.isFlattenRulesEnabled() && conf.isOk()) {
+            println("<p>Rules are flattened, " + conf.getRuntimeRules().length + " rules will be run for each request, " +
+                    conf.getLiteralRulesCount() + " of which match using a literal string comparison.</p>");
+        }
 
         showRules(rules);
         showOutboundRules(outboundRules);
@@ -254,6 +264,22 @@ public class Status {
                     else
                         print("<code>" + normalRule.getToType() + "</code> to");
                     print(" <code>" + normalRule.getTo() + "</code>");
+                    if (normalRule.getCollapsedTo() != null) {
+                        print(" (collapsed to <code>" + normalRule.getCollapsedTo() + "</code>)");
+                    }
+                    if (normalRule.getToCacheMillis() > 0) {
+                        print(", output cached for <code>" + normalRule.getToCache() + "</code>");
+                    }
+                    if (normalRule.getToCoalesceWaitMillis() > 0) {
+                        print(", identical requests share one request to the target");
+                    }
+                    if (normalRule.isToProxyCache()) {
+                        print(", responses cached as the target's headers allow");
+                    }
+                    if (normalRule.getUpstream() != null) {
+                        print(", balanced across the <code>" + normalRule.getUpstream().getServers().size() +
+                                "</code> servers of the upstream by <code>" + normalRule.getUpstream().getBalance() + "</code>");
+                    }
                 }
                 println(".</p>");
                 print("<p>This rule and it's conditions will use the <code>" + normalRule.getMatchType() + "</code> matching engine.</p>");
@@ -270,6 +296,14 @@ public class Status {
                 println("<h3>" + classRule.getDisplayName() +
                         (classRule.isEnabled() ? "" : " **DISABLED**") + "</h3>");
             }
+            if (rule instanceof RedirectTableRule) {
+                RedirectTableRule redirectTableRule = (RedirectTableRule) rule;
+                println("<h3>" + redirectTableRule.getDisplayName() +
+                        (redirectTableRule.isEnabled() ? "" : " **DISABLED**") + "</h3>");
+                println("<p>URL's found in the table of <em>" + redirectTableRule.getSize() + "</em> redirects will be " +
+                        "redirected with status <code>" +
+                        (redirectTableRule.getStatusStr() == null ? "301" : redirectTableRule.getStatusStr()) + "</code>.</p>");
+            }
             println();
             println();
         }
@@ -359,6 +393,295 @@ public class Status {
             }
             println("<p>Status path <code>" + urlRewriteFilter.getStatusPath() + "</code>.</p>");
         }
+        showInitTimings();
+        showIncludesInfo();
+        showVirtualHostsInfo();
+        showRulePartitionsInfo();
+        showHotRuleBlocksInfo();
+        showPatternCompileInfo();
+        showRegexInfo();
+        showDeadRulesInfo();
+        showPrefilterInfo();
+        showRewriteMapsInfo();
+        showRedirectChainInfo();
+        showGzipInfo();
+        showResponseCacheInfo();
+        showProxyCoalescerInfo();
+        showProxyCacheInfo();
+        showUpstreamInfo();
+    }
+
+    private void showInitTimings() {
+        Map initTimings = conf.getInitTimings();
+        if (initTimings.isEmpty()) return;
+        println("<p>Conf load times");
+        if (conf.getInitThreadsUsed() > 1) println("(rules initialised on <em>" + conf.getInitThreadsUsed() + "</em> threads)");
+        if (conf.getReusedRuleCount() > 0 || conf.getReusedRunCount() > 0) {
+            println("(<em>" + conf.getReusedRuleCount() + "</em> unchanged rules and <em>" + conf.getReusedRunCount() +
+                    "</em> runs reused from the previous load)");
+        }
+        println("</p>");
+        println("<ul>");
+        for (Iterator iterator = initTimings.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            long nanos = ((Long) entry.getValue()).longValue();
+            println("<li>" + entry.getKey() + " <em>" + Math.round(nanos / 10000d) / 100d + "ms</em></li>");
+        }
+        println("</ul>");
+    }
+
+    private void showIncludesInfo() {
+        List includes = conf.getIncludes();
+        if (includes.isEmpty()) return;
+        println("<p>Included files</p>");
+        println("<ul>");
+        for (int i = 0; i < includes.size(); i++) {
+            ConfInclude include = (ConfInclude) includes.get(i);
+            if (include.getError() != null) {
+                println("<li class=\"err\"><code>" + include.getFile() + "</code>: " + include.getError() + "</li>");
+                continue;
+            }
+            println("<li><code>" + include.getFile() + "</code> <em>" + include.getRules().size() + "</em> rules, <em>" +
+                    include.getOutboundRules().size() + "</em> outbound rules" +
+                    (include.isReused() ? " (unchanged, reused)" : "") + "</li>");
+        }
+        println("</ul>");
+    }
+
+    private void showGzipInfo() {
+        DeflaterPool pool = GzipFilter.getSharedDeflaterPool();
+        if (GzipFilter.getCompressedCount() == 0 && GzipFilter.getTooSmallCount() == 0
+                && GzipFilter.getSidecarCount() == 0 && GzipFilter.getCachedCount() == 0) {
+            return;
+        }
+        println("<p>Gzip: <em>" + GzipFilter.getCompressedCount() + "</em> responses compressed to <em>" +
+                Math.round(GzipFilter.getCompressionRatio() * 1000) / 10d + "%</em> of their size, <em>" +
+                GzipFilter.getTooSmallCount() + "</em> too small to compress.  Deflaters <em>" +
+                pool.getCreatedCount() + "</em> created, <em>" + pool.getReusedCount() + "</em> reused, <em>" +
+                pool.getIdleCount() + "</em> of <em>" + pool.getMaxIdle() + "</em> idle.  Static assets <em>" +
+                GzipFilter.getSidecarCount() + "</em> served from .gz files, <em>" + GzipFilter.getCachedCount() +
+                "</em> from the gzipped asset cache.</p>");
+    }
+
+    private void showResponseCacheInfo() {
+        ResponseCache responseCache = conf.getResponseCache();
+        if (responseCache == null) return;
+        println("<p>Response cache: <em>" + responseCache.getSize() + "</em> responses, <em>" +
+                responseCache.getBytes() + "</em> of <em>" + responseCache.getMaxBytes() + "</em> bytes.  <em>" +
+                responseCache.getHitCount() + "</em> hits, <em>" + responseCache.getMissCount() + "</em> misses, <em>" +
+                responseCache.getCoalescedCount() + "</em> waited for another request to render, <em>" +
+                responseCache.getUncacheableCount() + "</em> could not be cached, <em>" +
+                responseCache.getEvictedCount() + "</em> evicted.</p>");
+    }
+
+    private void showProxyCoalescerInfo() {
+        ProxyCoalescer coalescer = conf.getProxyCoalescer();
+        if (coalescer == null) return;
+        println("<p>Proxy coalescing: <em>" + coalescer.getFetchCount() + "</em> requests to targets, <em>" +
+                coalescer.getSharedCount() + "</em> requests sent a shared response, <em>" +
+                coalescer.getNotSharedCount() + "</em> could not share (body over <em>" + coalescer.getMaxBodyBytes() +
+                "</em> bytes or Vary), <em>" + coalescer.getTimedOutCount() + "</em> timed out waiting.</p>");
+    }
+
+    private void showProxyCacheInfo() {
+        ProxyCache proxyCache = conf.getProxyCache();
+        if (proxyCache == null) return;
+        ProxyCacheStore store = proxyCache.getStore();
+        print("<p>Proxy cache: <em>" + store.getSize() + "</em> responses, <em>" + store.getBytes() +
+                "</em> bytes");
+        if (store instanceof MemoryProxyCacheStore && ((MemoryProxyCacheStore) store).getOverflow() != null) {
+            ProxyCacheStore overflow = ((MemoryProxyCacheStore) store).getOverflow();
+            print(" in memory, <em>" + overflow.getSize() + "</em> responses, <em>" + overflow.getBytes() +
+                    "</em> bytes on disk");
+        }
+        println(".  <em>" + proxyCache.getHitCount() + "</em> hits, <em>" + proxyCache.getStaleHitCount() +
+                "</em> stale hits, <em>" + proxyCache.getMissCount() + "</em> misses, <em>" +
+                proxyCache.getRevalidationCount() + "</em> revalidations (<em>" + proxyCache.getNotModifiedCount() +
+                "</em> not modified), <em>" + proxyCache.getBackgroundRevalidationCount() +
+                "</em> background revalidations (<em>" + proxyCache.getRevalidationsSkippedCount() +
+                "</em> skipped), <em>" + proxyCache.getStoredCount() + "</em> stored, <em>" +
+                proxyCache.getNotStoredCount() + "</em> not cacheable.</p>");
+    }
+
+    private void showUpstreamInfo() {
+        Map upstreams = conf.getUpstreams();
+        if (upstreams.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        for (Iterator iterator = upstreams.values().iterator(); iterator.hasNext();) {
+            Upstream upstream = (Upstream) iterator.next();
+            print("<p>Upstream <code>" + upstream.getName() + "</code> (<code>" + upstream.getBalance() + "</code>");
+            if (upstream.getHealthCheck() != null) print(", health checked at <code>" + upstream.getHealthCheck() + "</code>");
+            println(")</p>");
+            println("<ul>");
+            List servers = upstream.getServers();
+            for (int i = 0; i < servers.size(); i++) {
+                UpstreamServer server = (UpstreamServer) servers.get(i);
+                String state = !server.isHealthy() ? "unhealthy" : server.isEjected(now) ? "ejected" : "available";
+                println("<li" + (server.isAvailable(now) ? "" : " class=\"err\"") + "><code>" + server.getUrl() +
+                        "</code> " + state + ", <em>" + server.getInFlight() + "</em> in progress, <em>" +
+                        server.getRequestCount() + "</em> requests, <em>" + server.getFailureCount() +
+                        "</em> failed, ejected <em>" + server.getEjectedCount() + "</em> times</li>");
+            }
+            println("</ul>");
+        }
+    }
+
+    private void showRedirectChainInfo() {
+        RedirectChainCollapser collapser = conf.getRedirectChainCollapser();
+        if (collapser == null) return;
+        List collapsed = collapser.getCollapsed();
+        println("<p>Redirect chains collapsed: <em>" + collapsed.size() + "</em></p>");
+        if (!collapsed.isEmpty()) {
+            println("<ul>");
+            for (int i = 0; i < collapsed.size(); i++) {
+                println("<li><code>" + collapsed.get(i) + "</code></li>");
+            }
+            println("</ul>");
+        }
+        List loops = collapser.getLoops();
+        if (!loops.isEmpty()) {
+            println("<p class=\"err\">Redirect loops found: <em>" + loops.size() + "</em></p>");
+            println("<ul>");
+            for (int i = 0; i < loops.size(); i++) {
+                println("<li class=\"err\"><code>" + loops.get(i) + "</code></li>");
+            }
+            println("</ul>");
+        }
+    }
+
+    private void showRewriteMapsInfo() {
+        if (conf.getRewriteMaps().isEmpty()) return;
+        println("<p>Maps</p>");
+        println("<ul>");
+        for (Iterator iterator = conf.getRewriteMaps().values().iterator(); iterator.hasNext();) {
+            RewriteMap rewriteMap = (RewriteMap) iterator.next();
+            if (rewriteMap.getError() != null) {
+                println("<li class=\"err\">" + rewriteMap.getName() + ": " + rewriteMap.getError() + "</li>");
+                continue;
+            }
+            println("<li><code>" + rewriteMap.getName() + "</code> " + rewriteMap.getType() + " map with <em>" +
+                    rewriteMap.getSize() + "</em> entries from <code>" + rewriteMap.getFile() + "</code> loaded <em>" +
+                    rewriteMap.getLoadedDate() + "</em></li>");
+        }
+        println("</ul>");
+    }
+
+    private void showVirtualHostsInfo() {
+        VirtualHostRouter router = conf.getVirtualHostRouter();
+        if (router == null) return;
+        List virtualHosts = router.getVirtualHosts();
+        println("<p>Virtual hosts, <em>" + router.getDefaultRules().length + "</em> rules run for other server names</p>");
+        println("<ul>");
+        for (int i = 0; i < virtualHosts.size(); i++) {
+            VirtualHost virtualHost = (VirtualHost) virtualHosts.get(i);
+            println("<li><code>" + virtualHost.getNamesStr() + "</code> <em>" + router.getRules(i).length +
+                    "</em> rules run</li>");
+        }
+        println("</ul>");
+    }
+
+    private void showRulePartitionsInfo() {
+        Map rulePartitions = conf.getRulePartitions();
+        if (rulePartitions == null) return;
+        int keyedCount = 0;
+        List rules = conf.getRules();
+        for (int i = 0; i < rules.size(); i++) {
+            Object rule = rules.get(i);
+            if (rule instanceof RuleBase && ((RuleBase) rule).hasRequestKeyConditions()) keyedCount++;
+        }
+        int partitionCount = 0;
+        for (Iterator iterator = rulePartitions.values().iterator(); iterator.hasNext();) {
+            partitionCount += ((RulePartitions) iterator.next()).getPartitionCount();
+        }
+        println("<p>Rules with method, scheme or port conditions: <em>" + keyedCount + "</em>, only run for " +
+                "requests they could match (<em>" + partitionCount + "</em> partitions in use).</p>");
+    }
+
+    private void showHotRuleBlocksInfo() {
+        List blocks = conf.getHotRuleBlocks();
+        if (blocks.isEmpty()) return;
+        boolean pinned = ((HotRuleBlock) blocks.get(0)).isPinned();
+        print("<p>Reorderable rule blocks: <em>" + blocks.size() + "</em>, most matched rules are tried first");
+        if (pinned) {
+            print(", order <em>pinned</em> (<a href=\"?pin-rule-order=false\">unpin</a>)");
+        } else {
+            print(" (<a href=\"?pin-rule-order=true\">pin current order</a>)");
+        }
+        println(".</p>");
+        println("<ul>");
+        for (int i = 0; i < blocks.size(); i++) {
+            HotRuleBlock block = (HotRuleBlock) blocks.get(i);
+            println("<li>" + block.getDisplayName() + " reordered <em>" + block.getReorderCount() + "</em> times<ol>");
+            NormalRule[] orderedRules = block.getOrderedRules();
+            long[] orderedHits = block.getOrderedHits();
+            for (int j = 0; j < orderedRules.length; j++) {
+                println("<li>" + orderedRules[j].getDisplayName() + " <code>" + orderedRules[j].getFrom() +
+                        "</code> <em>" + orderedHits[j] + "</em></li>");
+            }
+            println("</ol></li>");
+        }
+        println("</ul>");
+    }
+
+    private void showPatternCompileInfo() {
+        PatternPrecompiler precompiler = conf.getPatternPrecompiler();
+        if (precompiler == null) return;
+        int uncompiled = precompiler.getUncompiledCount();
+        int onFirstUse = precompiler.getPatternCount() - uncompiled - precompiler.getPrecompiledCount();
+        print("<p>Patterns compiled <em>" + conf.getPatternCompile() + "</em>, <em>" + uncompiled + "</em> of " +
+                precompiler.getPatternCount() + " not yet compiled, " + onFirstUse + " compiled on first use");
+        if (precompiler.isStarted()) {
+            print(", " + precompiler.getPrecompiledCount() + " compiled in the background" +
+                    (precompiler.isFinished() ? "" : " (still running)"));
+        }
+        println(".</p>");
+    }
+
+    private void showRegexInfo() {
+        if (conf.getRegexStepBudget() > 0) {
+            long exceeded = 0;
+            List allRules = new ArrayList(conf.getRules());
+            allRules.addAll(conf.getOutboundRules());
+            for (int i = 0; i < allRules.size(); i++) {
+                Object rule = allRules.get(i);
+                if (rule instanceof RuleBase) exceeded += ((RuleBase) rule).getRegexBudgetExceededCount();
+            }
+            println("<p>Regex step budget <em>" + conf.getRegexStepBudget() + "</em> (" +
+                    conf.getRegexBudgetAction() + "), <em>" + exceeded + "</em> matches stopped.</p>");
+        }
+        List warnings = conf.getRegexWarnings();
+        if (warnings.isEmpty()) return;
+        println("<p class=\"err\">Expressions that may backtrack badly: <em>" + warnings.size() + "</em></p>");
+        println("<ul>");
+        for (int i = 0; i < warnings.size(); i++) {
+            println("<li class=\"err\"><code>" + warnings.get(i) + "</code></li>");
+        }
+        println("</ul>");
+    }
+
+    private void showDeadRulesInfo() {
+        List deadRules = conf.getDeadRules();
+        if (deadRules.isEmpty()) return;
+        println("<p>Rules that can never do anything: <em>" + deadRules.size() + "</em>" +
+                (conf.isRemoveDeadRulesEnabled() ? ", not run" : " (set remove-dead-rules to not run them)") + "</p>");
+        println("<ul>");
+        for (int i = 0; i < deadRules.size(); i++) {
+            println("<li><code>" + deadRules.get(i) + "</code></li>");
+        }
+        println("</ul>");
+    }
+
+    private void showPrefilterInfo() {
+        if (!conf.isPrefilterEnabled()) return;
+        RulePrefilter prefilter = conf.getPrefilter();
+        if (prefilter == null) {
+            println("<p>Prefilter <em>enabled</em> but not in use as not all rules have a literal prefix.</p>");
+            return;
+        }
+        println("<p>Prefilter <em>in use</em> with <em>" + prefilter.getKeyCount() + "</em> keys in " +
+                prefilter.getNumBits() + " bits (false positive rate " + prefilter.getFalsePositiveRate() + "), " +
+                "<em>" + prefilter.getRejected() + "</em> of " + prefilter.getChecked() +
+                " requests rejected without running rules.</p>");
     }
 
     private void displayRuleErrors(final List rules) {
@@ -0,0 +1,414 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.tuckey.web.filters.urlrewrite.substitution.VariableReplacer;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.NumberUtils;
+import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A group of servers that proxy rules can send requests to, e.g.
+ * <code>&lt;to type="proxy"&gt;upstream:api/users/$1&lt;/to&gt;</code> for an
+ * <code>&lt;upstream name="api"&gt;</code>.  Servers are picked by round-robin, least requests in progress or a
+ * consistent hash of a variable (so that the same value goes to the same server while it is available).
+ * <p/>
+ * Servers that fail max-fails times in a row are ejected for fail-timeout.  With a health-check path each server
+ * is also sent a GET for it every health-check-interval on a background thread, servers that don't answer 2xx or 3xx
+ * are not used until they do.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class Upstream {
+
+    private static Log log = Log.getLog(Upstream.class);
+
+    public static final String TARGET_PREFIX = "upstream:";
+
+    public static final String BALANCE_ROUND_ROBIN = "round-robin";
+    public static final String BALANCE_LEAST_IN_FLIGHT = "least-in-flight";
+    public static final String BALANCE_HASH = "hash";
+
+    public static final int DEFAULT_MAX_FAILS = 3;
+    public static final long DEFAULT_FAIL_TIMEOUT_MILLIS = 30000;
+    public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 10000;
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    // points on the hash ring per server, enough for an even spread with a few servers
+    private static final int HASH_POINTS_PER_SERVER = 100;
+
+    private String name;
+    private String balance = BALANCE_ROUND_ROBIN;
+    private String hashOn;
+    private String maxFailsStr;
+    private String failTimeoutStr;
+    private String healthCheck;
+    private String healthCheckIntervalStr;
+    private String maxConnectionsStr;
+    private final List serverUrls = new ArrayList();
+
+    private final List servers = new ArrayList();
+    private final TreeMap hashRing = new TreeMap();
+    private long healthCheckIntervalMillis;
+    private int next = 0;
+    private Thread healthChecker;
+    private volatile boolean stopped = false;
+    private final List errors = new ArrayList();
+    private boolean valid = false;
+
+    public boolean initialise() {
+        if (StringUtils.isBlank(name) || name.indexOf('/') != -1) {
+            addError("upstream name (" + name + ") must be set and not contain /");
+        }
+        if (!BALANCE_ROUND_ROBIN.equals(balance) && !BALANCE_LEAST_IN_FLIGHT.equals(balance)
+                && !BALANCE_HASH.equals(balance)) {
+            addError("balance (" + balance + ") must be round-robin, least-in-flight or hash");
+        }
+        if (BALANCE_HASH.equals(balance) && StringUtils.isBlank(hashOn)) {
+            addError("hash-on must be set when balance is hash, e.g. %{header:X-User-Id}");
+        }
+        int maxFails = DEFAULT_MAX_FAILS;
+        if (!StringUtils.isBlank(maxFailsStr)) {
+            maxFails = NumberUtils.stringToInt(StringUtils.trim(maxFailsStr), -1);
+            if (maxFails < 1) addError("max-fails (" + maxFailsStr + ") must be a number greater than 0");
+        }
+        long failTimeoutMillis = DEFAULT_FAIL_TIMEOUT_MILLIS;
+        if (!StringUtils.isBlank(failTimeoutStr)) {
+            failTimeoutMillis = NormalRule.parseDuration(failTimeoutStr);
+            if (failTimeoutMillis <= 0) addError("fail-timeout (" + failTimeoutStr + ") must be a time, e.g. 30s");
+        }
+        healthCheckIntervalMillis = DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS;
+        if (!StringUtils.isBlank(healthCheckIntervalStr)) {
+            healthCheckIntervalMillis = NormalRule.parseDuration(healthCheckIntervalStr);
+            if (healthCheckIntervalMillis <= 0) {
+                addError("health-check-interval (" + healthCheckIntervalStr + ") must be a time, e.g. 10s");
+            }
+        }
+        if (healthCheck != null && !healthCheck.startsWith("/")) {
+            addError("health-check (" + healthCheck + ") must be a path starting with /");
+        }
+        int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        if (!StringUtils.isBlank(maxConnectionsStr)) {
+            maxConnections = NumberUtils.stringToInt(StringUtils.trim(maxConnectionsStr), -1);
+            if (maxConnections < 1) {
+                addError("max-connections (" + maxConnectionsStr + ") must be a number greater than 0");
+            }
+        }
+        if (serverUrls.isEmpty()) addError("upstream " + name + " has no servers");
+        for (int i = 0; i < serverUrls.size(); i++) {
+            String url = (String) serverUrls.get(i);
+            try {
+                URL parsed = new URL(url);
+                if (parsed.getQuery() != null) addError("server url " + url + " must not have a query string");
+            } catch (MalformedURLException e) {
+                addError("server url " + url + " is not valid: " + e.getMessage());
+            }
+        }
+        if (!errors.isEmpty()) return false;
+
+        // a lone server is never ejected, there is nowhere else to send requests
+        if (serverUrls.size() == 1) maxFails = Integer.MAX_VALUE;
+        for (int i = 0; i < serverUrls.size(); i++) {
+            String url = (String) serverUrls.get(i);
+            if (url.endsWith("/")) url = url.substring(0, url.length() - 1);
+            UpstreamServer server = new UpstreamServer(url, maxFails, failTimeoutMillis, maxConnections);
+            servers.add(server);
+            if (BALANCE_HASH.equals(balance)) {
+                for (int j = 0; j < HASH_POINTS_PER_SERVER; j++) hashRing.put(new Long(hash(url + "#" + j)), server);
+            }
+        }
+        valid = true;
+        return true;
+    }
+
+    /**
+     * Pick a server for a request.
+     *
+     * @param exclude servers already tried for this request
+     * @return the server or null if none are available
+     */
+    public UpstreamServer choose(HttpServletRequest hsRequest, Set exclude) {
+        long now = System.currentTimeMillis();
+        if (BALANCE_HASH.equals(balance)) return chooseByHash(hsRequest, exclude, now);
+        int start;
+        synchronized (this) {
+            start = next;
+            next = (next + 1) % servers.size();
+        }
+        UpstreamServer chosen = null;
+        for (int i = 0; i < servers.size(); i++) {
+            UpstreamServer server = (UpstreamServer) servers.get((start + i) % servers.size());
+            if (exclude.contains(server) || !server.isAvailable(now)) continue;
+            if (BALANCE_ROUND_ROBIN.equals(balance)) return server;
+            // ties go to the first after the round-robin position so they are spread evenly
+            if (chosen == null || server.getInFlight() < chosen.getInFlight()) chosen = server;
+        }
+        return chosen;
+    }
+
+    private UpstreamServer chooseByHash(HttpServletRequest hsRequest, Set exclude, long now) {
+        String value = VariableReplacer.replace(hashOn, hsRequest);
+        SortedMap tail = hashRing.tailMap(new Long(hash(value)));
+        UpstreamServer server = firstAvailable(tail.values().iterator(), exclude, now);
+        if (server == null) server = firstAvailable(hashRing.values().iterator(), exclude, now);
+        return server;
+    }
+
+    private static UpstreamServer firstAvailable(Iterator iterator, Set exclude, long now) {
+        while (iterator.hasNext()) {
+            UpstreamServer server = (UpstreamServer) iterator.next();
+            if (!exclude.contains(server) && server.isAvailable(now)) return server;
+        }
+        return null;
+    }
+
+    /**
+     * @return the first 8 bytes of the MD5 of the string, so that points are spread evenly around the ring
+     */
+    static long hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) hash = (hash << 8) | (digest[i] & 0xff);
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available " + e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not available " + e);
+        }
+    }
+
+    /**
+     * Start checking the servers on a background thread, if there is a health-check path.
+     */
+    public void startHealthChecks() {
+        if (!valid || healthCheck == null || healthChecker != null) return;
+        healthChecker = new Thread("UrlRewriteFilter upstream " + name + " health check") {
+            public void run() {
+                while (!stopped) {
+                    checkHealth();
+                    try {
+                        Thread.sleep(healthCheckIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        healthChecker.setDaemon(true);
+        healthChecker.start();
+    }
+
+    /**
+     * Check each server once.
+     */
+    void checkHealth() {
+        for (int i = 0; i < servers.size() && !stopped; i++) {
+            UpstreamServer server = (UpstreamServer) servers.get(i);
+            boolean healthy = isHealthy(server);
+            if (healthy != server.isHealthy()) {
+                log.info("upstream " + name + " server " + server + " is now " + (healthy ? "healthy" : "unhealthy"));
+            }
+            server.setHealthy(healthy);
+        }
+    }
+
+    private boolean isHealthy(UpstreamServer server) {
+        HttpMethod method = new GetMethod(server.getUrl() + healthCheck);
+        method.setFollowRedirects(false);
+        // a server too slow to answer by the next check counts as down
+        method.getParams().setSoTimeout((int) Math.min(healthCheckIntervalMillis, Integer.MAX_VALUE));
+        try {
+            int status = server.getClient().executeMethod(method);
+            return status >= 200 && status < 400;
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) log.debug("health check of " + server + " failed: " + e);
+            return false;
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Stop health checks and close idle connections, requests in progress are left to finish.
+     */
+    public void stopHealthChecks() {
+        stopped = true;
+        if (healthChecker != null) healthChecker.interrupt();
+        for (int i = 0; i < servers.size(); i++) ((UpstreamServer) servers.get(i)).closeIdleConnections();
+    }
+
+    /**
+     * Stop health checks and close each server's pooled connections once its requests in progress have finished, for
+     * an upstream of a conf that has been replaced by a reload.
+     */
+    public void retire() {
+        stopHealthChecks();
+        for (int i = 0; i < servers.size(); i++) ((UpstreamServer) servers.get(i)).retire();
+    }
+
+    /**
+     * @return true if the health check thread has been started and hasn't finished
+     */
+    public boolean isHealthCheckRunning() {
+        Thread thread = healthChecker;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Stop health checks and close all pooled connections.
+     */
+    public void stop() {
+        stopHealthChecks();
+        for (int i = 0; i < servers.size(); i++) ((UpstreamServer) servers.get(i)).shutdown();
+    }
+
+    /**
+     * @return the upstream name in a target of the form upstream:name/path, or null if it isn't an upstream target
+     */
+    public static String getName(String target) {
+        if (target == null || !target.startsWith(TARGET_PREFIX)) return null;
+        int end = TARGET_PREFIX.length();
+        while (end < target.length() && target.charAt(end) != '/' && target.charAt(end) != '?') end++;
+        return target.substring(TARGET_PREFIX.length(), end);
+    }
+
+    /**
+     * @return the path (and query string) in a target of the form upstream:name/path
+     */
+    public static String getPath(String target) {
+        String path = target.substring(TARGET_PREFIX.length() + getName(target).length());
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    private void addError(String error) {
+        errors.add(error);
+        log.error(error);
+    }
+
+    public List getErrors() {
+        return errors;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getBalance() {
+        return balance;
+    }
+
+    /**
+     * @param balance round-robin (the default if blank), least-in-flight or hash
+     */
+    public void setBalance(String balance) {
+        if (!StringUtils.isBlank(balance)) this.balance = balance.trim();
+    }
+
+    public String getHashOn() {
+        return hashOn;
+    }
+
+    /**
+     * @param hashOn the value to hash when balance is hash, may contain variables, e.g. %{header:X-User-Id}
+     */
+    public void setHashOn(String hashOn) {
+        this.hashOn = hashOn;
+    }
+
+    public void setMaxFails(String maxFailsStr) {
+        this.maxFailsStr = maxFailsStr;
+    }
+
+    public void setFailTimeout(String failTimeoutStr) {
+        this.failTimeoutStr = failTimeoutStr;
+    }
+
+    public String getHealthCheck() {
+        return healthCheck;
+    }
+
+    /**
+     * @param healthCheck a path on each server to GET, null for no active health checks
+     */
+    public void setHealthCheck(String healthCheck) {
+        this.healthCheck = StringUtils.isBlank(healthCheck) ? null : healthCheck.trim();
+    }
+
+    public void setHealthCheckInterval(String healthCheckIntervalStr) {
+        this.healthCheckIntervalStr = healthCheckIntervalStr;
+    }
+
+    public void setMaxConnections(String maxConnectionsStr) {
+        this.maxConnectionsStr = maxConnectionsStr;
+    }
+
+    public void addServer(String url) {
+        serverUrls.add(url == null ? null : url.trim());
+    }
+
+    /**
+     * @return the {@link UpstreamServer}s, once initialised
+     */
+    public List getServers() {
+        return Collections.unmodifiableList(servers);
+    }
+
+}
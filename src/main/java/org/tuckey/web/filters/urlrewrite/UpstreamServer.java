@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * One server of an {@link Upstream}, with its own pool of connections.  Tracks requests in progress and failures,
+ * after max-fails failures in a row the server is ejected (not sent requests) for fail-timeout, then tried again.
+ * Health checks, if any, can also mark it unhealthy.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class UpstreamServer {
+
+    public static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final String url;
+    private final int maxFails;
+    private final long failTimeoutMillis;
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final HttpClient client;
+    private boolean healthy = true;
+    private int inFlight = 0;
+    private int failsInARow = 0;
+    private long ejectedUntil = 0;
+    private long requestCount = 0;
+    private long failureCount = 0;
+    private long ejectedCount = 0;
+    private boolean retired = false;
+
+    /**
+     * @param url the base url requests are sent to, without a trailing /
+     */
+    public UpstreamServer(String url, int maxFails, long failTimeoutMillis, int maxConnections) {
+        this.url = url;
+        this.maxFails = maxFails;
+        this.failTimeoutMillis = failTimeoutMillis;
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnections);
+        params.setMaxTotalConnections(maxConnections);
+        params.setConnectionTimeout(CONNECT_TIMEOUT_MILLIS);
+        client = new HttpClient(connectionManager);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the client for requests to this server, its connections are pooled so requests must be released
+     */
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return true if the server is healthy and not ejected
+     */
+    public synchronized boolean isAvailable(long now) {
+        return healthy && now >= ejectedUntil;
+    }
+
+    synchronized void started() {
+        inFlight++;
+        requestCount++;
+    }
+
+    /**
+     * @param ok false if the request failed, i.e. couldn't connect or got a 502, 503 or 504
+     */
+    synchronized void finished(boolean ok, long now) {
+        inFlight--;
+        if (retired && inFlight == 0) connectionManager.shutdown();
+        if (ok) {
+            failsInARow = 0;
+            return;
+        }
+        failureCount++;
+        if (++failsInARow >= maxFails) {
+            failsInARow = 0;
+            ejectedUntil = now + failTimeoutMillis;
+            ejectedCount++;
+        }
+    }
+
+    /**
+     * Set by a health check, a healthy result also ends any ejection as the server is evidently back.
+     */
+    synchronized void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+        if (healthy) {
+            failsInARow = 0;
+            ejectedUntil = 0;
+        }
+    }
+
+    public synchronized boolean isHealthy() {
+        return healthy;
+    }
+
+    public synchronized boolean isEjected(long now) {
+        return now < ejectedUntil;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized long getEjectedCount() {
+        return ejectedCount;
+    }
+
+    void closeIdleConnections() {
+        connectionManager.closeIdleConnections(0);
+    }
+
+    /**
+     * Close the pooled connections once there are no requests in progress.
+     */
+    synchronized void retire() {
+        retired = true;
+        if (inFlight == 0) connectionManager.shutdown();
+    }
+
+    /**
+     * Close the pooled connections.
+     */
+    void shutdown() {
+        connectionManager.shutdown();
+    }
+
+    public String toString() {
+        return url;
+    }
+
+}
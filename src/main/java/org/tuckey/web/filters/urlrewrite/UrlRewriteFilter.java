@@ -282,11 +282,13 @@ public class UrlRewriteFilter implements Filter {
             // set the writer back to null
             if (urlRewriter != null) {
                 log.error("unloading existing conf");
+                retireUrlRewriter(urlRewriter);
                 urlRewriter = null;
             }
 
         } else {
-            Conf conf = new Conf(context, inputStream, confPath, confUrlStr, modRewriteStyleConf);
+            // unchanged rules are reused from the last load
+            Conf conf = new Conf(context, inputStream, confPath, confUrlStr, modRewriteStyleConf, confLastLoaded);
             checkConf(conf);
         }
     }
@@ -306,6 +308,7 @@ public class UrlRewriteFilter implements Filter {
             log.debug("conf is " + (conf.isOk() ? "ok" : "NOT ok"));
         }
         confLastLoaded = conf;
+        UrlRewriter replaced = urlRewriter;
         if (conf.isOk() && conf.isEngineEnabled()) {
             urlRewriter = new UrlRewriter(conf);
             log.info("loaded (conf ok)");
@@ -322,6 +325,15 @@ public class UrlRewriteFilter implements Filter {
                 urlRewriter = null;
             }
         }
+        if (replaced != null && replaced != urlRewriter) retireUrlRewriter(replaced);
+    }
+
+    /**
+     * Stop the background work (eg, upstream health checks) of a conf that is no longer used.  It isn't destroyed as
+     * the conf that replaces it may be reusing its rules.
+     */
+    private void retireUrlRewriter(UrlRewriter replaced) {
+        replaced.getConf().retire();
     }
 
     /**
@@ -442,6 +454,15 @@ public class UrlRewriteFilter implements Filter {
             } catch(Exception ex){
                 log.error("Error in reloading the conf file. No rules to be applied for subsequent requests.", ex);
             }
+        } else if (confLastLoaded != null && confLastLoaded.isIncludeModified()) {
+            // files that haven't changed are not parsed again
+            confLastLoad = System.currentTimeMillis();
+            log.info("included conf file modified since last load, reloading");
+            try{
+                loadUrlRewriterLocal();
+            } catch(Exception ex){
+                log.error("Error in reloading the conf file. No rules to be applied for subsequent requests.", ex);
+            }
         } else {
             log.debug("conf is not modified");
         }
@@ -486,6 +507,11 @@ public class UrlRewriteFilter implements Filter {
             }
         }
 
+        String pinRuleOrder = request.getParameter("pin-rule-order");
+        if (confLastLoaded != null && !StringUtils.isBlank(pinRuleOrder)) {
+            confLastLoaded.setRuleOrderPinned("true".equalsIgnoreCase(pinRuleOrder));
+        }
+
         Status status = new Status(confLastLoaded, this);
         status.displayStatusInContainer(request);
 
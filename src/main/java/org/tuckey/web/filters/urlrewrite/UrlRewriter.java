@@ -201,14 +201,20 @@ public class UrlRewriter {
             return null;
         }
 
-        final List rules = conf.getRules();
-        if (rules.size() == 0) {
+        final Rule[] rules = conf.getRuntimeRules(hsRequest);
+        if (rules.length == 0) {
             // no rules defined
             log.debug("there are no rules setup.  not rewriting request.");
             return null;
         }
 
-        return new RuleChain(this, originalUrl, parentChain);
+        final RulePrefilter prefilter = conf.getPrefilter();
+        if (prefilter != null && !prefilter.mightMatch(originalUrl)) {
+            log.debug("no rule can match according to prefilter.  not rewriting request.");
+            return null;
+        }
+
+        return new RuleChain(this, originalUrl, parentChain, rules);
     }
 
 
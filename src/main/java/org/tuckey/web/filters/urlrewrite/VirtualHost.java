@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A block of rules that are only run for requests to certain server names, e.g.
+ * <code>&lt;virtual-host names="*.shop-a.com,shop-a.de"&gt;</code>.
+ *
+ * @see VirtualHostRouter
+ */
+public class VirtualHost {
+
+    private final String namesStr;
+    private final String[] names;
+    private final List rules = new ArrayList();
+
+    /**
+     * @param namesStr comma separated server names, may contain wildcards
+     */
+    public VirtualHost(String namesStr) {
+        this.namesStr = namesStr;
+        List nameList = new ArrayList();
+        if (namesStr != null) {
+            String[] namesArr = namesStr.split(",");
+            for (int i = 0; i < namesArr.length; i++) {
+                String name = VirtualHostRouter.normaliseServerName(namesArr[i]);
+                if (!StringUtils.isBlank(name)) nameList.add(name);
+            }
+        }
+        names = (String[]) nameList.toArray(new String[nameList.size()]);
+    }
+
+    public String getNamesStr() {
+        return namesStr;
+    }
+
+    /**
+     * @return the server names, lower case
+     */
+    public String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Note, rules must also be added to the conf.
+     */
+    public void addRule(Rule rule) {
+        rules.add(rule);
+    }
+
+    public List getRules() {
+        return rules;
+    }
+
+}
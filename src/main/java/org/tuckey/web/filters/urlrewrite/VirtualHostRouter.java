@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
+import org.tuckey.web.filters.urlrewrite.utils.WildcardProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the rules to run for a request by server name.  Each virtual host gets its own array of rules made up of the
+ * rules outside any virtual host and its own rules, in conf order, so a request only runs the rules for its host.
+ * <p/>
+ * A server name is matched, ignoring case, by the first of:
+ * <ul>
+ * <li>an exact name, e.g. <code>shop-a.de</code></li>
+ * <li>the longest <code>*.</code> name, e.g. <code>*.shop-a.com</code> matches <code>www.shop-a.com</code> and
+ * <code>m.www.shop-a.com</code> but not <code>shop-a.com</code></li>
+ * <li>any other wildcard name in conf order, e.g. <code>shop-a.*</code></li>
+ * </ul>
+ * Exact and <code>*.</code> names are found with hash lookups so the number of virtual hosts makes little difference.
+ * Server names not matching any virtual host only run the rules outside virtual hosts.
+ */
+public class VirtualHostRouter {
+
+    private static Log log = Log.getLog(VirtualHostRouter.class);
+
+    private static final String SUFFIX_WILDCARD = "*.";
+
+    private final List virtualHosts;
+    private final Rule[][] hostRules;
+    private final Rule[] defaultRules;
+    private final Map exactNames = new HashMap();
+    private final Map suffixNames = new HashMap();
+    private final List wildcardNames = new ArrayList();
+    private final List wildcardNameHosts = new ArrayList();
+    private final List errors = new ArrayList();
+
+    /**
+     * @param rules        the rules that will be run, in order, including those in virtual hosts
+     * @param virtualHosts the virtual hosts
+     */
+    public VirtualHostRouter(Rule[] rules, List virtualHosts) {
+        this.virtualHosts = virtualHosts;
+        Map ruleHosts = new IdentityHashMap();
+        for (int i = 0; i < virtualHosts.size(); i++) {
+            VirtualHost virtualHost = (VirtualHost) virtualHosts.get(i);
+            List rulesList = virtualHost.getRules();
+            for (int j = 0; j < rulesList.size(); j++) {
+                ruleHosts.put(rulesList.get(j), virtualHost);
+            }
+            String[] names = virtualHost.getNames();
+            if (names.length == 0) errors.add("virtual-host has no names");
+            for (int j = 0; j < names.length; j++) {
+                addName(names[j], new Integer(i));
+            }
+        }
+
+        hostRules = new Rule[virtualHosts.size()][];
+        for (int i = 0; i < virtualHosts.size(); i++) {
+            hostRules[i] = rulesFor(rules, ruleHosts, virtualHosts.get(i));
+        }
+        defaultRules = rulesFor(rules, ruleHosts, null);
+    }
+
+    private void addName(String name, Integer hostIdx) {
+        if (name.startsWith(SUFFIX_WILDCARD) && name.indexOf('*', SUFFIX_WILDCARD.length()) == -1) {
+            // keep the dot so lookups can use the remainder of the server name from any dot
+            addUniqueName(suffixNames, name.substring(1), name, hostIdx);
+        } else if (name.indexOf('*') != -1) {
+            wildcardNames.add(WildcardProgram.compile(name));
+            wildcardNameHosts.add(hostIdx);
+        } else {
+            addUniqueName(exactNames, name, name, hostIdx);
+        }
+    }
+
+    private void addUniqueName(Map names, String key, String name, Integer hostIdx) {
+        if (names.containsKey(key)) {
+            errors.add("virtual-host name " + name + " is used more than once");
+            return;
+        }
+        names.put(key, hostIdx);
+    }
+
+    private static Rule[] rulesFor(Rule[] rules, Map ruleHosts, Object virtualHost) {
+        List list = new ArrayList();
+        for (int i = 0; i < rules.length; i++) {
+            Object ruleHost = ruleHosts.get(rules[i]);
+            if (ruleHost == null || ruleHost == virtualHost) list.add(rules[i]);
+        }
+        return (Rule[]) list.toArray(new Rule[list.size()]);
+    }
+
+    /**
+     * Lower case, trimmed and without a trailing dot.
+     */
+    static String normaliseServerName(String serverName) {
+        if (serverName == null) return null;
+        String name = StringUtils.trim(serverName).toLowerCase();
+        if (name.endsWith(".")) name = name.substring(0, name.length() - 1);
+        return name;
+    }
+
+    /**
+     * @return the index of the virtual host for the server name or -1 if there isn't one
+     */
+    public int getVirtualHostIndex(String serverName) {
+        if (StringUtils.isBlank(serverName)) return -1;
+        String name = normaliseServerName(serverName);
+        Integer hostIdx = (Integer) exactNames.get(name);
+        if (hostIdx != null) return hostIdx.intValue();
+        if (!suffixNames.isEmpty()) {
+            // longest suffix first, not including the whole name
+            for (int dot = name.indexOf('.'); dot != -1; dot = name.indexOf('.', dot + 1)) {
+                hostIdx = (Integer) suffixNames.get(name.substring(dot));
+                if (hostIdx != null) return hostIdx.intValue();
+            }
+        }
+        for (int i = 0; i < wildcardNames.size(); i++) {
+            if (((WildcardProgram) wildcardNames.get(i)).matches(name)) {
+                return ((Integer) wildcardNameHosts.get(i)).intValue();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the rules to run for a request to the server name
+     */
+    public Rule[] getRules(String serverName) {
+        int hostIdx = getVirtualHostIndex(serverName);
+        if (log.isDebugEnabled()) {
+            log.debug("server name " + serverName + " is " + (hostIdx == -1 ? "not a virtual host" :
+                    "virtual host " + ((VirtualHost) virtualHosts.get(hostIdx)).getNamesStr()));
+        }
+        return hostIdx == -1 ? defaultRules : hostRules[hostIdx];
+    }
+
+    /**
+     * @return the rules run for server names not matching any virtual host
+     */
+    public Rule[] getDefaultRules() {
+        return defaultRules;
+    }
+
+    /**
+     * @return the rules run for the virtual host at index
+     */
+    public Rule[] getRules(int hostIdx) {
+        return hostRules[hostIdx];
+    }
+
+    public List getVirtualHosts() {
+        return virtualHosts;
+    }
+
+    /**
+     * @return problems with the virtual host names, e.g. duplicates
+     */
+    public List getErrors() {
+        return errors;
+    }
+
+}
@@ -41,6 +41,10 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * A RewriteRule is basically the class that will figure out the answer to "Can we service this http request?".  If we
  * can we return a match object that will actually service the request.
+ * <p/>
+ * If the rule needs the url as the other rules see it (ie, after earlier rules have rewritten it) declare
+ * <code>matches(String url, HttpServletRequest request, HttpServletResponse response)</code>, it will be used in
+ * preference to the method below.
  */
 public class RewriteRule {
 
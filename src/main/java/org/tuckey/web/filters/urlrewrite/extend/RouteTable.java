@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.extend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a url against a list of "from" regular expressions, in order, the same way a list of rules would and
+ * returns the first that matches along with it's groups.
+ * <p/>
+ * Expressions that are just a sequence of path segments (eg, <code>^/client/([0-9]+)/edit/$</code>) are held in a
+ * trie keyed by segment so the url is only walked once no matter how many routes there are.  Literal segments may
+ * only contain letters, digits, "-", "_", "~" and "\.", groups must be a whole segment and be one of
+ * <code>([0-9]+)</code>, <code>(\d+)</code> or <code>([^/]+)</code>.  Any other expression is matched using a regular
+ * expression as normal.
+ * <p/>
+ * Used by dispatchers generated by the annotation processor.
+ */
+public class RouteTable {
+
+    private static final int SEGMENT_LITERAL = 0;
+    private static final int SEGMENT_DIGITS = 1;
+    private static final int SEGMENT_ANY = 2;
+
+    private final boolean caseSensitive;
+    private final int routeCount;
+    private final Node root = new Node();
+    private int maxDepth = 0;
+
+    /**
+     * Expressions that could not go in the trie, null for those that did.
+     */
+    private final Pattern[] patterns;
+    private int trieRouteCount = 0;
+
+    /**
+     * Matches case insensitively, as rules do by default.
+     */
+    public RouteTable(String[] froms) {
+        this(froms, false);
+    }
+
+    /**
+     * @param froms         regular expressions in the order they should be checked
+     * @param caseSensitive as per the "casesensitive" attribute on "from"
+     * @throws java.util.regex.PatternSyntaxException if one of the expressions is invalid
+     */
+    public RouteTable(String[] froms, boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        this.routeCount = froms.length;
+        this.patterns = new Pattern[froms.length];
+        for (int i = 0; i < froms.length; i++) {
+            List segments = parseSegments(froms[i]);
+            if (segments == null) {
+                patterns[i] = caseSensitive ? Pattern.compile(froms[i])
+                        : Pattern.compile(froms[i], Pattern.CASE_INSENSITIVE);
+            } else {
+                addToTrie(segments, i);
+                trieRouteCount++;
+            }
+        }
+    }
+
+    /**
+     * Split an expression into segments (alternating type and literal value) if it can be matched by the trie,
+     * otherwise null.
+     */
+    static List parseSegments(String from) {
+        if (from == null || from.length() < 3 || !from.startsWith("^/") || !from.endsWith("$")
+                || from.endsWith("\\$")) {
+            return null;
+        }
+        String body = from.substring(1, from.length() - 1);
+        List segments = new ArrayList();
+        int pos = 0;
+        while (pos < body.length()) {
+            // pos is always on a "/"
+            int end = nextSlash(body, pos + 1);
+            if (end == -1) return null;
+            String segment = body.substring(pos + 1, end);
+            if ("([0-9]+)".equals(segment) || "(\\d+)".equals(segment)) {
+                segments.add(new Integer(SEGMENT_DIGITS));
+                segments.add(null);
+            } else if ("([^/]+)".equals(segment)) {
+                segments.add(new Integer(SEGMENT_ANY));
+                segments.add(null);
+            } else {
+                String literal = parseLiteral(segment);
+                if (literal == null) return null;
+                segments.add(new Integer(SEGMENT_LITERAL));
+                segments.add(literal);
+            }
+            pos = end;
+        }
+        return segments;
+    }
+
+    /**
+     * Find the next "/" that isn't inside a group or character class, -1 if the expression looks too complex.
+     */
+    private static int nextSlash(String body, int from) {
+        int depth = 0;
+        for (int i = from; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+                if (depth < 0) return -1;
+            } else if (c == '/' && depth == 0) {
+                return i;
+            }
+        }
+        return depth == 0 ? body.length() : -1;
+    }
+
+    private static String parseLiteral(String segment) {
+        StringBuffer literal = new StringBuffer(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < segment.length() && segment.charAt(i + 1) == '.') {
+                    literal.append('.');
+                    i++;
+                    continue;
+                }
+                return null;
+            }
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '~') {
+                literal.append(c);
+            } else {
+                return null;
+            }
+        }
+        return literal.toString();
+    }
+
+    private void addToTrie(List segments, int route) {
+        Node node = root;
+        for (int i = 0; i < segments.size(); i += 2) {
+            int type = ((Integer) segments.get(i)).intValue();
+            Node child;
+            if (type == SEGMENT_DIGITS) {
+                if (node.digitsChild == null) node.digitsChild = new Node();
+                child = node.digitsChild;
+            } else if (type == SEGMENT_ANY) {
+                if (node.anyChild == null) node.anyChild = new Node();
+                child = node.anyChild;
+            } else {
+                String key = fold((String) segments.get(i + 1));
+                if (node.literalChildren == null) node.literalChildren = new HashMap();
+                child = (Node) node.literalChildren.get(key);
+                if (child == null) {
+                    child = new Node();
+                    node.literalChildren.put(key, child);
+                }
+            }
+            node = child;
+        }
+        // earlier routes win
+        if (node.route == -1) node.route = route;
+        maxDepth = Math.max(maxDepth, segments.size() / 2);
+    }
+
+    /**
+     * Find the first route that matches the url.
+     *
+     * @return the match or null if no route matches
+     */
+    public RouteMatch match(String url) {
+        if (url == null) return null;
+        RouteMatch best = null;
+        if (trieRouteCount > 0 && url.length() > 0 && url.charAt(0) == '/') {
+            Search search = new Search(url);
+            search.walk(root, 1, 0);
+            if (search.bestRoute != -1) {
+                String[] groups = new String[search.bestGroupCount];
+                System.arraycopy(search.bestGroups, 0, groups, 0, groups.length);
+                best = new RouteMatch(search.bestRoute, groups);
+            }
+        }
+        int limit = best == null ? routeCount : best.getRoute();
+        for (int i = 0; i < limit; i++) {
+            Pattern pattern = patterns[i];
+            if (pattern == null) continue;
+            Matcher matcher = pattern.matcher(url);
+            if (matcher.find()) {
+                String[] groups = new String[matcher.groupCount()];
+                for (int j = 0; j < groups.length; j++) {
+                    groups[j] = matcher.group(j + 1);
+                }
+                return new RouteMatch(i, groups);
+            }
+        }
+        return best;
+    }
+
+    private String fold(String s) {
+        if (caseSensitive) return s;
+        // only ascii, as Pattern.CASE_INSENSITIVE does
+        char[] chars = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) chars = s.toCharArray();
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return chars == null ? s : new String(chars);
+    }
+
+    public int getRouteCount() {
+        return routeCount;
+    }
+
+    /**
+     * @return the number of routes matched using the trie rather than a regular expression
+     */
+    public int getTrieRouteCount() {
+        return trieRouteCount;
+    }
+
+    private static class Node {
+        Map literalChildren;
+        Node digitsChild;
+        Node anyChild;
+        int route = -1;
+    }
+
+    /**
+     * State for one walk of the trie.
+     */
+    private class Search {
+        final String url;
+        final String[] groups = new String[maxDepth];
+        String[] bestGroups = new String[maxDepth];
+        int bestGroupCount = 0;
+        int bestRoute = -1;
+
+        Search(String url) {
+            this.url = url;
+        }
+
+        void walk(Node node, int start, int groupCount) {
+            int end = url.indexOf('/', start);
+            boolean lastSegment = end == -1;
+            if (lastSegment) end = url.length();
+            if (node.literalChildren != null) {
+                Node child = (Node) node.literalChildren.get(fold(url.substring(start, end)));
+                if (child != null) visit(child, end, lastSegment, groupCount);
+            }
+            if (end > start) {
+                if (node.digitsChild != null && isDigits(start, end)) {
+                    groups[groupCount] = url.substring(start, end);
+                    visit(node.digitsChild, end, lastSegment, groupCount + 1);
+                }
+                if (node.anyChild != null) {
+                    groups[groupCount] = url.substring(start, end);
+                    visit(node.anyChild, end, lastSegment, groupCount + 1);
+                }
+            }
+        }
+
+        private void visit(Node child, int end, boolean lastSegment, int groupCount) {
+            if (lastSegment) {
+                if (child.route != -1 && (bestRoute == -1 || child.route < bestRoute)) {
+                    bestRoute = child.route;
+                    System.arraycopy(groups, 0, bestGroups, 0, groupCount);
+                    bestGroupCount = groupCount;
+                }
+            } else {
+                walk(child, end + 1, groupCount);
+            }
+        }
+
+        private boolean isDigits(int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = url.charAt(i);
+                if (c < '0' || c > '9') return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The route that matched and the values of its groups (group 1 is at index 0).
+     */
+    public static class RouteMatch {
+        private final int route;
+        private final String[] groups;
+
+        public RouteMatch(int route, String[] groups) {
+            this.route = route;
+            this.groups = groups;
+        }
+
+        public int getRoute() {
+            return route;
+        }
+
+        public String[] getGroups() {
+            return groups;
+        }
+
+        /**
+         * @return the group, or null if there is no group with that number (numbered from 1)
+         */
+        public String getGroup(int i) {
+            return i > 0 && i <= groups.length ? groups[i - 1] : null;
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.gzip;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Gzipped static assets kept in memory, keyed by path and the last modified time of the asset so that a changed
+ * asset is never served from the cache.  Bounded by the total size of the gzipped bodies, least recently used are
+ * removed first.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class CompressedAssetCache {
+
+    private final long maxBytes;
+    private long bytes = 0;
+    // access ordered, eldest is least recently used
+    private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictedCount = 0;
+
+    public CompressedAssetCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached asset or null if it isn't cached, or has been modified since it was
+     */
+    public synchronized Entry get(String path, long lastModified) {
+        Entry entry = (Entry) entries.get(path);
+        if (entry == null || entry.lastModified != lastModified) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry;
+    }
+
+    public synchronized void put(String path, long lastModified, String contentType, byte[] body) {
+        // never worth pushing everything else out for one asset
+        if (body.length > maxBytes / 4) return;
+        Entry previous = (Entry) entries.remove(path);
+        if (previous != null) bytes -= previous.body.length;
+        entries.put(path, new Entry(lastModified, contentType, body));
+        bytes += body.length;
+        Iterator iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = (Entry) ((Map.Entry) iterator.next()).getValue();
+            iterator.remove();
+            bytes -= eldest.body.length;
+            evictedCount++;
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public static class Entry {
+        private final long lastModified;
+        private final String contentType;
+        private final byte[] body;
+
+        Entry(long lastModified, String contentType, byte[] body) {
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the gzipped body, must not be changed
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+}
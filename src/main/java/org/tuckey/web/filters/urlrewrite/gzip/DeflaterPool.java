@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.gzip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of raw (no zlib header) deflaters.  Each deflater holds a few hundred KB of native zlib memory that
+ * is only freed by end() or by finalization, creating one per response churns native memory, so deflaters are reset
+ * and reused instead.  At most maxIdle deflaters are kept, any returned beyond that are ended straight away.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class DeflaterPool {
+
+    private final List idle = new ArrayList();
+    private int maxIdle;
+    private long createdCount = 0;
+    private long reusedCount = 0;
+    private long endedCount = 0;
+
+    public DeflaterPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Get a deflater set to the level and strategy, it must be given back with {@link #release}.
+     */
+    public Deflater borrow(int level, int strategy) {
+        Deflater deflater = null;
+        synchronized (this) {
+            if (!idle.isEmpty()) {
+                // most recently used first, its memory is more likely to be in cache
+                deflater = (Deflater) idle.remove(idle.size() - 1);
+                reusedCount++;
+            } else {
+                createdCount++;
+            }
+        }
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            // takes effect on the next deflate
+            deflater.setLevel(level);
+        }
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    public void release(Deflater deflater) {
+        deflater.reset();
+        synchronized (this) {
+            if (idle.size() < maxIdle) {
+                idle.add(deflater);
+                return;
+            }
+            endedCount++;
+        }
+        deflater.end();
+    }
+
+    /**
+     * Change the number of deflaters kept, idle deflaters over the new size are ended.
+     */
+    public void setMaxIdle(int maxIdle) {
+        List toEnd = new ArrayList();
+        synchronized (this) {
+            this.maxIdle = maxIdle;
+            while (idle.size() > maxIdle) {
+                toEnd.add(idle.remove(0));
+                endedCount++;
+            }
+        }
+        for (int i = 0; i < toEnd.size(); i++) ((Deflater) toEnd.get(i)).end();
+    }
+
+    public synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of deflaters created because none were idle
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return the number of times an idle deflater was reused
+     */
+    public synchronized long getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * @return the number of deflaters ended because the pool was full
+     */
+    public synchronized long getEndedCount() {
+        return endedCount;
+    }
+
+}
@@ -28,6 +28,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -247,6 +248,20 @@ public class GenericResponseWrapper extends HttpServletResponseWrapper implement
         super.setIntHeader(name, value);
     }
 
+    /**
+     * Gets the headers set, values are String, Long for date headers or Integer for int headers.
+     */
+    public Map<String, List<Serializable>> getHeaders() {
+        return Collections.unmodifiableMap(headersMap);
+    }
+
+    /**
+     * Gets the cookies added.
+     */
+    public List getCookies() {
+        return Collections.unmodifiableList(cookies);
+    }
+
     /**
      * Adds a cookie.
      */
@@ -19,10 +19,20 @@ package org.tuckey.web.filters.urlrewrite.gzip;
  *  limitations under the License.
  */
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.Enumeration;
-import java.util.zip.GZIPOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
@@ -36,6 +46,25 @@ import org.tuckey.web.filters.urlrewrite.utils.Log;
  * See the filter-mappings.xml entry for the gzip filter for the URL patterns which will be gzipped. At present this
  * includes .jsp, .js and .css.
  * <p/>
+ * Init params (all optional):
+ * <ul>
+ * <li><code>level</code> compression level, 0 (none) to 9 (smallest), default zlib's default of 6</li>
+ * <li><code>strategy</code> <code>default</code>, <code>filtered</code> or <code>huffman-only</code></li>
+ * <li><code>level.</code><em>content type</em> and <code>strategy.</code><em>content type</em> for responses of a
+ * content type, eg, <code>level.text/html</code> or <code>level.image/*</code></li>
+ * <li><code>min-size</code> bodies smaller than this many bytes are sent uncompressed, default 0</li>
+ * <li><code>pool-size</code> how many deflaters to keep for reuse, the pool is shared by all gzip filters, default
+ * twice the number of processors</li>
+ * <li><code>precompressed</code> true to serve static assets already gzipped, see below, default false</li>
+ * <li><code>precompressed-extensions</code> comma separated extensions of the static assets, default js,css,svg</li>
+ * <li><code>precompressed-cache-size</code> bytes of gzipped assets to keep in memory, 0 for none, default 16MB</li>
+ * </ul>
+ * <p/>
+ * With precompressed, GET and HEAD requests for static assets (a file in the web app with one of the extensions) are
+ * served from a <code>.gz</code> file next to the asset if there is one that is no older than the asset, otherwise
+ * from the memory cache of gzipped assets, keyed on path and last modified time.  The rest of the filter chain is
+ * not run for these so only use it for public assets.  Files under WEB-INF and META-INF are never served this way.
+ * <p/>
  *
  * @author <a href="mailto:gluck@thoughtworks.com">Greg Luck</a>
  * @author <a href="mailto:amurdoch@thoughtworks.com">Adam Murdoch</a>
@@ -45,12 +74,176 @@ public class GzipFilter implements javax.servlet.Filter  {
 
     private static final Log LOG = Log.getLog(GzipFilter.class);
 
+    private static final DeflaterPool DEFLATER_POOL = new DeflaterPool(Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final AtomicLong compressedCount = new AtomicLong();
+    private static final AtomicLong tooSmallCount = new AtomicLong();
+    private static final AtomicLong uncompressedBytes = new AtomicLong();
+    private static final AtomicLong compressedBytes = new AtomicLong();
+    private static final AtomicLong sidecarCount = new AtomicLong();
+    private static final AtomicLong cachedCount = new AtomicLong();
+
+    private static final long DEFAULT_PRECOMPRESSED_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int strategy = Deflater.DEFAULT_STRATEGY;
+    private final Map levelsByType = new HashMap();
+    private final Map strategiesByType = new HashMap();
+    private int minSize = 0;
+    private boolean precompressed = false;
+    private final Set precompressedExtensions = new HashSet();
+    private long precompressedCacheSize = DEFAULT_PRECOMPRESSED_CACHE_SIZE;
+    private CompressedAssetCache assetCache;
+    private ServletContext context;
+
     /**
      * Performs initialisation.
      *
      * @param filterConfig
      */
     public void init(FilterConfig filterConfig) throws ServletException {
+        setPrecompressedExtensions("js,css,svg");
+        if (filterConfig == null) return;
+        context = filterConfig.getServletContext();
+        Enumeration names = filterConfig.getInitParameterNames();
+        while (names != null && names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            String value = filterConfig.getInitParameter(name);
+            if (value == null) continue;
+            value = value.trim();
+            if ("level".equals(name)) {
+                level = parseLevel(value);
+            } else if (name.startsWith("level.")) {
+                levelsByType.put(name.substring("level.".length()).toLowerCase(), new Integer(parseLevel(value)));
+            } else if ("strategy".equals(name)) {
+                strategy = parseStrategy(value);
+            } else if (name.startsWith("strategy.")) {
+                strategiesByType.put(name.substring("strategy.".length()).toLowerCase(),
+                        new Integer(parseStrategy(value)));
+            } else if ("min-size".equals(name)) {
+                minSize = parseInt(name, value, 0);
+            } else if ("pool-size".equals(name)) {
+                DEFLATER_POOL.setMaxIdle(parseInt(name, value, 0));
+            } else if ("precompressed".equals(name)) {
+                precompressed = "true".equalsIgnoreCase(value);
+            } else if ("precompressed-extensions".equals(name)) {
+                setPrecompressedExtensions(value);
+            } else if ("precompressed-cache-size".equals(name)) {
+                precompressedCacheSize = parseInt(name, value, 0);
+            }
+        }
+        if (precompressed && context == null) {
+            throw new ServletException("precompressed needs the servlet context to find assets");
+        }
+        if (precompressed && precompressedCacheSize > 0) assetCache = new CompressedAssetCache(precompressedCacheSize);
+    }
+
+    private void setPrecompressedExtensions(String extensions) {
+        precompressedExtensions.clear();
+        String[] split = extensions.split(",");
+        for (int i = 0; i < split.length; i++) {
+            String extension = split[i].trim().toLowerCase();
+            if (extension.startsWith(".")) extension = extension.substring(1);
+            if (extension.length() > 0) precompressedExtensions.add(extension);
+        }
+    }
+
+    private static int parseLevel(String value) throws ServletException {
+        int parsed = parseInt("level", value, Deflater.NO_COMPRESSION);
+        if (parsed > Deflater.BEST_COMPRESSION) throw new ServletException("level (" + value + ") must be 0 to 9");
+        return parsed;
+    }
+
+    private static int parseStrategy(String value) throws ServletException {
+        if ("default".equalsIgnoreCase(value)) return Deflater.DEFAULT_STRATEGY;
+        if ("filtered".equalsIgnoreCase(value)) return Deflater.FILTERED;
+        if ("huffman-only".equalsIgnoreCase(value)) return Deflater.HUFFMAN_ONLY;
+        throw new ServletException("strategy (" + value + ") must be default, filtered or huffman-only");
+    }
+
+    private static int parseInt(String name, String value, int min) throws ServletException {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min) return parsed;
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new ServletException(name + " (" + value + ") must be a number of at least " + min);
+    }
+
+    /**
+     * The level for a response, from the level for its content type (eg, text/html), then its major type (eg,
+     * text/*), then the default level.
+     */
+    public int getLevel(String contentType) {
+        return getForType(levelsByType, contentType, level);
+    }
+
+    public int getStrategy(String contentType) {
+        return getForType(strategiesByType, contentType, strategy);
+    }
+
+    private static int getForType(Map byType, String contentType, int defaultValue) {
+        if (contentType == null || byType.isEmpty()) return defaultValue;
+        String type = contentType;
+        if (type.indexOf(';') != -1) type = type.substring(0, type.indexOf(';'));
+        type = type.trim().toLowerCase();
+        Integer value = (Integer) byType.get(type);
+        if (value == null && type.indexOf('/') != -1) {
+            value = (Integer) byType.get(type.substring(0, type.indexOf('/')) + "/*");
+        }
+        return value == null ? defaultValue : value.intValue();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public DeflaterPool getDeflaterPool() {
+        return DEFLATER_POOL;
+    }
+
+    /**
+     * @return the pool shared by all gzip filters
+     */
+    public static DeflaterPool getSharedDeflaterPool() {
+        return DEFLATER_POOL;
+    }
+
+    /**
+     * @return the number of responses sent gzipped
+     */
+    public static long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * @return the number of responses sent uncompressed as they were smaller than min-size
+     */
+    public static long getTooSmallCount() {
+        return tooSmallCount.get();
+    }
+
+    /**
+     * @return the total size of gzipped responses before compression
+     */
+    public static long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * @return the total size of gzipped responses after compression
+     */
+    public static long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return compressed size over uncompressed size of all gzipped responses, 0 if there have been none
+     */
+    public static double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.get();
+        return uncompressed == 0 ? 0 : (double) compressedBytes.get() / uncompressed;
     }
 
     /**
@@ -71,21 +264,31 @@ public class GzipFilter implements javax.servlet.Filter  {
 
         if (!isIncluded(request) && headerContainsAcceptEncodingGzip(request) && !response.isCommitted()) {
             // Client accepts zipped content
+            String assetPath = precompressed ? getAssetPath(request) : null;
+            long assetLastModified = assetPath == null ? -1 : getLastModified(assetPath);
+            if (assetLastModified > 0) {
+                if (serveSidecar(request, response, assetPath, assetLastModified)) return;
+                if (serveCached(request, response, assetPath, assetLastModified)) return;
+            }
             if (LOG.isDebugEnabled()) {
                 LOG.debug(request.getRequestURL() + ". Writing with gzip compression");
             }
 
             // Create a gzip stream
-            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-            final GZIPOutputStream gzout = new GZIPOutputStream(compressed);
+            final PooledGzipOutputStream gzout = new PooledGzipOutputStream(this);
 
             // Handle the request
             final GenericResponseWrapper wrapper = new GenericResponseWrapper(response, gzout);
+            gzout.setResponse(wrapper);
             wrapper.setDisableFlushBuffer();
-            chain.doFilter(request, wrapper);
-            wrapper.flush();
-
-            gzout.close();
+            try {
+                chain.doFilter(request, wrapper);
+                wrapper.flush();
+                gzout.finish();
+            } finally {
+                // the deflater must go back to the pool even if the request failed
+                gzout.release();
+            }
 
             // double check one more time before writing out
             // repsonse might have been committed due to error
@@ -104,9 +307,21 @@ public class GzipFilter implements javax.servlet.Filter  {
 
 
 
+            byte[] body = gzout.toByteArray();
+            if (!gzout.isCompressed()) {
+                // smaller than min-size, not worth compressing
+                if (body.length == 0 || ResponseUtil.shouldBodyBeZero(request, wrapper.getStatus())) {
+                    response.setContentLength(0);
+                    return;
+                }
+                tooSmallCount.incrementAndGet();
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                return;
+            }
+
             // Saneness checks
-            byte[] compressedBytes = compressed.toByteArray();
-            boolean shouldGzippedBodyBeZero = ResponseUtil.shouldGzippedBodyBeZero(compressedBytes, request);
+            boolean shouldGzippedBodyBeZero = ResponseUtil.shouldGzippedBodyBeZero(body, request);
             boolean shouldBodyBeZero = ResponseUtil.shouldBodyBeZero(request, wrapper.getStatus());
             if (shouldGzippedBodyBeZero || shouldBodyBeZero) {
                 // No reason to add GZIP headers or write body if no content was written or status code specifies no
@@ -118,9 +333,18 @@ public class GzipFilter implements javax.servlet.Filter  {
             // Write the zipped body
             ResponseUtil.addGzipHeader(response);
 
-            response.setContentLength(compressedBytes.length);
+            response.setContentLength(body.length);
+
+            response.getOutputStream().write(body);
+
+            compressedCount.incrementAndGet();
+            uncompressedBytes.addAndGet(gzout.getUncompressedSize());
+            compressedBytes.addAndGet(body.length);
 
-            response.getOutputStream().write(compressedBytes);
+            if (assetLastModified > 0 && assetCache != null && "GET".equals(request.getMethod())
+                    && wrapper.getStatus() == HttpServletResponse.SC_OK) {
+                assetCache.put(assetPath, assetLastModified, wrapper.getContentType(), body);
+            }
 
         } else {
             // Client does not accept zipped content - don't bother zipping
@@ -131,6 +355,140 @@ public class GzipFilter implements javax.servlet.Filter  {
         }
     }
 
+    /**
+     * The path of the static asset the request is for if it has one of the precompressed extensions, the asset may
+     * not exist.
+     *
+     * @return null if the request isn't for an asset
+     */
+    private String getAssetPath(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) return null;
+        String uri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        if (uri == null) return null;
+        String path = contextPath != null && uri.startsWith(contextPath) ? uri.substring(contextPath.length()) : uri;
+        // encoded or relative paths could be resolved to something other than what the container would serve
+        if (!path.startsWith("/") || path.indexOf('%') != -1 || path.indexOf("..") != -1) return null;
+        if (path.indexOf("//") != -1 || path.indexOf("/./") != -1 || path.indexOf('\\') != -1 ||
+                path.indexOf(';') != -1) return null;
+        // getRealPath resolves these but the container never serves them
+        String lowerPath = path.toLowerCase();
+        if (lowerPath.startsWith("/web-inf/") || lowerPath.startsWith("/meta-inf/")) return null;
+        int dot = path.lastIndexOf('.');
+        if (dot == -1 || dot < path.lastIndexOf('/')) return null;
+        return precompressedExtensions.contains(path.substring(dot + 1).toLowerCase()) ? path : null;
+    }
+
+    /**
+     * @return the last modified time of the asset or -1 if it doesn't exist (or the time isn't known)
+     */
+    private long getLastModified(String path) {
+        String realPath = context.getRealPath(path);
+        if (realPath != null) {
+            File file = new File(realPath);
+            return file.isFile() ? file.lastModified() : -1;
+        }
+        try {
+            URL url = context.getResource(path);
+            if (url == null) return -1;
+            long lastModified = url.openConnection().getLastModified();
+            return lastModified > 0 ? lastModified : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Serve the .gz file next to the asset if there is one and it isn't older than the asset.
+     */
+    private boolean serveSidecar(HttpServletRequest request, HttpServletResponse response, String path,
+                                 long assetLastModified) throws IOException {
+        String sidecarPath = path + ".gz";
+        InputStream in;
+        long length;
+        String realPath = context.getRealPath(sidecarPath);
+        if (realPath != null) {
+            File file = new File(realPath);
+            if (!file.isFile() || file.lastModified() < assetLastModified) return false;
+            length = file.length();
+            if (isNotModified(request, response, assetLastModified)) return true;
+            in = new FileInputStream(file);
+        } else {
+            URL url = context.getResource(sidecarPath);
+            if (url == null) return false;
+            URLConnection connection = url.openConnection();
+            if (connection.getLastModified() < assetLastModified) return false;
+            length = connection.getContentLength();
+            if (isNotModified(request, response, assetLastModified)) return true;
+            in = connection.getInputStream();
+        }
+        try {
+            setAssetHeaders(response, context.getMimeType(path), length, assetLastModified);
+            if (!"HEAD".equals(request.getMethod())) {
+                OutputStream out = response.getOutputStream();
+                byte[] buf = new byte[8192];
+                int count;
+                while ((count = in.read(buf)) != -1) out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        sidecarCount.incrementAndGet();
+        if (LOG.isDebugEnabled()) LOG.debug(request.getRequestURL() + ". Served from " + sidecarPath);
+        return true;
+    }
+
+    private boolean serveCached(HttpServletRequest request, HttpServletResponse response, String path,
+                                long assetLastModified) throws IOException {
+        if (assetCache == null) return false;
+        CompressedAssetCache.Entry entry = assetCache.get(path, assetLastModified);
+        if (entry == null) return false;
+        if (isNotModified(request, response, assetLastModified)) return true;
+        setAssetHeaders(response, entry.getContentType(), entry.getBody().length, assetLastModified);
+        if (!"HEAD".equals(request.getMethod())) response.getOutputStream().write(entry.getBody());
+        cachedCount.incrementAndGet();
+        if (LOG.isDebugEnabled()) LOG.debug(request.getRequestURL() + ". Served from gzipped asset cache");
+        return true;
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, HttpServletResponse response, long lastModified) {
+        long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        // http dates are only to the second
+        if (ifModifiedSince <= 0 || lastModified / 1000 * 1000 > ifModifiedSince) return false;
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    private static void setAssetHeaders(HttpServletResponse response, String contentType, long length,
+                                        long lastModified) {
+        if (contentType != null) response.setContentType(contentType);
+        ResponseUtil.addGzipHeader(response);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (length >= 0 && length <= Integer.MAX_VALUE) response.setContentLength((int) length);
+        response.setDateHeader("Last-Modified", lastModified);
+    }
+
+    /**
+     * @return the number of assets served from .gz files
+     */
+    public static long getSidecarCount() {
+        return sidecarCount.get();
+    }
+
+    /**
+     * @return the number of assets served from the gzipped asset cache
+     */
+    public static long getCachedCount() {
+        return cachedCount.get();
+    }
+
+    /**
+     * @return the cache of gzipped assets, null if precompressed isn't on or the cache size is 0
+     */
+    public CompressedAssetCache getAssetCache() {
+        return assetCache;
+    }
+
     /**
      * Checks if the request uri is an include. These cannot be gzipped.
      */
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.gzip;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Buffers a response body, gzipping it with a deflater from the pool once it gets to the minimum size.  Bodies that
+ * never get to the minimum size are left uncompressed, compressing a few bytes costs more than it saves.  The level
+ * and strategy are picked for the content type of the response when compression starts.
+ * <p/>
+ * Writes the gzip format (RFC 1952) itself as GZIPOutputStream always creates its own deflater.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class PooledGzipOutputStream extends OutputStream {
+
+    private static final byte[] GZIP_HEADER = {
+            (byte) 0x1f, (byte) 0x8b, // magic
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            0 // operating system
+    };
+
+    private final GzipFilter filter;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private HttpServletResponse response;
+    private Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buf = new byte[1024];
+    private boolean compressing = false;
+    private boolean finished = false;
+    private long uncompressedSize = 0;
+
+    public PooledGzipOutputStream(GzipFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * The response the body is for, the content type is taken from it when compression starts.
+     */
+    public void setResponse(HttpServletResponse response) {
+        this.response = response;
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) throw new IOException("stream finished");
+        if (len == 0) return;
+        if (compressing) {
+            deflate(b, off, len);
+            return;
+        }
+        out.write(b, off, len);
+        if (out.size() >= filter.getMinSize()) startCompressing();
+    }
+
+    private void startCompressing() {
+        String contentType = response == null ? null : response.getContentType();
+        deflater = filter.getDeflaterPool().borrow(filter.getLevel(contentType), filter.getStrategy(contentType));
+        compressing = true;
+        byte[] buffered = out.toByteArray();
+        out.reset();
+        out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        deflate(buffered, 0, buffered.length);
+    }
+
+    private void deflate(byte[] b, int off, int len) {
+        crc.update(b, off, len);
+        uncompressedSize += len;
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            int count = deflater.deflate(buf, 0, buf.length);
+            if (count > 0) out.write(buf, 0, count);
+        }
+    }
+
+    /**
+     * Finish compressing (if started) and give back the deflater.
+     */
+    public void finish() {
+        if (finished) return;
+        finished = true;
+        if (!compressing) {
+            uncompressedSize = out.size();
+            return;
+        }
+        try {
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buf, 0, buf.length);
+                if (count > 0) out.write(buf, 0, count);
+            }
+            writeTrailerInt((int) crc.getValue());
+            // size mod 2^32 as per the spec
+            writeTrailerInt((int) uncompressedSize);
+        } finally {
+            release();
+        }
+    }
+
+    private void writeTrailerInt(int i) {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+
+    /**
+     * Give back the deflater without finishing, eg, if the request failed.
+     */
+    public void release() {
+        finished = true;
+        if (deflater != null) {
+            filter.getDeflaterPool().release(deflater);
+            deflater = null;
+        }
+    }
+
+    public void close() {
+        finish();
+    }
+
+    /**
+     * @return true if the body was gzipped, false if it was too small
+     */
+    public boolean isCompressed() {
+        return compressing;
+    }
+
+    /**
+     * @return the body, gzipped if {@link #isCompressed()}
+     */
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+}
@@ -40,6 +40,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 public class JsonRewriteMatch extends RewriteMatch {
 
@@ -56,14 +58,22 @@ public class JsonRewriteMatch extends RewriteMatch {
 
     public boolean execute(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.addHeader("Content-Type", "application/json");
-        String jsonString = toJSONString(returned, throwable);
-        response.setContentLength(jsonString.length());
-        response.getOutputStream().write(jsonString.getBytes());
+        // stream straight to the response rather than building the whole string first, content length is unknown
+        Writer out = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+        toJSON(returned, throwable, out);
+        out.flush();
         return true; // return true, we handled the result
     }
 
     public String toJSONString(Object resultantObject, Throwable resultantThrowable) {
-        JsonWriter writer = new JsonWriter();
+        return new JsonWriter().write(getRpcBean(resultantObject, resultantThrowable));
+    }
+
+    public void toJSON(Object resultantObject, Throwable resultantThrowable, Writer out) throws IOException {
+        new JsonWriter().write(getRpcBean(resultantObject, resultantThrowable), out);
+    }
+
+    private JsonRpcBean getRpcBean(Object resultantObject, Throwable resultantThrowable) {
         JsonRpcBean bean = new JsonRpcBean();
         bean.setResult(resultantObject);
         if (resultantThrowable != null) {
@@ -73,7 +83,7 @@ public class JsonRewriteMatch extends RewriteMatch {
             error.setError(resultantThrowable.toString());
             bean.setError(error);
         }
-        return writer.write(bean);
+        return bean;
     }
 
 
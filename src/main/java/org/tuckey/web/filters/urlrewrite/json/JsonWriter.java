@@ -4,16 +4,22 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.text.CharacterIterator;
-import java.text.StringCharacterIterator;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.WeakHashMap;
 
 /*
  * Based on org.stringtree.json.JsonWriter, code under Apache Public
@@ -21,12 +27,27 @@ import java.util.Stack;
  */
 public class JsonWriter {
 
-    private StringBuffer buf = new StringBuffer();
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /**
+     * Bean property accessors by class, worked out once per class.  Values are soft so that the class (which the
+     * accessors reference) can still be unloaded.
+     */
+    private static final Map beanPropertiesCache = Collections.synchronizedMap(new WeakHashMap());
+
+    private final char[] buf;
+    private int bufPos = 0;
+    private Writer out;
     private Stack calls = new Stack();
     boolean emitClassName = true;
 
-    public JsonWriter(boolean emitClassName) {
+    public JsonWriter(boolean emitClassName, int bufferSize) {
         this.emitClassName = emitClassName;
+        this.buf = new char[bufferSize < 16 ? 16 : bufferSize];
+    }
+
+    public JsonWriter(boolean emitClassName) {
+        this(emitClassName, DEFAULT_BUFFER_SIZE);
     }
 
     public JsonWriter() {
@@ -34,9 +55,30 @@ public class JsonWriter {
     }
 
     public String write(Object object) {
-        buf.setLength(0);
-        value(object);
-        return buf.toString();
+        StringWriter sw = new StringWriter();
+        try {
+            write(object, sw);
+        } catch (IOException e) {
+            // cannot happen with a StringWriter
+            throw new IllegalStateException("unable to write to string " + e);
+        }
+        return sw.toString();
+    }
+
+    /**
+     * Write the object as json to the writer.  At most the buffer size is held in memory, the writer is not
+     * flushed or closed.
+     */
+    public void write(Object object, Writer writer) throws IOException {
+        out = writer;
+        bufPos = 0;
+        calls.clear();
+        try {
+            value(object);
+            flushBuffer();
+        } finally {
+            out = null;
+        }
     }
 
     public String write(long n) {
@@ -55,14 +97,14 @@ public class JsonWriter {
         return String.valueOf(b);
     }
 
-    private void value(Object object) {
+    private void value(Object object) throws IOException {
         if (object == null || cyclic(object)) {
             add("null");
         } else {
             calls.push(object);
             if (object instanceof Class) string(object);
             else if (object instanceof Boolean) bool(((Boolean) object).booleanValue());
-            else if (object instanceof Number) add(object);
+            else if (object instanceof Number) add(object.toString());
             else if (object instanceof String) string(object);
             else if (object instanceof Character) string(object);
             else if (object instanceof Map) map((Map) object);
@@ -83,37 +125,28 @@ public class JsonWriter {
         return false;
     }
 
-    private void bean(Object object) {
-        add("{");
-        BeanInfo info;
+    private void bean(Object object) throws IOException {
+        add('{');
         boolean addedSomething = false;
         try {
-            info = Introspector.getBeanInfo(object.getClass());
-            PropertyDescriptor[] props = info.getPropertyDescriptors();
-            for (int i = 0; i < props.length; ++i) {
-                PropertyDescriptor prop = props[i];
-                String name = prop.getName();
-                // ignore stacktraces
-                if ( object instanceof Throwable && "stackTrace".equals(name) ) continue;
-                // ignore class element of JSONRPCErrorBean
-                if ( object instanceof JsonRpcErrorBean && "class".equals(name) ) continue;
+            BeanProperties beanProperties = getBeanProperties(object.getClass());
+            String[] names = beanProperties.names;
+            Method[] accessors = beanProperties.accessors;
+            for (int i = 0; i < names.length; ++i) {
+                String name = names[i];
                 // for JSONRPCBean ignore result or error depending on weather error present
-                if ( object instanceof JsonRpcBean) {
-                    if ("class".equals(name) ) continue;
+                if (object instanceof JsonRpcBean) {
                     JsonRpcBean rpcBean = (JsonRpcBean) object;
-                    if (rpcBean.getError() == null && "error".equals(name) ) continue;
-                    if (rpcBean.getError() != null && "result".equals(name) ) continue;
-                }
-                Method accessor = prop.getReadMethod();
-                if ((emitClassName || !"class".equals(name)) && accessor != null) {
-                    if (!accessor.isAccessible()) accessor.setAccessible(true);
-                    Object value = accessor.invoke(object, (Object[]) null);
-                    if (addedSomething) add(',');
-                    add(name, value);
-                    addedSomething = true;
+                    if (rpcBean.getError() == null && "error".equals(name)) continue;
+                    if (rpcBean.getError() != null && "result".equals(name)) continue;
                 }
+                if (!emitClassName && "class".equals(name)) continue;
+                Object value = accessors[i].invoke(object, (Object[]) null);
+                if (addedSomething) add(',');
+                add(name, value);
+                addedSomething = true;
             }
-            Field[] ff = object.getClass().getFields();
+            Field[] ff = beanProperties.fields;
             for (int i = 0; i < ff.length; ++i) {
                 Field field = ff[i];
                 if (addedSomething) add(',');
@@ -128,56 +161,108 @@ public class JsonWriter {
         } catch (IntrospectionException ie) {
             ie.printStackTrace();
         }
-        add("}");
+        add('}');
     }
 
-    private void add(String name, Object value) {
+    static BeanProperties getBeanProperties(Class beanClass) throws IntrospectionException {
+        SoftReference ref = (SoftReference) beanPropertiesCache.get(beanClass);
+        BeanProperties beanProperties = ref == null ? null : (BeanProperties) ref.get();
+        if (beanProperties == null) {
+            // worst case two threads introspect the same class at the same time, both results are the same
+            beanProperties = new BeanProperties(beanClass);
+            beanPropertiesCache.put(beanClass, new SoftReference(beanProperties));
+        }
+        return beanProperties;
+    }
+
+    /**
+     * The readable properties and public fields of a class, in the order they will be written.
+     */
+    static class BeanProperties {
+        final String[] names;
+        final Method[] accessors;
+        final Field[] fields;
+
+        BeanProperties(Class beanClass) throws IntrospectionException {
+            BeanInfo info = Introspector.getBeanInfo(beanClass);
+            PropertyDescriptor[] props = info.getPropertyDescriptors();
+            List nameList = new ArrayList();
+            List accessorList = new ArrayList();
+            for (int i = 0; i < props.length; ++i) {
+                PropertyDescriptor prop = props[i];
+                String name = prop.getName();
+                // ignore stacktraces
+                if (Throwable.class.isAssignableFrom(beanClass) && "stackTrace".equals(name)) continue;
+                // ignore class element of JSONRPCBean and JSONRPCErrorBean
+                if ((JsonRpcErrorBean.class.isAssignableFrom(beanClass) || JsonRpcBean.class.isAssignableFrom(beanClass))
+                        && "class".equals(name)) continue;
+                Method accessor = prop.getReadMethod();
+                if (accessor == null) continue;
+                if (!accessor.isAccessible()) {
+                    try {
+                        accessor.setAccessible(true);
+                    } catch (SecurityException e) {
+                        // leave it, public accessors on public classes will still work
+                    }
+                }
+                nameList.add(name);
+                accessorList.add(accessor);
+            }
+            names = (String[]) nameList.toArray(new String[nameList.size()]);
+            accessors = (Method[]) accessorList.toArray(new Method[accessorList.size()]);
+            fields = beanClass.getFields();
+        }
+    }
+
+    private void add(String name, Object value) throws IOException {
         add('"');
         add(name);
         add("\":");
         value(value);
     }
 
-    private void map(Map map) {
-        add("{");
+    private void map(Map map) throws IOException {
+        add('{');
         Iterator it = map.entrySet().iterator();
         while (it.hasNext()) {
             Map.Entry e = (Map.Entry) it.next();
             value(e.getKey());
-            add(":");
+            add(':');
             value(e.getValue());
             if (it.hasNext()) add(',');
         }
-        add("}");
+        add('}');
     }
 
-    private void array(Iterator it) {
-        add("[");
+    private void array(Iterator it) throws IOException {
+        add('[');
         while (it.hasNext()) {
             value(it.next());
-            if (it.hasNext()) add(",");
+            if (it.hasNext()) add(',');
         }
-        add("]");
+        add(']');
     }
 
-    private void array(Object object) {
-        add("[");
+    private void array(Object object) throws IOException {
+        add('[');
         int length = Array.getLength(object);
         for (int i = 0; i < length; ++i) {
             value(Array.get(object, i));
             if (i < length - 1) add(',');
         }
-        add("]");
+        add(']');
     }
 
-    private void bool(boolean b) {
+    private void bool(boolean b) throws IOException {
         add(b ? "true" : "false");
     }
 
-    private void string(Object obj) {
+    private void string(Object obj) throws IOException {
         add('"');
-        CharacterIterator it = new StringCharacterIterator(obj.toString());
-        for (char c = it.first(); c != CharacterIterator.DONE; c = it.next()) {
+        String s = obj.toString();
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
             if (c == '"') add("\\\"");
             else if (c == '\\') add("\\\\");
             else if (c == '/') add("\\/");
@@ -195,17 +280,34 @@ public class JsonWriter {
         add('"');
     }
 
-    private void add(Object obj) {
-        buf.append(obj);
+    private void add(String s) throws IOException {
+        int length = s.length();
+        if (length > buf.length - bufPos) {
+            flushBuffer();
+            if (length > buf.length) {
+                out.write(s);
+                return;
+            }
+        }
+        s.getChars(0, length, buf, bufPos);
+        bufPos += length;
     }
 
-    private void add(char c) {
-        buf.append(c);
+    private void add(char c) throws IOException {
+        if (bufPos == buf.length) flushBuffer();
+        buf[bufPos++] = c;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (bufPos > 0) {
+            out.write(buf, 0, bufPos);
+            bufPos = 0;
+        }
     }
 
     static char[] hex = "0123456789ABCDEF".toCharArray();
 
-    private void unicode(char c) {
+    private void unicode(char c) throws IOException {
         add("\\u");
         int n = c;
         for (int i = 0; i < 4; ++i) {
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.maps;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory mapped, open addressing hash table of string keys to string values, built by {@link HashFileBuilder}.
+ * Nothing is read onto the heap, a lookup hashes the key, probes the slot table and compares the stored key without
+ * creating any objects other than the returned value.
+ * <p/>
+ * File layout (big endian):
+ * <pre>
+ *  0  int   magic "URHT"
+ *  4  int   version
+ *  8  long  number of slots
+ * 16  long  number of entries
+ * 24  int   length in bytes of the longest value
+ * 28  int   unused
+ * 32  slots, 16 bytes each: long key fingerprint (0 for an empty slot), long offset of the entry
+ *     entries: int key length, key UTF-8 bytes, int value length, value UTF-8 bytes
+ * </pre>
+ * Collisions are resolved with linear probing.  The file is mapped in 1GB chunks so it may be larger than 2GB,
+ * the builder makes sure that no entry crosses a chunk boundary.
+ */
+public class HashFile extends MapFile {
+
+    static final int MAGIC = 0x55524854;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 32;
+    static final int SLOT_LENGTH = 16;
+    static final int CHUNK_BITS = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long slotCount;
+    private final int size;
+    private final ThreadLocal valueBuffer;
+
+    public HashFile(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            long fileLength = channel.size();
+            if (fileLength < HEADER_LENGTH) throw new IOException(file + " is not a hash map file");
+            chunks = new ByteBuffer[(int) ((fileLength + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                // the mapping remains valid after the channel is closed
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, fileLength - start));
+            }
+        } finally {
+            fis.close();
+        }
+        ByteBuffer header = chunks[0];
+        if (header.getInt(0) != MAGIC) throw new IOException(file + " is not a hash map file");
+        if (header.getInt(4) != VERSION) {
+            throw new IOException(file + " is version " + header.getInt(4) + " expected " + VERSION);
+        }
+        slotCount = header.getLong(8);
+        long entryCount = header.getLong(16);
+        if (slotCount <= entryCount) throw new IOException(file + " has an invalid header");
+        size = (int) Math.min(entryCount, Integer.MAX_VALUE);
+        final int maxValueLength = header.getInt(24);
+        valueBuffer = new ThreadLocal() {
+            protected Object initialValue() {
+                return new char[maxValueLength];
+            }
+        };
+    }
+
+    /**
+     * @return the value or null if the key is not in the table
+     */
+    public String get(String key) {
+        long fingerprint = fingerprint(key);
+        long slot = (fingerprint & Long.MAX_VALUE) % slotCount;
+        while (true) {
+            long slotPosition = HEADER_LENGTH + slot * SLOT_LENGTH;
+            ByteBuffer slotChunk = chunks[(int) (slotPosition >>> CHUNK_BITS)];
+            int slotOffset = (int) (slotPosition & CHUNK_MASK);
+            long slotFingerprint = slotChunk.getLong(slotOffset);
+            if (slotFingerprint == 0) return null;
+            if (slotFingerprint == fingerprint) {
+                long entryPosition = slotChunk.getLong(slotOffset + 8);
+                ByteBuffer entryChunk = chunks[(int) (entryPosition >>> CHUNK_BITS)];
+                int entryOffset = (int) (entryPosition & CHUNK_MASK);
+                int keyLength = entryChunk.getInt(entryOffset);
+                if (keyEquals(entryChunk, entryOffset + 4, keyLength, key)) {
+                    int valueOffset = entryOffset + 4 + keyLength;
+                    return value(entryChunk, valueOffset + 4, entryChunk.getInt(valueOffset));
+                }
+            }
+            slot++;
+            if (slot == slotCount) slot = 0;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Compare the UTF-8 bytes at position with the key without encoding the key.
+     */
+    private static boolean keyEquals(ByteBuffer chunk, int position, int length, String key) {
+        int end = position + length;
+        int keyLength = key.length();
+        int i = 0;
+        while (i < keyLength) {
+            int c = key.codePointAt(i);
+            i += Character.charCount(c);
+            if (c < 0x80) {
+                if (position >= end || chunk.get(position++) != (byte) c) return false;
+            } else if (c < 0x800) {
+                if (position + 2 > end
+                        || chunk.get(position++) != (byte) (0xc0 | (c >> 6))
+                        || chunk.get(position++) != (byte) (0x80 | (c & 0x3f))) return false;
+            } else if (c < 0x10000) {
+                if (position + 3 > end
+                        || chunk.get(position++) != (byte) (0xe0 | (c >> 12))
+                        || chunk.get(position++) != (byte) (0x80 | ((c >> 6) & 0x3f))
+                        || chunk.get(position++) != (byte) (0x80 | (c & 0x3f))) return false;
+            } else {
+                if (position + 4 > end
+                        || chunk.get(position++) != (byte) (0xf0 | (c >> 18))
+                        || chunk.get(position++) != (byte) (0x80 | ((c >> 12) & 0x3f))
+                        || chunk.get(position++) != (byte) (0x80 | ((c >> 6) & 0x3f))
+                        || chunk.get(position++) != (byte) (0x80 | (c & 0x3f))) return false;
+            }
+        }
+        return position == end;
+    }
+
+    private String value(ByteBuffer chunk, int position, int length) {
+        char[] chars = (char[]) valueBuffer.get();
+        for (int i = 0; i < length; i++) {
+            byte b = chunk.get(position + i);
+            if (b < 0) return decode(chunk, position, length);
+            chars[i] = (char) b;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static String decode(ByteBuffer chunk, int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = chunk.get(position + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported");
+        }
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the chars in the key, with the bits mixed as FNV-1a alone is poorly distributed in
+     * its low bits.  Never returns 0 as that marks an empty slot.
+     */
+    static long fingerprint(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.maps;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Builds a {@link HashFile} from a CSV file of key,value lines.  Blank lines and lines starting with # are
+ * ignored, fields may be quoted with " if they contain commas.  If a key appears more than once the first value is
+ * used.
+ * <p/>
+ * The CSV is read twice, once to size the table and once to fill it, the table itself is built directly in the
+ * output file so tens of millions of entries can be built without a large heap.  The table is built in a temporary
+ * file next to the output file and then renamed over it, so a hash map that has the old file mapped keeps working
+ * and never sees a half written file.
+ * <p/>
+ * Usage: <code>java -cp urlrewritefilter.jar org.tuckey.web.filters.urlrewrite.maps.HashFileBuilder
+ * redirects.csv redirects.hash</code>
+ */
+public class HashFileBuilder {
+
+    private static final double LOAD_FACTOR = 0.6;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private int entryCount = 0;
+    private int duplicateCount = 0;
+    private int invalidLineCount = 0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: HashFileBuilder <input csv> <output file>");
+            System.exit(1);
+        }
+        HashFileBuilder builder = new HashFileBuilder();
+        builder.build(new File(args[0]), new File(args[1]));
+        System.out.println("wrote " + builder.getEntryCount() + " entries to " + args[1] +
+                " (" + builder.getDuplicateCount() + " duplicate keys and " + builder.getInvalidLineCount() +
+                " invalid lines ignored)");
+    }
+
+    public void build(File csvFile, File hashFile) throws IOException {
+        File dir = hashFile.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(hashFile.getName() + ".", ".tmp", dir);
+        boolean renamed = false;
+        try {
+            write(csvFile, tempFile);
+            renamed = tempFile.renameTo(hashFile);
+            // on some platforms rename won't replace an existing file
+            if (!renamed && hashFile.delete()) renamed = tempFile.renameTo(hashFile);
+            if (!renamed) throw new IOException("unable to rename " + tempFile + " to " + hashFile);
+        } finally {
+            if (!renamed) tempFile.delete();
+        }
+    }
+
+    private void write(File csvFile, File hashFile) throws IOException {
+        entryCount = 0;
+        duplicateCount = 0;
+        invalidLineCount = 0;
+        long slotCount = (long) Math.ceil(countLines(csvFile) / LOAD_FACTOR) + 1;
+        long slotsEnd = HashFile.HEADER_LENGTH + slotCount * HashFile.SLOT_LENGTH;
+
+        RandomAccessFile raf = new RandomAccessFile(hashFile, "rw");
+        try {
+            raf.setLength(slotsEnd);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((slotsEnd + HashFile.CHUNK_SIZE - 1) >>> HashFile.CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << HashFile.CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(HashFile.CHUNK_SIZE, slotsEnd - start));
+            }
+            EntryWriter entryWriter = new EntryWriter(channel, slotsEnd);
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), "UTF-8"));
+            int maxValueLength = 0;
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (isIgnored(line)) continue;
+                    String[] fields = parseCsvLine(line);
+                    if (fields == null) {
+                        invalidLineCount++;
+                        continue;
+                    }
+                    byte[] keyBytes = fields[0].getBytes("UTF-8");
+                    byte[] valueBytes = fields[1].getBytes("UTF-8");
+                    long fingerprint = HashFile.fingerprint(fields[0]);
+                    long slot = (fingerprint & Long.MAX_VALUE) % slotCount;
+                    boolean duplicate = false;
+                    while (true) {
+                        long slotPosition = HashFile.HEADER_LENGTH + slot * HashFile.SLOT_LENGTH;
+                        ByteBuffer chunk = chunks[(int) (slotPosition >>> HashFile.CHUNK_BITS)];
+                        int slotOffset = (int) (slotPosition & (HashFile.CHUNK_SIZE - 1));
+                        long slotFingerprint = chunk.getLong(slotOffset);
+                        if (slotFingerprint == 0) {
+                            chunk.putLong(slotOffset, fingerprint);
+                            chunk.putLong(slotOffset + 8, entryWriter.write(keyBytes, valueBytes));
+                            break;
+                        }
+                        if (slotFingerprint == fingerprint && entryWriter.keyEquals(chunk.getLong(slotOffset + 8), keyBytes)) {
+                            duplicate = true;
+                            break;
+                        }
+                        slot++;
+                        if (slot == slotCount) slot = 0;
+                    }
+                    if (duplicate) {
+                        duplicateCount++;
+                    } else {
+                        entryCount++;
+                        maxValueLength = Math.max(maxValueLength, valueBytes.length);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            entryWriter.flush();
+
+            ByteBuffer header = chunks[0];
+            header.putInt(0, HashFile.MAGIC);
+            header.putInt(4, HashFile.VERSION);
+            header.putLong(8, slotCount);
+            header.putLong(16, entryCount);
+            header.putInt(24, maxValueLength);
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i].force();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int countLines(File csvFile) throws IOException {
+        int count = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!isIgnored(line)) count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private static boolean isIgnored(String line) {
+        String trimmed = line.trim();
+        return trimmed.length() == 0 || trimmed.charAt(0) == '#';
+    }
+
+    /**
+     * @return key and value or null if the line does not have two fields
+     */
+    static String[] parseCsvLine(String line) {
+        String[] fields = new String[2];
+        int fieldCount = 0;
+        int pos = 0;
+        int length = line.length();
+        while (pos <= length && fieldCount < 2) {
+            while (pos < length && line.charAt(pos) == ' ') pos++;
+            StringBuffer field = new StringBuffer();
+            if (pos < length && line.charAt(pos) == '"') {
+                pos++;
+                while (true) {
+                    if (pos >= length) return null;
+                    char c = line.charAt(pos++);
+                    if (c == '"') {
+                        if (pos < length && line.charAt(pos) == '"') {
+                            field.append('"');
+                            pos++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                }
+                while (pos < length && line.charAt(pos) != ',') pos++;
+                fields[fieldCount++] = field.toString();
+            } else {
+                int comma = line.indexOf(',', pos);
+                int end = comma == -1 ? length : comma;
+                fields[fieldCount++] = line.substring(pos, end).trim();
+                pos = end;
+            }
+            pos++;
+        }
+        if (fieldCount < 2 || fields[0].length() == 0 || fields[1].length() == 0) return null;
+        return fields;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    public int getInvalidLineCount() {
+        return invalidLineCount;
+    }
+
+    /**
+     * Appends entries after the slot table, making sure no entry crosses a chunk boundary.
+     */
+    private static class EntryWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private long bufferPosition;
+
+        EntryWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.bufferPosition = position;
+        }
+
+        /**
+         * @return the position of the entry
+         */
+        long write(byte[] keyBytes, byte[] valueBytes) throws IOException {
+            int entryLength = 8 + keyBytes.length + valueBytes.length;
+            if (entryLength > HashFile.CHUNK_SIZE) throw new IOException("entry too large");
+            long position = bufferPosition + buffer.position();
+            long endPosition = position + entryLength - 1;
+            if ((position >>> HashFile.CHUNK_BITS) != (endPosition >>> HashFile.CHUNK_BITS)) {
+                flush();
+                position = (endPosition >>> HashFile.CHUNK_BITS) << HashFile.CHUNK_BITS;
+                bufferPosition = position;
+            }
+            if (buffer.remaining() < entryLength) {
+                flush();
+            }
+            if (entryLength > buffer.capacity()) {
+                ByteBuffer large = ByteBuffer.allocate(entryLength);
+                put(large, keyBytes, valueBytes);
+                large.flip();
+                writeFully(large, position);
+                bufferPosition = position + entryLength;
+            } else {
+                put(buffer, keyBytes, valueBytes);
+            }
+            return position;
+        }
+
+        private static void put(ByteBuffer target, byte[] keyBytes, byte[] valueBytes) {
+            target.putInt(keyBytes.length);
+            target.put(keyBytes);
+            target.putInt(valueBytes.length);
+            target.put(valueBytes);
+        }
+
+        boolean keyEquals(long position, byte[] keyBytes) throws IOException {
+            flush();
+            ByteBuffer entry = ByteBuffer.allocate(4 + keyBytes.length);
+            while (entry.hasRemaining()) {
+                if (channel.read(entry, position + entry.position()) < 0) break;
+            }
+            entry.flip();
+            if (entry.remaining() < 4 || entry.getInt() != keyBytes.length) return false;
+            for (int i = 0; i < keyBytes.length; i++) {
+                if (entry.get() != keyBytes[i]) return false;
+            }
+            return true;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            int length = buffer.remaining();
+            writeFully(buffer, bufferPosition);
+            bufferPosition += length;
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer source, long position) throws IOException {
+            while (source.hasRemaining()) {
+                position += channel.write(source, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.maps;
+
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * A named lookup table, the equivalent of mod_rewrite's RewriteMap.  Maps are used in "to" elements with
+ * ${map:name:key|default}.
+ * <p/>
+ * The data is loaded from a file.  "txt" files are loaded onto the heap, "sorted" and "hash" files are memory
+ * mapped and searched in place so very large maps take no heap.  The file is checked for changes at most every
+ * reload-check-interval seconds, lookups keep using the old data until the new data is completely loaded.
+ *
+ * @see MapFile
+ */
+public class RewriteMap {
+
+    private static final Log log = Log.getLog(RewriteMap.class);
+
+    public static final String TYPE_TXT = "txt";
+    public static final String TYPE_SORTED = "sorted";
+    public static final String TYPE_HASH = "hash";
+
+    public static final int DEFAULT_RELOAD_CHECK_INTERVAL = 1;
+
+    private String name;
+    private String type = TYPE_TXT;
+    private String fileStr;
+    private int reloadCheckInterval = DEFAULT_RELOAD_CHECK_INTERVAL;
+
+    private File file;
+    private volatile MapFile mapFile;
+    private volatile long nextReloadCheck;
+    private long loadedLastModified;
+    private Date loadedDate;
+
+    private String error = null;
+    private boolean valid = false;
+    private boolean initialised = false;
+
+    /**
+     * @return true on success
+     */
+    public boolean initialise(ServletContext context) {
+        initialised = true;
+        if (StringUtils.isBlank(name)) {
+            setError("map name must be specified");
+            return false;
+        }
+        if (!isSupportedType(type)) {
+            setError("map " + name + " has an unknown type " + type);
+            return false;
+        }
+        if (StringUtils.isBlank(fileStr)) {
+            setError("map " + name + " must have a file");
+            return false;
+        }
+        file = getFile(context);
+        try {
+            load(System.currentTimeMillis());
+        } catch (IOException e) {
+            setError("could not load map " + name + " from " + file + ": " + e, e);
+            return false;
+        }
+        valid = true;
+        return true;
+    }
+
+    public static boolean isSupportedType(String type) {
+        return TYPE_TXT.equals(type) || TYPE_SORTED.equals(type) || TYPE_HASH.equals(type);
+    }
+
+    /**
+     * Files are first looked for in the web app, then on the file system.
+     */
+    private File getFile(ServletContext context) {
+        if (context != null) {
+            String realPath = context.getRealPath(fileStr);
+            if (realPath != null) {
+                File realFile = new File(realPath);
+                if (realFile.exists()) return realFile;
+            }
+        }
+        return new File(fileStr);
+    }
+
+    private void load(long now) throws IOException {
+        long lastModified = file.lastModified();
+        // set before loading so a bad file is only reported once
+        loadedLastModified = lastModified;
+        mapFile = MapFile.open(type, file);
+        loadedDate = new Date(now);
+        nextReloadCheck = now + reloadCheckInterval * 1000L;
+        if (log.isDebugEnabled()) {
+            log.debug("loaded map " + name + " with " + mapFile.size() + " entries from " + file);
+        }
+    }
+
+    private synchronized void checkReload(long now) {
+        // another thread may have just checked
+        if (now < nextReloadCheck) return;
+        nextReloadCheck = now + reloadCheckInterval * 1000L;
+        if (file.lastModified() == loadedLastModified) return;
+        try {
+            load(now);
+            log.info("map " + name + " reloaded from " + file);
+        } catch (IOException e) {
+            log.error("could not reload map " + name + " from " + file + ", the previous data will be used", e);
+        }
+    }
+
+    /**
+     * @return the value for the key or null if the key is not in the map
+     */
+    public String get(String key) {
+        if (key == null || mapFile == null) return null;
+        if (reloadCheckInterval >= 0) {
+            long now = System.currentTimeMillis();
+            if (now >= nextReloadCheck) checkReload(now);
+        }
+        return mapFile.get(key);
+    }
+
+    /**
+     * @return the number of entries currently loaded
+     */
+    public int getSize() {
+        MapFile current = mapFile;
+        return current == null ? 0 : current.size();
+    }
+
+    public Date getLoadedDate() {
+        return loadedDate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        if (!StringUtils.isBlank(type)) this.type = type.trim().toLowerCase();
+    }
+
+    public String getFileStr() {
+        return fileStr;
+    }
+
+    public void setFileStr(String fileStr) {
+        this.fileStr = fileStr;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getReloadCheckInterval() {
+        return reloadCheckInterval;
+    }
+
+    /**
+     * @param reloadCheckInterval seconds between checks of the file for changes, -1 to never reload
+     */
+    public void setReloadCheckInterval(int reloadCheckInterval) {
+        this.reloadCheckInterval = reloadCheckInterval;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public boolean isInitialised() {
+        return initialised;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+        log.error(error);
+    }
+
+    public void setError(String error, Throwable t) {
+        this.error = error;
+        log.error(error, t);
+    }
+}
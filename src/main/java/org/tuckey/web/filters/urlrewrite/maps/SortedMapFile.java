@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.maps;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory mapped text map that is searched in place, the file is never read onto the heap.
+ * <p/>
+ * Lines are in the same format as a txt map, a key and a value separated by whitespace, blank lines and lines
+ * starting with # are ignored.  Keys must be sorted in byte order (e.g. with <code>LC_ALL=C sort</code>) and must
+ * be unique.  Lookups are a binary search over the file.  The order is checked when the file is opened.
+ * <p/>
+ * To change the file write a new one and rename it over the old one, the old mapping stays valid until it is no
+ * longer used.  Editing the file in place while it is mapped will give unpredictable results.
+ */
+class SortedMapFile extends MapFile {
+
+    private final ByteBuffer buffer;
+    private final int length;
+    private final int size;
+
+    SortedMapFile(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            long fileLength = channel.size();
+            if (fileLength > Integer.MAX_VALUE) {
+                throw new IOException("sorted map files must be smaller than 2GB, " + file + " is " + fileLength + " bytes");
+            }
+            // the mapping remains valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+            length = (int) fileLength;
+        } finally {
+            fis.close();
+        }
+        size = checkOrder(file);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    private int checkOrder(File file) throws IOException {
+        int entryCount = 0;
+        int lineNumber = 0;
+        int previousStart = -1;
+        int previousKeyEnd = -1;
+        int start = 0;
+        while (start < length) {
+            lineNumber++;
+            int end = lineEnd(start);
+            int keyStart = keyStart(start, end);
+            if (isKey(keyStart, end)) {
+                int keyEnd = keyEnd(keyStart, end);
+                if (previousStart != -1 && compare(previousStart, previousKeyEnd, keyStart, keyEnd) >= 0) {
+                    throw new IOException(file + " line " + lineNumber + " is not in sorted order or is a duplicate key");
+                }
+                previousStart = keyStart;
+                previousKeyEnd = keyEnd;
+                if (valueStart(keyEnd, end) < end) entryCount++;
+            }
+            start = end + 1;
+        }
+        return entryCount;
+    }
+
+    String get(String key) {
+        byte[] keyBytes = getBytes(key);
+        // lo and hi are always at the start of a line
+        int lo = 0;
+        int hi = length;
+        while (lo < hi) {
+            int start = lineStart((lo + hi) >>> 1);
+            // skip forward over blank and comment lines to a line with a key
+            int lineStart = start;
+            int end = lineEnd(lineStart);
+            int keyStart = keyStart(lineStart, end);
+            while (!isKey(keyStart, end) && end + 1 < hi) {
+                lineStart = end + 1;
+                end = lineEnd(lineStart);
+                keyStart = keyStart(lineStart, end);
+            }
+            if (!isKey(keyStart, end)) {
+                // nothing but blank and comment lines from start to hi
+                hi = start;
+                continue;
+            }
+            int keyEnd = keyEnd(keyStart, end);
+            int cmp = compare(keyStart, keyEnd, keyBytes);
+            if (cmp < 0) {
+                lo = end + 1;
+            } else if (cmp > 0) {
+                hi = lineStart;
+            } else {
+                return value(keyEnd, end);
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int lineStart(int pos) {
+        while (pos > 0 && buffer.get(pos - 1) != '\n') pos--;
+        return pos;
+    }
+
+    private int lineEnd(int pos) {
+        while (pos < length && buffer.get(pos) != '\n') pos++;
+        return pos;
+    }
+
+    private int keyStart(int start, int end) {
+        int pos = start;
+        while (pos < end && isWhitespace(buffer.get(pos))) pos++;
+        return pos;
+    }
+
+    /**
+     * @return false if the line is blank or a comment
+     */
+    private boolean isKey(int keyStart, int end) {
+        return keyStart < end && buffer.get(keyStart) != '#';
+    }
+
+    private int keyEnd(int start, int end) {
+        int pos = start;
+        while (pos < end && !isWhitespace(buffer.get(pos))) pos++;
+        return pos;
+    }
+
+    private int valueStart(int keyEnd, int end) {
+        int pos = keyEnd;
+        while (pos < end && isWhitespace(buffer.get(pos))) pos++;
+        return pos;
+    }
+
+    private String value(int keyEnd, int end) {
+        int valueStart = valueStart(keyEnd, end);
+        int valueEnd = valueStart;
+        while (valueEnd < end && !isWhitespace(buffer.get(valueEnd))) valueEnd++;
+        if (valueStart == valueEnd) return null;
+        byte[] valueBytes = new byte[valueEnd - valueStart];
+        for (int i = 0; i < valueBytes.length; i++) {
+            valueBytes[i] = buffer.get(valueStart + i);
+        }
+        try {
+            return new String(valueBytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported");
+        }
+    }
+
+    private int compare(int aStart, int aEnd, int bStart, int bEnd) {
+        int aLength = aEnd - aStart;
+        int bLength = bEnd - bStart;
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int a = buffer.get(aStart + i) & 0xff;
+            int b = buffer.get(bStart + i) & 0xff;
+            if (a != b) return a - b;
+        }
+        return aLength - bLength;
+    }
+
+    private int compare(int start, int end, byte[] key) {
+        int lineKeyLength = end - start;
+        int n = Math.min(lineKeyLength, key.length);
+        for (int i = 0; i < n; i++) {
+            int a = buffer.get(start + i) & 0xff;
+            int b = key[i] & 0xff;
+            if (a != b) return a - b;
+        }
+        return lineKeyLength - key.length;
+    }
+
+    private static byte[] getBytes(String key) {
+        try {
+            return key.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported");
+        }
+    }
+}
@@ -2,8 +2,8 @@ package org.tuckey.web.filters.urlrewrite.substitution;
 
 import javax.servlet.ServletContext;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 
 public class ChainedSubstitutionFilters implements SubstitutionFilterChain {
@@ -37,12 +37,28 @@ public class ChainedSubstitutionFilters implements SubstitutionFilterChain {
 	}
 	
 	public static SubstitutionFilterChain getDefaultSubstitutionChain(boolean withPattern, boolean withFunction, boolean withVariable, boolean withBackReference, ServletContext sc){
-        List substitutionFilters = new LinkedList();
+        return getDefaultSubstitutionChain(withPattern, withFunction, withVariable, withBackReference, sc, null);
+	}
+
+	public static SubstitutionFilterChain getDefaultSubstitutionChain(boolean withPattern, boolean withFunction, boolean withVariable, boolean withBackReference, ServletContext sc, Map rewriteMaps){
+        return new ChainedSubstitutionFilters(getDefaultSubstitutionFilters(withPattern, withFunction, withVariable, withBackReference, sc, rewriteMaps));
+	}
+
+	/**
+	 * The filters are stateless so the list can be built once and shared, but note a new chain must be created
+	 * for each substitution as the chain itself is not thread safe.
+	 */
+	public static List getDefaultSubstitutionFilters(boolean withPattern, boolean withFunction, boolean withVariable, boolean withBackReference, ServletContext sc){
+        return getDefaultSubstitutionFilters(withPattern, withFunction, withVariable, withBackReference, sc, null);
+	}
+
+	public static List getDefaultSubstitutionFilters(boolean withPattern, boolean withFunction, boolean withVariable, boolean withBackReference, ServletContext sc, Map rewriteMaps){
+        List substitutionFilters = new ArrayList(6);
         
         if(withPattern)
         	substitutionFilters.add(new PatternReplacer());
         if(withFunction)
-        	substitutionFilters.add(new FunctionReplacer());
+        	substitutionFilters.add(new FunctionReplacer(rewriteMaps));
         if(withVariable)
 			substitutionFilters.add(sc == null ? new VariableReplacer() : new VariableReplacer(sc));
         if(withBackReference)
@@ -50,6 +66,6 @@ public class ChainedSubstitutionFilters implements SubstitutionFilterChain {
         substitutionFilters.add(new MatcherReplacer());
         substitutionFilters.add(new UnescapeReplacer());
 
-        return new ChainedSubstitutionFilters(substitutionFilters);
+        return substitutionFilters;
 	}
 }
@@ -35,9 +35,11 @@
 package org.tuckey.web.filters.urlrewrite.substitution;
 
 import org.tuckey.web.filters.urlrewrite.functions.StringFunctions;
+import org.tuckey.web.filters.urlrewrite.maps.RewriteMap;
 import org.tuckey.web.filters.urlrewrite.utils.Log;
 
 import java.util.Collections;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -53,6 +55,19 @@ public class FunctionReplacer implements SubstitutionFilter {
 
     private static Pattern functionPattern = Pattern.compile("(?<!\\\\)\\$\\{(.*)\\}");
 
+    private final Map rewriteMaps;
+
+    public FunctionReplacer() {
+        this(null);
+    }
+
+    /**
+     * @param rewriteMaps map names to RewriteMap's for use by ${map:name:key|default}
+     */
+    public FunctionReplacer(Map rewriteMaps) {
+        this.rewriteMaps = rewriteMaps;
+    }
+
     public static boolean containsFunction(String to) {
         Matcher functionMatcher = functionPattern.matcher(to);
         return functionMatcher.find();
@@ -148,11 +163,41 @@ public class FunctionReplacer implements SubstitutionFilter {
             functionResult = StringFunctions.trim(varSubName, redoFunctionFilter, ctx);
         } else if ("length".equalsIgnoreCase(varType)) {
             functionResult = StringFunctions.length(varSubName, redoFunctionFilter, ctx);
+        } else if ("map".equalsIgnoreCase(varType)) {
+            functionResult = mapLookup(varSubName, redoFunctionFilter, ctx);
         } else {
             log.error("function ${" + originalVarStr + "} type '" + varType + "' not a valid type");
         }
         return functionResult;
     }
 
+    /**
+     * Look up a key in a map, "name:key|default" will return the value for key in the map called name, or default
+     * if key is not in the map.
+     */
+    private String mapLookup(String subject, SubstitutionFilterChain nextFilter, SubstitutionContext ctx) {
+        int colonIdx = subject == null ? -1 : subject.indexOf(':');
+        if (colonIdx == -1) {
+            log.error("function ${map:" + subject + "} must be in the form ${map:name:key|default}");
+            return "";
+        }
+        String mapName = subject.substring(0, colonIdx);
+        String key = subject.substring(colonIdx + 1);
+        String defaultValue = "";
+        int pipeIdx = key.indexOf('|');
+        if (pipeIdx != -1) {
+            defaultValue = nextFilter.substitute(key.substring(pipeIdx + 1), ctx);
+            key = key.substring(0, pipeIdx);
+        }
+        RewriteMap rewriteMap = rewriteMaps == null ? null : (RewriteMap) rewriteMaps.get(mapName);
+        if (rewriteMap == null) {
+            log.error("function ${map:" + subject + "} map '" + mapName + "' does not exist");
+            return defaultValue;
+        }
+        String value = rewriteMap.get(nextFilter.substitute(key, ctx));
+        if (log.isDebugEnabled()) log.debug("map " + mapName + " key " + key + " returned " + value);
+        return value == null ? defaultValue : value;
+    }
+
 
 }
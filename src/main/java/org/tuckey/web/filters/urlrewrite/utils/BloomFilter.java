@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.utils;
+
+/**
+ * A simple fixed size bloom filter for strings.  Keys are hashed lower cased so that a lookup can be made against
+ * any part of a string without allocating a substring.
+ * <p/>
+ * A bloom filter will never report a false negative, ie, if <code>mightContain</code> returns false the key was
+ * definitely never added.  It may report a false positive at roughly the rate given when the filter was created.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * @param expectedKeys      number of keys that will be added
+     * @param falsePositiveRate desired false positive rate, eg, 0.01 for 1%
+     */
+    public BloomFilter(int expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1) expectedKeys = 1;
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+        }
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2));
+        if (m < 64) m = 64;
+        if (m > Integer.MAX_VALUE - 63) m = Integer.MAX_VALUE - 63;
+        numBits = (int) m;
+        int k = (int) Math.round((double) numBits / expectedKeys * ln2);
+        numHashes = Math.max(1, Math.min(k, 16));
+        bits = new long[(numBits + 63) / 64];
+    }
+
+    public void add(CharSequence key) {
+        int h1 = hash1(key, 0, key.length());
+        int h2 = hash2(key, 0, key.length());
+        for (int i = 0; i < numHashes; i++) {
+            int bit = index(h1 + i * h2);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(CharSequence key) {
+        return mightContain(key, 0, key.length());
+    }
+
+    /**
+     * Check for the key made up of the characters from <code>start</code> (inclusive) to <code>end</code>
+     * (exclusive) of <code>str</code>.
+     */
+    public boolean mightContain(CharSequence str, int start, int end) {
+        int h1 = hash1(str, start, end);
+        int h2 = hash2(str, start, end);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = index(h1 + i * h2);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private int index(int hash) {
+        return (hash & Integer.MAX_VALUE) % numBits;
+    }
+
+    /**
+     * FNV-1a.
+     */
+    private static int hash1(CharSequence s, int start, int end) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            h ^= Character.toLowerCase(s.charAt(i));
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * Multiplicative hash with a murmur style finaliser, always odd so that double hashing visits different bits.
+     */
+    private static int hash2(CharSequence s, int start, int end) {
+        int h = 0x9747b28c;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toLowerCase(s.charAt(i));
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.utils;
+
+/**
+ * The string a regular expression is matched against, counting each character the regex engine reads.  Once more
+ * than the budget of reads have been made for one match a {@link RegexBudgetExceededException} is thrown, this
+ * stops an expression that backtracks badly (eg, <code>(a+)+b</code> against a long run of a's) from holding a
+ * thread for seconds.
+ * <p/>
+ * Reading groups (via subSequence) is not counted.  Not thread safe, one per matcher.
+ */
+public class BoundedCharSequence implements CharSequence {
+
+    private final String str;
+    private final long budget;
+    private final String patternStr;
+    private long steps = 0;
+
+    /**
+     * @param str        the string to match against
+     * @param budget     the number of character reads allowed for each match
+     * @param patternStr the expression being matched, for the exception message
+     */
+    public BoundedCharSequence(String str, long budget, String patternStr) {
+        this.str = str;
+        this.budget = budget;
+        this.patternStr = patternStr;
+    }
+
+    public char charAt(int index) {
+        if (++steps > budget) {
+            throw new RegexBudgetExceededException("expression (" + patternStr + ") used its budget of " + budget +
+                    " steps matching a string of length " + str.length());
+        }
+        return str.charAt(index);
+    }
+
+    public int length() {
+        return str.length();
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return str.substring(start, end);
+    }
+
+    public String toString() {
+        return str;
+    }
+
+    /**
+     * Start counting again, called before each match.
+     */
+    public void resetSteps() {
+        steps = 0;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.utils;
+
+/**
+ * Matcher for {@link LiteralPattern}.
+ */
+public class LiteralMatcher implements StringMatchingMatcher {
+
+    private final LiteralPattern pattern;
+    private final String matchStr;
+    private boolean found = false;
+    private boolean searched = false;
+    private int end = -1;
+
+    public LiteralMatcher(LiteralPattern pattern, String matchStr) {
+        this.pattern = pattern;
+        this.matchStr = matchStr;
+    }
+
+    public boolean find() {
+        if (searched) {
+            // an anchored expression can only ever match once
+            found = false;
+            return false;
+        }
+        searched = true;
+        end = pattern.match(matchStr);
+        found = end != -1;
+        return found;
+    }
+
+    public boolean isMultipleMatchingSupported() {
+        return true;
+    }
+
+    public int start() {
+        if (!found) throw new IllegalStateException("No match available");
+        return 0;
+    }
+
+    public int end() {
+        if (!found) throw new IllegalStateException("No match available");
+        return end;
+    }
+
+    public void reset() {
+        found = false;
+        searched = false;
+        end = -1;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public int groupCount() {
+        return 0;
+    }
+
+    public String group(int groupId) {
+        if (!found) throw new IllegalStateException("No match found");
+        if (groupId != 0) throw new IndexOutOfBoundsException("No group " + groupId);
+        return matchStr.substring(0, end);
+    }
+
+    public boolean isNegated() {
+        return false;
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.utils;
+
+/**
+ * Matches a regular expression that is made up only of literal characters anchored at both ends
+ * (eg, <code>^/some/page\.html$</code>) without using the regex engine.
+ * <p/>
+ * Behaves in exactly the same way as {@link RegexPattern} would for the same expression, including case
+ * insensitive matching of ASCII characters only and <code>$</code> allowing a final line terminator.
+ */
+public class LiteralPattern implements StringMatchingPattern {
+
+    private final String literal;
+    private final boolean caseSensitive;
+
+    public LiteralPattern(String literal, boolean caseSensitive) {
+        this.literal = literal;
+        this.caseSensitive = caseSensitive;
+    }
+
+    /**
+     * Get the literal that the regular expression matches.
+     *
+     * @return the literal or null if the expression contains anything other than literal characters between
+     *         <code>^</code> and <code>$</code>
+     */
+    public static String getLiteral(String regex) {
+        if (regex == null || regex.length() < 2) return null;
+        if (!regex.startsWith("^") || !regex.endsWith("$")) return null;
+        StringBuffer literal = new StringBuffer();
+        int end = regex.length() - 1;
+        for (int i = 1; i < end; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                // a trailing backslash would escape the $
+                if (i + 1 >= end) return null;
+                char escaped = regex.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) return null;
+                literal.append(escaped);
+            } else if (".[](){}*+?$^|".indexOf(c) != -1) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    public StringMatchingMatcher matcher(String matchStr) {
+        return new LiteralMatcher(this, matchStr);
+    }
+
+    /**
+     * @return the length of the match or -1 if there was no match
+     */
+    int match(String str) {
+        int length = literal.length();
+        if (str.length() < length || str.length() > length + 2) return -1;
+        if (!regionMatches(str, length)) return -1;
+        if (str.length() == length || isFinalLineTerminator(str, length)) return length;
+        return -1;
+    }
+
+    private boolean regionMatches(String str, int length) {
+        if (caseSensitive) return str.startsWith(literal);
+        for (int i = 0; i < length; i++) {
+            char a = str.charAt(i);
+            char b = literal.charAt(i);
+            if (a != b && toLowerAscii(a) != toLowerAscii(b)) return false;
+        }
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isFinalLineTerminator(String str, int from) {
+        int remaining = str.length() - from;
+        char c = str.charAt(from);
+        if (remaining == 2) return c == '\r' && str.charAt(from + 1) == '\n';
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    public String getLiteral() {
+        return literal;
+    }
+
+}
@@ -5,6 +5,7 @@ import org.tuckey.web.filters.urlrewrite.Conf;
 import org.tuckey.web.filters.urlrewrite.ModRewriteRule;
 import org.tuckey.web.filters.urlrewrite.NormalRule;
 import org.tuckey.web.filters.urlrewrite.SetAttribute;
+import org.tuckey.web.filters.urlrewrite.maps.RewriteMap;
 import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
 
 import java.io.BufferedReader;
@@ -12,6 +13,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +32,7 @@ public class ModRewriteConfLoader {
     private final Pattern ENGINE_PATTERN = Pattern.compile("RewriteEngine\\s+([a-zA-Z0-9]+)\\s*$");
     private final Pattern CONDITION_PATTERN = Pattern.compile("RewriteCond\\s+(.*)$");
     private final Pattern RULE_PATTERN = Pattern.compile("RewriteRule\\s+(.*)$");
+    private final Pattern MAP_PATTERN = Pattern.compile("RewriteMap\\s+(\\S+)\\s+([a-zA-Z]+):(\\S+)\\s*$");
 
     public void process(InputStream is, Conf conf) throws IOException {
         String line;
@@ -80,7 +83,7 @@ public class ModRewriteConfLoader {
                 logTypeStr = parseLogType(logTypeStr, line);
 
             } else if (line.startsWith("RewriteMap")) {
-                log.error("RewriteMap not supported, ignored");
+                processRewriteMap(conf, line);
 
             } else if (line.startsWith("RewriteOptions")) {
                 log.error("RewriteOptions not supported, ignored");
@@ -108,9 +111,34 @@ public class ModRewriteConfLoader {
             rule.addCondition(condition);
         }
         if (notesBuffer.length() > 0) rule.setNote(notesBuffer.toString());
+        if (rule.getTo() != null) {
+            // mod_rewrite uses ${name:key|default} for map lookups, we use ${map:name:key|default}
+            for (Iterator iterator = conf.getRewriteMaps().keySet().iterator(); iterator.hasNext();) {
+                String mapName = (String) iterator.next();
+                rule.setTo(rule.getTo().replace("${" + mapName + ":", "${map:" + mapName + ":"));
+            }
+        }
         conf.addRule(rule);
     }
 
+    private void processRewriteMap(Conf conf, String line) {
+        Matcher mapMatcher = MAP_PATTERN.matcher(line);
+        if (!mapMatcher.matches()) {
+            log.error("cannot parse " + line);
+            return;
+        }
+        String type = mapMatcher.group(2).toLowerCase();
+        if (!RewriteMap.isSupportedType(type)) {
+            log.error("RewriteMap type " + type + " not supported, ignored");
+            return;
+        }
+        RewriteMap rewriteMap = new RewriteMap();
+        rewriteMap.setName(mapMatcher.group(1));
+        rewriteMap.setType(type);
+        rewriteMap.setFileStr(mapMatcher.group(3));
+        conf.addRewriteMap(rewriteMap);
+    }
+
     private String parseLogType(String logTypeStr, String line) {
         Matcher logTypeMatcher = LOG_TYPE_PATTERN.matcher(line);
         if (logTypeMatcher.matches()) {
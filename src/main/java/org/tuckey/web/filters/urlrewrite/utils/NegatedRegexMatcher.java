@@ -50,4 +50,9 @@ public class NegatedRegexMatcher extends RegexMatcher {
 		negated = true;
 	}
 
+    public NegatedRegexMatcher(final Matcher matcher, final BoundedCharSequence input) {
+        super(matcher, input);
+        negated = true;
+    }
+
 }
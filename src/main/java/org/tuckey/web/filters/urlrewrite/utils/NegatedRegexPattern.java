@@ -34,6 +34,8 @@
  */
 package org.tuckey.web.filters.urlrewrite.utils;
 
+import java.util.regex.Pattern;
+
 /**
  * Simple wrapper for java.util.regex.Pattern that negates the
  *
@@ -46,8 +48,18 @@ public class NegatedRegexPattern extends RegexPattern {
         super(patternStr, caseSensitive);
     }
 
+    public NegatedRegexPattern(final String patternStr, final boolean caseSensitive, final boolean lazy)
+            throws StringMatchingPatternSyntaxException {
+        super(patternStr, caseSensitive, lazy);
+    }
+
     public StringMatchingMatcher matcher(final String regex) {
-        return new NegatedRegexMatcher(pattern.matcher(regex));
+        Pattern p = getPattern();
+        // an invalid expression doesn't match, negated or not
+        if (p == null) return super.matcher(regex);
+        if (getStepBudget() <= 0) return new NegatedRegexMatcher(p.matcher(regex));
+        BoundedCharSequence input = new BoundedCharSequence(regex, getStepBudget(), getPatternStr());
+        return new NegatedRegexMatcher(p.matcher(input), input);
     }
 
 }
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Looks for parts of a regular expression that are prone to catastrophic backtracking, where a failed match can take
+ * time exponential in the length of the input:
+ * <ul>
+ * <li>nested quantifiers, a repeated group containing a repeated element, eg <code>(a+)+</code> or
+ * <code>(\w+\s?)*</code></li>
+ * <li>a repeated group with alternatives that can start with the same character, eg <code>(a|ab)*</code> or
+ * <code>(\w|\d)+</code></li>
+ * </ul>
+ * Possessive quantifiers and atomic groups don't backtrack so are not flagged.  This is a quick check done when the
+ * conf is loaded, not a proof, it is conservative about character classes (any class may overlap any other).
+ */
+public class RegexAnalyser {
+
+    /**
+     * First character of an alternative could be anything.
+     */
+    private static final int ANY = -1;
+
+    /**
+     * Alternative is empty.
+     */
+    private static final int NONE = -2;
+
+    private static class Group {
+        int start;
+        boolean atomic = false;
+        boolean containsRepeat = false;
+        // first character of each alternative (or ANY/NONE)
+        List firstChars = new ArrayList();
+        boolean atBranchStart = true;
+
+        Group() {
+            firstChars.add(new Integer(NONE));
+        }
+
+        void setFirst(int c) {
+            if (!atBranchStart) return;
+            firstChars.set(firstChars.size() - 1, new Integer(c));
+            atBranchStart = false;
+        }
+
+        void newBranch() {
+            firstChars.add(new Integer(NONE));
+            atBranchStart = true;
+        }
+
+        /**
+         * @return the first character of the group if it can be worked out, otherwise ANY
+         */
+        int getFirst() {
+            return firstChars.size() == 1 ? ((Integer) firstChars.get(0)).intValue() : ANY;
+        }
+
+        boolean alternativesOverlap() {
+            for (int i = 0; i < firstChars.size(); i++) {
+                int a = ((Integer) firstChars.get(i)).intValue();
+                if (a == NONE) continue;
+                for (int j = i + 1; j < firstChars.size(); j++) {
+                    int b = ((Integer) firstChars.get(j)).intValue();
+                    if (b == NONE) continue;
+                    if (a == ANY || b == ANY || a == b) return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return a description of why the expression is prone to catastrophic backtracking or null if it looks ok
+     */
+    public static String getBacktrackingRisk(String regex) {
+        if (regex == null) return null;
+        LinkedList stack = new LinkedList();
+        Group top = new Group();
+        int length = regex.length();
+        int i = 0;
+        while (i < length) {
+            char c = regex.charAt(i);
+            Group closed = null;
+            int first;
+            if (c == '(') {
+                Group group = new Group();
+                group.start = i;
+                i++;
+                if (i < length && regex.charAt(i) == '?') {
+                    int flagsEnd = i + 1;
+                    while (flagsEnd < length && (Character.isLetter(regex.charAt(flagsEnd)) ||
+                            regex.charAt(flagsEnd) == '-')) {
+                        flagsEnd++;
+                    }
+                    if (flagsEnd < length && regex.charAt(flagsEnd) == ')') {
+                        // flags only eg (?i), not a group
+                        i = flagsEnd + 1;
+                        continue;
+                    }
+                    if (flagsEnd < length && regex.charAt(flagsEnd) == ':') {
+                        i = flagsEnd + 1;
+                    } else if (regex.startsWith(">", i + 1)) {
+                        group.atomic = true;
+                        i += 2;
+                    } else if (regex.startsWith("<=", i + 1) || regex.startsWith("<!", i + 1)) {
+                        i += 3;
+                    } else if (regex.startsWith("<", i + 1)) {
+                        int nameEnd = regex.indexOf('>', i);
+                        i = nameEnd == -1 ? length : nameEnd + 1;
+                    } else {
+                        // lookahead
+                        i += 2;
+                    }
+                }
+                stack.addLast(top);
+                top = group;
+                continue;
+            } else if (c == ')') {
+                if (stack.isEmpty()) return null; // unbalanced, the compiler will complain
+                closed = top;
+                top = (Group) stack.removeLast();
+                first = closed.getFirst();
+                i++;
+            } else if (c == '|') {
+                top.newBranch();
+                i++;
+                continue;
+            } else if (c == '^' || c == '$') {
+                i++;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                first = ANY;
+            } else if (c == '.') {
+                first = ANY;
+                i++;
+            } else if (c == '\\') {
+                if (i + 1 >= length) return null;
+                char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    if (end == -1) end = length;
+                    first = end > i + 2 ? Character.toLowerCase(regex.charAt(i + 2)) : NONE;
+                    i = end + 2;
+                } else if (Character.isLetterOrDigit(escaped)) {
+                    // character classes, back references etc
+                    first = ANY;
+                    i += 2;
+                    if ((escaped == 'p' || escaped == 'P') && i < length && regex.charAt(i) == '{') {
+                        int end = regex.indexOf('}', i);
+                        i = end == -1 ? length : end + 1;
+                    }
+                } else {
+                    first = Character.toLowerCase(escaped);
+                    i += 2;
+                }
+            } else {
+                first = Character.toLowerCase(c);
+                i++;
+            }
+
+            // look at the quantifier on the atom or group
+            boolean repeated = false;
+            boolean optional = false;
+            boolean possessive = false;
+            if (i < length) {
+                char q = regex.charAt(i);
+                if (q == '*' || q == '+' || q == '?') {
+                    repeated = q != '?';
+                    optional = q != '+';
+                    i++;
+                } else if (q == '{') {
+                    int end = regex.indexOf('}', i);
+                    if (end != -1) {
+                        String bounds = regex.substring(i + 1, end);
+                        int comma = bounds.indexOf(',');
+                        repeated = comma != -1 && comma == bounds.length() - 1;
+                        optional = bounds.startsWith("0");
+                        i = end + 1;
+                    }
+                }
+                if (i < length && (repeated || optional) && regex.charAt(i) == '+') {
+                    possessive = true;
+                    i++;
+                } else if (i < length && (repeated || optional) && regex.charAt(i) == '?') {
+                    // lazy, still backtracks
+                    i++;
+                }
+            }
+            boolean backtrackingRepeat = repeated && !possessive;
+            if (closed != null && backtrackingRepeat && !closed.atomic) {
+                String groupStr = regex.substring(closed.start, i);
+                if (closed.containsRepeat) {
+                    return "nested quantifier in " + groupStr + ", a repeated group contains a repeated element";
+                }
+                if (closed.alternativesOverlap()) {
+                    return "alternatives in repeated group " + groupStr + " can match the same text";
+                }
+            }
+            if (backtrackingRepeat || (closed != null && closed.containsRepeat && !closed.atomic)) {
+                top.containsRepeat = true;
+            }
+            top.setFirst(optional ? ANY : first);
+        }
+        return null;
+    }
+
+    /**
+     * @return the index after the end of the character class starting at i
+     */
+    private static int skipClass(String regex, int i) {
+        int length = regex.length();
+        int depth = 0;
+        i++;
+        if (i < length && regex.charAt(i) == '^') i++;
+        // a ] straight after the [ is a literal
+        if (i < length && regex.charAt(i) == ']') i++;
+        while (i < length) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') depth++;
+            if (c == ']') {
+                if (depth == 0) return i + 1;
+                depth--;
+            }
+            i++;
+        }
+        return length;
+    }
+
+}
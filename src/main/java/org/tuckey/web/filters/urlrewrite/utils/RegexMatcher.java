@@ -44,17 +44,28 @@ import java.util.regex.Matcher;
 public class RegexMatcher implements StringMatchingMatcher {
 
     private final Matcher matcher;
+    private final BoundedCharSequence input;
     private boolean found = false;
     protected boolean negated = false;
 
     public RegexMatcher(final Matcher matcher) {
+        this(matcher, null);
+    }
+
+    /**
+     * @param input what the matcher is matching against when each match has a step budget, otherwise null
+     */
+    public RegexMatcher(final Matcher matcher, final BoundedCharSequence input) {
         this.matcher = matcher;
+        this.input = input;
     }
 
     /**
      * @see Matcher#find
+     * @throws RegexBudgetExceededException if there is a step budget and it is used up
      */
     public boolean find() {
+        if (input != null) input.resetSteps();
         found = matcher.find();
         return isFound();
     }
@@ -73,6 +84,7 @@ public class RegexMatcher implements StringMatchingMatcher {
     }
 
     public String replaceAll(String replacement) {
+        if (input != null) input.resetSteps();
         String replaced = matcher.replaceAll(replacement);
         reset();
         return replaced;
@@ -39,28 +39,109 @@ import java.util.regex.PatternSyntaxException;
 
 /**
  * Simple wrapper for java.util.regex.Pattern.
+ * <p/>
+ * When lazy the expression is not compiled until the first time it is matched (or compile is called), an invalid
+ * expression is then logged and never matches.
+ * <p/>
+ * When a step budget is set each match can read at most that many characters (including re-reads when
+ * backtracking), after which a {@link RegexBudgetExceededException} is thrown.
  *
  * @see java.util.regex.Pattern
  */
-public class RegexPattern implements StringMatchingPattern {
+public class RegexPattern implements CompilablePattern {
 
-    protected final Pattern pattern;
+    private static Log log = Log.getLog(RegexPattern.class);
+
+    /**
+     * Used in place of an invalid lazy expression.
+     */
+    private static final Pattern NEVER_MATCHES = Pattern.compile("(?!)");
+
+    private final String patternStr;
+    private final boolean caseSensitive;
+    private volatile Pattern pattern;
+    private volatile boolean invalid = false;
+    private volatile long stepBudget = 0;
 
     public RegexPattern(String patternStr, boolean caseSensitive)
             throws StringMatchingPatternSyntaxException {
-        try {
-            if (caseSensitive) {
-                pattern = Pattern.compile(patternStr);
-            } else {
-                pattern = Pattern.compile(patternStr, Pattern.CASE_INSENSITIVE);
+        this(patternStr, caseSensitive, false);
+    }
+
+    public RegexPattern(String patternStr, boolean caseSensitive, boolean lazy)
+            throws StringMatchingPatternSyntaxException {
+        this.patternStr = patternStr;
+        this.caseSensitive = caseSensitive;
+        if (!lazy) {
+            try {
+                pattern = compilePattern();
+            } catch (PatternSyntaxException e) {
+                throw new StringMatchingPatternSyntaxException(e);
+            }
+        }
+    }
+
+    private Pattern compilePattern() {
+        if (caseSensitive) {
+            return Pattern.compile(patternStr);
+        } else {
+            return Pattern.compile(patternStr, Pattern.CASE_INSENSITIVE);
+        }
+    }
+
+    /**
+     * @return the compiled pattern, compiling it if needed, or null if the expression is invalid
+     */
+    protected Pattern getPattern() {
+        Pattern p = pattern;
+        if (p == null) {
+            synchronized (this) {
+                p = pattern;
+                if (p == null) {
+                    try {
+                        p = compilePattern();
+                    } catch (PatternSyntaxException e) {
+                        log.error("expression (" + patternStr + ") is invalid and will never match - " +
+                                e.getMessage());
+                        invalid = true;
+                        p = NEVER_MATCHES;
+                    }
+                    pattern = p;
+                }
             }
-        } catch (PatternSyntaxException e) {
-            throw new StringMatchingPatternSyntaxException(e);
         }
+        return invalid ? null : p;
+    }
+
+    public boolean isCompiled() {
+        return pattern != null;
+    }
+
+    public boolean compile() {
+        return getPattern() != null;
     }
 
     public StringMatchingMatcher matcher(String regex) {
-        return new RegexMatcher(pattern.matcher(regex));
+        Pattern p = getPattern();
+        if (p == null) p = NEVER_MATCHES;
+        if (stepBudget <= 0) return new RegexMatcher(p.matcher(regex));
+        BoundedCharSequence input = new BoundedCharSequence(regex, stepBudget, patternStr);
+        return new RegexMatcher(p.matcher(input), input);
+    }
+
+    public String getPatternStr() {
+        return patternStr;
+    }
+
+    public long getStepBudget() {
+        return stepBudget;
+    }
+
+    /**
+     * @param stepBudget the most characters each match can read, 0 for no limit
+     */
+    public void setStepBudget(long stepBudget) {
+        this.stepBudget = stepBudget;
     }
 
 }
@@ -36,9 +36,7 @@ package org.tuckey.web.filters.urlrewrite.utils;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Utility class for matching server names.
@@ -50,30 +48,30 @@ public class ServerNameMatcher {
 
     private static Log log = Log.getLog(ServerNameMatcher.class);
 
-    private List patterns = new ArrayList();
-    WildcardHelper wh = new WildcardHelper();
+    private final WildcardProgram[] patterns;
 
     public ServerNameMatcher(String options) {
         String[] enableOnHostsArr = options.split(",");
+        List patternList = new ArrayList();
         for (int i = 0; i < enableOnHostsArr.length; i++) {
             String s = enableOnHostsArr[i];
             if (StringUtils.isBlank(s)) continue;
             String rawPattern = StringUtils.trim(enableOnHostsArr[i]).toLowerCase();
-            int[] compiledPattern = wh.compilePattern(rawPattern);
-            patterns.add(compiledPattern);
+            patternList.add(WildcardProgram.compile(rawPattern));
         }
+        patterns = (WildcardProgram[]) patternList.toArray(new WildcardProgram[patternList.size()]);
     }
 
     public boolean isMatch(String serverName) {
-        log.debug("looking for hostname match on current server name " + serverName);
-        if (patterns == null || StringUtils.isBlank(serverName)) {
+        if (log.isDebugEnabled()) {
+            log.debug("looking for hostname match on current server name " + serverName);
+        }
+        if (StringUtils.isBlank(serverName)) {
             return false;
         }
         serverName = StringUtils.trim(serverName).toLowerCase();
-        for (int i = 0; i < patterns.size(); i++) {
-            int[] compiledPattern = (int[]) patterns.get(i);
-            Map map = new HashMap();
-            if (wh.match(map, serverName, compiledPattern)) return true;
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].matches(serverName)) return true;
         }
         return false;
     }
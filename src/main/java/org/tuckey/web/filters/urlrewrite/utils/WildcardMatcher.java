@@ -34,8 +34,6 @@
  */
 package org.tuckey.web.filters.urlrewrite.utils;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -48,22 +46,36 @@ public class WildcardMatcher implements StringMatchingMatcher {
     private static final Log log = Log.getLog(WildcardMatcher.class);
 
 
-    private WildcardHelper wh;
-    private int[] compiledPattern;
+    private final WildcardProgram program;
     private String matchStr;
-    private Map resultMap = new HashMap();
+    // start and end offsets of each group in matchStr, only turned into strings when asked for
+    private final int[] groups;
+    private int matchedGroupCount = 0;
     private boolean found = false;
 	private boolean negated = false;
 
 
     public WildcardMatcher(WildcardHelper wh, String patternStr, String matchStr) {
-        this.wh = wh;
-        this.compiledPattern = wh.compilePattern(patternStr);
+        this(new WildcardProgram(wh.compilePattern(patternStr)), matchStr);
+    }
+
+    /**
+     * @deprecated use WildcardMatcher(WildcardProgram, String) so the expression is only compiled once
+     */
+    public WildcardMatcher(WildcardHelper wh, int[] compiledPattern, String matchStr) {
+        this(new WildcardProgram(compiledPattern), matchStr);
+    }
+
+    public WildcardMatcher(WildcardProgram program, String matchStr) {
+        this.program = program;
+        this.groups = program.newGroups();
         this.matchStr = matchStr;
     }
 
     public boolean find() {
-        found = wh.match(resultMap, matchStr, compiledPattern);
+        int count = matchStr == null ? -1 : program.match(matchStr, groups);
+        found = count >= 0;
+        matchedGroupCount = found ? count : 0;
         return isFound();
     }
 
@@ -136,13 +148,13 @@ public class WildcardMatcher implements StringMatchingMatcher {
     }
 
     public int groupCount() {
-        if (resultMap == null) return 0;
-        return resultMap.size() == 0 ? 0 : resultMap.size() - 1;
+        return matchedGroupCount;
     }
 
     public String group(int groupId) {
-        if (resultMap == null) return null;
-        return (String) resultMap.get("" + groupId);
+        if (groupId == 0) return matchStr;
+        if (!found || groupId < 0 || groupId > matchedGroupCount) return null;
+        return matchStr.substring(groups[groupId * 2], groups[groupId * 2 + 1]);
     }
 
 	public int end() {
@@ -38,18 +38,44 @@ package org.tuckey.web.filters.urlrewrite.utils;
  * 
  * 
  */
-public class WildcardPattern implements StringMatchingPattern {
+public class WildcardPattern implements CompilablePattern {
 
-    WildcardHelper wh;
+    /**
+     * @deprecated not used for matching, patterns are compiled to a {@link WildcardProgram}
+     */
+    WildcardHelper wh = new WildcardHelper();
     private String patternStr;
+    private volatile WildcardProgram program;
 
     public WildcardPattern(String patternStr) {
-        this.wh = new WildcardHelper();
+        this(patternStr, false);
+    }
+
+    public WildcardPattern(String patternStr, boolean lazy) {
         this.patternStr = patternStr;
+        if (!lazy) compile();
+    }
+
+    public boolean isCompiled() {
+        return program != null;
     }
 
+    public boolean compile() {
+        getProgram();
+        return true;
+    }
+
+    private WildcardProgram getProgram() {
+        WildcardProgram p = program;
+        if (p == null) {
+            // compiling is idempotent and the program immutable so worst case two threads both compile
+            p = WildcardProgram.compile(patternStr);
+            program = p;
+        }
+        return p;
+    }
 
     public StringMatchingMatcher matcher(String matchStr) {
-        return new WildcardMatcher(wh, patternStr, matchStr);
+        return new WildcardMatcher(getProgram(), matchStr);
     }
 }
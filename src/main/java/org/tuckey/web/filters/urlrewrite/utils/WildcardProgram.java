@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.utils;
+
+/**
+ * A compiled wildcard expression.  Immutable, so one instance can be shared by every request.
+ * <p/>
+ * Matching works directly on the string being matched and records where each wildcard matched as start and end
+ * offsets in an int array, the matched text is only copied out if a group is asked for.
+ *
+ * @see WildcardHelper#compilePattern(String) for the expression syntax
+ */
+public class WildcardProgram {
+
+    private final int[] expr;
+    private final int groupCount;
+
+    /**
+     * Compile a wildcard expression.
+     */
+    public static WildcardProgram compile(String patternStr) {
+        return new WildcardProgram(new WildcardHelper().compilePattern(patternStr));
+    }
+
+    /**
+     * @param expr an expression compiled by WildcardHelper, copied so later changes to it have no effect
+     */
+    public WildcardProgram(int[] expr) {
+        int length = 0;
+        int wildcards = 0;
+        while (length < expr.length && expr[length] != WildcardHelper.MATCH_END
+                && expr[length] != WildcardHelper.MATCH_THEEND) {
+            if (expr[length] == WildcardHelper.MATCH_FILE || expr[length] == WildcardHelper.MATCH_PATH) wildcards++;
+            length++;
+        }
+        if (length == expr.length) throw new IllegalArgumentException("expression is not terminated");
+        this.expr = new int[length + 1];
+        System.arraycopy(expr, 0, this.expr, 0, length + 1);
+        this.groupCount = wildcards;
+    }
+
+    /**
+     * @return the most groups a match can have, excluding group 0 (the whole string)
+     */
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @return an array big enough to hold the offsets of every group
+     */
+    public int[] newGroups() {
+        return new int[(groupCount + 1) * 2];
+    }
+
+    public boolean matches(String data) {
+        return match(data, null) >= 0;
+    }
+
+    /**
+     * Match the whole of data.  The start and end offsets of group n are put at <code>groups[n * 2]</code> and
+     * <code>groups[n * 2 + 1]</code>, group 0 being the whole string.
+     *
+     * @param data   the string to match
+     * @param groups array from newGroups to put the group offsets in, or null if they aren't needed
+     * @return the number of groups matched (excluding group 0) or -1 if data doesn't match
+     */
+    public int match(String data, int[] groups) {
+        int length = data.length();
+        if (groups != null) {
+            groups[0] = 0;
+            groups[1] = length;
+        }
+
+        // the position of the current wildcard (MATCH_*) and of the literal before it in expr
+        int charpos = 0;
+        int exprpos = 0;
+        // the position in data
+        int datapos = 0;
+        int mcount = 0;
+
+        boolean matchBegin = false;
+        if (expr[charpos] == WildcardHelper.MATCH_BEGIN) {
+            matchBegin = true;
+            exprpos = ++charpos;
+        }
+        while (expr[charpos] >= 0) {
+            charpos++;
+        }
+        int exprchr = expr[charpos];
+
+        while (true) {
+            // check the literal before the current wildcard is at the current position
+            if (matchBegin) {
+                if (!regionMatches(expr, exprpos, charpos, data, datapos)) return -1;
+                matchBegin = false;
+            } else if (indexOf(expr, exprpos, charpos, data, datapos) < 0) {
+                return -1;
+            }
+            datapos += charpos - exprpos;
+
+            if (exprchr == WildcardHelper.MATCH_END) {
+                // don't care about the rest of data
+                return mcount;
+            } else if (exprchr == WildcardHelper.MATCH_THEEND) {
+                return datapos == length ? mcount : -1;
+            }
+
+            // find the literal after the wildcard
+            exprpos = ++charpos;
+            while (expr[charpos] >= 0) {
+                charpos++;
+            }
+            int prevchr = exprchr;
+            exprchr = expr[charpos];
+
+            // * matches up to the first occurrence, ** up to the last
+            int offset = prevchr == WildcardHelper.MATCH_FILE
+                    ? indexOf(expr, exprpos, charpos, data, datapos)
+                    : lastIndexOf(expr, exprpos, charpos, data, datapos);
+            if (offset < 0) return -1;
+            if (offset < datapos) offset = datapos;
+            if (prevchr == WildcardHelper.MATCH_FILE) {
+                // matching file, can't span '/'
+                for (int i = datapos; i < offset; i++) {
+                    if (data.charAt(i) == '/') return -1;
+                }
+            }
+            mcount++;
+            if (groups != null) {
+                groups[mcount * 2] = datapos;
+                groups[mcount * 2 + 1] = offset;
+            }
+            datapos = offset;
+        }
+    }
+
+    /**
+     * @return the offset in data of the first occurrence of expr from rpos to rend at or after dpos, the end of data
+     *         if the literal is empty or -1 if not found
+     */
+    static int indexOf(int[] expr, int rpos, int rend, CharSequence data, int dpos) {
+        int length = data.length();
+        if (rend == rpos) return length;
+        int literalLength = rend - rpos;
+        for (; dpos + literalLength <= length; dpos++) {
+            if (regionMatches(expr, rpos, rend, data, dpos)) return dpos;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset in data of the last occurrence of expr from rpos to rend at or after dpos, the end of data
+     *         if the literal is empty or -1 if not found
+     */
+    static int lastIndexOf(int[] expr, int rpos, int rend, CharSequence data, int dpos) {
+        int length = data.length();
+        if (rend == rpos) return length;
+        for (int l = length - (rend - rpos); l >= dpos; l--) {
+            if (regionMatches(expr, rpos, rend, data, l)) return l;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if data at dpos starts with expr from rpos to rend
+     */
+    static boolean regionMatches(int[] expr, int rpos, int rend, CharSequence data, int dpos) {
+        if (data.length() - dpos < rend - rpos) return false;
+        for (int i = rpos; i < rend; i++) {
+            if (expr[i] != data.charAt(dpos++)) return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockServletContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+public class ConfIncludeTest extends TestCase {
+
+    private static final String DOCTYPE = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+            "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n";
+
+    private File dir;
+    private MockServletContext context = new MockServletContext();
+
+    public void setUp() throws IOException {
+        Log.setLevel("DEBUG");
+        dir = File.createTempFile("urlrewrite-include", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) files[i].delete();
+        dir.delete();
+    }
+
+    public void testMatchesGlob() {
+        assertTrue(ConfInclude.matchesGlob("a.xml", "*.xml"));
+        assertTrue(ConfInclude.matchesGlob("redirects-1.xml", "redirects-?.xml"));
+        assertTrue(ConfInclude.matchesGlob("a.b.xml", "*.xml"));
+        assertTrue(ConfInclude.matchesGlob("a.xml", "*"));
+        assertFalse(ConfInclude.matchesGlob("a.xml.bak", "*.xml"));
+        assertFalse(ConfInclude.matchesGlob("redirects-10.xml", "redirects-?.xml"));
+    }
+
+    public void testIncludedRulesInOrder() throws IOException {
+        writeRules("b.xml", "<rule><from>^/b$</from><to>/b2</to></rule>");
+        writeRules("a.xml", "<rule><from>^/a$</from><to>/a2</to></rule>" +
+                "<outbound-rule><from>^/a2$</from><to>/a</to></outbound-rule>");
+        writeRules("notes.txt", "<rule><from>^/txt$</from><to>/txt2</to></rule>");
+        Conf conf = load(null);
+        assertTrue(conf.getErrors().toString(), conf.isOk());
+
+        List rules = conf.getRules();
+        assertEquals(4, rules.size());
+        assertEquals("^/first$", ((NormalRule) rules.get(0)).getFrom());
+        assertEquals("^/a$", ((NormalRule) rules.get(1)).getFrom());
+        assertEquals("^/b$", ((NormalRule) rules.get(2)).getFrom());
+        assertEquals("^/last$", ((NormalRule) rules.get(3)).getFrom());
+        assertEquals(1, conf.getOutboundRules().size());
+        assertEquals(2, conf.getIncludes().size());
+        assertFalse(conf.isIncludeModified());
+    }
+
+    public void testReloadOnlyChangedInclude() throws IOException {
+        writeRules("a.xml", "<rule><from>^/a$</from><to>/a2</to></rule>");
+        File b = writeRules("b.xml", "<rule><from>^/b$</from><to>/b2</to></rule>");
+        Conf first = load(null);
+        assertTrue(first.isOk());
+
+        long lastModified = b.lastModified();
+        writeRules("b.xml", "<rule><from>^/b$</from><to>/b3</to></rule>");
+        b.setLastModified(lastModified + 2000);
+        assertTrue(first.isIncludeModified());
+
+        Conf second = load(first);
+        assertTrue(second.getErrors().toString(), second.isOk());
+        ConfInclude aInclude = (ConfInclude) second.getIncludes().get(0);
+        ConfInclude bInclude = (ConfInclude) second.getIncludes().get(1);
+        assertTrue(aInclude.isReused());
+        assertFalse(bInclude.isReused());
+        // the core rules and the unchanged file's rule are reused, the changed file's rule is loaded again
+        assertEquals("/a2", ((NormalRule) second.getRules().get(1)).getTo());
+        assertSame(second.getRules().get(1), aInclude.getRules().get(0));
+        assertSame(first.getRules().get(1), ((ConfInclude) first.getIncludes().get(0)).getRules().get(0));
+        assertTrue(first.getRules().get(2) != second.getRules().get(2));
+        assertEquals("/b3", ((NormalRule) second.getRules().get(2)).getTo());
+        assertEquals(3, second.getReusedRuleCount());
+        assertFalse(second.isIncludeModified());
+    }
+
+    public void testAddedFileIsModified() throws IOException {
+        writeRules("a.xml", "<rule><from>^/a$</from><to>/a2</to></rule>");
+        Conf conf = load(null);
+        assertFalse(conf.isIncludeModified());
+        writeRules("b.xml", "<rule><from>^/b$</from><to>/b2</to></rule>");
+        assertTrue(conf.isIncludeModified());
+    }
+
+    public void testOnlyRulesCanBeIncluded() throws IOException {
+        writeRules("a.xml", "<virtual-host names=\"example.com\"><rule><from>^/a$</from><to>/a2</to></rule></virtual-host>");
+        Conf conf = load(null);
+        assertFalse(conf.isOk());
+        assertNotNull(((ConfInclude) conf.getIncludes().get(0)).getError());
+    }
+
+    public void testLiteralCountAfterReload() throws IOException {
+        writeRules("a.xml", "<rule><from>^/a$</from><to>/a2</to></rule>");
+        String xml = DOCTYPE + "<urlrewrite flatten-rules=\"true\">" +
+                "<rule><from>^/first$</from><to>/first2</to></rule>" +
+                "<include file=\"" + dir.getAbsolutePath() + "/*.xml\"/>" +
+                "</urlrewrite>";
+        Conf first = loadXml(xml, null);
+        assertTrue(first.getErrors().toString(), first.isOk());
+        assertEquals(2, first.getLiteralRulesCount());
+
+        Conf second = loadXml(xml, first);
+        assertTrue(second.getErrors().toString(), second.isOk());
+        assertEquals(2, second.getReusedRuleCount());
+        assertEquals(2, second.getLiteralRulesCount());
+    }
+
+    public void testMissingFile() {
+        Conf conf = loadXml(DOCTYPE + "<urlrewrite><include file=\"" + dir.getAbsolutePath() + "/missing.xml\"/>" +
+                "</urlrewrite>", null);
+        assertFalse(conf.isOk());
+    }
+
+    private Conf load(Conf previousConf) {
+        return loadXml(DOCTYPE + "<urlrewrite>" +
+                "<rule><from>^/first$</from><to>/first2</to></rule>" +
+                "<include file=\"" + dir.getAbsolutePath() + "/*.xml\"/>" +
+                "<rule><from>^/last$</from><to>/last2</to></rule>" +
+                "</urlrewrite>", previousConf);
+    }
+
+    private Conf loadXml(String xml, Conf previousConf) {
+        return new Conf(context, new ByteArrayInputStream(xml.getBytes()), "/WEB-INF/urlrewrite.xml",
+                "urlrewrite.xml", false, previousConf);
+    }
+
+    private File writeRules(String name, String rules) throws IOException {
+        File file = new File(dir, name);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(DOCTYPE + "<urlrewrite>" + rules + "</urlrewrite>");
+        writer.close();
+        return file;
+    }
+
+}
@@ -36,9 +36,15 @@ package org.tuckey.web.filters.urlrewrite;
 
 import junit.framework.TestCase;
 import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
 import org.tuckey.web.testhelper.MockServletContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 
@@ -143,5 +149,268 @@ public class ConfTest extends TestCase {
         assertFalse("a validation error should make the conf fail to load", conf.isOk());
     }
 
+    public void testParallelInitialise() {
+        Conf sequential = buildManyRulesConf(1, true);
+        Conf parallel = buildManyRulesConf(4, true);
+        assertTrue(sequential.isOk());
+        assertTrue(parallel.isOk());
+        assertEquals(1, sequential.getInitThreadsUsed());
+        assertEquals(4, parallel.getInitThreadsUsed());
+        assertSameRules(sequential, parallel);
+        assertTrue(parallel.getInitTimings().containsKey("rules"));
+        assertTrue(parallel.getInitTimings().containsKey("outbound rules"));
+    }
+
+    public void testParallelInitialiseBadRule() {
+        Conf sequential = buildManyRulesConf(1, false);
+        Conf parallel = buildManyRulesConf(4, false);
+        assertFalse(sequential.isOk());
+        assertFalse(parallel.isOk());
+        assertSameRules(sequential, parallel);
+    }
+
+    public void testLazyPatterns() {
+        Conf conf = new Conf();
+        conf.setPatternCompile(Conf.PATTERN_COMPILE_LAZY);
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^/a/([0-9]+)$");
+        rule.setTo("/b/$1");
+        Condition condition = new Condition();
+        condition.setName("user-agent");
+        condition.setValue("Mozilla");
+        rule.addCondition(condition);
+        conf.addRule(rule);
+        NormalRule badRule = new NormalRule();
+        badRule.setFrom("^/bad(");
+        badRule.setTo("/b");
+        conf.addRule(badRule);
+        conf.initialise();
+        assertTrue("invalid lazy expressions don't stop the conf loading", conf.isOk());
+        PatternPrecompiler precompiler = conf.getPatternPrecompiler();
+        assertNotNull(precompiler);
+        assertFalse(precompiler.isStarted());
+        assertEquals(3, precompiler.getPatternCount());
+        assertEquals(3, precompiler.getUncompiledCount());
+        assertTrue(rule.fromMatches("/a/1"));
+        assertEquals(2, precompiler.getUncompiledCount());
+        assertFalse(badRule.fromMatches("/bad("));
+        assertEquals(1, precompiler.getUncompiledCount());
+    }
+
+    public void testBackgroundPatterns() throws InterruptedException {
+        Conf conf = buildManyRulesConfPatternCompile(Conf.PATTERN_COMPILE_BACKGROUND);
+        assertTrue(conf.isOk());
+        PatternPrecompiler precompiler = conf.getPatternPrecompiler();
+        assertTrue(precompiler.isStarted());
+        for (int i = 0; i < 100 && !precompiler.isFinished(); i++) Thread.sleep(50);
+        assertTrue(precompiler.isFinished());
+        assertEquals(0, precompiler.getUncompiledCount());
+        assertEquals(400, precompiler.getPatternCount());
+        conf.destroy();
+    }
+
+    public void testEagerPatterns() {
+        Conf conf = buildManyRulesConfPatternCompile(Conf.PATTERN_COMPILE_EAGER);
+        assertTrue(conf.isOk());
+        assertNull(conf.getPatternPrecompiler());
+    }
+
+    private Conf buildManyRulesConfPatternCompile(String patternCompile) {
+        Conf conf = new Conf();
+        conf.setPatternCompile(patternCompile);
+        for (int i = 0; i < 200; i++) {
+            NormalRule rule = new NormalRule();
+            rule.setFrom("^/page" + i + "/([0-9]+)$");
+            rule.setTo("/content.jsp?page=" + i + "&id=$1");
+            conf.addRule(rule);
+            OutboundRule outboundRule = new OutboundRule();
+            outboundRule.setFrom("^/content.jsp\\?page=" + i + "$");
+            outboundRule.setTo("/page" + i);
+            conf.addOutboundRule(outboundRule);
+        }
+        conf.initialise();
+        return conf;
+    }
+
+    public void testParallelInitialiseFewRules() {
+        Conf conf = new Conf();
+        conf.setInitThreads(4);
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^/a$");
+        rule.setTo("/b");
+        conf.addRule(rule);
+        conf.initialise();
+        assertTrue(conf.isOk());
+        assertEquals("not enough rules to be worth using threads", 1, conf.getInitThreadsUsed());
+    }
+
+    private Conf buildManyRulesConf(int initThreads, boolean allGood) {
+        Conf conf = new Conf();
+        conf.setInitThreads(initThreads);
+        for (int i = 0; i < 2000; i++) {
+            NormalRule rule = new NormalRule();
+            // a few broken regexps spread through the rules
+            rule.setFrom(!allGood && i % 300 == 7 ? "^/bad(" + i + "$" : "^/page" + i + "/([0-9]+)$");
+            rule.setTo("/content.jsp?page=" + i + "&id=$1");
+            conf.addRule(rule);
+            OutboundRule outboundRule = new OutboundRule();
+            outboundRule.setFrom("^/content.jsp\\?page=" + i + "$");
+            outboundRule.setTo("/page" + i);
+            conf.addOutboundRule(outboundRule);
+        }
+        conf.initialise();
+        return conf;
+    }
+
+    public void testReloadReusesUnchangedRules() {
+        MockServletContext context = new MockServletContext();
+        Conf first = loadXml(context, RELOAD_XML_START + "<to>/b</to></rule>" + RELOAD_XML_END, null);
+        assertTrue(first.isOk());
+        Conf second = loadXml(context, RELOAD_XML_START + "<to>/c</to></rule>" + RELOAD_XML_END, first);
+        assertTrue(second.isOk());
+
+        // reused rules are copies, the first conf may still be in use
+        NormalRule reused = (NormalRule) second.getRules().get(0);
+        assertTrue(first.getRules().get(0) != reused);
+        assertEquals("/same", reused.getTo());
+        NormalRule changed = (NormalRule) second.getRules().get(1);
+        assertTrue(first.getRules().get(1) != changed);
+        assertEquals("/c", changed.getTo());
+        assertSame(((RuleBase) first.getRules().get(1)).getRuns().get(0), changed.getRuns().get(0));
+        assertEquals("/unchanged", ((OutboundRule) second.getOutboundRules().get(0)).getTo());
+        assertEquals(2, second.getReusedRuleCount());
+        assertEquals(1, second.getReusedRunCount());
+    }
+
+    public void testReloadLeavesPreviousRulesAlone() {
+        MockServletContext context = new MockServletContext();
+        String start = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+                "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n" +
+                "<urlrewrite collapse-redirects=\"true\">" +
+                "<upstream name=\"api\"><server url=\"http://127.0.0.1:9001\"/></upstream>";
+        String rules = "<rule><from>^/a$</from><to type=\"permanent-redirect\" last=\"true\">/b</to></rule>" +
+                "<rule><from>^/api/(.*)$</from><to type=\"proxy\">upstream:api/$1</to></rule>";
+        Conf first = loadXml(context, start + rules +
+                "<rule><from>^/b$</from><to type=\"permanent-redirect\">/c</to></rule></urlrewrite>", null);
+        assertTrue(first.getErrors().toString(), first.isOk());
+        Conf second = loadXml(context, start + "<rule><from>^/new$</from><to>/new.jsp</to></rule>" + rules +
+                "<rule><from>^/b$</from><to type=\"permanent-redirect\">/d</to></rule></urlrewrite>", first);
+        assertTrue(second.getErrors().toString(), second.isOk());
+        assertEquals(2, second.getReusedRuleCount());
+
+        NormalRule firstRedirect = (NormalRule) first.getRules().get(0);
+        NormalRule firstProxy = (NormalRule) first.getRules().get(1);
+        assertEquals(0, firstRedirect.getId());
+        assertEquals("/c", firstRedirect.getCollapsedTo());
+        assertEquals(1, firstProxy.getId());
+        assertSame(first.getUpstreams().get("api"), firstProxy.getUpstream());
+
+        NormalRule secondRedirect = (NormalRule) second.getRules().get(1);
+        NormalRule secondProxy = (NormalRule) second.getRules().get(2);
+        assertEquals(1, secondRedirect.getId());
+        assertEquals("/d", secondRedirect.getCollapsedTo());
+        assertEquals(2, secondProxy.getId());
+        assertSame(second.getUpstreams().get("api"), secondProxy.getUpstream());
+        first.retire();
+        second.retire();
+    }
+
+    public void testReloadedRuleUsesNewMaps() throws Exception {
+        File first = writeMap("/a /first\n");
+        File second = writeMap("/a /second\n");
+        try {
+            MockServletContext context = new MockServletContext();
+            String start = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                    "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+                    "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n<urlrewrite>";
+            String rules = "<rule><from>^(/.*)$</from><to>${map:pages:$1|/missing}</to></rule></urlrewrite>";
+            Conf firstConf = loadXml(context, start + "<map name=\"pages\" file=\"" + first.getAbsolutePath() +
+                    "\"/>" + rules, null);
+            assertTrue(firstConf.getErrors().toString(), firstConf.isOk());
+            Conf secondConf = loadXml(context, start + "<map name=\"pages\" file=\"" + second.getAbsolutePath() +
+                    "\"/>" + rules, firstConf);
+            assertTrue(secondConf.getErrors().toString(), secondConf.isOk());
+            assertEquals(1, secondConf.getReusedRuleCount());
+
+            MockRequest request = new MockRequest("/a");
+            NormalRule firstRule = (NormalRule) firstConf.getRules().get(0);
+            NormalRule secondRule = (NormalRule) secondConf.getRules().get(0);
+            assertEquals("/first", firstRule.matches("/a", request, new MockResponse()).getTarget());
+            assertEquals("/second", secondRule.matches("/a", request, new MockResponse()).getTarget());
+
+            // and with the map gone the default is used
+            Conf thirdConf = loadXml(context, start + rules, secondConf);
+            assertEquals(1, thirdConf.getReusedRuleCount());
+            NormalRule thirdRule = (NormalRule) thirdConf.getRules().get(0);
+            assertEquals("/missing", thirdRule.matches("/a", request, new MockResponse()).getTarget());
+        } finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    private static File writeMap(String content) throws IOException {
+        File file = File.createTempFile("urlrewrite-map", ".txt");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+        return file;
+    }
+
+    public void testReloadDoesNotReuseWhenSettingsChange() {
+        MockServletContext context = new MockServletContext();
+        String rules = "<to>/b</to></rule>" + RELOAD_XML_END;
+        Conf first = loadXml(context, RELOAD_XML_START + rules, null);
+        Conf second = loadXml(context, RELOAD_XML_START.replaceFirst("<urlrewrite>",
+                "<urlrewrite default-match-type=\"wildcard\">") + rules, first);
+        assertTrue(second.isOk());
+        assertTrue(first.getRules().get(0) != second.getRules().get(0));
+        assertEquals(0, second.getReusedRuleCount());
+    }
+
+    public void testReloadDoesNotReuseFromOtherContext() {
+        String xml = RELOAD_XML_START + "<to>/b</to></rule>" + RELOAD_XML_END;
+        Conf first = loadXml(new MockServletContext(), xml, null);
+        Conf second = loadXml(new MockServletContext(), xml, first);
+        assertTrue(second.isOk());
+        assertEquals(0, second.getReusedRuleCount());
+        assertEquals(0, second.getReusedRunCount());
+    }
+
+    private static final String RELOAD_XML_START = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 3.2//EN\" " +
+            "\"http://www.tuckey.org/res/dtds/urlrewrite3.2.dtd\">\n" +
+            "<urlrewrite>" +
+            "<rule><from>^/unchanged$</from><to>/same</to></rule>" +
+            "<rule><from>^/changed$</from>" +
+            "<run class=\"org.tuckey.web.filters.urlrewrite.test.TestRunObj\"/>";
+
+    private static final String RELOAD_XML_END = "<outbound-rule><from>^/same$</from><to>/unchanged</to></outbound-rule>" +
+            "</urlrewrite>";
+
+    private Conf loadXml(MockServletContext context, String xml, Conf previousConf) {
+        InputStream is = new ByteArrayInputStream(xml.getBytes());
+        return new Conf(context, is, "reload.xml", "reload.xml", false, previousConf);
+    }
+
+    private void assertSameRules(Conf expected, Conf actual) {
+        assertEquals(expected.getRules().size(), actual.getRules().size());
+        for (int i = 0; i < expected.getRules().size(); i++) {
+            NormalRule expectedRule = (NormalRule) expected.getRules().get(i);
+            NormalRule actualRule = (NormalRule) actual.getRules().get(i);
+            assertEquals(expectedRule.getId(), actualRule.getId());
+            assertEquals(expectedRule.isValid(), actualRule.isValid());
+            assertEquals(expectedRule.getErrors(), actualRule.getErrors());
+        }
+        for (int i = 0; i < expected.getOutboundRules().size(); i++) {
+            OutboundRule expectedRule = (OutboundRule) expected.getOutboundRules().get(i);
+            OutboundRule actualRule = (OutboundRule) actual.getOutboundRules().get(i);
+            assertEquals(expectedRule.getId(), actualRule.getId());
+            assertEquals(expectedRule.isValid(), actualRule.isValid());
+        }
+        assertEquals(expected.getErrors(), actual.getErrors());
+    }
+
 }
 
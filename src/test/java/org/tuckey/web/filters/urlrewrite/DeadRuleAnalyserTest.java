@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+import java.util.List;
+
+public class DeadRuleAnalyserTest extends TestCase {
+
+    private Conf conf;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+        conf = new Conf();
+        conf.setRemoveDeadRulesEnabled(true);
+    }
+
+    private NormalRule addRule(String from, String to, boolean last) {
+        NormalRule rule = new NormalRule();
+        rule.setFrom(from);
+        rule.setTo(to);
+        rule.setToType("permanent-redirect");
+        if (last) rule.setToLast("true");
+        conf.addRule(rule);
+        return rule;
+    }
+
+    private static Condition addCondition(NormalRule rule, String type, String operator, String value) {
+        Condition condition = new Condition();
+        condition.setType(type);
+        condition.setOperator(operator);
+        condition.setValue(value);
+        rule.addCondition(condition);
+        return condition;
+    }
+
+    private void assertDead(Rule rule) {
+        List deadRules = conf.getDeadRules();
+        for (int i = 0; i < deadRules.size(); i++) {
+            if (((DeadRuleAnalyser.DeadRule) deadRules.get(i)).getRule() == rule) {
+                Rule[] runtimeRules = conf.getRuntimeRules();
+                for (int j = 0; j < runtimeRules.length; j++) {
+                    assertTrue(rule.getDisplayName() + " is still run", runtimeRules[j] != rule);
+                }
+                return;
+            }
+        }
+        fail(rule.getDisplayName() + " is not dead");
+    }
+
+    public void testDisabled() {
+        NormalRule rule = addRule("^/a$", "/b", true);
+        rule.setEnabled(false);
+        NormalRule live = addRule("^/c$", "/d", true);
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertDead(rule);
+        assertEquals(1, conf.getRuntimeRules().length);
+        assertSame(live, conf.getRuntimeRules()[0]);
+        assertEquals("not enabled", ((DeadRuleAnalyser.DeadRule) conf.getDeadRules().get(0)).getReason());
+    }
+
+    public void testShadowedByEveryUrlRule() throws Exception {
+        addRule("^/a$", "/b", true);
+        addRule("^(.*)", "/everything", true);
+        NormalRule shadowed = addRule("^/c$", "/d", true);
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertDead(shadowed);
+
+        RewrittenUrl rewrittenUrl = new UrlRewriter(conf).processRequest(new MockRequest("/c"), new MockResponse());
+        assertEquals("/everything", rewrittenUrl.getTarget());
+    }
+
+    public void testEveryUrlRuleWithConditionDoesNotShadow() {
+        NormalRule everything = addRule("^(.*)", "/everything", true);
+        addCondition(everything, "header", "equal", "x");
+        addRule("^/c$", "/d", true);
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testAnchoredDotStarDoesNotShadow() {
+        // . doesn't match line terminators so this doesn't match every url
+        addRule("^.*$", "/everything", true);
+        addRule("^/c$", "/d", true);
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testNotLastDoesNotShadow() {
+        addRule("^(.*)", "/everything", false);
+        addRule("^/c$", "/d", true);
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testDuplicate() throws Exception {
+        NormalRule first = addRule("^/a$", "/b", true);
+        addCondition(first, "method", "equal", "POST");
+        addRule("^/x$", "/y", true);
+        NormalRule duplicate = addRule("^/a$", "/c", true);
+        addCondition(duplicate, "method", "equal", "POST");
+        NormalRule differentCondition = addRule("^/a$", "/d", true);
+        addCondition(differentCondition, "method", "equal", "GET");
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertDead(duplicate);
+    }
+
+    public void testDuplicateAfterNotLastRuleKept() {
+        addRule("^/a$", "/b", true);
+        addRule("^/x$", "/a", false);
+        addRule("^/a$", "/c", true);
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testDuplicateOfNotLastRuleKept() {
+        addRule("^/a$", "/a", false);
+        addRule("^/a$", "/c", true);
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testDuplicateWithTimeConditionKept() {
+        NormalRule first = addRule("^/a$", "/b", true);
+        addCondition(first, "hourofday", "greater", "12");
+        NormalRule second = addRule("^/a$", "/c", true);
+        addCondition(second, "hourofday", "greater", "12");
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testContradictoryMethods() {
+        NormalRule rule = addRule("^/a$", "/b", true);
+        addCondition(rule, "method", "equal", "^GET$");
+        addCondition(rule, "method", "equal", "^POST$");
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertDead(rule);
+    }
+
+    public void testUnanchoredMethodsKept() {
+        // a method could contain both
+        NormalRule rule = addRule("^/a$", "/b", true);
+        addCondition(rule, "method", "equal", "GET");
+        addCondition(rule, "method", "equal", "POST");
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testOrConditionsKept() {
+        NormalRule rule = addRule("^/a$", "/b", true);
+        addCondition(rule, "method", "equal", "^GET$").setNext("or");
+        addCondition(rule, "method", "equal", "^POST$");
+        conf.initialise();
+        assertEquals(0, conf.getDeadRules().size());
+    }
+
+    public void testContradictoryPorts() {
+        NormalRule rule = addRule("^/a$", "/b", true);
+        addCondition(rule, "port", "greater", "8000");
+        addCondition(rule, "port", "less", "8001");
+        NormalRule possible = addRule("^/c$", "/d", true);
+        addCondition(possible, "port", "greater", "8000");
+        addCondition(possible, "port", "less", "8002");
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertDead(rule);
+    }
+
+    public void testEqualAndNotEqual() {
+        NormalRule rule = addRule("^/a$", "/b", true);
+        addCondition(rule, "header", "equal", "gzip").setName("Accept-Encoding");
+        addCondition(rule, "header", "notequal", "gzip").setName("Accept-Encoding");
+        NormalRule otherHeader = addRule("^/c$", "/d", true);
+        addCondition(otherHeader, "header", "equal", "gzip").setName("Accept-Encoding");
+        addCondition(otherHeader, "header", "notequal", "gzip").setName("Via");
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertDead(rule);
+    }
+
+    public void testNotRemovedUnlessEnabled() {
+        conf.setRemoveDeadRulesEnabled(false);
+        NormalRule rule = addRule("^/a$", "/b", true);
+        rule.setEnabled(false);
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertEquals(1, conf.getRuntimeRules().length);
+    }
+
+    public void testVirtualHostsOnlyCheckedPerRule() {
+        VirtualHost virtualHost = new VirtualHost("a.example.com");
+        NormalRule everything = addRule("^(.*)", "/everything", true);
+        virtualHost.addRule(everything);
+        conf.addVirtualHost(virtualHost);
+        addRule("^/c$", "/d", true);
+        NormalRule disabled = addRule("^/e$", "/f", true);
+        disabled.setEnabled(false);
+        conf.initialise();
+        assertEquals(1, conf.getDeadRules().size());
+        assertDead(disabled);
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+public class HotRuleBlockTest extends TestCase {
+
+    private Conf conf;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+        conf = new Conf();
+        conf.setReorderRulesEnabled(true);
+    }
+
+    private NormalRule addRule(String from, String to, boolean last) {
+        NormalRule rule = new NormalRule();
+        rule.setFrom(from);
+        rule.setTo(to);
+        rule.setToType("permanent-redirect");
+        if (last) rule.setToLast("true");
+        conf.addRule(rule);
+        return rule;
+    }
+
+    private String getTarget(String url) throws Exception {
+        RewrittenUrl rewrittenUrl = new UrlRewriter(conf).processRequest(new MockRequest(url), new MockResponse());
+        return rewrittenUrl == null ? null : rewrittenUrl.getTarget();
+    }
+
+    public void testBlocks() {
+        addRule("^/a$", "/x/a", true);
+        addRule("^/b$", "/x/b", true);
+        addRule("^/c/(.*)$", "/x/$1", true);
+        addRule("^/d$", "/x/d", true);
+        addRule("^/e$", "/x/e", true);
+        addRule("^/E$", "/x/E", true);
+        addRule("^/f$", "/x/f", false);
+        addRule("^/g$", "/x/g", false);
+        conf.initialise();
+        assertTrue(conf.isOk());
+        Rule[] rules = conf.getRuntimeRules();
+        // a b | c | d e | E | f g
+        assertEquals(5, rules.length);
+        assertTrue(rules[0] instanceof HotRuleBlock);
+        assertFalse(rules[1] instanceof HotRuleBlock);
+        assertEquals(2, ((HotRuleBlock) rules[2]).getRules().length);
+        assertFalse(rules[3] instanceof HotRuleBlock);
+        assertFalse(rules[4].isLast());
+        assertEquals(3, conf.getHotRuleBlocks().size());
+    }
+
+    public void testTargetMatchedInBlock() {
+        addRule("^/a$", "/b", false);
+        NormalRule b = addRule("^/b$", "/c", false);
+        addRule("^/c$", "/d", false);
+        addRule("^/d$", "/x", false);
+        addRule("^/e$", "/y", false);
+        conf.initialise();
+        Rule[] rules = conf.getRuntimeRules();
+        // a, b and c rewrite to urls other rules match so they have to stay where they are
+        assertEquals(4, rules.length);
+        assertSame(b, rules[1]);
+        assertTrue(rules[3] instanceof HotRuleBlock);
+    }
+
+    public void testSetsAndRunsNotReordered() {
+        addRule("^/a$", "/x/a", true);
+        NormalRule b = addRule("^/b$", "/x/b", true);
+        SetAttribute set = new SetAttribute();
+        set.setName("b");
+        set.setValue("1");
+        b.addSetAttribute(set);
+        addRule("^/c$", "/x/c", true);
+        conf.initialise();
+        assertEquals(3, conf.getRuntimeRules().length);
+        assertTrue(conf.getHotRuleBlocks().isEmpty());
+    }
+
+    public void testReorder() throws Exception {
+        addRule("^/a$", "/x/a", true);
+        addRule("^/b$", "/x/b", true);
+        NormalRule c = addRule("^/c$", "/x/c", true);
+        conf.initialise();
+        HotRuleBlock block = (HotRuleBlock) conf.getHotRuleBlocks().get(0);
+        for (int i = 0; i < HotRuleBlock.REORDER_INTERVAL - 1; i++) {
+            assertEquals("/x/c", getTarget("/c"));
+        }
+        assertEquals(0, block.getReorderCount());
+        assertEquals("/x/a", getTarget("/a"));
+        assertEquals(1, block.getReorderCount());
+        assertSame(c, block.getOrderedRules()[0]);
+        assertEquals((HotRuleBlock.REORDER_INTERVAL - 1) / 2 + 1, block.getOrderedHits()[0]);
+        assertEquals("/x/b", getTarget("/b"));
+        assertNull(getTarget("/d"));
+    }
+
+    public void testPinned() throws Exception {
+        NormalRule a = addRule("^/a$", "/x/a", true);
+        addRule("^/b$", "/x/b", true);
+        conf.initialise();
+        conf.setRuleOrderPinned(true);
+        for (int i = 0; i < HotRuleBlock.REORDER_INTERVAL; i++) {
+            getTarget("/b");
+        }
+        HotRuleBlock block = (HotRuleBlock) conf.getHotRuleBlocks().get(0);
+        assertEquals(0, block.getReorderCount());
+        assertSame(a, block.getOrderedRules()[0]);
+        assertEquals(HotRuleBlock.REORDER_INTERVAL, block.getOrderedHits()[1]);
+    }
+
+    public void testDisabled() {
+        conf.setReorderRulesEnabled(false);
+        addRule("^/a$", "/x/a", true);
+        addRule("^/b$", "/x/b", true);
+        conf.initialise();
+        assertEquals(2, conf.getRuntimeRules().length);
+    }
+
+}
@@ -115,4 +115,56 @@ public class PerformanceTest extends TestCase {
 
 
 
+    /**
+     * ServletEmulatingRewriter wraps each request as a servlet request for the rules, this measures what that costs
+     * over running the same rules on a container's request.  Each rule has a header condition so that the wrapper is
+     * called for every rule.  The emulation isn't meant to beat the filter, this only guards against it getting much
+     * slower.
+     */
+    public void testServletEmulationOverhead() throws IOException, ServletException, InvocationTargetException {
+        Log.setLevel("ERROR");
+        int testAmount = 20000;
+
+        Conf conf = new Conf();
+        for (int i = 0; i < 200; i++) {
+            NormalRule rule = new NormalRule();
+            Condition condition = new Condition();
+            condition.setName("X-Page");
+            condition.setValue("^" + i + "$");
+            rule.addCondition(condition);
+            rule.setFrom("^/page/([0-9]+)$");
+            rule.setTo("/content.jsp?id=$1");
+            conf.addRule(rule);
+        }
+        conf.initialise();
+        UrlRewriter urlRewriter = new UrlRewriter(conf);
+        ServletEmulatingRewriter emulating = new ServletEmulatingRewriter(conf);
+
+        MockRequest request = new MockRequest("/page/12");
+        request.setHeader("X-Page", "199");
+        SimpleRewriteRequest rewriteRequest = new SimpleRewriteRequest("GET", "/page/12");
+        rewriteRequest.addHeader("X-Page", "199");
+        // warm up
+        for (int i = 0; i < 2000; i++) {
+            assertNotNull(urlRewriter.processRequest(request, response));
+            assertEquals("/content.jsp?id=12", emulating.rewrite(rewriteRequest).getTarget());
+        }
+
+        long timeStart = System.currentTimeMillis();
+        for (int i = 0; i < testAmount; i++) {
+            urlRewriter.processRequest(request, response);
+        }
+        long filterTook = System.currentTimeMillis() - timeStart;
+
+        timeStart = System.currentTimeMillis();
+        for (int i = 0; i < testAmount; i++) {
+            emulating.rewrite(rewriteRequest);
+        }
+        long emulatingTook = System.currentTimeMillis() - timeStart;
+        System.out.println("filter took " + filterTook + "ms, emulation took " + emulatingTook + "ms for " + testAmount +
+                " requests");
+        assertTrue("emulation should take less than twice as long as the filter", emulatingTook < filterTook * 2);
+    }
+
+
 }
@@ -0,0 +1,415 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+import org.tuckey.web.testhelper.StubHttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class ProxyCacheTest extends TestCase {
+
+    private String cacheControl = "max-age=60";
+    private String etag = null;
+    private String vary = null;
+    private int version = 1;
+    private StubHttpServer server;
+    private ProxyCache cache = new ProxyCache(new MemoryProxyCacheStore(), 1024);
+    private File dir;
+
+    public void setUp() throws IOException {
+        Log.setLevel("DEBUG");
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) {
+                if (cacheControl != null) response.addHeader("Cache-Control", cacheControl);
+                if (vary != null) response.addHeader("Vary", vary);
+                if (etag != null) {
+                    response.addHeader("ETag", etag);
+                    if (etag.equals(request.getHeader("If-None-Match"))) {
+                        response.setStatus(304);
+                        return;
+                    }
+                }
+                response.setBody("v" + version);
+            }
+        });
+        dir = File.createTempFile("urlrewrite-proxycache", "");
+        dir.delete();
+    }
+
+    public void tearDown() throws IOException {
+        server.stop();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) delete(files[i]);
+        file.delete();
+    }
+
+    public void testFreshResponseServedFromCache() throws IOException {
+        assertEquals("v1", proxy(request()).getOutputStreamAsString());
+        version = 2;
+        MockResponse response = proxy(request());
+        assertEquals("v1", response.getOutputStreamAsString());
+        assertNotNull(response.getHeader("Age"));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getStoredCount());
+    }
+
+    public void testNoStoreNotCached() throws IOException {
+        cacheControl = "no-store, max-age=60";
+        proxy(request());
+        version = 2;
+        assertEquals("v2", proxy(request()).getOutputStreamAsString());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(2, cache.getNotStoredCount());
+        assertEquals(0, cache.getStore().getSize());
+    }
+
+    public void testRevalidatedWithEtag() throws IOException {
+        cacheControl = "no-cache";
+        etag = "\"a\"";
+        assertEquals("v1", proxy(request()).getOutputStreamAsString());
+        MockResponse response = proxy(request());
+        assertEquals(2, server.getRequestCount());
+        assertEquals("\"a\"", ((StubHttpServer.Request) server.getRequests().get(1)).getHeader("If-None-Match"));
+        assertEquals(200, response.getStatus());
+        assertEquals("v1", response.getOutputStreamAsString());
+        assertEquals(1, cache.getRevalidationCount());
+        assertEquals(1, cache.getNotModifiedCount());
+
+        etag = "\"b\"";
+        version = 2;
+        assertEquals("v2", proxy(request()).getOutputStreamAsString());
+        assertEquals(1, cache.getNotModifiedCount());
+    }
+
+    public void testStaleWhileRevalidate() throws Exception {
+        cacheControl = "max-age=0, stale-while-revalidate=60";
+        proxy(request());
+        version = 2;
+        assertEquals("v1", proxy(request()).getOutputStreamAsString());
+        assertEquals(1, cache.getStaleHitCount());
+        waitFor(new Condition() {
+            public boolean met() {
+                ProxyCacheEntry entry = cache.getStore().get(server.getUrl("/a"));
+                return entry != null && "v2".equals(new String(entry.getBody()));
+            }
+        });
+        assertEquals(2, server.getRequestCount());
+        assertEquals("v2", proxy(request()).getOutputStreamAsString());
+        assertTrue(cache.getBackgroundRevalidationCount() > 0);
+    }
+
+    public void testNoRevalidationAfterShutdown() throws Exception {
+        cacheControl = "max-age=0, stale-while-revalidate=60";
+        proxy(request());
+        cache.shutdown();
+        version = 2;
+        assertEquals("v1", proxy(request()).getOutputStreamAsString());
+        assertEquals("v1", proxy(request()).getOutputStreamAsString());
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, cache.getBackgroundRevalidationCount());
+        assertEquals(2, cache.getRevalidationsSkippedCount());
+    }
+
+    public void testClientConditionalRequest() throws IOException {
+        etag = "\"a\"";
+        proxy(request());
+        MockRequest conditional = request();
+        conditional.setHeader("If-None-Match", "\"a\"");
+        MockResponse response = proxy(conditional);
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getOutputStreamAsString());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void testClientConditionalHeadersNotUsedForStoredCopy() throws IOException {
+        etag = "\"a\"";
+        MockRequest conditional = request();
+        conditional.setHeader("If-None-Match", "\"a\"");
+        proxy(conditional);
+        assertNull(((StubHttpServer.Request) server.getRequests().get(0)).getHeader("If-None-Match"));
+        assertEquals("v1", proxy(request()).getOutputStreamAsString());
+    }
+
+    public void testVary() throws IOException {
+        vary = "Accept-Language";
+        proxy(request("en"));
+        proxy(request("en"));
+        assertEquals(1, server.getRequestCount());
+        proxy(request("fr"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testRequestNoCache() throws IOException {
+        proxy(request());
+        MockRequest noCache = request();
+        noCache.setHeader("Cache-Control", "no-cache");
+        version = 2;
+        assertEquals("v2", proxy(noCache).getOutputStreamAsString());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testBodyTooBigNotCached() throws IOException {
+        StringBuffer big = new StringBuffer();
+        for (int i = 0; i < 2000; i++) big.append('x');
+        server.stop();
+        final String body = big.toString();
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) {
+                response.addHeader("Cache-Control", "max-age=60");
+                response.setBody(body);
+            }
+        });
+        assertEquals(body, proxy(request()).getOutputStreamAsString());
+        assertEquals(body, proxy(request()).getOutputStreamAsString());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(2, cache.getNotStoredCount());
+    }
+
+    public void testFreshnessLifetime() {
+        long now = System.currentTimeMillis();
+        assertEquals(60000, lifetime(headers("Cache-Control", "max-age=60"), now));
+        assertEquals(50000, lifetime(headers("Cache-Control", "max-age=60", "Age", "10"), now));
+        assertEquals(30000, lifetime(headers("Cache-Control", "max-age=60, s-maxage=30"), now));
+        assertEquals(0, lifetime(headers("Cache-Control", "no-cache, max-age=60"), now));
+        String date = DateUtil.formatDate(new Date(now));
+        assertEquals(120000, lifetime(headers("Date", date, "Expires", DateUtil.formatDate(new Date(now + 120000))), now));
+        assertTrue(lifetime(headers("Date", date, "Expires", "0"), now) <= 0);
+        String tenDaysAgo = DateUtil.formatDate(new Date(now - 10L * 24 * 60 * 60 * 1000));
+        assertEquals(24 * 60 * 60 * 1000, lifetime(headers("Date", date, "Last-Modified", tenDaysAgo), now));
+        assertEquals(0, lifetime(headers("Date", date, "Last-Modified", tenDaysAgo, "Cache-Control", "must-revalidate"), now));
+        assertEquals(0, lifetime(new ArrayList(), now));
+    }
+
+    public void testCreate() {
+        long now = System.currentTimeMillis();
+        List none = Collections.EMPTY_LIST;
+        assertNull(ProxyCacheEntry.create(404, headers("Cache-Control", "max-age=60"), new byte[0], now, none));
+        assertNull(ProxyCacheEntry.create(200, headers("Cache-Control", "private, max-age=60"), new byte[0], now, none));
+        assertNull(ProxyCacheEntry.create(200, headers("Cache-Control", "max-age=60", "Vary", "*"), new byte[0], now, none));
+        assertNull(ProxyCacheEntry.create(200, headers("Cache-Control", "no-cache"), new byte[0], now, none));
+        assertNotNull(ProxyCacheEntry.create(200, headers("Cache-Control", "no-cache", "ETag", "\"a\""), new byte[0], now, none));
+        ProxyCacheEntry entry = ProxyCacheEntry.create(200,
+                headers("Cache-Control", "max-age=60, stale-while-revalidate=30, must-revalidate"), new byte[0], now, none);
+        assertTrue(entry.isFresh(now + 59000));
+        assertFalse(entry.isStaleUsable(now + 61000));
+    }
+
+    public void testRevalidatedKeepsContentLength() {
+        long now = System.currentTimeMillis();
+        ProxyCacheEntry entry = ProxyCacheEntry.create(200,
+                headers("Cache-Control", "no-cache", "ETag", "\"a\"", "Content-Length", "2"), "v1".getBytes(), now,
+                Collections.EMPTY_LIST);
+        ProxyCacheEntry revalidated = entry.revalidated(
+                headers("Cache-Control", "max-age=60", "Content-Length", "0"), now);
+        assertEquals("2", ProxyCacheEntry.getHeader(revalidated.getHeaders(), "Content-Length"));
+        assertEquals("max-age=60", ProxyCacheEntry.getHeader(revalidated.getHeaders(), "Cache-Control"));
+        assertTrue(revalidated.isFresh(now + 1000));
+    }
+
+    public void testFileStore() throws IOException {
+        FileProxyCacheStore store = new FileProxyCacheStore(dir, 1024 * 1024);
+        List requestHeaders = headers("Accept-Language", "en");
+        ProxyCacheEntry entry = ProxyCacheEntry.create(200, headers("Cache-Control", "max-age=60", "Vary",
+                "Accept-Language", "ETag", "\"a\""), "hello".getBytes(), System.currentTimeMillis(), requestHeaders);
+        store.put("http://example.com/a", entry);
+        assertEquals(1, store.getSize());
+
+        ProxyCacheEntry read = store.get("http://example.com/a");
+        assertEquals("hello", new String(read.getBody()));
+        assertEquals("\"a\"", read.getEtag());
+        assertEquals(entry.getFreshUntil(), read.getFreshUntil());
+        assertTrue(read.matches(requestHeaders));
+        assertFalse(read.matches(headers("Accept-Language", "fr")));
+        assertNull(store.get("http://example.com/b"));
+
+        store.remove("http://example.com/a");
+        assertNull(store.get("http://example.com/a"));
+        assertEquals(0, store.getSize());
+        assertEquals(0, store.getBytes());
+    }
+
+    public void testFileStoresKeepApart() throws IOException {
+        FileProxyCacheStore first = new FileProxyCacheStore(dir, 1024 * 1024);
+        first.put("/a", entry("first"));
+        // as made by a reload while the first is still in use
+        FileProxyCacheStore second = new FileProxyCacheStore(dir, 1024 * 1024);
+        assertFalse(first.getDir().equals(second.getDir()));
+        assertEquals("first", new String(first.get("/a").getBody()));
+        assertNull(second.get("/a"));
+        second.put("/a", entry("second"));
+        assertEquals("first", new String(first.get("/a").getBody()));
+
+        first.destroy();
+        assertFalse(first.getDir().exists());
+        assertNull(first.get("/a"));
+        first.put("/b", entry("after destroy"));
+        assertFalse(first.getDir().exists());
+        assertEquals("second", new String(second.get("/a").getBody()));
+        second.destroy();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    public void testFileStoreRemovesAbandonedDirs() throws IOException {
+        File abandoned = new File(dir, "store-abandoned");
+        assertTrue(abandoned.mkdirs());
+        assertTrue(new File(abandoned, "lock").createNewFile());
+        assertTrue(new File(abandoned, "0123.proxycache").createNewFile());
+        FileProxyCacheStore store = new FileProxyCacheStore(dir, 1024 * 1024);
+        assertFalse(abandoned.exists());
+        assertTrue(store.getDir().exists());
+        store.destroy();
+    }
+
+    public void testMemoryStoreOverflowsToFiles() throws IOException {
+        FileProxyCacheStore files = new FileProxyCacheStore(dir, 1024 * 1024);
+        MemoryProxyCacheStore store = new MemoryProxyCacheStore(600, files);
+        for (int i = 0; i < 5; i++) store.put("/" + i, entry("body " + i));
+        assertTrue(store.getBytes() <= 600);
+        assertTrue(files.getSize() > 0);
+        assertEquals(5, store.getSize() + files.getSize());
+        // the least recently used is on disk, getting it moves it back to memory
+        assertNotNull(files.get("/0"));
+        assertEquals("body 0", new String(store.get("/0").getBody()));
+        assertNull(files.get("/0"));
+        for (int i = 0; i < 5; i++) assertEquals("body " + i, new String(store.get("/" + i).getBody()));
+    }
+
+    public void testConf() throws IOException {
+        Conf conf = loadConf("", "<rule><from>^/api/(.*)$</from><to type=\"proxy\" cache=\"true\">http://localhost/$1</to></rule>");
+        assertTrue(conf.getErrors().toString(), conf.isOk());
+        assertNotNull(conf.getProxyCache());
+        assertNull(((MemoryProxyCacheStore) conf.getProxyCache().getStore()).getOverflow());
+
+        conf = loadConf(" proxy-cache-size=\"1000\" proxy-cache-dir=\"" + dir.getAbsolutePath() + "\"",
+                "<rule><from>^/api/(.*)$</from><to type=\"proxy\" cache=\"true\">http://localhost/$1</to></rule>");
+        assertTrue(conf.getErrors().toString(), conf.isOk());
+        MemoryProxyCacheStore store = (MemoryProxyCacheStore) conf.getProxyCache().getStore();
+        assertEquals(1000, store.getMaxBytes());
+        File storeDir = ((FileProxyCacheStore) store.getOverflow()).getDir();
+        assertEquals(dir, storeDir.getParentFile());
+        conf.retire();
+        assertFalse(storeDir.exists());
+
+        assertNull(loadConf("", "<rule><from>^/a$</from><to type=\"proxy\" cache=\"false\">http://localhost/</to></rule>")
+                .getProxyCache());
+        assertFalse(loadConf("", "<rule><from>^/a$</from><to type=\"proxy\" cache=\"30s\">http://localhost/</to></rule>").isOk());
+        assertFalse(loadConf("", "<rule><from>^/a$</from><to type=\"proxy\" cache=\"true\" coalesce=\"true\">" +
+                "http://localhost/</to></rule>").isOk());
+        assertFalse(loadConf(" proxy-cache-store=\"org.example.Missing\"",
+                "<rule><from>^/a$</from><to type=\"proxy\" cache=\"true\">http://localhost/</to></rule>").isOk());
+        assertEquals(1, loadConf(" proxy-cache-size=\"lots\"", "").getErrors().size());
+    }
+
+    private Conf loadConf(String attributes, String rules) {
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+                "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n" +
+                "<urlrewrite" + attributes + ">" + rules + "</urlrewrite>";
+        return new Conf(null, new ByteArrayInputStream(xml.getBytes()), "urlrewrite.xml", "urlrewrite.xml");
+    }
+
+    private MockResponse proxy(MockRequest request) throws IOException {
+        MockResponse response = new MockResponse();
+        RequestProxy.execute(server.getUrl("/a"), request, response, cache);
+        return response;
+    }
+
+    private static MockRequest request() {
+        return new MockRequest("/a");
+    }
+
+    private static MockRequest request(String acceptLanguage) {
+        MockRequest request = new MockRequest("/a");
+        request.setHeader("Accept-Language", acceptLanguage);
+        return request;
+    }
+
+    private static ProxyCacheEntry entry(String body) {
+        return ProxyCacheEntry.create(200, headers("Cache-Control", "max-age=60"), body.getBytes(),
+                System.currentTimeMillis(), Collections.EMPTY_LIST);
+    }
+
+    private static long lifetime(List headers, long now) {
+        return ProxyCacheEntry.getFreshnessLifetime(headers, ProxyCacheEntry.getCacheControl(headers), now);
+    }
+
+    private static List headers(String name, String value) {
+        return headers(new String[]{name, value});
+    }
+
+    private static List headers(String name1, String value1, String name2, String value2) {
+        return headers(new String[]{name1, value1, name2, value2});
+    }
+
+    private static List headers(String name1, String value1, String name2, String value2, String name3, String value3) {
+        return headers(new String[]{name1, value1, name2, value2, name3, value3});
+    }
+
+    private static List headers(String[] namesAndValues) {
+        List headers = new ArrayList();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new Header(namesAndValues[i], namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 10000;
+        while (!condition.met() && System.currentTimeMillis() < giveUp) Thread.sleep(5);
+    }
+
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+import org.tuckey.web.testhelper.StubHttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ProxyCoalescerTest extends TestCase {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private String body = "hello";
+    private String vary = null;
+    private String cacheControl = null;
+    private StubHttpServer server;
+    private ProxyCoalescer coalescer = new ProxyCoalescer(1024);
+
+    public void setUp() throws IOException {
+        Log.setLevel("DEBUG");
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) throws Exception {
+                release.await(10, TimeUnit.SECONDS);
+                response.addHeader("X-Test", "stub");
+                if (vary != null) response.addHeader("Vary", vary);
+                if (cacheControl != null) response.addHeader("Cache-Control", cacheControl);
+                response.setBody(body);
+            }
+        });
+    }
+
+    public void tearDown() throws IOException {
+        release.countDown();
+        server.stop();
+    }
+
+    public void testConcurrentRequestsShareOneFetch() throws Exception {
+        List responses = proxyConcurrently(new MockRequest[]{request(null), request(null), request(null), request(null)},
+                10000);
+        assertEquals(1, server.getRequestCount());
+        for (int i = 0; i < responses.size(); i++) {
+            MockResponse response = (MockResponse) responses.get(i);
+            assertEquals("hello", response.getOutputStreamAsString());
+            assertEquals("stub", response.getHeader("X-Test"));
+        }
+        assertEquals(1, coalescer.getFetchCount());
+        assertEquals(3, coalescer.getSharedCount());
+    }
+
+    public void testVaryHeaderMismatchNotShared() throws Exception {
+        vary = "Accept-Language";
+        List responses = proxyConcurrently(new MockRequest[]{request("en"), request("en"), request("fr")}, 10000);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, coalescer.getSharedCount());
+        assertEquals(1, coalescer.getNotSharedCount());
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("hello", ((MockResponse) responses.get(i)).getOutputStreamAsString());
+        }
+    }
+
+    public void testVaryStarNotShared() throws Exception {
+        vary = "*";
+        proxyConcurrently(new MockRequest[]{request(null), request(null)}, 10000);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, coalescer.getSharedCount());
+    }
+
+    public void testPrivateResponseNotShared() throws Exception {
+        cacheControl = "max-age=60, private";
+        List responses = proxyConcurrently(new MockRequest[]{request(null), request(null)}, 10000);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, coalescer.getSharedCount());
+        assertEquals(1, coalescer.getNotSharedCount());
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("hello", ((MockResponse) responses.get(i)).getOutputStreamAsString());
+        }
+    }
+
+    public void testNoStoreResponseNotShared() throws Exception {
+        cacheControl = "no-store";
+        proxyConcurrently(new MockRequest[]{request(null), request(null)}, 10000);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, coalescer.getSharedCount());
+    }
+
+    public void testBodyTooBigNotShared() throws Exception {
+        coalescer = new ProxyCoalescer(4);
+        body = "hello world";
+        List responses = proxyConcurrently(new MockRequest[]{request(null), request(null)}, 10000);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, coalescer.getNotSharedCount());
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("hello world", ((MockResponse) responses.get(i)).getOutputStreamAsString());
+        }
+    }
+
+    public void testWaitTimesOut() throws Exception {
+        List responses = proxyConcurrently(new MockRequest[]{request(null), request(null)}, 1);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, coalescer.getTimedOutCount());
+        assertEquals("hello", ((MockResponse) responses.get(1)).getOutputStreamAsString());
+    }
+
+    public void testCanCoalesce() {
+        MockRequest request = new MockRequest("/a");
+        assertTrue(coalescer.canCoalesce(request));
+        request.setHeader("Authorization", "Basic dXNlcjpwYXNz");
+        assertFalse(coalescer.canCoalesce(request));
+        MockRequest post = new MockRequest("/a");
+        post.setMethod("POST");
+        assertFalse(coalescer.canCoalesce(post));
+    }
+
+    public void testConf() {
+        Conf conf = loadConf("<rule><from>^/api/(.*)$</from><to type=\"proxy\" coalesce=\"true\">http://localhost/$1</to></rule>" +
+                "<rule><from>^/other/(.*)$</from><to type=\"proxy\" coalesce=\"3s\">http://localhost/$1</to></rule>");
+        assertTrue(conf.getErrors().toString(), conf.isOk());
+        assertNotNull(conf.getProxyCoalescer());
+        assertEquals(ProxyCoalescer.DEFAULT_WAIT_MILLIS, ((NormalRule) conf.getRules().get(0)).getToCoalesceWaitMillis());
+        assertEquals(3000, ((NormalRule) conf.getRules().get(1)).getToCoalesceWaitMillis());
+
+        assertNull(loadConf("<rule><from>^/a$</from><to type=\"proxy\" coalesce=\"false\">http://localhost/</to></rule>")
+                .getProxyCoalescer());
+        assertFalse(loadConf("<rule><from>^/a$</from><to coalesce=\"true\">/b</to></rule>").isOk());
+        assertFalse(loadConf("<rule><from>^/a$</from><to type=\"proxy\" coalesce=\"soon\">http://localhost/</to></rule>").isOk());
+    }
+
+    private Conf loadConf(String rules) {
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+                "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n" +
+                "<urlrewrite>" + rules + "</urlrewrite>";
+        return new Conf(null, new ByteArrayInputStream(xml.getBytes()), "urlrewrite.xml", "urlrewrite.xml");
+    }
+
+    private static MockRequest request(String acceptLanguage) {
+        MockRequest request = new MockRequest("/a");
+        if (acceptLanguage != null) request.setHeader("Accept-Language", acceptLanguage);
+        return request;
+    }
+
+    /**
+     * Proxy the first request, once the stub has it proxy the rest and, once they are all waiting (or have timed
+     * out), let the stub respond.
+     */
+    private List proxyConcurrently(MockRequest[] requests, final long waitMillis) throws Exception {
+        final List responses = new ArrayList();
+        List threads = new ArrayList();
+        for (int i = 0; i < requests.length; i++) {
+            final MockRequest request = requests[i];
+            final MockResponse response = new MockResponse();
+            responses.add(response);
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        RequestProxy.execute(server.getUrl("/a"), request, response, coalescer, waitMillis);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+            if (i == 0) waitFor(new Condition() {
+                public boolean met() {
+                    return server.getRequestCount() == 1;
+                }
+            });
+        }
+        final int followers = requests.length - 1;
+        waitFor(new Condition() {
+            public boolean met() {
+                return coalescer.getWaitingCount() + coalescer.getTimedOutCount() == followers;
+            }
+        });
+        release.countDown();
+        for (int i = 0; i < threads.size(); i++) ((Thread) threads.get(i)).join(10000);
+        return responses;
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 10000;
+        while (!condition.met() && System.currentTimeMillis() < giveUp) Thread.sleep(5);
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+public class RedirectChainCollapserTest extends TestCase {
+
+    private Conf conf;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+        conf = new Conf();
+        conf.setCollapseRedirectsEnabled(true);
+    }
+
+    private NormalRule addRule(String from, String to, String type, boolean last) {
+        NormalRule rule = new NormalRule();
+        rule.setFrom(from);
+        rule.setTo(to);
+        rule.setToType(type);
+        if (last) rule.setToLast("true");
+        conf.addRule(rule);
+        return rule;
+    }
+
+    private String getTarget(String url) throws Exception {
+        RewrittenUrl rewrittenUrl = new UrlRewriter(conf).processRequest(new MockRequest(url), new MockResponse());
+        return rewrittenUrl == null ? null : rewrittenUrl.getTarget();
+    }
+
+    public void testCollapse() throws Exception {
+        addRule("^/b$", "/c", "permanent-redirect", true);
+        NormalRule a = addRule("^/a$", "/b", "permanent-redirect", false);
+        addRule("^/c$", "/d", "permanent-redirect", true);
+        conf.initialise();
+        assertTrue(conf.isOk());
+        assertEquals("/d", a.getCollapsedTo());
+        assertEquals("/d", getTarget("/a"));
+        assertEquals("/d", getTarget("/b"));
+        // /c is only a single hop so is left alone
+        assertEquals(2, conf.getRedirectChainCollapser().getCollapsed().size());
+        assertEquals(0, conf.getRedirectChainCollapser().getLoops().size());
+    }
+
+    public void testTemplatedHop() throws Exception {
+        NormalRule a = addRule("^/a$", "/b/x", "redirect", true);
+        addRule("^/b/(.*)$", "/c/$1", "temporary-redirect", true);
+        conf.initialise();
+        assertEquals("/c/x", a.getCollapsedTo());
+        assertEquals("/c/x", getTarget("/a"));
+    }
+
+    public void testContextPath() throws Exception {
+        NormalRule a = addRule("^/a$", "%{context-path}/b", "redirect", true);
+        addRule("^/b$", "%{context-path}/c", "redirect", true);
+        conf.initialise();
+        assertEquals("%{context-path}/c", a.getCollapsedTo());
+    }
+
+    public void testLoop() throws Exception {
+        NormalRule x = addRule("^/x$", "/y", "redirect", true);
+        addRule("^/y$", "/x", "redirect", true);
+        conf.initialise();
+        assertTrue(conf.isOk());
+        assertNull(x.getCollapsedTo());
+        assertEquals(2, conf.getRedirectChainCollapser().getLoops().size());
+        assertEquals("/y", getTarget("/x"));
+    }
+
+    public void testPermanentNotThroughTemporary() throws Exception {
+        NormalRule a = addRule("^/a$", "/b", "permanent-redirect", true);
+        addRule("^/b$", "/c", "temporary-redirect", true);
+        conf.initialise();
+        assertNull(a.getCollapsedTo());
+    }
+
+    public void testHopWithCondition() throws Exception {
+        NormalRule a = addRule("^/a$", "/b", "redirect", true);
+        NormalRule b = addRule("^/b$", "/c", "redirect", true);
+        Condition condition = new Condition();
+        condition.setType("method");
+        condition.setValue("GET");
+        b.addCondition(condition);
+        conf.initialise();
+        assertNull(a.getCollapsedTo());
+    }
+
+    public void testHopForwards() throws Exception {
+        NormalRule a = addRule("^/a$", "/b", "redirect", true);
+        addRule("^/b$", "/b.jsp", "forward", true);
+        conf.initialise();
+        assertNull(a.getCollapsedTo());
+    }
+
+    public void testLaterRuleAffected() throws Exception {
+        // /a is redirected to /b, processing continues and /b is redirected to /c in the same request
+        NormalRule a = addRule("^/a$", "/b", "redirect", false);
+        addRule("^/b$", "/c", "redirect", true);
+        conf.initialise();
+        assertNull(a.getCollapsedTo());
+        assertEquals("/c", getTarget("/a"));
+    }
+
+    public void testNotAnchored() throws Exception {
+        NormalRule a = addRule("^/a", "/b", "redirect", true);
+        addRule("^/b$", "/c", "redirect", true);
+        conf.initialise();
+        assertNull(a.getCollapsedTo());
+    }
+
+    public void testRegexStepBudgetExceeded() throws Exception {
+        conf.setRegexStepBudget(100000);
+        String evil = "/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!";
+        NormalRule a = addRule("^/a$", evil, "redirect", true);
+        addRule("^/(.*a){8}b$", "/words", "redirect", true);
+        addRule("^/aa+!$", "/c", "redirect", true);
+        conf.initialise();
+        assertTrue(conf.isOk());
+        // what the second rule would do is not known, so the chain is left alone
+        assertNull(a.getCollapsedTo());
+        assertEquals(evil, getTarget("/a"));
+    }
+
+    public void testDisabledByDefault() throws Exception {
+        conf.setCollapseRedirectsEnabled(false);
+        NormalRule a = addRule("^/a$", "/b", "redirect", true);
+        addRule("^/b$", "/c", "redirect", true);
+        conf.initialise();
+        assertNull(a.getCollapsedTo());
+        assertNull(conf.getRedirectChainCollapser());
+        assertEquals("/b", getTarget("/a"));
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.maps.HashFileBuilder;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+public class RedirectTableRuleTest extends TestCase {
+
+    private File csvFile;
+    private File hashFile;
+
+    public void setUp() throws IOException {
+        Log.setLevel("DEBUG");
+        csvFile = File.createTempFile("urlrewrite-table", ".csv");
+        hashFile = File.createTempFile("urlrewrite-table", ".hash");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8");
+        writer.write("/old/a,/new/a\n/old/b?x=1,http://example.com/b\n");
+        writer.close();
+        new HashFileBuilder().build(csvFile, hashFile);
+    }
+
+    public void tearDown() {
+        csvFile.delete();
+        hashFile.delete();
+    }
+
+    public void testPermanent() throws Exception {
+        RedirectTableRule rule = new RedirectTableRule();
+        rule.setFileStr(hashFile.getAbsolutePath());
+        assertTrue(rule.initialise(null));
+        assertEquals(2, rule.getSize());
+
+        NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches("/old/a", new MockRequest(), new MockResponse());
+        assertEquals("/new/a", rewrittenUrl.getTarget());
+        assertTrue(rewrittenUrl.isPermanentRedirect());
+        rewrittenUrl = (NormalRewrittenUrl) rule.matches("/old/b?x=1", new MockRequest(), new MockResponse());
+        assertEquals("http://example.com/b", rewrittenUrl.getTarget());
+        assertNull(rule.matches("/old/b", new MockRequest(), new MockResponse()));
+    }
+
+    public void testTemporary() throws Exception {
+        RedirectTableRule rule = new RedirectTableRule();
+        rule.setFileStr(hashFile.getAbsolutePath());
+        rule.setStatusStr("302");
+        assertTrue(rule.initialise(null));
+        NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches("/old/a", new MockRequest(), new MockResponse());
+        assertTrue(rewrittenUrl.isTemporaryRedirect());
+    }
+
+    public void testBadStatus() {
+        RedirectTableRule rule = new RedirectTableRule();
+        rule.setFileStr(hashFile.getAbsolutePath());
+        rule.setStatusStr("200");
+        assertFalse(rule.initialise(null));
+        assertEquals(1, rule.getErrors().size());
+    }
+
+    public void testInConf() throws Exception {
+        Conf conf = new Conf();
+        RedirectTableRule rule = new RedirectTableRule();
+        rule.setFileStr(hashFile.getAbsolutePath());
+        conf.addRule(rule);
+        NormalRule normalRule = new NormalRule();
+        normalRule.setFrom("^/old/(.*)$");
+        normalRule.setTo("/other/$1");
+        conf.addRule(normalRule);
+        conf.initialise();
+        assertTrue(conf.isOk());
+
+        UrlRewriter urlRewriter = new UrlRewriter(conf);
+        MockResponse response = new MockResponse();
+        assertTrue(urlRewriter.processRequest(new MockRequest("/old/a"), response, null));
+        assertEquals(301, response.getStatus());
+        assertEquals("/new/a", response.getHeader("Location"));
+        assertEquals("/other/c", urlRewriter.processRequest(new MockRequest("/old/c"), new MockResponse()).getTarget());
+    }
+}
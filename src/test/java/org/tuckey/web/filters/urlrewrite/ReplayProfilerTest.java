@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+public class ReplayProfilerTest extends TestCase {
+
+    private Conf conf;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+        conf = new Conf();
+    }
+
+    private NormalRule addRule(String from, String to) {
+        NormalRule rule = new NormalRule();
+        rule.setFrom(from);
+        rule.setTo(to);
+        rule.setToType("permanent-redirect");
+        conf.addRule(rule);
+        return rule;
+    }
+
+    private static String repeat(String line, int times) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < times; i++) sb.append(line).append('\n');
+        return sb.toString();
+    }
+
+    public void testParseCommonLog() {
+        ReplayProfiler.LogEntry entry = ReplayProfiler.LogEntry.parse(
+                "10.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"POST /a/b.html?x=1 HTTP/1.0\" 200 2326 " +
+                        "\"http://example.com/start\" \"Mozilla/4.08\"");
+        assertEquals("10.0.0.1", entry.remoteAddr);
+        assertEquals("POST", entry.method);
+        assertEquals("/a/b.html", entry.uri);
+        assertEquals("x=1", entry.queryString);
+        assertEquals("http://example.com/start", entry.referer);
+        assertEquals("Mozilla/4.08", entry.userAgent);
+    }
+
+    public void testParsePlainUrls() {
+        ReplayProfiler.LogEntry entry = ReplayProfiler.LogEntry.parse("/a/b");
+        assertEquals("GET", entry.method);
+        assertEquals("/a/b", entry.uri);
+        assertNull(entry.queryString);
+
+        entry = ReplayProfiler.LogEntry.parse("HEAD https://www.example.com:8443/c?d");
+        assertEquals("HEAD", entry.method);
+        assertEquals("https", entry.scheme);
+        assertEquals("www.example.com", entry.serverName);
+        assertEquals(8443, entry.port);
+        assertEquals("/c", entry.uri);
+        assertEquals("d", entry.queryString);
+
+        assertNull(ReplayProfiler.LogEntry.parse(""));
+        assertNull(ReplayProfiler.LogEntry.parse("# comment"));
+        assertNull(ReplayProfiler.LogEntry.parse("not-a-url"));
+    }
+
+    public void testReplay() throws Exception {
+        addRule("^/a$", "/x/a");
+        addRule("^/b/(.*)$", "/x/$1");
+        addRule("^/never$", "/x/never");
+        conf.initialise();
+        assertTrue(conf.isOk());
+
+        StringBuffer log = new StringBuffer();
+        for (int i = 0; i < 1000; i++) {
+            log.append("/a\n");
+            log.append("1.2.3.4 - - [10/Oct/2000:13:55:36 -0700] \"GET /b/" + i + " HTTP/1.1\" 200 10\n");
+            log.append("/other\n");
+        }
+        log.append("garbage\n");
+        ReplayProfiler profiler = new ReplayProfiler(conf, 3);
+        profiler.replay(new BufferedReader(new StringReader(log.toString())));
+
+        assertEquals(3000, profiler.getRequestCount());
+        assertEquals(2000, profiler.getRewrittenCount());
+        assertEquals(0, profiler.getErrorCount());
+        assertEquals(1, profiler.getSkippedCount());
+        assertEquals(3, profiler.getRules().length);
+        assertEquals(3000, profiler.getEvaluations(0));
+        assertEquals(1000, profiler.getMatches(0));
+        // rules aren't last so all are run
+        assertEquals(3000, profiler.getEvaluations(1));
+        assertEquals(1000, profiler.getMatches(1));
+        assertEquals(3000, profiler.getEvaluations(2));
+        assertEquals(0, profiler.getMatches(2));
+        assertEquals(1, profiler.getNeverMatchedRules().size());
+        assertSame(profiler.getRules()[2], profiler.getNeverMatchedRules().get(0));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        profiler.report(new PrintStream(out), 2);
+        String report = out.toString();
+        assertTrue(report, report.startsWith("3000 requests replayed"));
+        assertTrue(report, report.indexOf("1 rules never matched") != -1);
+    }
+
+    public void testReorderRules() throws Exception {
+        conf.setReorderRulesEnabled(true);
+        NormalRule a = addRule("^/a$", "/x/a");
+        NormalRule b = addRule("^/b$", "/x/b");
+        NormalRule c = addRule("^/c$", "/x/c");
+        conf.initialise();
+        assertTrue(conf.isOk());
+        assertEquals(1, conf.getHotRuleBlocks().size());
+
+        ReplayProfiler profiler = new ReplayProfiler(conf, 2);
+        profiler.replay(new BufferedReader(new StringReader(repeat("/b", 30) + repeat("/c", 10))));
+        // each rule in the block has its own numbers
+        assertEquals(3, profiler.getRules().length);
+        assertSame(a, profiler.getRules()[0]);
+        assertSame(b, profiler.getRules()[1]);
+        assertSame(c, profiler.getRules()[2]);
+        assertEquals(0, profiler.getMatches(0));
+        assertEquals(30, profiler.getMatches(1));
+        assertEquals(10, profiler.getMatches(2));
+        // rules aren't last so all are run
+        assertEquals(40, profiler.getEvaluations(0));
+        assertEquals(40, profiler.getEvaluations(1));
+        assertEquals(40, profiler.getEvaluations(2));
+    }
+
+    public void testWorkerDies() throws Exception {
+        NormalRule rule = new NormalRule() {
+            public RewrittenUrl matches(String url, HttpServletRequest hsRequest, HttpServletResponse hsResponse,
+                                        RuleChain chain) {
+                throw new OutOfMemoryError("test");
+            }
+        };
+        rule.setFrom("^/a$");
+        rule.setTo("/b");
+        conf.addRule(rule);
+        conf.initialise();
+
+        ReplayProfiler profiler = new ReplayProfiler(conf, 1);
+        try {
+            // more than the queue holds, so reading would block if the failure wasn't noticed
+            profiler.replay(new BufferedReader(new StringReader(repeat("/a", 10000))));
+            fail("should have thrown what the worker died of");
+        } catch (OutOfMemoryError e) {
+            assertEquals("test", e.getMessage());
+        }
+    }
+
+}
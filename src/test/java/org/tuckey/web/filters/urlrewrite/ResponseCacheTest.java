@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResponseCacheTest extends TestCase {
+
+    private ResponseCache cache = new ResponseCache(1024 * 1024);
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+    }
+
+    public void testForwardServedFromCache() throws IOException, ServletException {
+        RenderingDispatcher rq = new RenderingDispatcher("products 1", null, null);
+        MockResponse first = dispatch(true, "/products.jsp?id=1", rq);
+        MockResponse second = dispatch(true, "/products.jsp?id=1", rq);
+        assertEquals(1, rq.renders.get());
+        assertEquals("products 1", first.getOutputStreamAsString());
+        assertEquals("products 1", second.getOutputStreamAsString());
+        assertEquals("test", second.getHeader("X-Rendered-By"));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testKeyIncludesQueryString() throws IOException, ServletException {
+        RenderingDispatcher rq = new RenderingDispatcher("products", null, null);
+        MockRequest request = new MockRequest("/products/1");
+        request.setQueryString("sort=price");
+        String withQuery = ResponseCache.getKey(true, "/products.jsp?id=1", null, request);
+        assertFalse(withQuery.equals(ResponseCache.getKey(true, "/products.jsp?id=1", null, new MockRequest("/products/1"))));
+        assertFalse(withQuery.equals(ResponseCache.getKey(false, "/products.jsp?id=1", null, request)));
+        cache.dispatch(true, withQuery, 30000, rq, request, new MockResponse());
+        dispatch(true, "/products.jsp?id=1", rq);
+        assertEquals(2, rq.renders.get());
+    }
+
+    public void testIncludeServedFromCache() throws IOException, ServletException {
+        RenderingDispatcher rq = new RenderingDispatcher("menu", null, null);
+        dispatch(false, "/menu.jsp", rq);
+        MockResponse response = dispatch(false, "/menu.jsp", rq);
+        assertEquals(1, rq.renders.get());
+        assertEquals("menu", response.getOutputStreamAsString());
+        // the container ignores headers set by an include, so are they when served from the cache
+        assertNull(response.getHeader("X-Rendered-By"));
+    }
+
+    public void testNotCachedIfPrivateNoStoreOrCookies() throws IOException, ServletException {
+        assertNotCached(new RenderingDispatcher("a", "Cache-Control", "private, max-age=60"));
+        assertNotCached(new RenderingDispatcher("a", "Cache-Control", "no-store"));
+        assertNotCached(new RenderingDispatcher("a", "Set-Cookie", "session=1"));
+        RenderingDispatcher cookie = new RenderingDispatcher("a", null, null);
+        cookie.cookie = true;
+        assertNotCached(cookie);
+        RenderingDispatcher notFound = new RenderingDispatcher("a", null, null);
+        notFound.status = HttpServletResponse.SC_NOT_FOUND;
+        assertNotCached(notFound);
+        assertEquals(10, cache.getUncacheableCount());
+
+        RenderingDispatcher maxAge = new RenderingDispatcher("a", "Cache-Control", "max-age=60");
+        dispatch(true, "/a.jsp", maxAge);
+        dispatch(true, "/a.jsp", maxAge);
+        assertEquals(1, maxAge.renders.get());
+    }
+
+    private void assertNotCached(RenderingDispatcher rq) throws IOException, ServletException {
+        dispatch(true, "/a.jsp", rq);
+        MockResponse second = dispatch(true, "/a.jsp", rq);
+        assertEquals(2, rq.renders.get());
+        assertEquals("a", second.getOutputStreamAsString());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testOnlyGetCached() throws IOException, ServletException {
+        RenderingDispatcher rq = new RenderingDispatcher("a", null, null);
+        MockRequest request = new MockRequest("/a");
+        request.setMethod("POST");
+        String key = ResponseCache.getKey(true, "/a.jsp", null, request);
+        cache.dispatch(true, key, 30000, rq, request, new MockResponse());
+        cache.dispatch(true, key, 30000, rq, request, new MockResponse());
+        assertEquals(2, rq.renders.get());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testExpired() throws IOException, ServletException {
+        RenderingDispatcher rq = new RenderingDispatcher("a", null, null);
+        MockRequest request = new MockRequest("/a");
+        String key = ResponseCache.getKey(true, "/a.jsp", null, request);
+        cache.dispatch(true, key, -1, rq, request, new MockResponse());
+        cache.dispatch(true, key, -1, rq, request, new MockResponse());
+        assertEquals(2, rq.renders.get());
+    }
+
+    public void testLeastRecentlyUsedRemoved() {
+        ResponseCache small = new ResponseCache(400);
+        long expires = System.currentTimeMillis() + 30000;
+        small.put("a", new ResponseCache.Entry(expires, 200, null, new ArrayList(), new byte[100]));
+        small.put("b", new ResponseCache.Entry(expires, 200, null, new ArrayList(), new byte[100]));
+        small.put("c", new ResponseCache.Entry(expires, 200, null, new ArrayList(), new byte[100]));
+        assertNotNull(small.get("a"));
+        small.put("d", new ResponseCache.Entry(expires, 200, null, new ArrayList(), new byte[100]));
+        small.put("e", new ResponseCache.Entry(expires, 200, null, new ArrayList(), new byte[100]));
+        assertNotNull(small.get("a"));
+        assertNull(small.get("b"));
+        assertEquals(4, small.getSize());
+        assertEquals(400, small.getBytes());
+        assertEquals(1, small.getEvictedCount());
+        // too big to be worth caching
+        small.put("f", new ResponseCache.Entry(expires, 200, null, new ArrayList(), new byte[101]));
+        assertNull(small.get("f"));
+    }
+
+    public void testOnlyOneRequestRenders() throws Exception {
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RenderingDispatcher rq = new RenderingDispatcher("slow", null, null) {
+            public void forward(ServletRequest request, ServletResponse response) throws IOException {
+                rendering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+                super.forward(request, response);
+            }
+        };
+        final List outputs = new ArrayList();
+        List threads = new ArrayList();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        MockResponse response = dispatch(true, "/slow.jsp", rq);
+                        synchronized (outputs) {
+                            outputs.add(response.getOutputStreamAsString());
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+            // make sure the first thread is the one rendering
+            if (i == 0) rendering.await();
+        }
+        long giveUp = System.currentTimeMillis() + 10000;
+        while (cache.getCoalescedCount() < 3 && System.currentTimeMillis() < giveUp) Thread.sleep(10);
+        release.countDown();
+        for (int i = 0; i < threads.size(); i++) ((Thread) threads.get(i)).join(10000);
+
+        assertEquals(1, rq.renders.get());
+        assertEquals(3, cache.getCoalescedCount());
+        assertEquals(4, outputs.size());
+        for (int i = 0; i < outputs.size(); i++) assertEquals("slow", outputs.get(i));
+    }
+
+    public void testParseDuration() {
+        assertEquals(30000, NormalRule.parseDuration("30s"));
+        assertEquals(30000, NormalRule.parseDuration("30"));
+        assertEquals(500, NormalRule.parseDuration("500ms"));
+        assertEquals(5 * 60000, NormalRule.parseDuration("5m"));
+        assertEquals(3600000, NormalRule.parseDuration(" 1H "));
+        assertEquals(-1, NormalRule.parseDuration("soon"));
+        assertEquals(-1, NormalRule.parseDuration("-5s"));
+    }
+
+    public void testConf() throws Exception {
+        Conf conf = loadConf("<rule><from>^/products/([0-9]+)$</from><to cache=\"30s\">/products.jsp?id=$1</to></rule>" +
+                "<rule><from>^/other$</from><to>/other.jsp</to></rule>");
+        assertTrue(conf.getErrors().toString(), conf.isOk());
+        ResponseCache responseCache = conf.getResponseCache();
+        assertNotNull(responseCache);
+        assertEquals(30000, ((NormalRule) conf.getRules().get(0)).getToCacheMillis());
+
+        MockRequest request = new MockRequest("/products/1");
+        NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) ((NormalRule) conf.getRules().get(0))
+                .matches("/products/1", request, new MockResponse());
+        assertSame(responseCache, rewrittenUrl.getResponseCache());
+        rewrittenUrl = (NormalRewrittenUrl) ((NormalRule) conf.getRules().get(1))
+                .matches("/other", new MockRequest("/other"), new MockResponse());
+        assertNull(rewrittenUrl.getResponseCache());
+
+        assertNull(loadConf("<rule><from>^/other$</from><to>/other.jsp</to></rule>").getResponseCache());
+    }
+
+    public void testConfErrors() {
+        assertFalse(loadConf("<rule><from>^/a$</from><to type=\"redirect\" cache=\"30s\">/b</to></rule>").isOk());
+        assertFalse(loadConf("<rule><from>^/a$</from><to cache=\"soon\">/b</to></rule>").isOk());
+    }
+
+    private Conf loadConf(String rules) {
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+                "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n" +
+                "<urlrewrite>" + rules + "</urlrewrite>";
+        return new Conf(null, new ByteArrayInputStream(xml.getBytes()), "urlrewrite.xml", "urlrewrite.xml");
+    }
+
+    private MockResponse dispatch(boolean forward, String target, RequestDispatcher rq)
+            throws IOException, ServletException {
+        MockRequest request = new MockRequest("/a");
+        MockResponse response = new MockResponse();
+        cache.dispatch(forward, ResponseCache.getKey(forward, target, null, request), 30000, rq, request, response);
+        return response;
+    }
+
+    private static class RenderingDispatcher implements RequestDispatcher {
+        private final String body;
+        private final String headerName;
+        private final String headerValue;
+        private int status = HttpServletResponse.SC_OK;
+        private boolean cookie = false;
+        final AtomicInteger renders = new AtomicInteger();
+
+        RenderingDispatcher(String body, String headerName, String headerValue) {
+            this.body = body;
+            this.headerName = headerName;
+            this.headerValue = headerValue;
+        }
+
+        public void forward(ServletRequest request, ServletResponse response) throws IOException {
+            renders.incrementAndGet();
+            HttpServletResponse hsResponse = (HttpServletResponse) response;
+            hsResponse.setStatus(status);
+            hsResponse.setHeader("X-Rendered-By", "test");
+            if (headerName != null) hsResponse.addHeader(headerName, headerValue);
+            if (cookie) hsResponse.addCookie(new Cookie("session", "1"));
+            response.getOutputStream().write(body.getBytes("UTF-8"));
+        }
+
+        public void include(ServletRequest request, ServletResponse response) throws IOException {
+            renders.incrementAndGet();
+            ((HttpServletResponse) response).setHeader("X-Rendered-By", "test");
+            response.getOutputStream().write(body.getBytes("UTF-8"));
+        }
+    }
+
+}
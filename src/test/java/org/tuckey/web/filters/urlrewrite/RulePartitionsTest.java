@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+
+public class RulePartitionsTest extends TestCase {
+
+    private Conf conf;
+    private NormalRule postOnly;
+    private NormalRule httpsOnly;
+    private NormalRule port8080;
+    private NormalRule postOrHeader;
+    private NormalRule notGet;
+    private NormalRule plain;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+        conf = new Conf();
+        postOnly = addRule(new String[]{"method", "POST", null, null});
+        httpsOnly = addRule(new String[]{"scheme", "https", null, null});
+        port8080 = addRule(new String[]{"port", "8080", null, null});
+        // post or has a header, can't be left out for any method
+        postOrHeader = addRule(new String[]{"method", "POST", "or", null, "header", null, null, null, "X-Api"});
+        notGet = addRule(new String[]{"method", "GET", null, "notequal"});
+        plain = addRule(new String[0]);
+        conf.initialise();
+        assertTrue(conf.isOk());
+    }
+
+    /**
+     * @param conditions type, value, next, operator (then name for headers)
+     */
+    private NormalRule addRule(String[] conditions) {
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^/.*$");
+        rule.setTo("/to");
+        for (int i = 0; i < conditions.length; ) {
+            Condition condition = new Condition();
+            condition.setType(conditions[i++]);
+            condition.setValue(conditions[i++]);
+            condition.setNext(conditions[i++]);
+            condition.setOperator(conditions[i++]);
+            if ("header".equals(condition.getType())) condition.setName(conditions[i++]);
+            rule.addCondition(condition);
+        }
+        conf.addRule(rule);
+        return rule;
+    }
+
+    public void testGet() {
+        Rule[] rules = getRules("GET", "http", 80);
+        assertEquals(2, rules.length);
+        assertSame(postOrHeader, rules[0]);
+        assertSame(plain, rules[1]);
+    }
+
+    public void testPostHttps8080() {
+        Rule[] rules = getRules("POST", "https", 8080);
+        assertEquals(6, rules.length);
+        assertSame(postOnly, rules[0]);
+        assertSame(httpsOnly, rules[1]);
+        assertSame(port8080, rules[2]);
+        assertSame(notGet, rules[4]);
+    }
+
+    public void testOtherValues() {
+        // an unknown method, scheme and port can't rule anything out
+        Rule[] rules = getRules("PROPFIND", "ftp", 9090);
+        assertEquals(6, rules.length);
+        assertSame(getRules("PROPFIND", "ftp", 9091), getRules("MKCOL", "gopher", 9090));
+    }
+
+    public void testPartitionsReused() {
+        Rule[] rules = getRules("GET", "http", 80);
+        assertSame(rules, getRules("GET", "http", 80));
+        assertTrue(rules != getRules("GET", "http", 81));
+        assertSame(getRules("GET", "http", 81), getRules("GET", "http", 82));
+        RulePartitions partitions = (RulePartitions) conf.getRulePartitions().get(conf.getRuntimeRules());
+        assertEquals(5, partitions.getKeyedCount());
+        assertEquals(2, partitions.getPartitionCount());
+    }
+
+    public void testNoKeyedRules() {
+        Conf plainConf = new Conf();
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^/a$");
+        rule.setTo("/b");
+        plainConf.addRule(rule);
+        plainConf.initialise();
+        assertNull(plainConf.getRulePartitions());
+        MockRequest request = new MockRequest("/a");
+        assertSame(plainConf.getRuntimeRules(), plainConf.getRuntimeRules(request));
+    }
+
+    private Rule[] getRules(String method, String scheme, int port) {
+        MockRequest request = new MockRequest("/a");
+        request.setMethod(method);
+        request.setScheme(scheme);
+        request.setServerPort(port);
+        return conf.getRuntimeRules(request);
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+public class RulePrefilterTest extends TestCase {
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+    }
+
+    public void testRegexLiteralPrefix() {
+        assertEquals("/products/", RulePrefilter.getRegexLiteralPrefix("^/products/(.*)$"));
+        assertEquals("/a.b", RulePrefilter.getRegexLiteralPrefix("^/a\\.b$"));
+        assertEquals("/abc", RulePrefilter.getRegexLiteralPrefix("^/abcd?/"));
+        assertEquals("/abc", RulePrefilter.getRegexLiteralPrefix("^/abc+"));
+        assertEquals("/ab", RulePrefilter.getRegexLiteralPrefix("^/abc{2}"));
+        assertEquals("/", RulePrefilter.getRegexLiteralPrefix("^/\\d+"));
+        assertEquals("/img/", RulePrefilter.getRegexLiteralPrefix("^/img/(a|b)"));
+        assertNull(RulePrefilter.getRegexLiteralPrefix("/products/(.*)$"));
+        assertNull(RulePrefilter.getRegexLiteralPrefix("^/a|^/b"));
+        assertNull(RulePrefilter.getRegexLiteralPrefix("(?i)^/a"));
+    }
+
+    public void testWildcardLiteralPrefix() {
+        assertEquals("/products/", RulePrefilter.getWildcardLiteralPrefix("/products/**"));
+        assertEquals("/a*b/", RulePrefilter.getWildcardLiteralPrefix("/a\\*b/*"));
+        assertEquals("", RulePrefilter.getWildcardLiteralPrefix("**"));
+    }
+
+    public void testKey() {
+        assertEquals("/a/b/", RulePrefilter.getKey("/a/b/c/d"));
+        assertEquals("/a/b", RulePrefilter.getKey("/a/b"));
+        assertEquals("/abc", RulePrefilter.getKey("/abc"));
+    }
+
+    public void testMightMatch() {
+        Conf conf = new Conf();
+        conf.addRule(newRule("^/products/(.*)$", null));
+        conf.addRule(newRule("^/Legacy/page\\.html$", null));
+        conf.addRule(newRule("/shop/**", RuleBase.MATCH_TYPE_WILDCARD));
+        conf.setPrefilterEnabled(true);
+        conf.initialise();
+
+        RulePrefilter prefilter = conf.getPrefilter();
+        assertNotNull(prefilter);
+        assertEquals(3, prefilter.getKeyCount());
+        assertTrue(prefilter.mightMatch("/products/123"));
+        assertTrue(prefilter.mightMatch("/PRODUCTS/123"));
+        assertTrue(prefilter.mightMatch("/legacy/page.html"));
+        assertTrue(prefilter.mightMatch("/shop/a/b"));
+        assertFalse(prefilter.mightMatch("/static/app.js"));
+        assertFalse(prefilter.mightMatch("/"));
+        assertFalse(prefilter.mightMatch("/product"));
+        assertEquals(7, prefilter.getChecked());
+        assertEquals(3, prefilter.getRejected());
+    }
+
+    public void testNotBuiltWhenRuleHasNoPrefix() {
+        Conf conf = new Conf();
+        conf.addRule(newRule("^/products/(.*)$", null));
+        conf.addRule(newRule("\\.html$", null));
+        conf.setPrefilterEnabled(true);
+        conf.initialise();
+        assertTrue(conf.isOk());
+        assertNull(conf.getPrefilter());
+    }
+
+    public void testNotBuiltUnlessEnabled() {
+        Conf conf = new Conf();
+        conf.addRule(newRule("^/products/(.*)$", null));
+        conf.initialise();
+        assertNull(conf.getPrefilter());
+    }
+
+    public void testRewriter() throws IOException, ServletException, InvocationTargetException {
+        Conf conf = new Conf();
+        conf.addRule(newRule("^/products/(.*)$", null));
+        conf.setPrefilterEnabled(true);
+        conf.initialise();
+        UrlRewriter urlRewriter = new UrlRewriter(conf);
+
+        RewrittenUrl rewrittenUrl = urlRewriter.processRequest(new MockRequest("/products/abc"), new MockResponse());
+        assertEquals("/target/abc", rewrittenUrl.getTarget());
+        assertNull(urlRewriter.processRequest(new MockRequest("/images/abc.png"), new MockResponse()));
+        assertEquals(1, conf.getPrefilter().getRejected());
+    }
+
+    private static NormalRule newRule(String from, String matchType) {
+        NormalRule rule = new NormalRule();
+        rule.setFrom(from);
+        rule.setMatchType(matchType);
+        rule.setTo("/target/$1");
+        return rule;
+    }
+
+}
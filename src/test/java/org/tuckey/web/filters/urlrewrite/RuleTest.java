@@ -36,10 +36,12 @@ package org.tuckey.web.filters.urlrewrite;
 
 import junit.framework.TestCase;
 import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.RegexBudgetExceededException;
 import org.tuckey.web.testhelper.MockRequest;
 import org.tuckey.web.testhelper.MockResponse;
 import org.tuckey.web.testhelper.MockServletContext;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -59,11 +61,18 @@ public class RuleTest extends TestCase {
         request = new MockRequest();
     }
 
+    /**
+     * Overridden by LiteralFromRuleTest to run the same tests with rules as flatten-rules leaves them.
+     */
+    protected boolean initialise(RuleBase rule, ServletContext context) {
+        return rule.initialise(context);
+    }
+
     public void testRule01() throws IOException, ServletException, InvocationTargetException {
         NormalRule rule = new NormalRule();
         rule.setFrom("simple(ass)");
         rule.setTo("$1simple");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("simpleass");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
 
@@ -77,7 +86,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("simple(ass)");
         rule.setTo("$1simple");
         rule.setQueryStringAppend("true");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("simpleass");
         request.setQueryString("aaa=bbb");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
@@ -92,7 +101,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("simple(ass)");
         rule.setTo("$1simple?d=f");
         rule.setQueryStringAppend("true");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("simpleass");
         request.setQueryString("aaa=bbb");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
@@ -106,7 +115,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("^/visa.jsp/([0-9]+)$");
         rule.setTo("/visa.jsp?Idet=$1");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/visa.jsp/974210592");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
 
@@ -124,7 +133,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("/**");
         rule.setTo("/app/$1");
         rule.setMatchType("wildcard");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/$%7Bfavicon%7D");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
         assertEquals("forward should be default type", "forward", rule.getToType());
@@ -136,12 +145,12 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("from");
         rule.setTo("null");
-        rule.initialise(null);
+        initialise(rule, null);
         SetAttribute setAttribute1 = new SetAttribute();
         setAttribute1.setType("status");
         setAttribute1.setValue("302");
         rule.addSetAttribute(setAttribute1);
-        rule.initialise(null);
+        initialise(rule, null);
 
         MockRequest request = new MockRequest("from");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
@@ -155,7 +164,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("from");
         rule.setTo("to");
         rule.setToType("pre-include");
-        rule.initialise(null);
+        initialise(rule, null);
         request.setRequestURI("from");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
 
@@ -171,7 +180,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("([a-z])rom");
         rule.setTo("from match: $1, backref1: %1, backref2: %2, bad backref: %a % %99 %%88, escaped backref: \\%2");
         rule.addCondition(c);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setHeader("hdr", "aaafffccc");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -192,7 +201,7 @@ public class RuleTest extends TestCase {
         rule.setTo("from match: $1, backref1: %1, backref2: %2, bad backref: %a % %99 %%88, escaped backref: \\%2");
         rule.setMatchType("wildcard");
         rule.addCondition(c);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setHeader("hdr", "aaa-fff-cc-c");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -225,7 +234,7 @@ public class RuleTest extends TestCase {
         rule.setToType("redirect");
         rule.setToLast("true");
         rule.addCondition(c);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/from");
         request.setServerName("server.domain.com");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -245,7 +254,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("([a-z])rom");
         rule.setTo("$1 to %{remote-host} %1 here \\%2");
         rule.addCondition(c);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setRemoteHost("server!");
         request.addHeader("hdr", "aaabbbccc");
@@ -261,7 +270,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("from");
         rule.setTo("start ctx: %{context-path}, hdr: %{header:bananna} %{header:}%{::}%{%{}, escaped var: \\%{ignoreme!}, bad var: %{} %{wibble} end");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setContextPath("ctxpath");
         request.setRemoteHost("server!");
@@ -285,7 +294,7 @@ public class RuleTest extends TestCase {
         condition.setType("port");
         condition.setValue("aaa");
         rule.addCondition(condition);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
         assertNull(rewrittenUrl);
@@ -304,7 +313,7 @@ public class RuleTest extends TestCase {
         condition2.setType("port");
         condition2.setValue("99");
         rule.addCondition(condition2);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setServerPort(88);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -331,7 +340,7 @@ public class RuleTest extends TestCase {
         condition2.setType("character-encoding");
         condition2.setValue("utf8");
         rule.addCondition(condition2);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setServerPort(88);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -354,7 +363,7 @@ public class RuleTest extends TestCase {
         condition.setType("request-uri");
         condition.setValue("/hi-something-to-to.html");
         rule.addCondition(condition);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/hi-something-to-to.html");
         request.setServerPort(88);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -365,7 +374,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("fro[m");
         rule.setTo("to");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
         assertNull(rewrittenUrl);
@@ -379,7 +388,7 @@ public class RuleTest extends TestCase {
         condition.setName("agent");
         condition.setValue("aAa");
         rule.addCondition(condition);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.addHeader("agent", "aaa");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -392,7 +401,7 @@ public class RuleTest extends TestCase {
         rule.setEncodeToUrl(true);
         rule.setTo("to");
         rule.setToType("permanent-redirect");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
         assertTrue(rewrittenUrl.isEncode());
@@ -413,7 +422,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("from");
         rule.setTo("to");
         rule.setEnabled(false);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
         assertNull(rewrittenUrl);
@@ -424,7 +433,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("/countries/([a-z]+)/");
         rule.setTo("/countries/index.jsp?c=$1");
         rule.setToType("redirect");
-        rule.initialise(null);
+        initialise(rule, null);
 
         MockRequest request = new MockRequest("/countries/australia/");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
@@ -446,7 +455,7 @@ public class RuleTest extends TestCase {
         condition.setType("port");
         condition.setValue("5050");
         rule.addCondition(condition);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setServerPort(5050);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -463,7 +472,7 @@ public class RuleTest extends TestCase {
         condition.setOperator("notequal");
         condition.setValue("short\\.com");
         rule.addCondition(condition);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/blahurl");
         request.addHeader("host", "short.com");
 
@@ -480,7 +489,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("/$");
         rule.setTo("/opencms/opencms/index.html");
-        rule.initialise(null);
+        initialise(rule, null);
 
         MockRequest request = new MockRequest("/");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -496,7 +505,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("/~quux/foo$");
         rule.setTo("/~quux/foo/");
-        rule.initialise(null);
+        initialise(rule, null);
 
         MockRequest request = new MockRequest("/~quux/foo");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -507,7 +516,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("/products/([0-9]+)");
         rule.setTo("/index.jsp?product_id=$1");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/products/105874");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
         assertEquals("/index.jsp?product_id=105874", rewrittenUrl.getTarget());
@@ -518,7 +527,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("^/([a-z]+)/$");
         rule.setTo("/$1/index.jsp");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/dir/");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
         assertEquals("/dir/index.jsp", rewrittenUrl.getTarget());
@@ -530,7 +539,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("/article/([0-9]+)/([0-9]+)/([0-9]+)/([a-zA-Z0-9]+)/");
         rule.setTo("/article/index.jsp?year=$1&month=$2&day=$3&code=$4");
-        rule.initialise(null);
+        initialise(rule, null);
 
         MockRequest request = new MockRequest(uri);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -554,7 +563,7 @@ public class RuleTest extends TestCase {
         condition2.setValue("boss");
         condition2.setOperator("notequal");
         rule.addCondition(condition2);
-        rule.initialise(null);
+        initialise(rule, null);
 
         MockRequest request = new MockRequest("from");
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -577,7 +586,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("^/logo\\.gif$");
         rule.setToType("permanent-redirect");
         rule.setTo("http://de010009\\.de\\.ina\\.com:8080/urlrewrite/artifact_type\\.gif");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/logo.gif");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
         assertEquals("http://de010009.de.ina.com:8080/urlrewrite/artifact_type.gif", rewrittenUrl.getTarget());
@@ -592,7 +601,7 @@ public class RuleTest extends TestCase {
         rule.setEncodeToUrl(true);
         rule.setTo("$1");
         rule.setToType("permanent-redirect");
-        rule.initialise(null);
+        initialise(rule, null);
         String highStr = new String("\u00F6\u236a\u2E88".getBytes(), "UTF8");
         MockRequest request = new MockRequest("/aa?a=" + highStr);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -619,7 +628,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("/a\\.jsp");
         rule.setTo("/b.jsp");
         rule.addCondition(c);
-        rule.initialise(null);
+        initialise(rule, null);
         RewrittenUrl rewrittenUrl = rule.matches("/a.jsp", request, response);
         assertTrue(request.getCookies() == null);
         assertTrue(rewrittenUrl == null);
@@ -632,7 +641,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("/a\\.jsp");
         rule.setTo("/b.jsp");
         rule.addCondition(c);
-        rule.initialise(null);
+        initialise(rule, null);
         rewrittenUrl = rule.matches("/a.jsp", request, response);
         assertTrue(request.getCookies() == null);
         assertEquals("/b.jsp", rewrittenUrl.getTarget());
@@ -684,7 +693,7 @@ public class RuleTest extends TestCase {
         rule.setMatchType(" wildcard    ");
         rule.setTo("/to");
         rule.addCondition(condition);
-        rule.initialise(null);
+        initialise(rule, null);
 
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
         assertEquals("/to", rewrittenUrl == null ? "/from" : rewrittenUrl.getTarget());
@@ -697,7 +706,7 @@ public class RuleTest extends TestCase {
         rule.setFrom(from);
         rule.setMatchType(" wildcard    ");
         rule.setTo(to);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest(req);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
         assertEquals(assertEq, rewrittenUrl == null ? req : rewrittenUrl.getTarget());
@@ -711,7 +720,7 @@ public class RuleTest extends TestCase {
         condition.setType("port");
         condition.setValue("90");
         rule.addCondition(condition);
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("from");
         request.setServerPort(88);
         RewrittenUrl rewrittenUrl = rule.matches(request.getRequestURI(), request, response);
@@ -736,7 +745,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.addCondition(condition);
         rule.addSetAttribute(s);
-        rule.initialise(null);
+        initialise(rule, null);
 
         MockRequest request = new MockRequest("from");
         request.setHeader("user-agent", "firefox");
@@ -754,7 +763,7 @@ public class RuleTest extends TestCase {
         NormalRule rule = new NormalRule();
         rule.setFrom("^/[^/]+/(.+)-S_[0-9]+\\.html$");
         rule.setTo("/liste/query/${replace:$1:-:+}/");
-        rule.initialise(null);
+        initialise(rule, null);
         MockRequest request = new MockRequest("/ab/as-as-S_12.html");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
 
@@ -769,7 +778,7 @@ public class RuleTest extends TestCase {
         rule.setFrom("^/goanothercontext/");
         rule.setTo("/other/");
         rule.setToContextStr("othercontext");
-        rule.initialise(new MockServletContext());
+        initialise(rule, new MockServletContext());
         MockRequest request = new MockRequest("/goanothercontext/aaa.html");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
 
@@ -785,7 +794,7 @@ public class RuleTest extends TestCase {
         condition.setType("request-filename");
         condition.setOperator("isfile");
         rule.addCondition(condition);
-        rule.initialise(new MockServletContext());
+        initialise(rule, new MockServletContext());
         MockRequest request = new MockRequest("/conf-test1.xml");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
         assertEquals("/found-the-file", rewrittenUrl.getTarget());
@@ -798,7 +807,7 @@ public class RuleTest extends TestCase {
         condition.setType("request-filename");
         condition.setOperator("notfile");
         rule.addCondition(condition);
-        rule.initialise(new MockServletContext());
+        initialise(rule, new MockServletContext());
         MockRequest request = new MockRequest("/AAAconf-test1.xml");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
         assertEquals("/not-found-the-file", rewrittenUrl.getTarget());
@@ -811,7 +820,7 @@ public class RuleTest extends TestCase {
         condition.setType("request-filename");
         condition.setOperator("isdir");
         rule.addCondition(condition);
-        rule.initialise(new MockServletContext());
+        initialise(rule, new MockServletContext());
         MockRequest request = new MockRequest("/utils/");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
         assertEquals("/found-the-dir", rewrittenUrl.getTarget());
@@ -824,12 +833,33 @@ public class RuleTest extends TestCase {
         condition.setType("request-filename");
         condition.setOperator("notdir");
         rule.addCondition(condition);
-        rule.initialise(new MockServletContext());
+        initialise(rule, new MockServletContext());
         MockRequest request = new MockRequest("/utAAAils/");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
         assertEquals("/not-found-the-dir", rewrittenUrl.getTarget());
     }
 
+    public void testRegexStepBudget() throws IOException, ServletException, InvocationTargetException {
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^/(.*a){8}b$");
+        rule.setTo("/words");
+        rule.setRegexStepBudget(100000);
+        initialise(rule, new MockServletContext());
+        assertNotNull(rule.matches("/aaaaaaaab", request, response));
+        String evil = "/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!";
+        assertNull(rule.matches(evil, request, response));
+        assertEquals(1, rule.getRegexBudgetExceededCount());
+
+        rule.setRegexBudgetExceededThrows(true);
+        try {
+            rule.matches(evil, request, response);
+            fail("should throw so a catch can handle it");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof RegexBudgetExceededException);
+        }
+        assertEquals(2, rule.getRegexBudgetExceededCount());
+    }
+
     public void testIssue116() throws InvocationTargetException, IOException, ServletException {
         NormalRule rule = new NormalRule();
         rule.setFrom("^/robots\\.txt$");
@@ -837,7 +867,7 @@ public class RuleTest extends TestCase {
         rule.setToType("permanent-redirect");
         rule.setToLast("true");
         rule.setQueryStringAppend("true");
-        rule.initialise(new MockServletContext());
+        initialise(rule, new MockServletContext());
         MockRequest request = new MockRequest("/robots.txt");
         request.setQueryString("param1=value1&param2=value2");
         NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) rule.matches(request.getRequestURI(), request, response);
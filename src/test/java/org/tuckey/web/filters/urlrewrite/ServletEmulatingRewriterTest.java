@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class ServletEmulatingRewriterTest extends TestCase {
+
+    private static final String DOCTYPE = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+            "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n";
+
+    private ServletEmulatingRewriter rewriter;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+        String xml = DOCTYPE + "<urlrewrite>" +
+                "<virtual-host names=\"m.example.com\">" +
+                "  <rule><from>^/$</from><to>/mobile/</to></rule>" +
+                "</virtual-host>" +
+                "<rule><from>^/products/([0-9]+)$</from><to>/product.jsp?id=$1</to></rule>" +
+                "<rule><from>^/old/(.*)$</from><to type=\"permanent-redirect\">/new/$1</to></rule>" +
+                "<rule>" +
+                "  <condition name=\"X-Beta\">on</condition>" +
+                "  <condition type=\"cookie\" name=\"ab\">b</condition>" +
+                "  <condition type=\"parameter\" name=\"v\">2</condition>" +
+                "  <condition type=\"method\">POST</condition>" +
+                "  <from>^/home$</from><to>/home-beta.jsp</to>" +
+                "</rule>" +
+                "<rule><from>^/home$</from><to>/home.jsp</to></rule>" +
+                "<rule><from>^/gone$</from>" +
+                "  <set type=\"status\">410</set>" +
+                "  <set type=\"response-header\" name=\"X-Reason\">removed</set>" +
+                "  <set name=\"reason\">gone</set>" +
+                "  <to>null</to>" +
+                "</rule>" +
+                "<rule><from>^/legacy$</from>" +
+                "  <set type=\"method\">POST</set>" +
+                "  <set type=\"parameter\" name=\"src\">legacy</set>" +
+                "  <to>/handler</to>" +
+                "</rule>" +
+                "<rule><from>^/api/(.*)$</from><to type=\"proxy\">http://backend:8080/$1</to></rule>" +
+                "<outbound-rule><from>^/product.jsp\\?id=([0-9]+)$</from><to>/products/$1</to></outbound-rule>" +
+                "</urlrewrite>";
+        Conf conf = new Conf(new ByteArrayInputStream(xml.getBytes()), "urlrewrite.xml");
+        assertTrue(conf.getErrors().toString(), conf.isOk());
+        rewriter = new ServletEmulatingRewriter(conf);
+    }
+
+    public void testForward() throws IOException {
+        RewriteDecision decision = rewriter.rewrite(new SimpleRewriteRequest("GET", "/products/12"));
+        assertEquals(RewriteDecision.TYPE_FORWARD, decision.getType());
+        assertEquals("/product.jsp?id=12", decision.getTarget());
+        assertTrue(decision.isRewritten());
+        assertEquals(0, decision.getStatus());
+    }
+
+    public void testPermanentRedirect() throws IOException {
+        RewriteDecision decision = rewriter.rewrite(new SimpleRewriteRequest("GET", "/old/a/b"));
+        assertEquals(RewriteDecision.TYPE_PERMANENT_REDIRECT, decision.getType());
+        assertEquals(301, decision.getStatus());
+        assertEquals("/new/a/b", decision.getTarget());
+        assertEquals("/new/a/b", decision.getHeader("Location"));
+    }
+
+    public void testConditions() throws IOException {
+        SimpleRewriteRequest request = new SimpleRewriteRequest("POST", "/home?v=2");
+        request.addHeader("x-beta", "on");
+        request.addCookie("ab", "b");
+        assertEquals("/home-beta.jsp", rewriter.rewrite(request).getTarget());
+
+        request = new SimpleRewriteRequest("GET", "/home?v=2");
+        request.addHeader("X-Beta", "on");
+        request.addCookie("ab", "b");
+        assertEquals("/home.jsp", rewriter.rewrite(request).getTarget());
+
+        request = new SimpleRewriteRequest("POST", "/home?v=2");
+        request.addHeader("X-Beta", "on");
+        assertEquals("/home.jsp", rewriter.rewrite(request).getTarget());
+    }
+
+    public void testSets() throws IOException {
+        SimpleRewriteRequest request = new SimpleRewriteRequest("GET", "/gone");
+        RewriteDecision decision = rewriter.rewrite(request);
+        assertEquals(RewriteDecision.TYPE_STOP, decision.getType());
+        assertNull(decision.getTarget());
+        assertEquals(410, decision.getStatus());
+        assertEquals("removed", decision.getHeader("x-reason"));
+        assertEquals("gone", request.getAttribute("reason"));
+    }
+
+    public void testSetMethodAndParameter() throws IOException {
+        RewriteDecision decision = rewriter.rewrite(new SimpleRewriteRequest("GET", "/legacy"));
+        assertEquals("/handler", decision.getTarget());
+        assertEquals("POST", decision.getMethod());
+        assertEquals("legacy", ((String[]) decision.getParameters().get("src"))[0]);
+    }
+
+    public void testNoMatch() throws IOException {
+        RewriteDecision decision = rewriter.rewrite(new SimpleRewriteRequest("GET", "/nothing"));
+        assertEquals(RewriteDecision.TYPE_NONE, decision.getType());
+        assertFalse(decision.isRewritten());
+        assertNull(decision.getTarget());
+        assertTrue(decision.getHeaders().isEmpty());
+    }
+
+    public void testVirtualHost() throws IOException {
+        SimpleRewriteRequest request = new SimpleRewriteRequest("GET", "/");
+        request.setServerName("m.example.com");
+        assertEquals("/mobile/", rewriter.rewrite(request).getTarget());
+        assertFalse(rewriter.rewrite(new SimpleRewriteRequest("GET", "/")).isRewritten());
+    }
+
+    public void testProxy() throws IOException {
+        RewriteDecision decision = rewriter.rewrite(new SimpleRewriteRequest("GET", "/api/orders"));
+        assertEquals(RewriteDecision.TYPE_PROXY, decision.getType());
+        assertEquals("http://backend:8080/orders", decision.getTarget());
+    }
+
+    public void testEncodeURL() {
+        assertEquals("/products/7", rewriter.encodeURL(new SimpleRewriteRequest("GET", "/"), "/product.jsp?id=7"));
+        assertEquals("/other", rewriter.encodeURL(new SimpleRewriteRequest("GET", "/"), "/other"));
+    }
+
+    public void testRequestView() {
+        SimpleRewriteRequest request = new SimpleRewriteRequest("GET", "/a%20b?x=1&x=2&y=caf%C3%A9&z");
+        request.setScheme("https");
+        request.setServerName("www.example.com");
+        request.setServerPort(443);
+        request.addHeader("Accept", "text/html");
+        request.addHeader("accept", "*/*");
+        request.addCookie("bad name", "x");
+        HttpServletRequest hsRequest = ServletEmulatingRewriter.newServletRequest(request);
+        assertEquals("/a%20b", hsRequest.getRequestURI());
+        assertEquals("x=1&x=2&y=caf%C3%A9&z", hsRequest.getQueryString());
+        assertEquals("https://www.example.com/a%20b", hsRequest.getRequestURL().toString());
+        assertTrue(hsRequest.isSecure());
+        assertEquals(2, hsRequest.getParameterValues("x").length);
+        assertEquals("caf\u00e9", hsRequest.getParameter("y"));
+        assertEquals("", hsRequest.getParameter("z"));
+        assertEquals("text/html", hsRequest.getHeader("ACCEPT"));
+        assertNull(hsRequest.getCookies());
+        assertNull(hsRequest.getSession(true));
+        assertEquals(-1, hsRequest.getDateHeader("If-Modified-Since"));
+        hsRequest.setAttribute("a", "b");
+        assertEquals("b", request.getAttribute("a"));
+    }
+
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+import org.tuckey.web.testhelper.StubHttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class UpstreamTest extends TestCase {
+
+    private final List servers = new ArrayList();
+    private final Set unhealthy = new HashSet();
+    private Upstream upstream;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+    }
+
+    public void tearDown() throws IOException {
+        for (int i = 0; i < servers.size(); i++) ((StubHttpServer) servers.get(i)).stop();
+        if (upstream != null) upstream.stop();
+    }
+
+    public void testRoundRobin() throws IOException {
+        upstream = upstream(null, startServer("a"), startServer("b"));
+        assertEquals("a", proxy("upstream:api/users/1?x=1").getOutputStreamAsString());
+        assertEquals("b", proxy("upstream:api/users/1?x=1").getOutputStreamAsString());
+        assertEquals("a", proxy("upstream:api/users/1?x=1").getOutputStreamAsString());
+        assertEquals(2, server(0).getRequestCount());
+        assertEquals(1, server(1).getRequestCount());
+        assertEquals("/users/1?x=1", ((StubHttpServer.Request) server(0).getRequests().get(0)).getPath());
+        assertEquals(0, ((UpstreamServer) upstream.getServers().get(0)).getInFlight());
+        assertEquals(2, ((UpstreamServer) upstream.getServers().get(0)).getRequestCount());
+    }
+
+    public void testLeastInFlight() throws IOException {
+        upstream = upstream(Upstream.BALANCE_LEAST_IN_FLIGHT, startServer("a"), startServer("b"));
+        UpstreamServer a = (UpstreamServer) upstream.getServers().get(0);
+        UpstreamServer b = (UpstreamServer) upstream.getServers().get(1);
+        a.started();
+        for (int i = 0; i < 4; i++) assertSame(b, upstream.choose(new MockRequest(), Collections.EMPTY_SET));
+        b.started();
+        b.started();
+        assertSame(a, upstream.choose(new MockRequest(), Collections.EMPTY_SET));
+    }
+
+    public void testHashIsConsistent() throws IOException {
+        upstream = new Upstream();
+        upstream.setName("api");
+        upstream.setBalance(Upstream.BALANCE_HASH);
+        upstream.setHashOn("%{header:X-User}");
+        for (int i = 0; i < 3; i++) upstream.addServer("http://127.0.0.1:" + (9000 + i));
+        assertTrue(upstream.getErrors().toString(), upstream.initialise());
+
+        List chosen = new ArrayList();
+        Set used = new HashSet();
+        for (int i = 0; i < 60; i++) {
+            UpstreamServer server = upstream.choose(user("user" + i), Collections.EMPTY_SET);
+            assertSame(server, upstream.choose(user("user" + i), Collections.EMPTY_SET));
+            chosen.add(server);
+            used.add(server);
+        }
+        assertEquals(3, used.size());
+
+        // only the users of the failed server move
+        UpstreamServer failed = (UpstreamServer) upstream.getServers().get(0);
+        failed.setHealthy(false);
+        for (int i = 0; i < 60; i++) {
+            UpstreamServer server = upstream.choose(user("user" + i), Collections.EMPTY_SET);
+            if (chosen.get(i) == failed) {
+                assertTrue(server != failed);
+            } else {
+                assertSame(chosen.get(i), server);
+            }
+        }
+    }
+
+    public void testFailedServerEjectedAndRetried() throws IOException {
+        StubHttpServer down = startServer("a");
+        down.stop();
+        upstream = new Upstream();
+        upstream.setName("api");
+        upstream.setMaxFails("2");
+        upstream.setFailTimeout("1h");
+        upstream.addServer(down.getUrl(""));
+        upstream.addServer(startServer("b").getUrl(""));
+        assertTrue(upstream.initialise());
+        UpstreamServer a = (UpstreamServer) upstream.getServers().get(0);
+
+        for (int i = 0; i < 4; i++) assertEquals("b", proxy("upstream:api/").getOutputStreamAsString());
+        assertEquals(2, a.getFailureCount());
+        assertEquals(1, a.getEjectedCount());
+        assertTrue(a.isEjected(System.currentTimeMillis()));
+        assertEquals(4, server(1).getRequestCount());
+    }
+
+    public void testFailedStatusCountsAsFailure() throws IOException {
+        upstream = upstream(null, startServer("a"), startServer("b"));
+        unhealthy.add("a");
+        MockResponse response = proxy("upstream:api/");
+        assertEquals(503, response.getStatus());
+        assertEquals(1, ((UpstreamServer) upstream.getServers().get(0)).getFailureCount());
+    }
+
+    public void testNoServerAvailable() throws IOException {
+        StubHttpServer down = startServer("a");
+        down.stop();
+        upstream = upstream(null, down);
+        MockResponse response = proxy("upstream:api/");
+        assertEquals(503, response.getStatus());
+        // a lone server is never ejected
+        assertFalse(((UpstreamServer) upstream.getServers().get(0)).isEjected(System.currentTimeMillis()));
+    }
+
+    public void testHealthCheck() throws IOException {
+        upstream = new Upstream();
+        upstream.setName("api");
+        upstream.setHealthCheck("/health");
+        upstream.addServer(startServer("a").getUrl(""));
+        upstream.addServer(startServer("b").getUrl(""));
+        assertTrue(upstream.initialise());
+        UpstreamServer a = (UpstreamServer) upstream.getServers().get(0);
+
+        unhealthy.add("a");
+        upstream.checkHealth();
+        assertFalse(a.isHealthy());
+        assertEquals("/health", ((StubHttpServer.Request) server(0).getRequests().get(0)).getPath());
+        for (int i = 0; i < 3; i++) assertEquals("b", proxy("upstream:api/").getOutputStreamAsString());
+
+        unhealthy.clear();
+        upstream.checkHealth();
+        assertTrue(a.isHealthy());
+        assertTrue(a.isAvailable(System.currentTimeMillis()));
+    }
+
+    public void testTarget() {
+        assertEquals("api", Upstream.getName("upstream:api/users/1"));
+        assertEquals("/users/1", Upstream.getPath("upstream:api/users/1"));
+        assertEquals("api", Upstream.getName("upstream:api?a=1"));
+        assertEquals("/?a=1", Upstream.getPath("upstream:api?a=1"));
+        assertEquals("/", Upstream.getPath("upstream:api"));
+        assertNull(Upstream.getName("http://localhost/"));
+    }
+
+    public void testConf() {
+        String upstreamXml = "<upstream name=\"api\" balance=\"least-in-flight\" max-fails=\"5\">" +
+                "<server url=\"http://127.0.0.1:9001\"/><server url=\"http://127.0.0.1:9002/\"/></upstream>";
+        Conf conf = loadConf(upstreamXml +
+                "<rule><from>^/api/(.*)$</from><to type=\"proxy\">upstream:api/$1</to></rule>" +
+                "<rule><from>^/other/(.*)$</from><to type=\"proxy\">http://localhost/$1</to></rule>");
+        assertTrue(conf.getErrors().toString(), conf.isOk());
+        Upstream api = (Upstream) conf.getUpstreams().get("api");
+        assertSame(api, ((NormalRule) conf.getRules().get(0)).getUpstream());
+        assertNull(((NormalRule) conf.getRules().get(1)).getUpstream());
+        assertEquals("http://127.0.0.1:9002", ((UpstreamServer) api.getServers().get(1)).getUrl());
+        conf.destroy();
+
+        assertFalse(loadConf("<rule><from>^/a$</from><to type=\"proxy\">upstream:missing/</to></rule>").isOk());
+        assertFalse(loadConf(upstreamXml +
+                "<rule><from>^/a$</from><to type=\"proxy\" cache=\"true\">upstream:api/</to></rule>").isOk());
+        assertFalse(loadConf("<upstream name=\"api\" balance=\"hash\"><server url=\"http://127.0.0.1:9001\"/></upstream>")
+                .isOk());
+        assertFalse(loadConf("<upstream name=\"api\" max-fails=\"none\"><server url=\"http://127.0.0.1:9001\"/></upstream>")
+                .isOk());
+        assertFalse(loadConf("<upstream name=\"api\"><server url=\"not a url\"/></upstream>").isOk());
+    }
+
+    private Conf loadConf(String elements) {
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+                "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n" +
+                "<urlrewrite>" + elements + "</urlrewrite>";
+        return new Conf(null, new ByteArrayInputStream(xml.getBytes()), "urlrewrite.xml", "urlrewrite.xml");
+    }
+
+    private StubHttpServer startServer(final String body) throws IOException {
+        StubHttpServer server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) {
+                if (unhealthy.contains(body)) {
+                    response.setStatus(503);
+                    return;
+                }
+                response.setBody(body);
+            }
+        });
+        servers.add(server);
+        return server;
+    }
+
+    private StubHttpServer server(int i) {
+        return (StubHttpServer) servers.get(i);
+    }
+
+    private static Upstream upstream(String balance, StubHttpServer server) {
+        return upstream(balance, new StubHttpServer[]{server});
+    }
+
+    private static Upstream upstream(String balance, StubHttpServer server1, StubHttpServer server2) {
+        return upstream(balance, new StubHttpServer[]{server1, server2});
+    }
+
+    private static Upstream upstream(String balance, StubHttpServer[] stubs) {
+        Upstream upstream = new Upstream();
+        upstream.setName("api");
+        upstream.setBalance(balance);
+        for (int i = 0; i < stubs.length; i++) upstream.addServer(stubs[i].getUrl(""));
+        assertTrue(upstream.getErrors().toString(), upstream.initialise());
+        return upstream;
+    }
+
+    private static MockRequest user(String user) {
+        MockRequest request = new MockRequest("/a");
+        request.setHeader("X-User", user);
+        return request;
+    }
+
+    private MockResponse proxy(String target) throws IOException {
+        MockResponse response = new MockResponse();
+        RequestProxy.execute(target, new MockRequest("/a"), response, upstream);
+        return response;
+    }
+
+}
@@ -40,6 +40,14 @@ import org.tuckey.web.testhelper.MockServletContext;
 import org.tuckey.web.filters.urlrewrite.utils.Log;
 
 import javax.servlet.ServletException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Paul Tuckey
@@ -77,4 +85,67 @@ public class UrlRewriteFilterTest extends TestCase {
         filter.init(mockFilterConfig);
     }
 
+    public void testReloadRetiresReplacedConf() throws Exception {
+        final File confFile = File.createTempFile("urlrewrite", ".xml");
+        final List loaded = new ArrayList();
+        filter = new UrlRewriteFilter() {
+            protected void checkConf(Conf conf) {
+                loaded.add(conf);
+                super.checkConf(conf);
+            }
+        };
+        MockFilterConfig mockFilterConfig = new MockFilterConfig();
+        mockFilterConfig.setServletContext(new MockServletContext() {
+            public InputStream getResourceAsStream(String s) {
+                try {
+                    return new FileInputStream(confFile);
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
+            }
+
+            public String getRealPath(String s) {
+                return confFile.getPath();
+            }
+        });
+        try {
+            writeUpstreamConf(confFile, 1);
+            filter.init(mockFilterConfig);
+            writeUpstreamConf(confFile, 2);
+            filter.reloadConf();
+            writeUpstreamConf(confFile, 3);
+            filter.reloadConf();
+            assertEquals(3, loaded.size());
+
+            Upstream first = (Upstream) ((Conf) loaded.get(0)).getUpstreams().get("api");
+            Upstream second = (Upstream) ((Conf) loaded.get(1)).getUpstreams().get("api");
+            Upstream third = (Upstream) ((Conf) loaded.get(2)).getUpstreams().get("api");
+            waitForHealthCheckStop(first);
+            waitForHealthCheckStop(second);
+            assertTrue(third.isHealthCheckRunning());
+        } finally {
+            confFile.delete();
+        }
+    }
+
+    private static void writeUpstreamConf(File confFile, int version) throws IOException {
+        FileWriter writer = new FileWriter(confFile);
+        writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<!DOCTYPE urlrewrite PUBLIC \"-//tuckey.org//DTD UrlRewrite 4.0//EN\" " +
+                "\"http://www.tuckey.org/res/dtds/urlrewrite4.0.dtd\">\n" +
+                "<urlrewrite>" +
+                "<upstream name=\"api\" health-check=\"/health\" health-check-interval=\"60s\">" +
+                "<server url=\"http://127.0.0.1:1\"/></upstream>" +
+                "<rule><from>^/api/" + version + "/(.*)$</from><to type=\"proxy\">upstream:api/$1</to></rule>" +
+                "</urlrewrite>");
+        writer.close();
+        // so that the filter sees the file as modified since the last load
+        confFile.setLastModified(System.currentTimeMillis() + version * 10000L);
+    }
+
+    private static void waitForHealthCheckStop(Upstream upstream) throws InterruptedException {
+        for (int i = 0; i < 100 && upstream.isHealthCheckRunning(); i++) Thread.sleep(50);
+        assertFalse(upstream.isHealthCheckRunning());
+    }
+
 }
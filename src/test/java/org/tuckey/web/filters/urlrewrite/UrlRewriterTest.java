@@ -67,6 +67,13 @@ public class UrlRewriterTest extends TestCase {
         TestRunObj.resetTestFlags();
     }
 
+    /**
+     * Overridden by FlattenedUrlRewriterTest to run the same tests with flatten-rules on.
+     */
+    protected void initialise(Conf conf) {
+        conf.initialise();
+    }
+
     public void test1() throws IOException, ServletException, InvocationTargetException {
         Conf conf = new Conf();
         NormalRule rule1 = new NormalRule();
@@ -75,7 +82,7 @@ public class UrlRewriterTest extends TestCase {
         conf.addRule(rule1);
         conf.setUseQueryString(true);
         conf.setDecodeUsing("null");
-        conf.initialise();
+        initialise(conf);
 
         assertFalse(conf.isDecodeUsingCustomCharsetRequired());
 
@@ -103,13 +110,43 @@ public class UrlRewriterTest extends TestCase {
         assertEquals("/bbb%20", rewrittenRequest.getTarget());
     }
 
+    public void testFlattened() throws IOException, ServletException, InvocationTargetException {
+        Conf conf = new Conf();
+        NormalRule disabled = new NormalRule();
+        disabled.setFrom("^/aaa$");
+        disabled.setTo("/disabled");
+        disabled.setEnabled(false);
+        conf.addRule(disabled);
+        NormalRule literal = new NormalRule();
+        literal.setFrom("^/aaa$");
+        literal.setTo("/bbb");
+        conf.addRule(literal);
+        NormalRule regex = new NormalRule();
+        regex.setFrom("^/bbb/(.*)$");
+        regex.setTo("/ccc/$1");
+        conf.addRule(regex);
+        conf.setFlattenRulesEnabled(true);
+        initialise(conf);
+
+        assertEquals(3, conf.getRules().size());
+        assertEquals(2, conf.getRuntimeRules().length);
+        assertEquals(1, conf.getLiteralRulesCount());
+        assertTrue(literal.isFromLiteral());
+        assertFalse(regex.isFromLiteral());
+
+        UrlRewriter urlRewriter = new UrlRewriter(conf);
+        assertEquals("/bbb", urlRewriter.processRequest(new MockRequest("/AAA"), response).getTarget());
+        assertEquals("/ccc/d", urlRewriter.processRequest(new MockRequest("/bbb/d"), response).getTarget());
+        assertNull(urlRewriter.processRequest(new MockRequest("/aaa/d"), response));
+    }
+
     public void testDefaultDecode() throws IOException, ServletException, InvocationTargetException {
         Conf conf = new Conf();
         NormalRule rule1 = new NormalRule();
         rule1.setFrom("^/ca&amp;t/(.*)$");
         rule1.setTo("/search/?c=y&amp;q=$1");
         conf.addRule(rule1);
-        conf.initialise();
+        initialise(conf);
 
         assertTrue("isDecodeUsingEncodingHeader should be true", conf.isDecodeUsingEncodingHeader());
         assertTrue("isDecodeUsingCustomCharsetRequired should be true", conf.isDecodeUsingCustomCharsetRequired());
@@ -128,7 +165,7 @@ public class UrlRewriterTest extends TestCase {
         rule1.setToType("permanent-redirect");
         rule1.setTo("http://sss.sss.sss");
         conf.addRule(rule1);
-        conf.initialise();
+        initialise(conf);
 
         UrlRewriter urlRewriter = new UrlRewriter(conf);
 
@@ -143,7 +180,7 @@ public class UrlRewriterTest extends TestCase {
 
     public void testNoRules() throws IOException, ServletException, InvocationTargetException {
         Conf conf = new Conf();
-        conf.initialise();
+        initialise(conf);
         UrlRewriter urlRewriter = new UrlRewriter(conf);
         MockRequest request = new MockRequest("/aaa");
         RewrittenUrl rewrittenRequest = urlRewriter.processRequest(request, response);
@@ -178,7 +215,7 @@ public class UrlRewriterTest extends TestCase {
         rule1.addSetAttribute(setAttribute4);
 
         conf.addRule(rule1);
-        conf.initialise();
+        initialise(conf);
 
         UrlRewriter urlRewriter = new UrlRewriter(conf);
 
@@ -209,7 +246,7 @@ public class UrlRewriterTest extends TestCase {
 
         conf.addRule(rule0);
         conf.addRule(rule1);
-        conf.initialise();
+        initialise(conf);
 
         UrlRewriter urlRewriter = new UrlRewriter(conf);
 
@@ -225,7 +262,7 @@ public class UrlRewriterTest extends TestCase {
         Conf conf = new Conf();
         NormalRule rule1 = new NormalRule();
         conf.addRule(rule1);
-        conf.initialise();
+        initialise(conf);
         UrlRewriter urlRewriter = new UrlRewriter(conf);
         MockRequest request = new MockRequest("/aaa");
         RewrittenUrl rewrittenRequest = urlRewriter.processRequest(request, response);
@@ -294,7 +331,7 @@ public class UrlRewriterTest extends TestCase {
         conf.addRule(rule3);
         conf.addRule(rule4);
 
-        conf.initialise();
+        initialise(conf);
         UrlRewriter urlRewriter = new UrlRewriter(conf);
 
         MockRequest request = new MockRequest("/images/my.png");
@@ -315,7 +352,7 @@ public class UrlRewriterTest extends TestCase {
         rule.setTo("/TestHandler$1");
         conf.addRule(rule);
         conf.setDecodeUsing("utf-8");
-        conf.initialise();
+        initialise(conf);
         UrlRewriter urlRewriter = new UrlRewriter(conf);
         MockRequest request = new MockRequest("/test%20decode/?string=black%26white+green");
         MockResponse response = new MockResponse();
@@ -348,7 +385,7 @@ public class UrlRewriterTest extends TestCase {
         rule2.setToLast("true");
         conf.addRule(rule2);
 
-        conf.initialise();
+        initialise(conf);
 
         assertTrue("conf should be initialised", conf.isOk());
 
@@ -380,7 +417,7 @@ public class UrlRewriterTest extends TestCase {
         conf.addRule(rule1);
         conf.addRule(rule2);
 
-        conf.initialise();
+        initialise(conf);
         final UrlRewriter urlRewriter = new UrlRewriter(conf);
 
         final MockRequest request1 = new MockRequest("/path/noSub");
@@ -401,7 +438,7 @@ public class UrlRewriterTest extends TestCase {
         rule1.setFrom("^/\\?q=(.*)$");
         rule1.setTo("/search/${escapePath:${unescape:$1}}");
         conf.addRule(rule1);
-        conf.initialise();
+        initialise(conf);
 
         assertFalse("isDecodeUsingEncodingHeader should be false", conf.isDecodeUsingEncodingHeader());
         assertFalse("isDecodeUsingCustomCharsetRequired should be false", conf.isDecodeUsingCustomCharsetRequired());
@@ -420,7 +457,7 @@ public class UrlRewriterTest extends TestCase {
         rule1.setFrom("^/(.*)$");
         rule1.setTo("/?q=${escape:${unescapePath:$1}}");
         conf.addRule(rule1);
-        conf.initialise();
+        initialise(conf);
 
         assertFalse("isDecodeUsingEncodingHeader should be false", conf.isDecodeUsingEncodingHeader());
         assertFalse("isDecodeUsingCustomCharsetRequired should be false", conf.isDecodeUsingCustomCharsetRequired());
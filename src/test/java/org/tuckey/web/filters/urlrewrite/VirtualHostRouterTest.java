@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+import java.io.InputStream;
+
+public class VirtualHostRouterTest extends TestCase {
+
+    private Conf conf;
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+        InputStream is = VirtualHostRouterTest.class.getResourceAsStream(ConfTest.BASE_XML_PATH + "conf-test-virtual-host.xml");
+        conf = new Conf(is, "conf-test-virtual-host.xml");
+    }
+
+    public void testLoad() {
+        assertTrue(conf.isOk());
+        assertEquals(6, conf.getRules().size());
+        assertEquals(3, conf.getVirtualHosts().size());
+        VirtualHostRouter router = conf.getVirtualHostRouter();
+        assertNotNull(router);
+        assertEquals(2, router.getDefaultRules().length);
+        assertEquals(3, router.getRules(0).length);
+        assertEquals(4, router.getRules(1).length);
+        assertEquals(3, router.getRules(2).length);
+    }
+
+    public void testRouting() {
+        VirtualHostRouter router = conf.getVirtualHostRouter();
+        assertEquals(0, router.getVirtualHostIndex("shop-a.com"));
+        assertEquals(0, router.getVirtualHostIndex("WWW.Shop-A.com."));
+        assertEquals(0, router.getVirtualHostIndex("shop-a.de"));
+        assertEquals(-1, router.getVirtualHostIndex("www.shop-a.de"));
+        assertEquals(1, router.getVirtualHostIndex("www.shop-b.com"));
+        assertEquals(-1, router.getVirtualHostIndex("shop-b.com"));
+        // longest suffix wins
+        assertEquals(2, router.getVirtualHostIndex("www.uk.shop-b.com"));
+        assertEquals(1, router.getVirtualHostIndex("uk.shop-b.com"));
+        assertEquals(2, router.getVirtualHostIndex("shop-c.example.org"));
+        assertEquals(-1, router.getVirtualHostIndex("example.org"));
+        assertEquals(-1, router.getVirtualHostIndex(null));
+    }
+
+    public void testRequests() throws Exception {
+        assertEquals("/shop-a/offers", rewrite("www.shop-a.com", "/offers"));
+        assertEquals("/shop-b/offers", rewrite("shop.shop-b.com", "/offers"));
+        assertEquals("/shop-b-uk/offers", rewrite("www.uk.shop-b.com", "/offers"));
+        assertEquals("/default/offers", rewrite("other.com", "/offers"));
+        assertEquals("/all-hosts", rewrite("www.shop-a.com", "/all"));
+        assertEquals("/shop-b/only", rewrite("www.shop-b.com", "/b-only"));
+        assertEquals("/default/b-only", rewrite("www.shop-a.com", "/b-only"));
+    }
+
+    private String rewrite(String serverName, String url) throws Exception {
+        MockRequest request = new MockRequest(url);
+        request.setServerName(serverName);
+        UrlRewriter urlRewriter = new UrlRewriter(conf);
+        NormalRewrittenUrl rewrittenUrl = (NormalRewrittenUrl) urlRewriter.processRequest(request, new MockResponse());
+        return rewrittenUrl == null ? null : rewrittenUrl.getTarget();
+    }
+
+    public void testDuplicateName() {
+        Conf dupConf = new Conf();
+        VirtualHost a = new VirtualHost("a.com,*.b.com");
+        VirtualHost b = new VirtualHost("A.com");
+        dupConf.addVirtualHost(a);
+        dupConf.addVirtualHost(b);
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^/$");
+        rule.setTo("/a");
+        dupConf.addRule(rule);
+        a.addRule(rule);
+        dupConf.initialise();
+        assertFalse(dupConf.isOk());
+        assertEquals(1, dupConf.getErrors().size());
+    }
+
+    public void testAddedAfterInitialise() {
+        Conf programmaticConf = new Conf();
+        programmaticConf.initialise();
+        VirtualHost host = new VirtualHost("a.com");
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^/$");
+        rule.setTo("/a");
+        rule.initialise(null);
+        programmaticConf.addRule(rule);
+        host.addRule(rule);
+        programmaticConf.addVirtualHost(host);
+        assertEquals(1, programmaticConf.getRuntimeRules("a.com").length);
+        assertEquals(0, programmaticConf.getRuntimeRules("b.com").length);
+    }
+
+}
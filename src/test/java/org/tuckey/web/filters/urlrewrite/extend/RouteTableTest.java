@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.extend;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.ClassRule;
+import org.tuckey.web.filters.urlrewrite.RewrittenUrl;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+public class RouteTableTest extends TestCase {
+
+    public void setUp() {
+        Log.setLevel("DEBUG");
+    }
+
+    public void testTrie() {
+        RouteTable table = new RouteTable(new String[]{
+                "^/client/([0-9]+)/$",
+                "^/client/new/$",
+                "^/client/([^/]+)/edit$",
+                "^/$",
+                "^/file\\.txt$"
+        });
+        assertEquals(5, table.getTrieRouteCount());
+        assertRoute(0, "12", table.match("/client/12/"));
+        assertRoute(1, null, table.match("/client/new/"));
+        assertRoute(2, "bob", table.match("/client/bob/edit"));
+        assertRoute(2, "12", table.match("/client/12/edit"));
+        assertRoute(3, null, table.match("/"));
+        assertRoute(4, null, table.match("/file.txt"));
+        assertNull(table.match("/client/12"));
+        assertNull(table.match("/client//edit"));
+        assertNull(table.match("/filextxt"));
+        assertNull(table.match(""));
+    }
+
+    public void testOrder() {
+        RouteTable table = new RouteTable(new String[]{
+                "^/client/([^/]+)/$",
+                "^/client/([0-9]+)/$",
+                "^/client/new/$"
+        });
+        // first one always wins, as with rules
+        assertRoute(0, "new", table.match("/client/new/"));
+        assertRoute(0, "12", table.match("/client/12/"));
+    }
+
+    public void testCase() {
+        RouteTable table = new RouteTable(new String[]{"^/Client/([^/]+)$"});
+        assertRoute(0, "Bob", table.match("/cLIENT/Bob"));
+        table = new RouteTable(new String[]{"^/Client/([^/]+)$"}, true);
+        assertNull(table.match("/client/Bob"));
+        assertRoute(0, "Bob", table.match("/Client/Bob"));
+    }
+
+    public void testRegex() {
+        RouteTable table = new RouteTable(new String[]{
+                "^/search/(clients|staff)/$",
+                "^/search/([a-z]+)/$",
+                "/rpc/"
+        });
+        assertEquals(0, table.getTrieRouteCount());
+        assertRoute(0, "staff", table.match("/search/staff/"));
+        assertRoute(1, "other", table.match("/search/other/"));
+        assertRoute(2, null, table.match("/abc/rpc/def"));
+    }
+
+    public void testMixed() {
+        RouteTable table = new RouteTable(new String[]{
+                "^/a/(x|y)$",
+                "^/a/([^/]+)$",
+                "^/b/.*$",
+                "^/b/c$"
+        });
+        assertEquals(2, table.getTrieRouteCount());
+        assertRoute(0, "x", table.match("/a/x"));
+        assertRoute(1, "z", table.match("/a/z"));
+        assertRoute(2, null, table.match("/b/c"));
+    }
+
+    public void testParseSegments() {
+        assertNotNull(RouteTable.parseSegments("^/a/b-c_d~e/$"));
+        assertNotNull(RouteTable.parseSegments("^/a/(\\d+)$"));
+        assertNull(RouteTable.parseSegments("/a/b$"));
+        assertNull(RouteTable.parseSegments("^/a/b"));
+        assertNull(RouteTable.parseSegments("^/a/b\\$"));
+        assertNull(RouteTable.parseSegments("^/a.b$"));
+        assertNull(RouteTable.parseSegments("^/a/x([0-9]+)$"));
+        assertNull(RouteTable.parseSegments("^/a/([0-9]*)$"));
+        assertNull(RouteTable.parseSegments("^/a/(b/c)$"));
+    }
+
+    private void assertRoute(int route, String group1, RouteTable.RouteMatch match) {
+        assertNotNull(match);
+        assertEquals(route, match.getRoute());
+        assertEquals(group1, match.getGroup(1));
+    }
+
+    public void testClassRuleWithUrl() throws IOException, ServletException {
+        ClassRule classRule = new ClassRule();
+        classRule.setClassStr(SampleDispatcher.class.getName());
+        classRule.setMethodStr("matches");
+        assertTrue(classRule.initialise(null));
+        assertTrue(classRule.isEnabled());
+        MockRequest request = new MockRequest("/ignored");
+        RewrittenUrl rewrittenUrl = classRule.matches("/client/7/", request, new MockResponse());
+        assertNotNull(rewrittenUrl);
+        assertEquals("7", request.getAttribute("client"));
+        assertNull(classRule.matches("/client/x/", request, new MockResponse()));
+    }
+
+    public void testClassRuleInitialiseFalse() throws IOException, ServletException {
+        ClassRule classRule = new ClassRule();
+        classRule.setClassStr(DisabledRule.class.getName());
+        classRule.setMethodStr("matches");
+        assertTrue(classRule.initialise(null));
+        assertFalse(classRule.isEnabled());
+        assertNull(classRule.matches("/", new MockRequest("/"), new MockResponse()));
+    }
+
+    public static class SampleDispatcher extends RewriteRule {
+        private static final RouteTable ROUTES = new RouteTable(new String[]{"^/client/([0-9]+)/$"});
+
+        public RewriteMatch matches(String url, HttpServletRequest request, HttpServletResponse response) {
+            RouteTable.RouteMatch match = ROUTES.match(url);
+            if (match == null) return null;
+            request.setAttribute("client", match.getGroup(1));
+            return new RewriteMatch();
+        }
+    }
+
+    public static class DisabledRule extends RewriteRule {
+        public boolean initialise(ServletContext servletContext) {
+            return false;
+        }
+
+        public RewriteMatch matches(HttpServletRequest request, HttpServletResponse response) {
+            return new RewriteMatch();
+        }
+    }
+
+}
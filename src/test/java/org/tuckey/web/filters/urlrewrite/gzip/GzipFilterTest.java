@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.gzip;
+
+import junit.framework.TestCase;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+import org.tuckey.web.testhelper.MockServletContext;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+public class GzipFilterTest extends TestCase {
+
+    public void testCompressed() throws Exception {
+        GzipFilter filter = newFilter(new Properties());
+        PooledGzipOutputStream out = new PooledGzipOutputStream(filter);
+        byte[] body = repeat("hello gzip ", 1000).getBytes("UTF-8");
+        out.write(body, 0, 100);
+        out.write(body, 100, body.length - 100);
+        out.finish();
+        assertTrue(out.isCompressed());
+        assertEquals(body.length, out.getUncompressedSize());
+        byte[] compressed = out.toByteArray();
+        assertTrue(compressed.length < body.length);
+        assertEquals(new String(body, "UTF-8"), new String(gunzip(compressed), "UTF-8"));
+    }
+
+    public void testBelowMinSize() throws Exception {
+        Properties params = new Properties();
+        params.setProperty("min-size", "100");
+        GzipFilter filter = newFilter(params);
+        PooledGzipOutputStream out = new PooledGzipOutputStream(filter);
+        out.write("small".getBytes("UTF-8"));
+        out.finish();
+        assertFalse(out.isCompressed());
+        assertEquals("small", new String(out.toByteArray(), "UTF-8"));
+
+        out = new PooledGzipOutputStream(filter);
+        byte[] body = repeat("x", 150).getBytes("UTF-8");
+        out.write(body);
+        out.finish();
+        assertTrue(out.isCompressed());
+        assertEquals(new String(body, "UTF-8"), new String(gunzip(out.toByteArray()), "UTF-8"));
+    }
+
+    public void testLevelByContentType() throws Exception {
+        Properties params = new Properties();
+        params.setProperty("level", "4");
+        params.setProperty("level.text/html", "9");
+        params.setProperty("level.image/*", "0");
+        params.setProperty("strategy.text/css", "filtered");
+        GzipFilter filter = newFilter(params);
+        assertEquals(4, filter.getLevel(null));
+        assertEquals(4, filter.getLevel("text/plain"));
+        assertEquals(9, filter.getLevel("text/html; charset=UTF-8"));
+        assertEquals(0, filter.getLevel("image/svg+xml"));
+        assertEquals(Deflater.FILTERED, filter.getStrategy("text/css"));
+        assertEquals(Deflater.DEFAULT_STRATEGY, filter.getStrategy("text/html"));
+
+        PooledGzipOutputStream out = new PooledGzipOutputStream(filter);
+        GenericResponseWrapper wrapper = new GenericResponseWrapper(new MockResponse(), out);
+        out.setResponse(wrapper);
+        wrapper.setContentType("image/svg+xml");
+        byte[] body = repeat("<svg/>", 500).getBytes("UTF-8");
+        out.write(body);
+        out.finish();
+        // stored, not compressed
+        assertTrue(out.toByteArray().length > body.length);
+        assertEquals(new String(body, "UTF-8"), new String(gunzip(out.toByteArray()), "UTF-8"));
+    }
+
+    public void testBadParam() throws Exception {
+        Properties params = new Properties();
+        params.setProperty("strategy", "fastest");
+        try {
+            newFilter(params);
+            fail("expected exception");
+        } catch (ServletException e) {
+            assertTrue(e.getMessage().indexOf("strategy") != -1);
+        }
+    }
+
+    public void testPoolReusesAndIsBounded() {
+        DeflaterPool pool = new DeflaterPool(1);
+        Deflater first = pool.borrow(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        Deflater second = pool.borrow(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        assertEquals(2, pool.getCreatedCount());
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getEndedCount());
+        assertSame(first, pool.borrow(Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    public void testReleasedOnFailure() throws Exception {
+        GzipFilter filter = newFilter(new Properties());
+        DeflaterPool pool = filter.getDeflaterPool();
+        int idle = pool.getIdleCount();
+        PooledGzipOutputStream out = new PooledGzipOutputStream(filter);
+        out.write("started".getBytes("UTF-8"));
+        // as if the request threw before finishing, the deflater is back in the pool
+        out.release();
+        assertTrue(pool.getIdleCount() >= Math.min(1, pool.getMaxIdle()));
+        assertTrue(pool.getIdleCount() >= idle);
+        try {
+            out.write(1);
+            fail("expected exception");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testPrecompressedSidecar() throws Exception {
+        File dir = createAssetDir();
+        try {
+            writeFile(new File(dir, "app.js"), "var a = 1;");
+            File sidecar = new File(dir, "app.js.gz");
+            writeFile(sidecar, "SIDECAR");
+            Properties params = new Properties();
+            params.setProperty("precompressed", "true");
+            GzipFilter filter = newFilter(params, new AssetContext(dir));
+            CountingChain chain = new CountingChain();
+
+            MockResponse response = new MockResponse();
+            filter.doFilter(newAssetRequest("/app.js"), response, chain);
+            assertEquals(0, chain.count);
+            assertEquals("SIDECAR", response.getOutputStreamAsString());
+            assertEquals("gzip", response.getHeader("Content-Encoding"));
+            assertEquals("Accept-Encoding", response.getHeader("Vary"));
+
+            // a sidecar older than the asset is ignored
+            sidecar.setLastModified(new File(dir, "app.js").lastModified() - 10000);
+            filter.doFilter(newAssetRequest("/app.js"), new MockResponse(), chain);
+            assertEquals(1, chain.count);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    public void testPrecompressedNotServedFromWebInf() throws Exception {
+        File dir = createAssetDir();
+        try {
+            String[] privateDirs = {"WEB-INF", "Meta-Inf"};
+            for (int i = 0; i < privateDirs.length; i++) {
+                File privateDir = new File(dir, privateDirs[i]);
+                privateDir.mkdir();
+                writeFile(new File(privateDir, "app.js"), "var a = 1;");
+                writeFile(new File(privateDir, "app.js.gz"), "SIDECAR");
+            }
+            Properties params = new Properties();
+            params.setProperty("precompressed", "true");
+            GzipFilter filter = newFilter(params, new AssetContext(dir));
+            CountingChain chain = new CountingChain();
+
+            MockResponse response = new MockResponse();
+            filter.doFilter(newAssetRequest("/WEB-INF/app.js"), response, chain);
+            assertEquals("left to the container", 1, chain.count);
+            assertFalse("SIDECAR".equals(response.getOutputStreamAsString()));
+            filter.doFilter(newAssetRequest("/Meta-Inf/app.js"), new MockResponse(), chain);
+            filter.doFilter(newAssetRequest("//WEB-INF/app.js"), new MockResponse(), chain);
+            filter.doFilter(newAssetRequest("/./WEB-INF/app.js"), new MockResponse(), chain);
+            assertEquals(4, chain.count);
+            assertEquals(0, filter.getAssetCache().getSize());
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    public void testPrecompressedCache() throws Exception {
+        File dir = createAssetDir();
+        try {
+            writeFile(new File(dir, "app.css"), "body {}");
+            writeFile(new File(dir, "page.jsp"), "<html/>");
+            Properties params = new Properties();
+            params.setProperty("precompressed", "true");
+            GzipFilter filter = newFilter(params, new AssetContext(dir));
+            CountingChain chain = new CountingChain();
+
+            filter.doFilter(newAssetRequest("/app.css"), new MockResponse(), chain);
+            assertEquals(1, chain.count);
+            assertEquals(1, filter.getAssetCache().getSize());
+            MockResponse response = new MockResponse();
+            filter.doFilter(newAssetRequest("/app.css"), response, chain);
+            assertEquals("served from the cache", 1, chain.count);
+            assertEquals("gzip", response.getHeader("Content-Encoding"));
+
+            // modified, compressed again
+            File css = new File(dir, "app.css");
+            css.setLastModified(css.lastModified() + 10000);
+            filter.doFilter(newAssetRequest("/app.css"), new MockResponse(), chain);
+            assertEquals(2, chain.count);
+
+            // not one of the extensions
+            filter.doFilter(newAssetRequest("/page.jsp"), new MockResponse(), chain);
+            filter.doFilter(newAssetRequest("/page.jsp"), new MockResponse(), chain);
+            assertEquals(4, chain.count);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    public void testAssetCacheBounded() {
+        CompressedAssetCache cache = new CompressedAssetCache(400);
+        cache.put("/a.js", 1, "text/javascript", new byte[100]);
+        cache.put("/b.js", 1, "text/javascript", new byte[100]);
+        cache.put("/c.js", 1, "text/javascript", new byte[100]);
+        assertNotNull(cache.get("/a.js", 1));
+        cache.put("/d.js", 1, "text/javascript", new byte[100]);
+        cache.put("/e.js", 1, "text/javascript", new byte[100]);
+        assertNull("least recently used", cache.get("/b.js", 1));
+        assertNotNull(cache.get("/a.js", 1));
+        assertNull("modified since cached", cache.get("/a.js", 2));
+        assertEquals(400, cache.getBytes());
+        assertEquals(1, cache.getEvictedCount());
+        // too big for the cache
+        cache.put("/big.js", 1, "text/javascript", new byte[101]);
+        assertNull(cache.get("/big.js", 1));
+    }
+
+    private static MockRequest newAssetRequest(String path) {
+        MockRequest request = new MockRequest(path);
+        request.setMethod("GET");
+        request.setHeader("Accept-Encoding", "gzip, deflate");
+        return request;
+    }
+
+    private static class CountingChain implements FilterChain {
+        int count = 0;
+
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            count++;
+            response.setContentType("text/css");
+            OutputStream out = response.getOutputStream();
+            out.write(repeat("body { color: red; }\n", 20).getBytes("UTF-8"));
+        }
+    }
+
+    private static class AssetContext extends MockServletContext {
+        private final File dir;
+
+        AssetContext(File dir) {
+            this.dir = dir;
+        }
+
+        public String getRealPath(String s) {
+            return new File(dir, s).getPath();
+        }
+    }
+
+    private static File createAssetDir() throws IOException {
+        File dir = File.createTempFile("urlrewrite-assets", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory()) deleteDir(files[i]);
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private static GzipFilter newFilter(final Properties params) throws ServletException {
+        return newFilter(params, null);
+    }
+
+    private static GzipFilter newFilter(final Properties params, final ServletContext context) throws ServletException {
+        GzipFilter filter = new GzipFilter();
+        filter.init(new FilterConfig() {
+            public String getFilterName() {
+                return "gzip";
+            }
+
+            public ServletContext getServletContext() {
+                return context;
+            }
+
+            public String getInitParameter(String name) {
+                return params.getProperty(name);
+            }
+
+            public Enumeration getInitParameterNames() {
+                return params.propertyNames();
+            }
+        });
+        return filter;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int count;
+        while ((count = in.read(buf)) != -1) out.write(buf, 0, count);
+        return out.toByteArray();
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < times; i++) buf.append(s);
+        return buf.toString();
+    }
+
+}
@@ -40,7 +40,13 @@ import org.tuckey.web.testhelper.MockRequest;
 import org.tuckey.web.testhelper.MockResponse;
 
 import javax.servlet.ServletException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -78,4 +84,54 @@ public class JsonRewriteMatchTest extends TestCase {
         assertEquals("{\"error\":{\"error\":\"java.lang.Exception: Hello World\",\"message\":\"Hello World\",\"name\":\"java.lang.Exception\"}}", response.getOutputStreamAsString());
     }
 
+    public void testUtf8() throws IOException {
+        JsonRewriteMatch jsonRewriteMatch = new JsonRewriteMatch("caf\u00e9 \u20ac");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Writer out = new OutputStreamWriter(baos, "UTF-8");
+        jsonRewriteMatch.toJSON("caf\u00e9 \u20ac", null, out);
+        out.flush();
+        assertEquals(jsonRewriteMatch.toJSONString("caf\u00e9 \u20ac", null), new String(baos.toByteArray(), "UTF-8"));
+        assertEquals(22, baos.size());
+    }
+
+    public void testBeansSmallBuffer() throws IOException {
+        List beans = new ArrayList();
+        for (int i = 0; i < 100; i++) {
+            SampleBean bean = new SampleBean();
+            bean.setName("bean \"" + i + "\"");
+            bean.setCount(i);
+            beans.add(bean);
+        }
+        String expected = new JsonWriter(false).write(beans);
+        assertTrue(expected.startsWith("[{\"count\":0,\"name\":\"bean \\\"0\\\"\"},{\"count\":1,"));
+
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(false, 16);
+        writer.write(beans, out);
+        assertEquals(expected, out.toString());
+        // the writer can be reused
+        assertEquals("[1,2]", writer.write(new int[]{1, 2}));
+    }
+
+    public static class SampleBean {
+        private String name;
+        private int count;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+    }
+
 }
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.maps;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+public class HashFileTest extends TestCase {
+
+    private File csvFile;
+    private File hashFile;
+
+    public void setUp() throws IOException {
+        Log.setLevel("DEBUG");
+        csvFile = File.createTempFile("urlrewrite-table", ".csv");
+        hashFile = File.createTempFile("urlrewrite-table", ".hash");
+    }
+
+    public void tearDown() {
+        csvFile.delete();
+        hashFile.delete();
+    }
+
+    private HashFileBuilder build(String csv) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8");
+        writer.write(csv);
+        writer.close();
+        HashFileBuilder builder = new HashFileBuilder();
+        builder.build(csvFile, hashFile);
+        return builder;
+    }
+
+    public void testBuildAndGet() throws IOException {
+        HashFileBuilder builder = build("# redirects\n" +
+                "/old/a,/new/a\n" +
+                "\n" +
+                " /old/b , /new/b \n" +
+                "\"/old/c,d\",\"/new/\"\"c\"\"\"\n" +
+                "/old/\u00e9,/new/\u00fc\n" +
+                "/old/a,/new/dupe\n" +
+                "/old/e\n");
+        assertEquals(4, builder.getEntryCount());
+        assertEquals(1, builder.getDuplicateCount());
+        assertEquals(1, builder.getInvalidLineCount());
+
+        HashFile hashFile = new HashFile(this.hashFile);
+        assertEquals(4, hashFile.size());
+        assertEquals("/new/a", hashFile.get("/old/a"));
+        assertEquals("/new/b", hashFile.get("/old/b"));
+        assertEquals("/new/\"c\"", hashFile.get("/old/c,d"));
+        assertEquals("/new/\u00fc", hashFile.get("/old/\u00e9"));
+        assertNull(hashFile.get("/old/e"));
+        assertNull(hashFile.get("/old/"));
+        assertNull(hashFile.get("/old/aa"));
+        assertNull(hashFile.get(""));
+    }
+
+    public void testMany() throws IOException {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 20000; i += 2) {
+            sb.append("/product/").append(i).append(",/p/").append(i).append('\n');
+        }
+        assertEquals(10000, build(sb.toString()).getEntryCount());
+        HashFile hashFile = new HashFile(this.hashFile);
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(i % 2 == 0 ? "/p/" + i : null, hashFile.get("/product/" + i));
+        }
+    }
+
+    public void testEmpty() throws IOException {
+        build("");
+        HashFile hashFile = new HashFile(this.hashFile);
+        assertEquals(0, hashFile.size());
+        assertNull(hashFile.get("/a"));
+    }
+
+    public void testNotHashFile() throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(hashFile), "UTF-8");
+        writer.write("/a 1\n/b 2\n/c 3\n/d 4\n/e 5\n/f 6\n/g 7\n");
+        writer.close();
+        try {
+            new HashFile(hashFile);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testParseCsvLine() {
+        assertNull(HashFileBuilder.parseCsvLine("abc"));
+        assertNull(HashFileBuilder.parseCsvLine("abc,"));
+        assertNull(HashFileBuilder.parseCsvLine("\"abc,def"));
+        String[] fields = HashFileBuilder.parseCsvLine("a,b,c");
+        assertEquals("a", fields[0]);
+        assertEquals("b", fields[1]);
+        fields = HashFileBuilder.parseCsvLine("\"a\" , \"b\"");
+        assertEquals("a", fields[0]);
+        assertEquals("b", fields[1]);
+    }
+
+    public void testRebuildWhileMapped() throws IOException {
+        build("/old/a,/new/a\n");
+        HashFile before = new HashFile(hashFile);
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 1000; i++) sb.append("/old/").append(i).append(",/new/").append(i).append('\n');
+        build(sb.toString());
+
+        // the old mapping is of the replaced file so still reads as it did
+        assertEquals("/new/a", before.get("/old/a"));
+        assertNull(before.get("/old/1"));
+        HashFile after = new HashFile(hashFile);
+        assertEquals(1000, after.size());
+        assertEquals("/new/1", after.get("/old/1"));
+        assertNull(after.get("/old/a"));
+
+        File[] files = hashFile.getAbsoluteFile().getParentFile().listFiles();
+        for (int i = 0; i < files.length; i++) {
+            assertFalse(files[i].getName(), files[i].getName().startsWith(hashFile.getName() + "."));
+        }
+    }
+
+    public void testMap() throws IOException {
+        build("/old/a,/new/a\n");
+        RewriteMap rewriteMap = new RewriteMap();
+        rewriteMap.setName("test");
+        rewriteMap.setType("hash");
+        rewriteMap.setFileStr(hashFile.getAbsolutePath());
+        assertTrue(rewriteMap.initialise(null));
+        assertEquals("/new/a", rewriteMap.get("/old/a"));
+    }
+}
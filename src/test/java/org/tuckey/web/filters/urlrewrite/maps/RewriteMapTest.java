@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.maps;
+
+import junit.framework.TestCase;
+import org.tuckey.web.filters.urlrewrite.Conf;
+import org.tuckey.web.filters.urlrewrite.NormalRule;
+import org.tuckey.web.filters.urlrewrite.RewrittenUrl;
+import org.tuckey.web.filters.urlrewrite.utils.Log;
+import org.tuckey.web.filters.urlrewrite.utils.ModRewriteConfLoader;
+import org.tuckey.web.testhelper.MockRequest;
+import org.tuckey.web.testhelper.MockResponse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+
+import javax.servlet.ServletException;
+
+public class RewriteMapTest extends TestCase {
+
+    private File file;
+
+    public void setUp() throws IOException {
+        Log.setLevel("DEBUG");
+        file = File.createTempFile("urlrewrite-map", ".txt");
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void write(String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(content);
+        writer.close();
+    }
+
+    private RewriteMap load(String type) {
+        return load(type, RewriteMap.DEFAULT_RELOAD_CHECK_INTERVAL);
+    }
+
+    private RewriteMap load(String type, int reloadCheckInterval) {
+        RewriteMap rewriteMap = new RewriteMap();
+        rewriteMap.setName("test");
+        rewriteMap.setType(type);
+        rewriteMap.setReloadCheckInterval(reloadCheckInterval);
+        rewriteMap.setFileStr(file.getAbsolutePath());
+        rewriteMap.initialise(null);
+        return rewriteMap;
+    }
+
+    public void testTxt() throws IOException {
+        write("# products\n\n/old/a   /new/a\n/old/b\t/new/b extra\n/old/a /new/dupe\n/old/c\n");
+        RewriteMap rewriteMap = load(RewriteMap.TYPE_TXT);
+        assertTrue(rewriteMap.isValid());
+        assertEquals(2, rewriteMap.getSize());
+        assertEquals("/new/a", rewriteMap.get("/old/a"));
+        assertEquals("/new/b", rewriteMap.get("/old/b"));
+        assertNull(rewriteMap.get("/old/c"));
+        assertNull(rewriteMap.get("/old/d"));
+    }
+
+    public void testSorted() throws IOException {
+        write("/a 1\r\n/b 2\r\n/b/c 3\r\n/ba 4\r\n/\u00e9 5\r\nz 6");
+        RewriteMap rewriteMap = load(RewriteMap.TYPE_SORTED);
+        assertTrue(rewriteMap.isValid());
+        assertEquals(6, rewriteMap.getSize());
+        assertEquals("1", rewriteMap.get("/a"));
+        assertEquals("2", rewriteMap.get("/b"));
+        assertEquals("3", rewriteMap.get("/b/c"));
+        assertEquals("4", rewriteMap.get("/ba"));
+        assertEquals("5", rewriteMap.get("/\u00e9"));
+        assertEquals("6", rewriteMap.get("z"));
+        assertNull(rewriteMap.get(""));
+        assertNull(rewriteMap.get("/"));
+        assertNull(rewriteMap.get("/b/"));
+        assertNull(rewriteMap.get("zz"));
+    }
+
+    public void testSortedLarge() throws IOException {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 10000; i < 20000; i += 2) {
+            sb.append("/product/").append(i).append(" /p/").append(i).append('\n');
+        }
+        write(sb.toString());
+        RewriteMap rewriteMap = load(RewriteMap.TYPE_SORTED);
+        assertEquals(5000, rewriteMap.getSize());
+        for (int i = 10000; i < 20000; i++) {
+            assertEquals(i % 2 == 0 ? "/p/" + i : null, rewriteMap.get("/product/" + i));
+        }
+    }
+
+    public void testSortedCommentsAndBlankLines() throws IOException {
+        write("# products\n\n/a 1\n# b section\n  /b 2\n\n\n# c\n# section\n/c 3\n\n# end\n");
+        RewriteMap rewriteMap = load(RewriteMap.TYPE_SORTED);
+        assertTrue(rewriteMap.getError(), rewriteMap.isValid());
+        assertEquals(3, rewriteMap.getSize());
+        assertEquals("1", rewriteMap.get("/a"));
+        assertEquals("2", rewriteMap.get("/b"));
+        assertEquals("3", rewriteMap.get("/c"));
+        assertNull(rewriteMap.get("#"));
+        assertNull(rewriteMap.get("# c"));
+        assertNull(rewriteMap.get("/d"));
+        assertNull(rewriteMap.get(""));
+
+        StringBuffer sb = new StringBuffer();
+        for (int i = 1000; i < 2000; i++) {
+            if (i % 3 == 0) sb.append("# comment ").append(i).append('\n');
+            if (i % 5 == 0) sb.append('\n');
+            sb.append("/p/").append(i).append(' ').append(i).append('\n');
+        }
+        write(sb.toString());
+        rewriteMap = load(RewriteMap.TYPE_SORTED);
+        assertTrue(rewriteMap.getError(), rewriteMap.isValid());
+        assertEquals(1000, rewriteMap.getSize());
+        for (int i = 1000; i < 2000; i++) {
+            assertEquals(String.valueOf(i), rewriteMap.get("/p/" + i));
+        }
+        assertNull(rewriteMap.get("/p/999"));
+        assertNull(rewriteMap.get("/p/2000"));
+    }
+
+    public void testSortedNotSorted() throws IOException {
+        write("/b 2\n/a 1\n");
+        RewriteMap rewriteMap = load(RewriteMap.TYPE_SORTED);
+        assertFalse(rewriteMap.isValid());
+        assertNotNull(rewriteMap.getError());
+    }
+
+    public void testMissingFile() {
+        file.delete();
+        RewriteMap rewriteMap = load(RewriteMap.TYPE_TXT);
+        assertFalse(rewriteMap.isValid());
+    }
+
+    public void testReload() throws IOException {
+        write("/a 1\n");
+        RewriteMap rewriteMap = load(RewriteMap.TYPE_SORTED, 0);
+        assertEquals("1", rewriteMap.get("/a"));
+
+        // replace the file rather than writing over it as it is mapped
+        file.delete();
+        write("/a 2\n/b 3\n");
+        file.setLastModified(file.lastModified() + 2000);
+        assertEquals("2", rewriteMap.get("/a"));
+        assertEquals("3", rewriteMap.get("/b"));
+
+        // a bad file leaves the old data in use
+        file.delete();
+        write("/b 3\n/a 2\n");
+        file.setLastModified(file.lastModified() + 4000);
+        assertEquals("2", rewriteMap.get("/a"));
+    }
+
+    public void testRule() throws IOException, ServletException, InvocationTargetException {
+        write("/old/a /new/a\n");
+        Conf conf = new Conf();
+        RewriteMap rewriteMap = new RewriteMap();
+        rewriteMap.setName("redirects");
+        rewriteMap.setFileStr(file.getAbsolutePath());
+        conf.addRewriteMap(rewriteMap);
+        NormalRule rule = new NormalRule();
+        rule.setFrom("^(/old/.*)$");
+        rule.setTo("${map:redirects:$1|/missing}");
+        conf.addRule(rule);
+        conf.initialise();
+        assertTrue(conf.isOk());
+
+        MockRequest request = new MockRequest();
+        RewrittenUrl rewrittenUrl = rule.matches("/old/a", request, new MockResponse());
+        assertEquals("/new/a", rewrittenUrl.getTarget());
+        rewrittenUrl = rule.matches("/old/b", request, new MockResponse());
+        assertEquals("/missing", rewrittenUrl.getTarget());
+    }
+
+    public void testModRewrite() throws IOException, ServletException, InvocationTargetException {
+        write("/old/a /new/a\n");
+        Conf conf = new Conf();
+        new ModRewriteConfLoader().process("RewriteMap redirects txt:" + file.getAbsolutePath() + "\n" +
+                "RewriteRule ^(/old/.*)$ ${redirects:$1|/missing} [L]", conf);
+        conf.initialise();
+        assertTrue(conf.isOk());
+        NormalRule rule = (NormalRule) conf.getRules().get(0);
+        assertEquals("${map:redirects:$1|/missing}", rule.getTo());
+        assertEquals("/new/a", rule.matches("/old/a", new MockRequest(), new MockResponse()).getTarget());
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.filters.urlrewrite.utils;
+
+import junit.framework.TestCase;
+
+public class RegexAnalyserTest extends TestCase {
+
+    public void testSafe() {
+        assertNull(RegexAnalyser.getBacktrackingRisk("^/products/(.*)/(.*)$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^/(foo|bar)*$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^(?:\\d{1,3}\\.){3}\\d{1,3}$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^/([a-z]+)/([0-9]+)$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("(?i)^/a(b|c)+$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^[(]+x$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^\\(a+\\)+$"));
+    }
+
+    public void testNestedQuantifiers() {
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^(a+)+$"));
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^/(\\w+\\s?)*$"));
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^(?:[a-z]*,)*x$"));
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^((ab)*c)+$"));
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^(.*?x){2,}$"));
+        String risk = RegexAnalyser.getBacktrackingRisk("^/a/(b+)*$");
+        assertTrue(risk, risk.indexOf("(b+)*") != -1);
+    }
+
+    public void testOverlappingAlternatives() {
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^(a|ab)*$"));
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^(\\w|\\d)+$"));
+        assertNotNull(RegexAnalyser.getBacktrackingRisk("^(?:x|[xy])+$"));
+    }
+
+    public void testNoBacktracking() {
+        assertNull(RegexAnalyser.getBacktrackingRisk("^(a+)++$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^(?>a+)+$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^(a++)+$"));
+        assertNull(RegexAnalyser.getBacktrackingRisk("^(a+)?$"));
+    }
+
+}
@@ -90,6 +90,165 @@ public class StringMatchingMatcherTest extends TestCase {
 
     }
 
+    public void testLiteralPatternBehavesAsRegex() throws StringMatchingPatternSyntaxException {
+        assertEquals("/a/b.html", LiteralPattern.getLiteral("^/a/b\\.html$"));
+        assertEquals("", LiteralPattern.getLiteral("^$"));
+        assertNull(LiteralPattern.getLiteral("^/a/b.html$"));
+        assertNull(LiteralPattern.getLiteral("^/a/\\d$"));
+        assertNull(LiteralPattern.getLiteral("^/a\\$"));
+        assertNull(LiteralPattern.getLiteral("/a$"));
+
+        String[] subjects = {"/page", "/PAGE", "/page\n", "/page\r\n", "/page\n\n", "/pages", "/pag", "x/page", ""};
+        boolean[] caseSensitive = {true, false};
+        for (int c = 0; c < caseSensitive.length; c++) {
+            RegexPattern regex = new RegexPattern("^/page$", caseSensitive[c]);
+            LiteralPattern literal = new LiteralPattern("/page", caseSensitive[c]);
+            for (int i = 0; i < subjects.length; i++) {
+                StringMatchingMatcher regexMatcher = regex.matcher(subjects[i]);
+                StringMatchingMatcher literalMatcher = literal.matcher(subjects[i]);
+                boolean found = regexMatcher.find();
+                assertEquals(subjects[i], found, literalMatcher.find());
+                if (found) {
+                    assertEquals(regexMatcher.end(), literalMatcher.end());
+                    assertEquals(regexMatcher.group(0), literalMatcher.group(0));
+                }
+                assertEquals(regexMatcher.find(), literalMatcher.find());
+            }
+        }
+        assertEquals("/other/", replaceAll(new LiteralPattern("/page", false).matcher("/Page"), "/Page", "/other/"));
+    }
+
+    public void testLazyPatterns() throws StringMatchingPatternSyntaxException {
+        RegexPattern regex = new RegexPattern("^/a/([0-9]+)$", true, true);
+        assertFalse(regex.isCompiled());
+        StringMatchingMatcher mat = regex.matcher("/a/12");
+        assertTrue(regex.isCompiled());
+        assertTrue(mat.find());
+        assertEquals("12", mat.group(1));
+
+        WildcardPattern wildcard = new WildcardPattern("/a/*", true);
+        assertFalse(wildcard.isCompiled());
+        assertTrue(wildcard.compile());
+        assertTrue(wildcard.isCompiled());
+        assertTrue(wildcard.matcher("/a/b").find());
+    }
+
+    public void testWildcardProgram() {
+        WildcardProgram program = WildcardProgram.compile("/*/a/**.html");
+        assertEquals(2, program.getGroupCount());
+        int[] groups = program.newGroups();
+        assertEquals(2, program.match("/w/a/b/c.html", groups));
+        assertEquals(0, groups[0]);
+        assertEquals(13, groups[1]);
+        assertEquals("w", "/w/a/b/c.html".substring(groups[2], groups[3]));
+        assertEquals("b/c", "/w/a/b/c.html".substring(groups[4], groups[5]));
+        assertEquals(-1, program.match("/w/x/a/b.html", groups));
+        assertTrue(program.matches("/w/a/.html"));
+        assertFalse(program.matches("/w/a/b.htm"));
+
+        // escaped star is a literal
+        assertTrue(WildcardProgram.compile("/a\\*b").matches("/a*b"));
+        assertFalse(WildcardProgram.compile("/a\\*b").matches("/axb"));
+    }
+
+    public void testWildcardHelperMap() {
+        WildcardHelper wh = new WildcardHelper();
+        java.util.Map map = new java.util.HashMap();
+        assertTrue(wh.match(map, "/aa/bb/cc/", wh.compilePattern("/*/*/*/")));
+        assertEquals(4, map.size());
+        assertEquals("/aa/bb/cc/", map.get("0"));
+        assertEquals("aa", map.get("1"));
+        assertEquals("cc", map.get("3"));
+        map.clear();
+        assertFalse(wh.match(map, "/aa/bb/cc/", wh.compilePattern("/*/*/")));
+    }
+
+    public void testWildcardMatcherNoMatch() {
+        StringMatchingMatcher mat = new WildcardPattern("/*/*/").matcher("/a/b/c/");
+        assertFalse(mat.find());
+        assertEquals(0, mat.groupCount());
+        assertEquals("/a/b/c/", mat.group(0));
+        assertNull(mat.group(1));
+    }
+
+    public void testServerNameMatcher() {
+        ServerNameMatcher matcher = new ServerNameMatcher("localhost, *.example.com ,");
+        assertTrue(matcher.isMatch("localhost"));
+        assertTrue(matcher.isMatch(" WWW.Example.com"));
+        assertFalse(matcher.isMatch("example.com"));
+        assertFalse(matcher.isMatch("a.b.example.org"));
+        assertFalse(matcher.isMatch(""));
+    }
+
+    /**
+     * The old WildcardHelper methods and WildcardMatcher constructor still work, using WildcardProgram.
+     */
+    public void testDeprecatedWildcardApi() {
+        WildcardHelper wh = new WildcardHelper();
+        WildcardMatcher matcher = new WildcardMatcher(wh, wh.compilePattern("/a/*/c"), "/a/b/c");
+        assertTrue(matcher.find());
+        assertEquals("b", matcher.group(1));
+
+        int[] r = new int[]{'b', 'c'};
+        char[] d = "abcbc".toCharArray();
+        assertEquals(1, wh.indexOfArray(r, 0, 2, d, 0));
+        assertEquals(3, wh.indexOfArray(r, 0, 2, d, 2));
+        assertEquals(-1, wh.indexOfArray(r, 0, 2, d, 4));
+        assertEquals(3, wh.lastIndexOfArray(r, 0, 2, d, 0));
+        assertEquals(-1, wh.lastIndexOfArray(r, 0, 2, d, 4));
+        assertEquals(5, wh.indexOfArray(r, 0, 0, d, 0));
+        assertTrue(wh.matchArray(r, 0, 2, d, 1));
+        assertFalse(wh.matchArray(r, 0, 2, d, 0));
+        assertFalse(wh.matchArray(r, 0, 2, d, 4));
+        try {
+            wh.indexOfArray(r, 2, 0, d, 0);
+            fail("rend < rpos should throw");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testLazyInvalidPattern() throws StringMatchingPatternSyntaxException {
+        RegexPattern regex = new RegexPattern("^/a/(", false, true);
+        assertFalse(regex.compile());
+        assertTrue(regex.isCompiled());
+        assertFalse(regex.matcher("/a/(").find());
+
+        // an invalid negated expression doesn't match either
+        NegatedRegexPattern negated = new NegatedRegexPattern("^/a/(", false, true);
+        assertFalse(negated.matcher("/b").find());
+
+        try {
+            new RegexPattern("^/a/(", false, false);
+            fail("eager pattern should throw");
+        } catch (StringMatchingPatternSyntaxException e) {
+            // expected
+        }
+    }
+
+    public void testStepBudget() throws StringMatchingPatternSyntaxException {
+        RegexPattern regex = new RegexPattern("^(.*a){8}b$", true);
+        regex.setStepBudget(10000);
+        StringBuffer evil = new StringBuffer();
+        for (int i = 0; i < 40; i++) evil.append('a');
+        try {
+            regex.matcher(evil.toString()).find();
+            fail("budget should have been used up");
+        } catch (RegexBudgetExceededException e) {
+            // expected
+        }
+        // a normal match well within the budget, groups still work
+        StringMatchingMatcher matcher = regex.matcher("xaaaaaaaab");
+        assertTrue(matcher.find());
+        assertEquals("a", matcher.group(1));
+
+        // the budget is for each find
+        RegexPattern each = new RegexPattern("a", true);
+        each.setStepBudget(3);
+        StringMatchingMatcher eachMatcher = each.matcher("aaaaaaaa");
+        for (int i = 0; i < 8; i++) assertTrue(eachMatcher.find());
+    }
+
     /**
      * this was throwing an exception... it shouldn't.
      */
@@ -49,6 +49,7 @@ import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Vector;
 
 /**
  * @author Paul Tuckey
@@ -124,7 +125,9 @@ public class MockRequest implements HttpServletRequest {
     }
 
     public Enumeration getHeaders(String s) {
-        return headers.elements();
+        Vector values = new Vector();
+        if (headers.get(s) != null) values.add(headers.get(s));
+        return values.elements();
     }
 
     public Enumeration getHeaderNames() {
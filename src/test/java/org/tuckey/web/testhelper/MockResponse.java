@@ -98,11 +98,11 @@ public class MockResponse implements HttpServletResponse {
     }
 
     public void sendError(int i, String s) throws IOException {
-
+        status = i;
     }
 
     public void sendError(int i) throws IOException {
-
+        status = i;
     }
 
     public void sendRedirect(String s) throws IOException {
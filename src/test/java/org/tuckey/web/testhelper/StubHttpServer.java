@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2005-2007, Paul Tuckey
+ * All rights reserved.
+ * ====================================================================
+ * Licensed under the BSD License. Text as follows.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   - Neither the name tuckey.org nor the names of its contributors
+ *     may be used to endorse or promote products derived from this
+ *     software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ */
+package org.tuckey.web.testhelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal HTTP/1.0 server on a local port for testing proxying, each connection is handled on its own thread and
+ * closed after one response.
+ *
+ * @author Paul Tuckey
+ * @version $Revision: 1 $ $Date: 2006-08-01 21:40:28 +1200 (Tue, 01 Aug 2006) $
+ */
+public class StubHttpServer {
+
+    public interface Handler {
+        void handle(Request request, Response response) throws Exception;
+    }
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final List requests = new ArrayList();
+    private volatile boolean running = true;
+
+    public StubHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread("StubHttpServer " + getPort()) {
+            public void run() {
+                while (running) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        new Thread() {
+                            public void run() {
+                                handle(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    /**
+     * @return the requests handled so far
+     */
+    public List getRequests() {
+        synchronized (requests) {
+            return new ArrayList(requests);
+        }
+    }
+
+    public int getRequestCount() {
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            String requestLine = readLine(in);
+            if (requestLine == null) return;
+            String[] parts = requestLine.split(" ");
+            Request request = new Request(parts[0], parts[1]);
+            String line;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) request.headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+            synchronized (requests) {
+                requests.add(request);
+            }
+            Response response = new Response();
+            handler.handle(request, response);
+            OutputStream out = socket.getOutputStream();
+            StringBuffer head = new StringBuffer("HTTP/1.0 " + response.status + " Stub\r\n");
+            for (int i = 0; i < response.headers.size(); i++) {
+                String[] header = (String[]) response.headers.get(i);
+                head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+            }
+            byte[] body = response.body.getBytes("UTF-8");
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+            out.write(head.toString().getBytes("ISO-8859-1"));
+            out.write(body);
+            out.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+        return line.toString("ISO-8859-1");
+    }
+
+    public static class Request {
+        private final String method;
+        private final String path;
+        private final Map headers = new HashMap();
+
+        Request(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @param name case insensitive
+         */
+        public String getHeader(String name) {
+            return (String) headers.get(name.toLowerCase());
+        }
+    }
+
+    public static class Response {
+        private int status = 200;
+        private final List headers = new ArrayList();
+        private String body = "";
+
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        public void addHeader(String name, String value) {
+            headers.add(new String[]{name, value});
+        }
+
+        public void setBody(String body) {
+            this.body = body;
+        }
+    }
+
+}